@@ -3,17 +3,32 @@ package com.clarionmedia.infinitum.internal.caching;
 import android.content.Context;
 import android.os.Environment;
 import android.util.Log;
+import com.clarionmedia.infinitum.internal.Preconditions;
 import com.clarionmedia.infinitum.logging.Logger;
 import com.clarionmedia.infinitum.logging.impl.SmartLogger;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -36,17 +51,112 @@ import java.util.concurrent.ConcurrentMap;
  * memory and on disk (if disk caching is enabled).
  * </p>
  * <p>
+ * With {@link #setWriteBehindEnabled(boolean)}, puts and removals return as
+ * soon as the in-memory cache is updated, and disk writes are applied by a
+ * background flusher. Repeated writes to the same key are coalesced. Values are
+ * written as they are at flush time, so they should not be mutated after being
+ * cached. Use {@link #flush()} or {@link #awaitQuiescence()} to wait for
+ * pending writes, e.g. on shutdown.
+ * </p>
+ * <p>
+ * The L2 cache either stores each entry in its own file
+ * ({@link #DISK_LAYOUT_FILES}), stores each entry in its own file within two
+ * levels of hash-named subdirectories ({@link #DISK_LAYOUT_SHARDED}), or
+ * appends all entries to a log of segment files with an in-memory index
+ * ({@link #DISK_LAYOUT_JOURNAL}). The sharded layout keeps directories small
+ * and clears shards in parallel, so it suits large numbers of files. The
+ * journaled layout needs a single sequential write per put and a single
+ * positioned read per hit, and is better suited for large numbers of small
+ * entries. It encodes values through
+ * {@link #writeValueToStream(OutputStream, Object)} and
+ * {@link #readValueFromStream(InputStream)}, which subclasses should override
+ * to avoid going through temporary files.
+ * </p>
+ * <p>
+ * If enabled with {@link #setMappedReadsEnabled(boolean)}, disk hits are
+ * decoded from a read-only memory-mapped view of the cached value through
+ * {@link #readValueFromBuffer(ByteBuffer)}, with either layout. Subclasses
+ * caching large values can override it to decode straight from the page
+ * cache without intermediate copies.
+ * </p>
+ * <p>
  * The default expiration timeout provided to the constructor is the maximum
  * time an {@link Object} will be stored in the cache, both L1 and L2, in
  * seconds. Cache entries can be given their own expiration timeouts using
  * {@link #put(Object, Object, long)}.
  * </p>
+ * <p>
+ * The L1 cache can be bounded by providing a {@link Weigher} and a maximum
+ * weight, typically in bytes. Once the budget is exceeded, the least recently
+ * used entries are evicted from memory while remaining in the L2 cache.
+ * </p>
+ * <p>
+ * With {@link #enableOffHeapCache(long)}, the L1 cache stores values encoded
+ * through {@link #writeValueToStream(OutputStream, Object)} in direct memory
+ * slabs instead of on the Java heap, and decodes them on hits through
+ * {@link #readValueFromBuffer(ByteBuffer)}. This keeps the heap small and
+ * stable for large caches at the cost of encoding and decoding values. Values
+ * held off-heap are not included in the {@link #keySet()}, {@link #values()}
+ * and {@link #entrySet()} views.
+ * </p>
+ * <p>
+ * Caches bounded by a maximum weight can instead keep the heap as the first
+ * tier of the L1 cache and use the off-heap memory as a second tier with
+ * {@link #enableOffHeapCache(long, int)}. With {@link #TIER_MODE_EXCLUSIVE},
+ * entries evicted from the heap are demoted off-heap and off-heap hits are
+ * promoted back to the heap, so each entry is held by one tier only. With
+ * {@link #TIER_MODE_INCLUSIVE}, entries are written to both tiers and
+ * off-heap hits are copied to the heap. Off-heap values can be compressed
+ * with {@link #setOffHeapCompression(CompressionCodec, int)}. The heap tier
+ * evicts entries as decided by the {@link EvictionPolicy} the cache was
+ * created with. {@link CacheBuilder} composes all tiers without subclassing.
+ * </p>
+ * <p>
+ * The L2 cache can be bounded with {@link #setMaxDiskSize(long)}, and all
+ * disk caches together with {@link #setGlobalDiskQuota(long)}. Once a budget
+ * is exceeded, the least recently written or read disk entries are deleted
+ * by a background thread, one at a time, while remaining in memory.
+ * </p>
+ * <p>
+ * With {@link #setCompression(CompressionCodec, int)}, disk cache entries are
+ * compressed, e.g. with {@link DeflateCodec} or the faster {@link Lz4Codec}.
+ * Each compressed entry records its codec, so entries stay readable when the
+ * codec is changed or compression is disabled. Values are then always
+ * encoded through {@link #writeValueToStream(OutputStream, Object)}, and
+ * compressed values are decoded through
+ * {@link #readValueFromStream(InputStream)} or
+ * {@link #readValueFromBuffer(ByteBuffer)}. Use {@link #compressionStats()}
+ * to check whether compression pays off.
+ * </p>
+ * <p>
+ * Caches registered with {@link MemoryPressure} drop part of their L1 cache,
+ * both on and off the heap, when the system runs low on memory. Dropped
+ * entries remain in the L2 cache. With {@link #setSoftValues(boolean)}, heap
+ * values are held through soft references, and values reclaimed by the
+ * garbage collector are read back from the L2 cache on their next access.
+ * </p>
+ * <p>
+ * A {@link RemovalListener} set with
+ * {@link #setRemovalListener(RemovalListener)} is notified asynchronously of
+ * entries removed from the L1 cache on the heap, with their values, and of
+ * entries removed from the L2 cache, with the names of their disk entries.
+ * Each tier reports its own removals, and clearing the L2 cache is not
+ * reported per entry.
+ * </p>
+ * <p>
+ * With {@link #enableWarmRestart(int, long)}, the cache tracks its most
+ * frequently and recently read keys. {@link #saveHotSet()}, typically called
+ * when the application is stopped, persists them to the L2 cache directory,
+ * and the next time the L2 cache is enabled, their entries are read back into
+ * the L1 cache on a background thread, hottest first, within a time budget.
+ * Only {@link java.io.Serializable} keys are persisted.
+ * </p>
  * 
  * @author Tyler Treat
  * @version 1.0 08/15/12
  * @since 1.0
  */
-public abstract class AbstractCache<K, V> implements Map<K, V> {
+public abstract class AbstractCache<K, V> implements Map<K, V>, MemoryPressure.Trimmable {
 
 	/**
 	 * Used to cache data in the application's dedicated cache directory.
@@ -58,12 +168,81 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	 */
 	public static final int DISK_CACHE_SDCARD = 1;
 
+	/**
+	 * Used to store each cache entry in its own file.
+	 */
+	public static final int DISK_LAYOUT_FILES = 0;
+
+	/**
+	 * Used to append cache entries to a compacted log of segment files.
+	 */
+	public static final int DISK_LAYOUT_JOURNAL = 1;
+
+	/**
+	 * Used to store each cache entry in its own file within two levels of
+	 * subdirectories derived from a hash of its file name.
+	 */
+	public static final int DISK_LAYOUT_SHARDED = 2;
+
+	/**
+	 * Used to hold each in-memory entry either on the heap or off-heap,
+	 * demoting entries evicted from the heap and promoting off-heap hits.
+	 */
+	public static final int TIER_MODE_EXCLUSIVE = 0;
+
+	/**
+	 * Used to hold in-memory entries both on the heap and off-heap, copying
+	 * off-heap hits to the heap.
+	 */
+	public static final int TIER_MODE_INCLUSIVE = 1;
+
+	/**
+	 * Used to hold in-memory entries off-heap only, if the off-heap cache was
+	 * enabled without a tier mode.
+	 */
+	private static final int TIER_MODE_OFF_HEAP_ONLY = -1;
+
+	private static final int SANITIZE_BATCH_SIZE = 64;
+
+	/**
+	 * The age in milliseconds after which temporary files in the disk cache
+	 * directory are considered abandoned. Hot sets are saved without holding
+	 * the cache lock, so younger files may still be in use.
+	 */
+	private static final long STALE_TEMP_FILE_AGE = 60 * 1000;
+
+	private static final ExecutorService SANITIZER = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Infinitum-DiskSanitizer");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+
 	protected String mDiskCacheDirectory;
 	private boolean mIsDiskCacheEnabled;
+	private boolean mIsMappedReadsEnabled;
+	private boolean mIsWriteBehindEnabled;
+	private final WriteBehindQueue<V> mWriteBehindQueue = new WriteBehindQueue<V>(new DiskWriter(), this);
+	private final SingleFlight<K, V> mLoads = new SingleFlight<K, V>();
+	private volatile SlabStore<K> mOffHeapStore;
+	private volatile int mTierMode = TIER_MODE_OFF_HEAP_ONLY;
+	private final CompressingCodec<V> mOffHeapCodec = new CompressingCodec<V>(new Codec());
+	private final StatsCounter mStatsCounter = new StatsCounter();
+	private final DiskQuota mDiskQuota = new DiskQuota(new DiskEvictor());
+	private final CompressingCodec<V> mCodec = new CompressingCodec<V>(new Codec());
+	private final RemovalDispatcher<K, V> mRemovals = new RemovalDispatcher<K, V>();
+	private volatile HotSet<K> mHotSet;
+	private long mPreloadBudget;
+	private int mDiskLayout;
+	private DiskStore<V> mDiskStore;
 	private ExpirableCache<K, V> mCache;
 	private String mName;
 	private long mDefaultExpirationTimeout;
-	private ConcurrentMap<String, Long> mDiskTimeoutCache;
+	private ExpirationIndex mExpirationIndex;
 	private Logger mLogger;
 
 	/**
@@ -89,8 +268,7 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	public AbstractCache(String name, long defaultExpiration) {
 		mName = name;
 		mDefaultExpirationTimeout = defaultExpiration;
-		mCache = new ExpirableCache<K, V>(mDefaultExpirationTimeout);
-		mDiskTimeoutCache = new ConcurrentHashMap<String, Long>();
+		mCache = new HeapTier(mDefaultExpirationTimeout, 16, null, 0, null);
 		mLogger = new SmartLogger(getClass().getSimpleName());
 	}
 
@@ -108,8 +286,54 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	public AbstractCache(String name, int initialCapacity, long defaultExpiration) {
 		mName = name;
 		mDefaultExpirationTimeout = defaultExpiration;
-		mCache = new ExpirableCache<K, V>(mDefaultExpirationTimeout, initialCapacity);
-		mDiskTimeoutCache = new ConcurrentHashMap<String, Long>(initialCapacity);
+		mCache = new HeapTier(mDefaultExpirationTimeout, initialCapacity, null, 0, null);
+		mLogger = new SmartLogger(getClass().getSimpleName());
+	}
+
+	/**
+	 * Creates a new cache instance with a size-bounded in-memory cache.
+	 * 
+	 * @param name
+	 *            the cache identifier used to derive a directory name if the
+	 *            disk cache is enabled
+	 * @param defaultExpiration
+	 *            the default expiration timeout in seconds
+	 * @param weigher
+	 *            the {@link Weigher} computing the in-memory size of entries,
+	 *            typically in bytes
+	 * @param maxWeight
+	 *            the maximum total weight of the in-memory cache
+	 */
+	public AbstractCache(String name, long defaultExpiration, Weigher<? super K, ? super V> weigher, long maxWeight) {
+		this(name, defaultExpiration, weigher, maxWeight, new LruEvictionPolicy<K>());
+	}
+
+	/**
+	 * Creates a new cache instance with a size-bounded in-memory cache which
+	 * evicts entries as decided by the given {@link EvictionPolicy}.
+	 * 
+	 * @param name
+	 *            the cache identifier used to derive a directory name if the
+	 *            disk cache is enabled
+	 * @param defaultExpiration
+	 *            the default expiration timeout in seconds
+	 * @param weigher
+	 *            the {@link Weigher} computing the in-memory size of entries,
+	 *            typically in bytes
+	 * @param maxWeight
+	 *            the maximum total weight of the in-memory cache
+	 * @param policy
+	 *            the {@link EvictionPolicy} deciding which entries to evict
+	 *            from memory, which must not be shared with other caches
+	 */
+	public AbstractCache(String name, long defaultExpiration, Weigher<? super K, ? super V> weigher, long maxWeight,
+			EvictionPolicy<K> policy) {
+		Preconditions.checkNotNull(weigher);
+		Preconditions.checkNotNull(policy);
+		mName = name;
+		mDefaultExpirationTimeout = defaultExpiration;
+		mCache = new HeapTier(mDefaultExpirationTimeout, 16, weigher, maxWeight, policy);
+		mLogger = new SmartLogger(getClass().getSimpleName());
 	}
 
 	/**
@@ -123,6 +347,26 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	 * @return
 	 */
 	public boolean enableDiskCache(Context context, int storageDevice) {
+		return enableDiskCache(context, storageDevice, mDiskLayout);
+	}
+
+	/**
+	 * Enable caching to the phone's internal storage or SD card using the
+	 * given disk layout.
+	 * 
+	 * @param context
+	 *            the current context
+	 * @param storageDevice
+	 *            where to store the cached files, either
+	 *            {@link #DISK_CACHE_INTERNAL} or {@link #DISK_CACHE_SDCARD})
+	 * @param diskLayout
+	 *            how to store the cached files, either
+	 *            {@link #DISK_LAYOUT_FILES}, {@link #DISK_LAYOUT_SHARDED} or
+	 *            {@link #DISK_LAYOUT_JOURNAL}
+	 * @return true if the disk cache was enabled, false otherwise
+	 */
+	public synchronized boolean enableDiskCache(Context context, int storageDevice, int diskLayout) {
+		mDiskLayout = diskLayout;
 		Context appContext = context.getApplicationContext();
 
 		String rootDir = null;
@@ -151,13 +395,12 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 			}
 		}
 
-		mIsDiskCacheEnabled = outFile.exists();
+		mIsDiskCacheEnabled = outFile.exists() && openDiskStore();
 
 		if (!mIsDiskCacheEnabled) {
 			Log.w(getClass().getName(), "Failed creating disk cache directory " + mDiskCacheDirectory);
 		} else {
 			Log.d(getClass().getName(), "Enabled write-through to " + mDiskCacheDirectory);
-			sanitizeDiskCache();
 		}
 
 		return mIsDiskCacheEnabled;
@@ -167,6 +410,56 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 		this.mDiskCacheDirectory = rootDir + "/infinitum/" + mName.replaceAll("\\s", "");
 	}
 
+	/**
+	 * Opens the {@link DiskStore} and {@link ExpirationIndex} for the current
+	 * disk cache directory and layout, closing any previously opened ones. The
+	 * {@link DiskQuota} is loaded and the disk cache sanitized in the
+	 * background.
+	 */
+	private boolean openDiskStore() {
+		mWriteBehindQueue.flush();
+		mDiskQuota.close();
+		if (mDiskStore != null)
+			mDiskStore.close();
+		if (mExpirationIndex != null)
+			mExpirationIndex.close();
+		mDiskStore = null;
+		mExpirationIndex = null;
+		File directory = new File(mDiskCacheDirectory);
+		directory.mkdirs();
+		try {
+			mExpirationIndex = new ExpirationIndex(directory);
+		} catch (IOException e) {
+			Log.e(getClass().getName(), "Failed opening disk cache expiration index in " + mDiskCacheDirectory, e);
+			return false;
+		}
+		if (mDiskLayout == DISK_LAYOUT_JOURNAL) {
+			try {
+				mDiskStore = new JournaledDiskStore<V>(directory, mCodec);
+			} catch (IOException e) {
+				Log.e(getClass().getName(), "Failed opening disk cache journal in " + mDiskCacheDirectory, e);
+				return false;
+			}
+		} else if (mDiskLayout == DISK_LAYOUT_SHARDED) {
+			mDiskStore = new ShardedDiskStore<V>(directory, mCodec);
+		} else {
+			mDiskStore = new FileDiskStore<V>(directory, mCodec);
+		}
+		mDiskQuota.open(mDiskStore);
+		scheduleDiskMaintenance(mDiskStore);
+		return true;
+	}
+
+	/**
+	 * Returns the disk layout in use, either {@link #DISK_LAYOUT_FILES},
+	 * {@link #DISK_LAYOUT_SHARDED} or {@link #DISK_LAYOUT_JOURNAL}.
+	 * 
+	 * @return the disk layout
+	 */
+	public int getDiskLayout() {
+		return mDiskLayout;
+	}
+
 	/**
 	 * Only meaningful if disk caching is enabled. See {@link #enableDiskCache}.
 	 * 
@@ -180,13 +473,17 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	/**
 	 * Only meaningful if disk caching is enabled. See {@link #enableDiskCache}.
 	 * Turns a cache key into the file name that will be used to persist the
-	 * value to disk. Subclasses must implement this.
+	 * value to disk. The default implementation returns the 128-bit MurmurHash3
+	 * of the key's {@link Object#toString()} as 32 hex digits. Subclasses must
+	 * override this if the string representation does not identify keys.
 	 * 
 	 * @param key
 	 *            the cache key
 	 * @return the file name
 	 */
-	public abstract String getFileNameForKey(K key);
+	public String getFileNameForKey(K key) {
+		return Murmur3.hashHex(key.toString());
+	}
 
 	/**
 	 * Only meaningful if disk caching is enabled. See {@link #enableDiskCache}.
@@ -212,29 +509,108 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	protected abstract void writeValueToDisk(File file, V value) throws IOException;
 
 	/**
-	 * Caches the given value to disk and returns the absolute path to the cache
-	 * file.
+	 * Only meaningful if disk caching is enabled with
+	 * {@link #DISK_LAYOUT_JOURNAL}. Restores a value previously persisted to
+	 * the disk cache from the given stream. The default implementation copies
+	 * the stream to a temporary file and delegates to
+	 * {@link #readValueFromDisk(File)}. Subclasses should override this to
+	 * decode the stream directly.
+	 * 
+	 * @param in
+	 *            the stream holding the cached value
+	 * @return the cached value
+	 * @throws IOException
 	 */
-	private String cacheToDisk(K key, V value) {
-		File file = new File(mDiskCacheDirectory + "/" + getFileNameForKey(key));
+	protected V readValueFromStream(InputStream in) throws IOException {
+		File file = File.createTempFile(DiskStore.TEMP_FILE_PREFIX, null, getTempDirectory());
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				copy(in, out);
+			} finally {
+				out.close();
+			}
+			return readValueFromDisk(file);
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Only meaningful if disk caching is enabled with
+	 * {@link #DISK_LAYOUT_JOURNAL}. Persists a value to the disk cache by
+	 * writing it to the given stream. The default implementation delegates to
+	 * {@link #writeValueToDisk(File, Object)} using a temporary file and copies
+	 * it to the stream. Subclasses should override this to encode the value
+	 * directly.
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param value
+	 *            the {@link Object} to cache
+	 * @throws IOException
+	 */
+	protected void writeValueToStream(OutputStream out, V value) throws IOException {
+		File file = File.createTempFile(DiskStore.TEMP_FILE_PREFIX, null, getTempDirectory());
 		try {
-			file.createNewFile();
-			file.deleteOnExit();
 			writeValueToDisk(file, value);
-			return file.getAbsolutePath();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			return null;
+			InputStream in = new BufferedInputStream(new FileInputStream(file));
+			try {
+				copy(in, out);
+			} finally {
+				in.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Only meaningful if disk caching and mapped reads are enabled. See
+	 * {@link #setMappedReadsEnabled(boolean)}. Restores a value previously
+	 * persisted to the disk cache from a read-only, memory-mapped view of its
+	 * encoded bytes. The view stays valid after the entry is replaced or
+	 * removed, so the returned value may be backed by it. The default
+	 * implementation delegates to {@link #readValueFromStream(InputStream)}.
+	 * 
+	 * @param buffer
+	 *            the mapped value, positioned at its first byte
+	 * @return the cached value
+	 * @throws IOException
+	 */
+	protected V readValueFromBuffer(ByteBuffer buffer) throws IOException {
+		return readValueFromStream(new BufferInputStream(buffer));
+	}
+
+	/**
+	 * Returns the directory for temporary files, which is the disk cache
+	 * directory if it is set or the system's default otherwise.
+	 */
+	private File getTempDirectory() {
+		return mDiskCacheDirectory == null ? null : new File(mDiskCacheDirectory);
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1)
+			out.write(buffer, 0, read);
+	}
+
+	/**
+	 * Caches the given value to disk and returns the name of the cache entry.
+	 */
+	private String cacheToDisk(K key, V value) {
+		String name = getFileNameForKey(key);
+		try {
+			mDiskStore.write(name, value);
+			return name;
 		} catch (IOException e) {
 			e.printStackTrace();
 			return null;
 		}
 	}
 
-	private File getFileForKey(K key) {
-		return new File(mDiskCacheDirectory + "/" + getFileNameForKey(key));
-	}
-
 	/**
 	 * Reads a value from the cache by probing the in-memory cache, and if
 	 * enabled and the in-memory probe was a miss, the disk cache.
@@ -246,24 +622,56 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	@SuppressWarnings("unchecked")
 	@Override
 	public synchronized V get(Object elementKey) {
-		K key = (K) elementKey;
+		long start = System.nanoTime();
+		V value = read((K) elementKey);
+		if (value == null)
+			mStatsCounter.recordMiss();
+		else
+			recordHotAccess((K) elementKey);
+		mStatsCounter.recordRead(System.nanoTime() - start);
+		return value;
+	}
+
+	/**
+	 * Reads a value from the in-memory and disk caches, recording hits but not
+	 * misses.
+	 */
+	private V read(K key) {
 		V value = mCache.get(key);
 		if (value != null) {
 			// memory hit
 			mLogger.debug("MEM cache hit for " + key.toString());
+			mStatsCounter.recordMemoryHit();
+			return value;
+		}
+		value = getOffHeap(key);
+		if (value != null) {
+			mLogger.debug("OFF-HEAP cache hit for " + key.toString());
+			mStatsCounter.recordMemoryHit();
 			return value;
 		}
 
 		// memory miss, try reading from disk
-		File file = getFileForKey(key);
-		if (file.exists()) {
-			if (checkAndRemoveFile(file))
+		String name = mIsDiskCacheEnabled ? getFileNameForKey(key) : null;
+		WriteBehindQueue.Entry<V> pending = name != null ? mWriteBehindQueue.get(name) : null;
+		if (pending != null) {
+			// the latest write or removal has not been flushed yet
+			if (pending.mValue == null)
+				return null;
+			mLogger.debug("DISK cache hit for " + key.toString() + " (pending write)");
+			mStatsCounter.recordDiskHit();
+			putInMemory(key, pending.mValue, remainingSeconds(pending.mDeadline));
+			return pending.mValue;
+		}
+		if (name != null && mayBeOnDisk(name)) {
+			if (checkAndRemoveFile(key, name))
 				return null;
 
 			// disk hit
 			mLogger.debug("DISK cache hit for " + key.toString());
+			mDiskQuota.recordAccess(name);
 			try {
-				value = readValueFromDisk(file);
+				value = mIsMappedReadsEnabled ? mDiskStore.readMapped(name) : mDiskStore.read(name);
 			} catch (IOException e) {
 				// treat decoding errors as a cache miss
 				e.printStackTrace();
@@ -272,7 +680,9 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 			if (value == null) {
 				return null;
 			}
-			mCache.put(key, value, mDiskTimeoutCache.get(file.getAbsolutePath()));
+			mStatsCounter.recordDiskHit();
+			// keep the remaining lifetime of the disk entry in memory
+			putInMemory(key, value, remainingSeconds(mExpirationIndex.get(name)));
 			return value;
 		}
 
@@ -280,6 +690,52 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 		return null;
 	}
 
+	/**
+	 * Reads a value from the cache like {@link #get(Object)}, loading it with
+	 * the given {@link CacheLoader} and caching it on a miss. Concurrent misses
+	 * on the same key are coalesced into a single load, which runs without
+	 * holding the cache lock. Values which fail to load are not cached, and the
+	 * failure is propagated to every waiting caller.
+	 * 
+	 * @param key
+	 *            the cache key
+	 * @param loader
+	 *            the {@link CacheLoader} computing the value on a miss
+	 * @return the cached or loaded value, or null if the loader returned null
+	 */
+	public V get(final K key, final CacheLoader<? super K, ? extends V> loader) {
+		Preconditions.checkNotNull(loader);
+		V value = get(key);
+		if (value != null)
+			return value;
+		return mLoads.execute(key, new Callable<V>() {
+			@Override
+			public V call() throws Exception {
+				// a previous load may have completed since the miss
+				synchronized (AbstractCache.this) {
+					V value = read(key);
+					if (value != null)
+						return value;
+				}
+				long start = System.nanoTime();
+				V value;
+				try {
+					value = loader.load(key);
+				} catch (Exception e) {
+					mStatsCounter.recordLoadFailure(System.nanoTime() - start);
+					throw e;
+				}
+				if (value == null) {
+					mStatsCounter.recordLoadFailure(System.nanoTime() - start);
+					return null;
+				}
+				mStatsCounter.recordLoadSuccess(System.nanoTime() - start);
+				put(key, value);
+				return value;
+			}
+		});
+	}
+
 	/**
 	 * Writes the given value to the cache. If disk caching is enabled, this
 	 * will write through to the L2 cache.
@@ -293,12 +749,7 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	 */
 	@Override
 	public synchronized V put(K key, V value) {
-		if (mIsDiskCacheEnabled) {
-			String path = cacheToDisk(key, value);
-			if (path != null)
-				mDiskTimeoutCache.put(path, mDefaultExpirationTimeout);
-		}
-		return mCache.put(key, value);
+		return put(key, value, mDefaultExpirationTimeout);
 	}
 
 	/**
@@ -315,17 +766,254 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	 *         there is none
 	 */
 	public synchronized V put(K key, V value, long expirationTimeout) {
-		if (mIsDiskCacheEnabled) {
-			String path = cacheToDisk(key, value);
-			if (path != null)
-				mDiskTimeoutCache.put(path, expirationTimeout);
+		long start = System.nanoTime();
+		if (mIsDiskCacheEnabled)
+			writeToDisk(key, value, expirationTimeout);
+		V previous = putInMemory(key, value, expirationTimeout);
+		mStatsCounter.recordWrite(System.nanoTime() - start);
+		return previous;
+	}
+
+	/**
+	 * Writes the given value to the L1 cache. Unless tiers are exclusive, the
+	 * value is stored off-heap if enabled and the value can be encoded and
+	 * stored there. Returns the previous value if it was held on the heap.
+	 */
+	private V putInMemory(K key, V value, long expirationTimeout) {
+		SlabStore<K> offHeapStore = mOffHeapStore;
+		if (offHeapStore != null) {
+			long deadline = System.currentTimeMillis() + expirationTimeout * 1000;
+			if (mTierMode != TIER_MODE_EXCLUSIVE && putOffHeap(offHeapStore, key, value, deadline)) {
+				if (mTierMode == TIER_MODE_OFF_HEAP_ONLY)
+					return mCache.remove(key);
+			} else {
+				offHeapStore.remove(key);
+			}
 		}
 		return mCache.put(key, value, expirationTimeout);
 	}
 
+	/**
+	 * Stores the given value off-heap and indicates if it was stored.
+	 */
+	private boolean putOffHeap(SlabStore<K> offHeapStore, K key, V value, long deadline) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			mOffHeapCodec.writeStream(out, value);
+			return offHeapStore.put(key, out.toByteArray(), deadline);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the given key from the off-heap L1 cache, if enabled. If the heap
+	 * is a tier of its own, hits are promoted to it.
+	 */
+	private V getOffHeap(K key) {
+		SlabStore<K> offHeapStore = mOffHeapStore;
+		if (offHeapStore == null)
+			return null;
+		byte[] bytes = offHeapStore.get(key, System.currentTimeMillis());
+		if (bytes == null)
+			return null;
+		V value;
+		try {
+			value = mOffHeapCodec.readBuffer(ByteBuffer.wrap(bytes));
+		} catch (IOException e) {
+			// treat decoding errors as a cache miss
+			e.printStackTrace();
+			offHeapStore.remove(key);
+			return null;
+		}
+		if (value == null || mTierMode == TIER_MODE_OFF_HEAP_ONLY)
+			return value;
+		// keep the remaining lifetime of the off-heap entry on the heap
+		long deadline = offHeapStore.getDeadline(key);
+		if (mTierMode == TIER_MODE_EXCLUSIVE)
+			offHeapStore.remove(key);
+		mCache.put(key, value, remainingSeconds(deadline));
+		return value;
+	}
+
+	/**
+	 * Writes the given value to the disk cache, or enqueues the write if
+	 * write-behind is enabled.
+	 */
+	private void writeToDisk(K key, V value, long expirationTimeout) {
+		long deadline = System.currentTimeMillis() + expirationTimeout * 1000;
+		if (mIsWriteBehindEnabled) {
+			mWriteBehindQueue.enqueueWrite(getFileNameForKey(key), value, deadline);
+			return;
+		}
+		String name = cacheToDisk(key, value);
+		if (name != null)
+			recordDiskWrite(name, deadline);
+	}
+
+	/**
+	 * Records the deadline and size of a disk cache entry which was written.
+	 */
+	private void recordDiskWrite(String name, long deadline) {
+		mExpirationIndex.put(name, deadline);
+		mDiskQuota.recordWrite(name, mDiskStore.length(name));
+	}
+
+	/**
+	 * Deletes the disk cache entry with the given name and its bookkeeping.
+	 */
+	private void deleteFromDisk(String name) {
+		mDiskStore.delete(name);
+		mExpirationIndex.remove(name);
+		mDiskQuota.recordRemoval(name);
+	}
+
+	/**
+	 * Returns the number of seconds until the given deadline, rounded up and
+	 * at least 1 since the in-memory cache does not accept shorter timeouts.
+	 */
+	private static long remainingSeconds(long deadline) {
+		long remaining = deadline - System.currentTimeMillis();
+		return Math.max(1, (remaining + 999) / 1000);
+	}
+
+	/**
+	 * Writes all entries of the given {@link Map} to the cache using the
+	 * default expiration timeout. If disk caching is enabled, the entries are
+	 * written through to the L2 cache as a single batch.
+	 * 
+	 * @param t
+	 *            the entries to cache
+	 */
 	@Override
 	public synchronized void putAll(Map<? extends K, ? extends V> t) {
-		throw new UnsupportedOperationException();
+		putAll(t, mDefaultExpirationTimeout);
+	}
+
+	/**
+	 * Writes all entries of the given {@link Map} to the cache using the given
+	 * expiration timeout. If disk caching is enabled, the entries are written
+	 * through to the L2 cache as a single batch.
+	 * 
+	 * @param t
+	 *            the entries to cache
+	 * @param expirationTimeout
+	 *            the expiration timeout for the cache entries in seconds
+	 */
+	public synchronized void putAll(Map<? extends K, ? extends V> t, long expirationTimeout) {
+		long start = System.nanoTime();
+		if (mIsDiskCacheEnabled) {
+			long deadline = System.currentTimeMillis() + expirationTimeout * 1000;
+			Map<String, V> entries = new LinkedHashMap<String, V>();
+			for (Map.Entry<? extends K, ? extends V> entry : t.entrySet())
+				entries.put(getFileNameForKey(entry.getKey()), entry.getValue());
+			if (mIsWriteBehindEnabled) {
+				for (Map.Entry<String, V> entry : entries.entrySet())
+					mWriteBehindQueue.enqueueWrite(entry.getKey(), entry.getValue(), deadline);
+			} else {
+				try {
+					mDiskStore.writeAll(entries);
+					for (String name : entries.keySet())
+						recordDiskWrite(name, deadline);
+				} catch (IOException e) {
+					// entries without an index record are treated as missing
+					// until the sanitizer removes them
+					e.printStackTrace();
+				}
+			}
+		}
+		if (mOffHeapStore == null) {
+			mCache.putAll(t, expirationTimeout);
+		} else {
+			for (Map.Entry<? extends K, ? extends V> entry : t.entrySet())
+				putInMemory(entry.getKey(), entry.getValue(), expirationTimeout);
+		}
+		mStatsCounter.recordWrite(System.nanoTime() - start);
+	}
+
+	/**
+	 * Reads the values of the given keys from the cache. Keys missing in the
+	 * in-memory cache are looked up in the disk cache with a single batched
+	 * read, if enabled.
+	 * 
+	 * @param keys
+	 *            the cache keys
+	 * @return the cached values by key, omitting keys which are not cached
+	 */
+	public synchronized Map<K, V> getAll(Collection<? extends K> keys) {
+		long start = System.nanoTime();
+		Map<K, V> values = new LinkedHashMap<K, V>();
+		readAll(keys, values);
+		for (int i = values.size(); i < keys.size(); i++)
+			mStatsCounter.recordMiss();
+		for (K key : values.keySet())
+			recordHotAccess(key);
+		mStatsCounter.recordRead(System.nanoTime() - start);
+		return values;
+	}
+
+	/**
+	 * Reads the values of the given keys from the in-memory and disk caches
+	 * into the given {@link Map}, recording hits but not misses.
+	 */
+	private void readAll(Collection<? extends K> keys, Map<K, V> values) {
+		Map<String, K> misses = new LinkedHashMap<String, K>();
+		for (K key : keys) {
+			V value = mCache.get(key);
+			if (value == null)
+				value = getOffHeap(key);
+			if (value != null) {
+				mStatsCounter.recordMemoryHit();
+				values.put(key, value);
+			} else if (mIsDiskCacheEnabled)
+				misses.put(getFileNameForKey(key), key);
+		}
+		if (misses.isEmpty())
+			return;
+
+		List<String> names = new ArrayList<String>(misses.size());
+		for (Map.Entry<String, K> miss : misses.entrySet()) {
+			String name = miss.getKey();
+			WriteBehindQueue.Entry<V> pending = mWriteBehindQueue.get(name);
+			if (pending != null) {
+				if (pending.mValue != null) {
+					mStatsCounter.recordDiskHit();
+					putInMemory(miss.getValue(), pending.mValue, remainingSeconds(pending.mDeadline));
+					values.put(miss.getValue(), pending.mValue);
+				}
+			} else if (mayBeOnDisk(name) && !checkAndRemoveFile(miss.getValue(), name)) {
+				names.add(name);
+			}
+		}
+		if (names.isEmpty())
+			return;
+
+		Map<String, V> loaded;
+		try {
+			if (mIsMappedReadsEnabled) {
+				loaded = new LinkedHashMap<String, V>();
+				for (String name : names) {
+					V value = mDiskStore.readMapped(name);
+					if (value != null)
+						loaded.put(name, value);
+				}
+			} else {
+				loaded = mDiskStore.readAll(names);
+			}
+		} catch (IOException e) {
+			// treat decoding errors as cache misses
+			e.printStackTrace();
+			return;
+		}
+		mLogger.debug(loaded.size() + " DISK cache hits for " + names.size() + " keys");
+		for (Map.Entry<String, V> entry : loaded.entrySet()) {
+			K key = misses.get(entry.getKey());
+			mStatsCounter.recordDiskHit();
+			mDiskQuota.recordAccess(entry.getKey());
+			putInMemory(key, entry.getValue(), remainingSeconds(mExpirationIndex.get(entry.getKey())));
+			values.put(key, entry.getValue());
+		}
 	}
 
 	/**
@@ -339,7 +1027,15 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	@SuppressWarnings("unchecked")
 	@Override
 	public synchronized boolean containsKey(Object key) {
-		return mCache.containsKey(key) || (mIsDiskCacheEnabled && getFileForKey((K) key).exists());
+		if (containsKeyInMemory(key))
+			return true;
+		if (!mIsDiskCacheEnabled)
+			return false;
+		String name = getFileNameForKey((K) key);
+		WriteBehindQueue.Entry<V> pending = mWriteBehindQueue.get(name);
+		if (pending != null)
+			return pending.mValue != null;
+		return mayBeOnDisk(name);
 	}
 
 	/**
@@ -350,8 +1046,11 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	 *            the cache key
 	 * @return true if the value is currently hold in memory, false otherwise
 	 */
+	@SuppressWarnings("unchecked")
 	public synchronized boolean containsKeyInMemory(Object key) {
-		return mCache.containsKey(key);
+		SlabStore<K> offHeapStore = mOffHeapStore;
+		return mCache.containsKey(key)
+				|| (offHeapStore != null && offHeapStore.contains((K) key, System.currentTimeMillis()));
 	}
 
 	/**
@@ -368,38 +1067,325 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 		V value = removeKey(key);
 
 		if (mIsDiskCacheEnabled) {
-			File cachedValue = getFileForKey((K) key);
-			if (cachedValue.exists()) {
-				cachedValue.delete();
-			}
+			String name = getFileNameForKey((K) key);
+			if (mExpirationIndex.get(name) != null)
+				mRemovals.enqueue((K) key, null, name, RemovalCause.EXPLICIT);
+			if (mIsWriteBehindEnabled)
+				mWriteBehindQueue.enqueueDelete(name);
+			else
+				deleteFromDisk(name);
 		}
 
 		return value;
 	}
 
-	// Forced key expiration
-	public V removeKey(Object key) {
-		return mCache.remove(key);
-	}
-
-	@Override
-	public Set<K> keySet() {
-		return mCache.keySet();
-	}
-
+	/**
+	 * Removes the values of the given keys from the cache. If disk caching is
+	 * enabled, the entries are deleted from the L2 cache as a single batch.
+	 * 
+	 * @param keys
+	 *            the cache keys
+	 */
+	public synchronized void removeAll(Collection<? extends K> keys) {
+		List<String> names = new ArrayList<String>(keys.size());
+		for (K key : keys) {
+			removeKey(key);
+			if (mIsDiskCacheEnabled) {
+				String name = getFileNameForKey(key);
+				if (mExpirationIndex.get(name) != null)
+					mRemovals.enqueue(key, null, name, RemovalCause.EXPLICIT);
+				names.add(name);
+			}
+		}
+		if (names.isEmpty())
+			return;
+		if (mIsWriteBehindEnabled) {
+			for (String name : names)
+				mWriteBehindQueue.enqueueDelete(name);
+		} else {
+			mDiskStore.deleteAll(names);
+			for (String name : names) {
+				mExpirationIndex.remove(name);
+				mDiskQuota.recordRemoval(name);
+			}
+		}
+	}
+
+	// Forced key expiration, returns the removed value if it was held on the heap
+	public V removeKey(Object key) {
+		HotSet<K> hotSet = mHotSet;
+		if (hotSet != null)
+			hotSet.remove(key);
+		SlabStore<K> offHeapStore = mOffHeapStore;
+		if (offHeapStore != null)
+			offHeapStore.remove(key);
+		return mCache.remove(key);
+	}
+
+	@Override
+	public Set<K> keySet() {
+		return mCache.keySet();
+	}
+
 	@Override
 	public Set<Map.Entry<K, V>> entrySet() {
 		return mCache.entrySet();
 	}
 
+	/**
+	 * Returns the number of entries held in memory, on the heap or off-heap.
+	 * Entries held in both tiers are counted once.
+	 */
 	@Override
 	public synchronized int size() {
-		return mCache.size();
+		SlabStore<K> offHeapStore = mOffHeapStore;
+		if (offHeapStore == null)
+			return mCache.size();
+		if (mTierMode != TIER_MODE_INCLUSIVE)
+			return mCache.size() + offHeapStore.size();
+		int size = offHeapStore.size();
+		long now = System.currentTimeMillis();
+		for (K key : mCache.keySet()) {
+			if (!offHeapStore.contains(key, now))
+				size++;
+		}
+		return size;
 	}
 
 	@Override
 	public synchronized boolean isEmpty() {
-		return mCache.isEmpty();
+		return size() == 0;
+	}
+
+	/**
+	 * Returns a snapshot of the cache's {@link CacheStats}. Memory hits include
+	 * values held off-heap, and removals include those of both the in-memory
+	 * and the disk cache. Read and write latencies cover all tiers.
+	 * 
+	 * @return the cache statistics
+	 */
+	public CacheStats stats() {
+		return mStatsCounter.snapshot(mCache.stats());
+	}
+
+	/**
+	 * Moves the L1 cache off the Java heap into direct memory slabs holding at
+	 * most the given number of bytes. Values are stored encoded and decoded on
+	 * every hit, so subclasses should override
+	 * {@link #writeValueToStream(OutputStream, Object)} and
+	 * {@link #readValueFromBuffer(ByteBuffer)}. Values which cannot be stored
+	 * off-heap, e.g. because they are larger than 1MB, are kept on the heap.
+	 * Entries already held on the heap stay there until they are replaced or
+	 * expire.
+	 * 
+	 * @param maxBytes
+	 *            the off-heap memory budget in bytes
+	 */
+	public synchronized void enableOffHeapCache(long maxBytes) {
+		if (mOffHeapStore != null)
+			mOffHeapStore.clear();
+		mTierMode = TIER_MODE_OFF_HEAP_ONLY;
+		mOffHeapStore = new SlabStore<K>(maxBytes);
+	}
+
+	/**
+	 * Adds a second tier to the L1 cache in direct memory slabs holding at most
+	 * the given number of bytes, while the heap remains the first tier. Values
+	 * are stored off-heap encoded, like with {@link #enableOffHeapCache(long)}.
+	 * Requires the cache to be bounded by a maximum weight, which is the size
+	 * of the heap tier.
+	 * 
+	 * @param maxBytes
+	 *            the off-heap memory budget in bytes
+	 * @param tierMode
+	 *            how entries are shared between the tiers, either
+	 *            {@link #TIER_MODE_EXCLUSIVE} or {@link #TIER_MODE_INCLUSIVE}
+	 */
+	public synchronized void enableOffHeapCache(long maxBytes, int tierMode) {
+		if (tierMode != TIER_MODE_EXCLUSIVE && tierMode != TIER_MODE_INCLUSIVE)
+			throw new IllegalArgumentException("Unknown tier mode " + tierMode + ".");
+		if (!mCache.isWeighted())
+			throw new IllegalStateException("Off-heap tiers require a cache bounded by a maximum weight.");
+		if (mOffHeapStore != null)
+			mOffHeapStore.clear();
+		mTierMode = tierMode;
+		mOffHeapStore = new SlabStore<K>(maxBytes);
+	}
+
+	/**
+	 * Returns how entries are shared between the heap and the off-heap tier,
+	 * either {@link #TIER_MODE_EXCLUSIVE} or {@link #TIER_MODE_INCLUSIVE}, or
+	 * -1 if values are held off-heap only or the off-heap cache is not
+	 * enabled.
+	 * 
+	 * @return the tier mode
+	 */
+	public int getTierMode() {
+		return mOffHeapStore == null ? TIER_MODE_OFF_HEAP_ONLY : mTierMode;
+	}
+
+	/**
+	 * Enables compression of values held off-heap with the given
+	 * {@link CompressionCodec}, trading CPU time on every off-heap hit for a
+	 * larger number of entries within the off-heap budget. Values encoded to
+	 * fewer than {@code minSize} bytes, or which do not shrink, are stored
+	 * uncompressed.
+	 * 
+	 * @param codec
+	 *            the {@link CompressionCodec} or {@code null} to disable
+	 *            compression
+	 * @param minSize
+	 *            the encoded size in bytes below which values are not
+	 *            compressed
+	 */
+	public void setOffHeapCompression(CompressionCodec codec, int minSize) {
+		mOffHeapCodec.setCompression(codec, minSize);
+	}
+
+	public CompressionCodec getOffHeapCompression() {
+		return mOffHeapCodec.getCompression();
+	}
+
+	public boolean isOffHeapCacheEnabled() {
+		return mOffHeapStore != null;
+	}
+
+	/**
+	 * Returns the total size of the encoded values held off-heap in bytes, or 0
+	 * if the off-heap cache is not enabled.
+	 * 
+	 * @return the off-heap usage in bytes
+	 */
+	public long getOffHeapUsage() {
+		SlabStore<K> offHeapStore = mOffHeapStore;
+		return offHeapStore == null ? 0 : offHeapStore.getUsedBytes();
+	}
+
+	/**
+	 * Returns the off-heap memory budget in bytes, or 0 if the off-heap cache
+	 * is not enabled.
+	 * 
+	 * @return the off-heap capacity in bytes
+	 */
+	public long getOffHeapCapacity() {
+		SlabStore<K> offHeapStore = mOffHeapStore;
+		return offHeapStore == null ? 0 : offHeapStore.getCapacity();
+	}
+
+	/**
+	 * Returns the total weight of the entries held in memory. This is always 0
+	 * if the cache was not created with a {@link Weigher}.
+	 * 
+	 * @return the in-memory weight
+	 */
+	public long getMemoryWeight() {
+		return mCache.getWeight();
+	}
+
+	/**
+	 * Returns the maximum weight of the in-memory cache. This is 0 if the cache
+	 * was not created with a {@link Weigher}.
+	 * 
+	 * @return the maximum in-memory weight
+	 */
+	public long getMaxMemoryWeight() {
+		return mCache.getMaxWeight();
+	}
+
+	/**
+	 * Sets whether values cached in memory from now on are held through soft
+	 * references, allowing the garbage collector to reclaim them when memory
+	 * runs low. Reclaimed values are read back from the disk cache, if
+	 * enabled, on their next access.
+	 * 
+	 * @param softValues
+	 *            {@code true} to hold values softly
+	 */
+	public void setSoftValues(boolean softValues) {
+		mCache.setSoftValues(softValues);
+	}
+
+	public boolean hasSoftValues() {
+		return mCache.hasSoftValues();
+	}
+
+	/**
+	 * Drops the given fraction of the entries held in memory, both on the heap
+	 * and off-heap. Entries cached on disk remain there.
+	 * 
+	 * @param fraction
+	 *            the fraction of entries to drop, between 0 and 1
+	 */
+	@Override
+	public void trimMemory(float fraction) {
+		mCache.trimMemory(fraction);
+		SlabStore<K> offHeapStore = mOffHeapStore;
+		if (offHeapStore != null)
+			offHeapStore.trim(fraction);
+	}
+
+	/**
+	 * Enables tracking of the hottest keys, which can be persisted with
+	 * {@link #saveHotSet()} and are preloaded into memory whenever the disk
+	 * cache is enabled. Must be called before enabling the disk cache for the
+	 * hot set to be preloaded.
+	 * 
+	 * @param maxKeys
+	 *            the maximum number of keys in the hot set
+	 * @param preloadBudget
+	 *            the maximum time spent preloading in milliseconds
+	 */
+	public synchronized void enableWarmRestart(int maxKeys, long preloadBudget) {
+		if (preloadBudget < 0)
+			throw new IllegalArgumentException("Preload budget must not be negative.");
+		mHotSet = new HotSet<K>(maxKeys);
+		mPreloadBudget = preloadBudget;
+	}
+
+	public boolean isWarmRestartEnabled() {
+		return mHotSet != null;
+	}
+
+	/**
+	 * Persists the hottest keys to the disk cache directory, replacing the
+	 * previous hot set. This should be called when the application is stopped,
+	 * since processes in the background may be killed at any time.
+	 * 
+	 * @return {@code true} if the hot set was saved, {@code false} if warm
+	 *         restarts or the disk cache are not enabled or it could not be
+	 *         written
+	 */
+	public boolean saveHotSet() {
+		HotSet<K> hotSet = mHotSet;
+		String directory;
+		synchronized (this) {
+			if (hotSet == null || !mIsDiskCacheEnabled)
+				return false;
+			directory = mDiskCacheDirectory;
+		}
+		try {
+			HotSet.save(new File(directory), hotSet.hottest());
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Sets the {@link RemovalListener} notified of entries removed from the
+	 * in-memory and disk caches.
+	 * 
+	 * @param listener
+	 *            the {@code RemovalListener} or {@code null} to remove it
+	 */
+	public void setRemovalListener(RemovalListener<K, V> listener) {
+		mRemovals.setListener(listener);
+		mCache.setRemovalListener(listener);
+	}
+
+	public RemovalListener<K, V> getRemovalListener() {
+		return mRemovals.getListener();
 	}
 
 	public boolean isDiskCacheEnabled() {
@@ -407,15 +1393,183 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	}
 
 	/**
+	 * Sets the maximum size of the disk cache in bytes. Once it is exceeded,
+	 * the least recently used disk entries are deleted in the background.
+	 * 
+	 * @param maxBytes
+	 *            the disk budget in bytes, or 0 for an unbounded disk cache
+	 */
+	public void setMaxDiskSize(long maxBytes) {
+		mDiskQuota.setMaxBytes(maxBytes);
+	}
+
+	/**
+	 * Returns the maximum size of the disk cache in bytes, or 0 if it is
+	 * unbounded.
+	 * 
+	 * @return the disk budget in bytes
+	 */
+	public long getMaxDiskSize() {
+		return mDiskQuota.getMaxBytes();
+	}
+
+	/**
+	 * Returns the size of the entries in the disk cache in bytes, or 0 if disk
+	 * caching is not enabled.
+	 * 
+	 * @return the disk usage in bytes
+	 */
+	public long getDiskUsage() {
+		return mDiskQuota.getBytes();
+	}
+
+	/**
+	 * Sets the maximum total size of the disk caches of all
+	 * {@code AbstractCache} instances in bytes. Once it is exceeded, the least
+	 * recently used disk entries across all caches are deleted in the
+	 * background.
+	 * 
+	 * @param maxBytes
+	 *            the global disk budget in bytes, or 0 for no global budget
+	 */
+	public static void setGlobalDiskQuota(long maxBytes) {
+		DiskQuota.setGlobalMaxBytes(maxBytes);
+	}
+
+	/**
+	 * Returns the maximum total size of all disk caches in bytes, or 0 if there
+	 * is no global budget.
+	 * 
+	 * @return the global disk budget in bytes
+	 */
+	public static long getGlobalDiskQuota() {
+		return DiskQuota.getGlobalMaxBytes();
+	}
+
+	/**
+	 * Returns the total size of the entries of all enabled disk caches in
+	 * bytes.
+	 * 
+	 * @return the global disk usage in bytes
+	 */
+	public static long getGlobalDiskUsage() {
+		return DiskQuota.getGlobalBytes();
+	}
+
+	/**
+	 * Sets the {@link CompressionCodec} used to compress disk cache entries
+	 * written from now on. Entries whose encoded size is below the given
+	 * threshold, or which do not shrink, are stored uncompressed.
+	 * 
+	 * @param codec
+	 *            the codec or {@code null} to disable compression
+	 * @param minSize
+	 *            the encoded size in bytes below which entries are not
+	 *            compressed
+	 */
+	public void setCompression(CompressionCodec codec, int minSize) {
+		mCodec.setCompression(codec, minSize);
+	}
+
+	/**
+	 * Returns the {@link CompressionCodec} used to compress disk cache
+	 * entries, or {@code null} if compression is disabled.
+	 * 
+	 * @return the compression codec
+	 */
+	public CompressionCodec getCompression() {
+		return mCodec.getCompression();
+	}
+
+	/**
+	 * Returns a snapshot of the disk cache's {@link CompressionStats}.
+	 * 
+	 * @return the compression statistics
+	 */
+	public CompressionStats compressionStats() {
+		return mCodec.snapshot();
+	}
+
+	/**
+	 * Sets whether disk cache puts are written by a background flusher instead
+	 * of the calling thread. Disabling write-behind flushes pending writes.
+	 * 
+	 * @param enabled
+	 *            {@code true} to enable write-behind
+	 */
+	public synchronized void setWriteBehindEnabled(boolean enabled) {
+		mIsWriteBehindEnabled = enabled;
+		if (!enabled)
+			mWriteBehindQueue.flush();
+	}
+
+	public boolean isWriteBehindEnabled() {
+		return mIsWriteBehindEnabled;
+	}
+
+	/**
+	 * Writes all pending write-behind operations to disk on the calling thread
+	 * and returns once they have been applied. Does nothing if write-behind is
+	 * disabled.
+	 */
+	public void flush() {
+		mWriteBehindQueue.flush();
+	}
+
+	/**
+	 * Blocks until the background flusher has written all pending write-behind
+	 * operations to disk.
+	 * 
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting
+	 */
+	public void awaitQuiescence() throws InterruptedException {
+		mWriteBehindQueue.awaitQuiescence();
+	}
+
+	/**
+	 * Sets whether disk hits are decoded from memory-mapped views of the cached
+	 * values using {@link #readValueFromBuffer(ByteBuffer)}. Mapping is only
+	 * worthwhile for large values, so this is disabled by default.
+	 * 
+	 * @param enabled
+	 *            {@code true} to read disk cache entries through mappings
+	 */
+	public synchronized void setMappedReadsEnabled(boolean enabled) {
+		mIsMappedReadsEnabled = enabled;
+	}
+
+	public boolean isMappedReadsEnabled() {
+		return mIsMappedReadsEnabled;
+	}
+
+	/**
+	 * Enables caching to the given folder using the given disk layout.
 	 * 
 	 * @param rootDir
 	 *            a folder name to enable caching or null to disable it.
+	 * @param diskLayout
+	 *            how to store the cached files, either
+	 *            {@link #DISK_LAYOUT_FILES}, {@link #DISK_LAYOUT_SHARDED} or
+	 *            {@link #DISK_LAYOUT_JOURNAL}
 	 */
-	public void setDiskCacheEnabled(String rootDir) {
+	public synchronized void setDiskCacheEnabled(String rootDir, int diskLayout) {
+		mDiskLayout = diskLayout;
+		setDiskCacheEnabled(rootDir);
+	}
+
+	/**
+	 * 
+	 * @param rootDir
+	 *            a folder name to enable caching or null to disable it.
+	 */
+	public synchronized void setDiskCacheEnabled(String rootDir) {
 		if (rootDir != null && rootDir.length() > 0) {
 			setRootDir(rootDir);
-			this.mIsDiskCacheEnabled = true;
+			this.mIsDiskCacheEnabled = openDiskStore();
 		} else {
+			mWriteBehindQueue.flush();
+			mDiskQuota.close();
 			this.mIsDiskCacheEnabled = false;
 		}
 	}
@@ -423,14 +1577,15 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	@Override
 	public synchronized void clear() {
 		mCache.clear();
+		if (mHotSet != null)
+			mHotSet.clear();
+		if (mOffHeapStore != null)
+			mOffHeapStore.clear();
 		if (mIsDiskCacheEnabled) {
-			File[] cachedFiles = new File(mDiskCacheDirectory).listFiles();
-			if (cachedFiles == null)
-				return;
-			for (File file : cachedFiles) {
-				if (!file.getName().endsWith(".nomedia"))
-					file.delete();
-			}
+			mWriteBehindQueue.discard();
+			mDiskStore.clear();
+			mExpirationIndex.clear();
+			mDiskQuota.clear();
 		}
 		mLogger.debug("Cache cleared");
 	}
@@ -441,38 +1596,350 @@ public abstract class AbstractCache<K, V> implements Map<K, V> {
 	}
 
 	/**
-	 * Sanitizes the disk cache by removing files which are older than their
-	 * expiration timeouts.
+	 * Loads the {@link DiskQuota} and sanitizes the given {@link DiskStore} on a
+	 * background thread, so enabling the disk cache returns immediately.
+	 */
+	private void scheduleDiskMaintenance(final DiskStore<V> store) {
+		SANITIZER.execute(new Runnable() {
+			@Override
+			public void run() {
+				preloadHotSet(store);
+				mDiskQuota.load(store);
+				sanitizeDiskCache(store);
+			}
+		});
+	}
+
+	private void recordHotAccess(K key) {
+		HotSet<K> hotSet = mHotSet;
+		if (hotSet != null)
+			hotSet.recordAccess(key);
+	}
+
+	/**
+	 * Reads the entries of the persisted hot set into memory, hottest first,
+	 * until the preload budget is spent or the in-memory cache is full.
 	 */
-	private void sanitizeDiskCache() {
-		Log.d(getClass().getName(), "Sanitizing disk cache");
-		File[] cachedFiles = new File(mDiskCacheDirectory).listFiles();
-		if (cachedFiles == null)
+	@SuppressWarnings("unchecked")
+	private void preloadHotSet(DiskStore<V> store) {
+		HotSet<K> hotSet;
+		String directory;
+		long budget;
+		synchronized (this) {
+			hotSet = mHotSet;
+			if (hotSet == null || !mIsDiskCacheEnabled || mDiskStore != store)
+				return;
+			directory = mDiskCacheDirectory;
+			budget = mPreloadBudget;
+		}
+		List<Object> keys;
+		try {
+			keys = HotSet.load(new File(directory));
+		} catch (IOException e) {
+			e.printStackTrace();
 			return;
-		for (File file : cachedFiles) {
-			if (!file.getName().endsWith(".nomedia"))
-				checkAndRemoveFile(file);
 		}
+		long deadline = System.currentTimeMillis() + budget;
+		int preloaded = 0;
+		for (Object key : keys) {
+			if (System.currentTimeMillis() >= deadline)
+				break;
+			synchronized (this) {
+				if (!mIsDiskCacheEnabled || mDiskStore != store)
+					return;
+				if (mCache.isWeighted() && mCache.getWeight() >= mCache.getMaxWeight())
+					break;
+				try {
+					if (preload((K) key)) {
+						hotSet.recordAccess((K) key);
+						preloaded++;
+					}
+				} catch (ClassCastException e) {
+					// the hot set was saved by a cache with other key types
+					return;
+				}
+			}
+		}
+		mLogger.debug(preloaded + " hot cache entries preloaded");
 	}
 
 	/**
-	 * Checks if the given {@link File} is expired and deletes it if it is. The
-	 * return value indicates if the file was removed.
+	 * Reads the disk cache entry of the given key into memory unless the key
+	 * is already held in memory. Must be called while holding the cache lock.
+	 * 
+	 * @return {@code true} if the entry was preloaded
 	 */
-	private boolean checkAndRemoveFile(File file) {
-		Long maxAgeInSeconds = mDiskTimeoutCache.get(file.getAbsolutePath());
-		if (maxAgeInSeconds == null) {
-			mLogger.debug("Disk cache file " + file.toString() + " expired");
-			file.delete();
-			return true;
+	private boolean preload(K key) {
+		long now = System.currentTimeMillis();
+		SlabStore<K> offHeapStore = mOffHeapStore;
+		if (mCache.containsKey(key) || (offHeapStore != null && offHeapStore.contains(key, now)))
+			return false;
+		String name = getFileNameForKey(key);
+		Long deadline = mExpirationIndex.get(name);
+		if (deadline == null || deadline <= now || mWriteBehindQueue.get(name) != null || !mDiskStore.contains(name))
+			return false;
+		V value;
+		try {
+			value = mIsMappedReadsEnabled ? mDiskStore.readMapped(name) : mDiskStore.read(name);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
 		}
-		long lastModified = file.lastModified();
-		long ageInSeconds = (System.currentTimeMillis() - lastModified) / 1000;
-		if (ageInSeconds >= maxAgeInSeconds) {
-			mLogger.debug("Disk cache file " + file.toString() + " expired");
-			file.delete();
+		if (value == null)
+			return false;
+		putInMemory(key, value, remainingSeconds(deadline));
+		return true;
+	}
+
+	/**
+	 * Sanitizes the disk cache by removing entries whose deadlines recorded in
+	 * the {@link ExpirationIndex} have passed, followed by entries without an
+	 * index record. Such entries were written before the index existed, had
+	 * names too long to be indexed persistently, or failed to be indexed, and
+	 * lookups treat them as missing, so they would otherwise never be removed.
+	 * Entries are deleted in small batches, each holding the cache lock only
+	 * briefly, and the sanitizing stops once the given store is no longer in
+	 * use. Lookups check deadlines themselves, so they never return expired
+	 * entries while sanitizing is in progress. Finally, temporary files
+	 * abandoned by interrupted writes are deleted.
+	 */
+	private void sanitizeDiskCache(DiskStore<V> store) {
+		List<String> expired;
+		synchronized (this) {
+			if (!mIsDiskCacheEnabled || mDiskStore != store)
+				return;
+			Log.d(getClass().getName(), "Sanitizing disk cache");
+			expired = mExpirationIndex.expired(System.currentTimeMillis());
+		}
+		int removed = deleteStale(store, expired, false);
+		synchronized (this) {
+			if (!mIsDiskCacheEnabled || mDiskStore != store)
+				return;
+		}
+		removed += deleteStale(store, store.names(), true);
+		mLogger.debug(removed + " disk cache entries expired");
+		synchronized (this) {
+			if (!mIsDiskCacheEnabled || mDiskStore != store)
+				return;
+		}
+		int deleted = store.deleteTempFiles(System.currentTimeMillis() - STALE_TEMP_FILE_AGE);
+		mLogger.debug(deleted + " stale temporary disk cache files deleted");
+	}
+
+	/**
+	 * Deletes the given disk cache entries which are expired, or which have no
+	 * record in the {@link ExpirationIndex} if {@code orphans} is set. Entries
+	 * are checked again under the cache lock, so entries which were written or
+	 * removed since the given names were collected are skipped.
+	 *
+	 * @return the number of deleted entries
+	 */
+	private int deleteStale(DiskStore<V> store, List<String> names, boolean orphans) {
+		int removed = 0;
+		for (int i = 0; i < names.size(); i += SANITIZE_BATCH_SIZE) {
+			synchronized (this) {
+				if (!mIsDiskCacheEnabled || mDiskStore != store)
+					return removed;
+				long now = System.currentTimeMillis();
+				List<String> batch = new ArrayList<String>(SANITIZE_BATCH_SIZE);
+				for (String name : names.subList(i, Math.min(i + SANITIZE_BATCH_SIZE, names.size()))) {
+					if (mWriteBehindQueue.get(name) != null)
+						continue;
+					Long deadline = mExpirationIndex.get(name);
+					if (orphans ? deadline == null : deadline != null && deadline <= now)
+						batch.add(name);
+				}
+				if (batch.isEmpty())
+					continue;
+				mDiskStore.deleteAll(batch);
+				for (String name : batch) {
+					mExpirationIndex.remove(name);
+					mDiskQuota.recordRemoval(name);
+					mStatsCounter.recordRemoval(RemovalCause.EXPIRED);
+					mRemovals.enqueue(null, null, name, RemovalCause.EXPIRED);
+				}
+				removed += batch.size();
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Indicates if the disk cache holds an entry with the given name. Every
+	 * entry written to disk is recorded in the {@link ExpirationIndex}, whose
+	 * names are held in memory, and entries without a record are treated as
+	 * expired. Names without a record are therefore definite misses which are
+	 * answered without touching the disk. Stale records of entries which have
+	 * vanished from the disk are dropped.
+	 */
+	private boolean mayBeOnDisk(String name) {
+		if (mExpirationIndex.get(name) == null) {
+			mStatsCounter.recordDiskProbeSkipped();
+			return false;
+		}
+		if (!mDiskStore.contains(name)) {
+			mStatsCounter.recordDiskProbeFalsePositive();
+			mExpirationIndex.remove(name);
+			mDiskQuota.recordRemoval(name);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the disk cache entry of the given key is expired and deletes
+	 * it if it is. The return value indicates if the entry was removed.
+	 */
+	private boolean checkAndRemoveFile(K key, String name) {
+		Long deadline = mExpirationIndex.get(name);
+		if (deadline == null || deadline <= System.currentTimeMillis()) {
+			mLogger.debug("Disk cache entry " + name + " expired");
+			deleteFromDisk(name);
+			mStatsCounter.recordRemoval(RemovalCause.EXPIRED);
+			mRemovals.enqueue(key, null, name, RemovalCause.EXPIRED);
 			return true;
 		}
 		return false;
 	}
+
+	/**
+	 * The heap tier of the L1 cache, which demotes evicted entries off-heap if
+	 * tiers are exclusive.
+	 */
+	private class HeapTier extends ExpirableCache<K, V> {
+
+		HeapTier(long defaultExpiration, int initialCapacity, Weigher<? super K, ? super V> weigher, long maxWeight,
+				EvictionPolicy<K> policy) {
+			super(defaultExpiration, initialCapacity, weigher, maxWeight, policy);
+		}
+
+		@Override
+		protected void entryEvicted(K key, V value, long deadline) {
+			SlabStore<K> offHeapStore = mOffHeapStore;
+			if (offHeapStore != null && mTierMode == TIER_MODE_EXCLUSIVE && deadline > System.currentTimeMillis())
+				putOffHeap(offHeapStore, key, value, deadline);
+		}
+
+	}
+
+	/**
+	 * Bridges the {@link DiskStore} to the subclass's encoding hooks.
+	 */
+	private class Codec implements DiskStore.Codec<V> {
+
+		@Override
+		public V readFile(File file) throws IOException {
+			return readValueFromDisk(file);
+		}
+
+		@Override
+		public void writeFile(File file, V value) throws IOException {
+			writeValueToDisk(file, value);
+		}
+
+		@Override
+		public V readStream(InputStream in) throws IOException {
+			return readValueFromStream(in);
+		}
+
+		@Override
+		public void writeStream(OutputStream out, V value) throws IOException {
+			writeValueToStream(out, value);
+		}
+
+		@Override
+		public V readBuffer(ByteBuffer buffer) throws IOException {
+			return readValueFromBuffer(buffer);
+		}
+
+	}
+
+	/**
+	 * Applies write-behind operations flushed by the {@link WriteBehindQueue}.
+	 * Operations are applied while holding the cache's monitor, so the disk
+	 * store cannot be swapped or closed while an operation is applied.
+	 */
+	private class DiskWriter implements WriteBehindQueue.Writer<V> {
+
+		@Override
+		public void write(String name, V value, long deadline) {
+			synchronized (AbstractCache.this) {
+				// disabling the disk cache flushes first, so this is stale
+				if (!mIsDiskCacheEnabled)
+					return;
+				try {
+					mDiskStore.write(name, value);
+					recordDiskWrite(name, deadline);
+				} catch (IOException e) {
+					mLogger.error("Failed writing disk cache entry " + name, e);
+				}
+			}
+		}
+
+		@Override
+		public void delete(String name) {
+			synchronized (AbstractCache.this) {
+				if (mIsDiskCacheEnabled)
+					deleteFromDisk(name);
+			}
+		}
+
+	}
+
+	/**
+	 * Deletes disk cache entries trimmed by the {@link DiskQuota}.
+	 */
+	private class DiskEvictor implements DiskQuota.Evictor {
+
+		@Override
+		public boolean evict(String name, long accessTime) {
+			synchronized (AbstractCache.this) {
+				// a pending write supersedes the entry and is tracked once flushed
+				if (!mIsDiskCacheEnabled || mWriteBehindQueue.get(name) != null || !mDiskQuota.remove(name, accessTime))
+					return false;
+				mLogger.debug("Disk cache entry " + name + " trimmed");
+				mDiskStore.delete(name);
+				mExpirationIndex.remove(name);
+				mStatsCounter.recordRemoval(RemovalCause.DISK_TRIM);
+				mRemovals.enqueue(null, null, name, RemovalCause.DISK_TRIM);
+				return true;
+			}
+		}
+
+	}
+
+	/**
+	 * Exposes the remaining bytes of a {@link ByteBuffer} as an
+	 * {@link InputStream}.
+	 */
+	private static class BufferInputStream extends InputStream {
+
+		private final ByteBuffer mBuffer;
+
+		BufferInputStream(ByteBuffer buffer) {
+			mBuffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (!mBuffer.hasRemaining())
+				return -1;
+			len = Math.min(len, mBuffer.remaining());
+			mBuffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return mBuffer.remaining();
+		}
+
+	}
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * An {@link EvictionPolicy} implementing Adaptive Replacement Cache (ARC).
+ * Entries seen once are kept in a recency list and entries seen at least twice
+ * in a frequency list. Ghost lists remember recently evicted keys of both
+ * lists, and a hit in either ghost list shifts the target balance between
+ * recency and frequency. One-time scans therefore only flush the recency
+ * list, while the frequently used entries survive.
+ * </p>
+ * <p>
+ * Entry sizes are taken into account, i.e. list lengths are measured in the
+ * cache's size units.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public class ArcEvictionPolicy<K> extends EvictionPolicy<K> {
+
+    private final Map<K, PolicyQueue.Node<K>> mNodes;
+    private final PolicyQueue<K> mRecent;
+    private final PolicyQueue<K> mFrequent;
+    private final PolicyQueue<K> mRecentGhosts;
+    private final PolicyQueue<K> mFrequentGhosts;
+    private long mTarget;
+    private boolean mFrequentGhostHit;
+
+    /**
+     * Creates a new {@code ArcEvictionPolicy}.
+     */
+    public ArcEvictionPolicy() {
+        super("ARC");
+        mNodes = new HashMap<K, PolicyQueue.Node<K>>();
+        mRecent = new PolicyQueue<K>();
+        mFrequent = new PolicyQueue<K>();
+        mRecentGhosts = new PolicyQueue<K>();
+        mFrequentGhosts = new PolicyQueue<K>();
+    }
+
+    @Override
+    protected void onAdd(K key, int size) {
+        PolicyQueue.Node<K> node = mNodes.get(key);
+        if (node != null && node.mQueue == mRecentGhosts) {
+            // Recency was evicted too early, grow its target
+            long delta = Math.max(size, size * mFrequentGhosts.weight() / Math.max(1, mRecentGhosts.weight()));
+            mTarget = Math.min(getMaxSize(), mTarget + delta);
+            mRecentGhosts.remove(node);
+            node.mSize = size;
+            mFrequent.addFirst(node);
+        } else if (node != null && node.mQueue == mFrequentGhosts) {
+            // Frequency was evicted too early, shrink the recency target
+            long delta = Math.max(size, size * mRecentGhosts.weight() / Math.max(1, mFrequentGhosts.weight()));
+            mTarget = Math.max(0, mTarget - delta);
+            mFrequentGhosts.remove(node);
+            node.mSize = size;
+            mFrequent.addFirst(node);
+            mFrequentGhostHit = true;
+        } else {
+            if (node != null)
+                node.mQueue.remove(node);
+            node = new PolicyQueue.Node<K>(key, size);
+            mNodes.put(key, node);
+            mRecent.addFirst(node);
+        }
+        trimGhosts();
+    }
+
+    @Override
+    protected void onAccess(K key) {
+        PolicyQueue.Node<K> node = mNodes.get(key);
+        if (node != null && (node.mQueue == mRecent || node.mQueue == mFrequent)) {
+            node.mQueue.remove(node);
+            mFrequent.addFirst(node);
+        }
+    }
+
+    @Override
+    protected void onRemove(K key) {
+        PolicyQueue.Node<K> node = mNodes.get(key);
+        if (node != null && (node.mQueue == mRecent || node.mQueue == mFrequent)) {
+            node.mQueue.remove(node);
+            mNodes.remove(key);
+        }
+    }
+
+    @Override
+    protected K selectVictim() {
+        PolicyQueue.Node<K> node;
+        long recentWeight = mRecent.weight();
+        if (!mRecent.isEmpty() && (mFrequent.isEmpty() || recentWeight > mTarget
+                || (mFrequentGhostHit && recentWeight == mTarget))) {
+            node = mRecent.pollLast();
+            mRecentGhosts.addFirst(node);
+        } else {
+            node = mFrequent.pollLast();
+            if (node == null)
+                return null;
+            mFrequentGhosts.addFirst(node);
+        }
+        mFrequentGhostHit = false;
+        trimGhosts();
+        return node.mKey;
+    }
+
+    /**
+     * Appends the recency list before the frequency list, which approximates
+     * the eviction order without accounting for the adaptive target.
+     */
+    @Override
+    protected void appendInEvictionOrder(List<? super K> keys) {
+        mRecent.appendKeysFromTail(keys);
+        mFrequent.appendKeysFromTail(keys);
+    }
+
+    /**
+     * Bounds the ghost lists, such that the recency side covers at most the
+     * cache size and all lists together cover at most twice the cache size.
+     */
+    private void trimGhosts() {
+        long maxSize = getMaxSize();
+        while (!mRecentGhosts.isEmpty() && mRecent.weight() + mRecentGhosts.weight() > maxSize)
+            mNodes.remove(mRecentGhosts.pollLast().mKey);
+        while (mRecent.weight() + mFrequent.weight() + mRecentGhosts.weight() + mFrequentGhosts.weight() > 2 * maxSize) {
+            PolicyQueue<K> ghosts = mFrequentGhosts.isEmpty() ? mRecentGhosts : mFrequentGhosts;
+            if (ghosts.isEmpty())
+                break;
+            mNodes.remove(ghosts.pollLast().mKey);
+        }
+    }
+
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.content.Context;
+
+import com.clarionmedia.infinitum.internal.Preconditions;
+
+/**
+ * <p>
+ * Builds multi-tier caches without subclassing {@link AbstractCache}. A cache
+ * always has an L1 tier on the heap, which can be bounded by a maximum size or
+ * weight and evicts entries as decided by an {@link EvictionPolicy}. An
+ * off-heap tier can be added below it, optionally compressed, which shares
+ * entries with the heap tier either inclusively or exclusively. A disk tier
+ * can be added below both. Disk hits are promoted to the in-memory tiers, and
+ * all writes go through to the disk tier.
+ * </p>
+ * <p>
+ * The off-heap and disk tiers hold values encoded by a {@link ValueCodec},
+ * which must be provided if either tier is used. For example:
+ * </p>
+ * 
+ * <pre>
+ * AbstractCache&lt;String, Profile&gt; cache = new CacheBuilder&lt;String, Profile&gt;(&quot;profiles&quot;)
+ *         .setMaxSize(500).setEvictionPolicy(new TinyLfuEvictionPolicy&lt;String&gt;())
+ *         .setOffHeapTier(8 * 1024 * 1024, AbstractCache.TIER_MODE_EXCLUSIVE)
+ *         .setDiskTier(context, AbstractCache.DISK_CACHE_INTERNAL, AbstractCache.DISK_LAYOUT_JOURNAL)
+ *         .setValueCodec(new ProfileCodec()).build();
+ * </pre>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public class CacheBuilder<K, V> {
+
+    private final String mName;
+    private long mExpiration = ExpirableCache.DEFAULT_EXPIRATION_TIMEOUT;
+    private Weigher<? super K, ? super V> mWeigher;
+    private long mMaxWeight;
+    private EvictionPolicy<K> mEvictionPolicy;
+    private boolean mSoftValues;
+    private long mOffHeapBytes;
+    private int mTierMode;
+    private CompressionCodec mOffHeapCompression;
+    private int mOffHeapCompressionMinSize;
+    private String mDiskDirectory;
+    private Context mContext;
+    private int mStorageDevice;
+    private int mDiskLayout;
+    private long mMaxDiskSize;
+    private CompressionCodec mDiskCompression;
+    private int mDiskCompressionMinSize;
+    private boolean mWriteBehindEnabled;
+    private boolean mMappedReadsEnabled;
+    private ValueCodec<V> mValueCodec;
+    private RemovalListener<K, V> mRemovalListener;
+    private int mHotSetSize;
+    private long mPreloadBudget;
+    private boolean mTrimOnMemoryPressure;
+
+    /**
+     * Creates a new {@code CacheBuilder}.
+     *
+     * @param name the cache identifier used to derive a directory name if the
+     *             disk tier is enabled
+     */
+    public CacheBuilder(String name) {
+        mName = name;
+    }
+
+    /**
+     * Builds the cache. An {@link EvictionPolicy} must not be shared between
+     * caches, so a new one must be set before building another cache with
+     * this builder.
+     *
+     * @return the configured {@link AbstractCache}
+     */
+    public AbstractCache<K, V> build() {
+        if ((mOffHeapBytes > 0 || mDiskDirectory != null || mContext != null) && mValueCodec == null)
+            throw new IllegalStateException("Must provide a value codec to build off-heap or disk tiers.");
+        if (mEvictionPolicy != null && mWeigher == null)
+            throw new IllegalStateException("Must provide a maximum size or weight to use an eviction policy.");
+        TieredCache<K, V> cache;
+        if (mWeigher == null) {
+            cache = new TieredCache<K, V>(mName, mExpiration, mValueCodec);
+        } else {
+            EvictionPolicy<K> policy = mEvictionPolicy == null ? new LruEvictionPolicy<K>() : mEvictionPolicy;
+            cache = new TieredCache<K, V>(mName, mExpiration, mWeigher, mMaxWeight, policy, mValueCodec);
+        }
+        cache.setSoftValues(mSoftValues);
+        if (mRemovalListener != null)
+            cache.setRemovalListener(mRemovalListener);
+        if (mOffHeapBytes > 0) {
+            cache.enableOffHeapCache(mOffHeapBytes, mTierMode);
+            cache.setOffHeapCompression(mOffHeapCompression, mOffHeapCompressionMinSize);
+        }
+        cache.setCompression(mDiskCompression, mDiskCompressionMinSize);
+        cache.setMaxDiskSize(mMaxDiskSize);
+        cache.setWriteBehindEnabled(mWriteBehindEnabled);
+        cache.setMappedReadsEnabled(mMappedReadsEnabled);
+        // the hot set is preloaded when the disk tier is enabled
+        if (mHotSetSize > 0)
+            cache.enableWarmRestart(mHotSetSize, mPreloadBudget);
+        if (mContext != null)
+            cache.enableDiskCache(mContext, mStorageDevice, mDiskLayout);
+        else if (mDiskDirectory != null)
+            cache.setDiskCacheEnabled(mDiskDirectory, mDiskLayout);
+        if (mTrimOnMemoryPressure)
+            MemoryPressure.register(cache);
+        return cache;
+    }
+
+    /**
+     * Sets the default expiration timeout of the cache entries in all tiers.
+     *
+     * @param expiration the default expiration timeout in seconds
+     * @return {@code CacheBuilder} to allow chaining
+     */
+    public CacheBuilder<K, V> setExpiration(long expiration) {
+        if (expiration <= 0)
+            throw new IllegalArgumentException("Cache expiration timeout must be greater than 0.");
+        mExpiration = expiration;
+        return this;
+    }
+
+    /**
+     * Bounds the heap tier by the given number of entries.
+     *
+     * @param maxSize the maximum number of entries on the heap
+     * @return {@code CacheBuilder} to allow chaining
+     */
+    public CacheBuilder<K, V> setMaxSize(int maxSize) {
+        return setMaxWeight(maxSize, new Weigher<Object, Object>() {
+            @Override
+            public int weigh(Object key, Object value) {
+                return 1;
+            }
+        });
+    }
+
+    /**
+     * Bounds the heap tier by the given maximum weight.
+     *
+     * @param maxWeight the maximum total weight of the entries on the heap
+     * @param weigher   the {@link Weigher} computing the weight of entries,
+     *                  typically in bytes
+     * @return {@code CacheBuilder} to allow chaining
+     */
+    public CacheBuilder<K, V> setMaxWeight(long maxWeight, Weigher<? super K, ? super V> weigher) {
+        if (maxWeight <= 0)
+            throw new IllegalArgumentException("Cache maximum weight must be greater than 0.");
+        Preconditions.checkNotNull(weigher);
+        mMaxWeight = maxWeight;
+        mWeigher = weigher;
+        return this;
+    }
+
+    /**
+     * Sets the {@link EvictionPolicy} of the heap tier, which is
+     * least-recently-used by default. Requires a maximum size or weight.
+     *
+     * @param policy the {@code EvictionPolicy}, which must not be shared with
+     *               other caches
+     * @return {@code CacheBuilder} to allow chaining
+     */
+    public CacheBuilder<K, V> setEvictionPolicy(EvictionPolicy<K> policy) {
+        mEvictionPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets whether values on the heap are held through soft references.
+     *
+     * @param softValues {@code true} to hold values softly
+     * @return {@code CacheBuilder} to allow chaining
+     * @see AbstractCache#setSoftValues(boolean)
+     */
+    public CacheBuilder<K, V> setSoftValues(boolean softValues) {
+        mSoftValues = softValues;
+        return this;
+    }
+
+    /**
+     * Adds an off-heap tier below the heap tier. Requires a maximum size or
+     * weight.
+     *
+     * @param maxBytes the off-heap memory budget in bytes
+     * @param tierMode how entries are shared between the heap and the
+     *                 off-heap tier, either
+     *                 {@link AbstractCache#TIER_MODE_EXCLUSIVE} or
+     *                 {@link AbstractCache#TIER_MODE_INCLUSIVE}
+     * @return {@code CacheBuilder} to allow chaining
+     * @see AbstractCache#enableOffHeapCache(long, int)
+     */
+    public CacheBuilder<K, V> setOffHeapTier(long maxBytes, int tierMode) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("Off-heap cache size must be greater than 0.");
+        mOffHeapBytes = maxBytes;
+        mTierMode = tierMode;
+        return this;
+    }
+
+    /**
+     * Sets the {@link CompressionCodec} compressing values in the off-heap
+     * tier.
+     *
+     * @param codec   the codec or {@code null} to disable compression
+     * @param minSize the encoded size in bytes below which values are not
+     *                compressed
+     * @return {@code CacheBuilder} to allow chaining
+     * @see AbstractCache#setOffHeapCompression(CompressionCodec, int)
+     */
+    public CacheBuilder<K, V> setOffHeapCompression(CompressionCodec codec, int minSize) {
+        mOffHeapCompression = codec;
+        mOffHeapCompressionMinSize = minSize;
+        return this;
+    }
+
+    /**
+     * Adds a disk tier in the given folder.
+     *
+     * @param rootDir    the folder the cache directory is created in
+     * @param diskLayout how to store the cached files, e.g.
+     *                   {@link AbstractCache#DISK_LAYOUT_JOURNAL}
+     * @return {@code CacheBuilder} to allow chaining
+     */
+    public CacheBuilder<K, V> setDiskTier(String rootDir, int diskLayout) {
+        mDiskDirectory = rootDir;
+        mContext = null;
+        mDiskLayout = diskLayout;
+        return this;
+    }
+
+    /**
+     * Adds a disk tier on the phone's internal storage or SD card.
+     *
+     * @param context       the current context
+     * @param storageDevice where to store the cached files, either
+     *                      {@link AbstractCache#DISK_CACHE_INTERNAL} or
+     *                      {@link AbstractCache#DISK_CACHE_SDCARD}
+     * @param diskLayout    how to store the cached files, e.g.
+     *                      {@link AbstractCache#DISK_LAYOUT_JOURNAL}
+     * @return {@code CacheBuilder} to allow chaining
+     */
+    public CacheBuilder<K, V> setDiskTier(Context context, int storageDevice, int diskLayout) {
+        mContext = context;
+        mDiskDirectory = null;
+        mStorageDevice = storageDevice;
+        mDiskLayout = diskLayout;
+        return this;
+    }
+
+    /**
+     * Bounds the disk tier by the given number of bytes.
+     *
+     * @param maxBytes the disk budget in bytes or 0 for an unbounded disk tier
+     * @return {@code CacheBuilder} to allow chaining
+     * @see AbstractCache#setMaxDiskSize(long)
+     */
+    public CacheBuilder<K, V> setMaxDiskSize(long maxBytes) {
+        mMaxDiskSize = maxBytes;
+        return this;
+    }
+
+    /**
+     * Sets the {@link CompressionCodec} compressing values in the disk tier.
+     *
+     * @param codec   the codec or {@code null} to disable compression
+     * @param minSize the encoded size in bytes below which values are not
+     *                compressed
+     * @return {@code CacheBuilder} to allow chaining
+     * @see AbstractCache#setCompression(CompressionCodec, int)
+     */
+    public CacheBuilder<K, V> setDiskCompression(CompressionCodec codec, int minSize) {
+        mDiskCompression = codec;
+        mDiskCompressionMinSize = minSize;
+        return this;
+    }
+
+    /**
+     * Sets whether writes to the disk tier are applied in the background.
+     *
+     * @param enabled {@code true} to enable write-behind
+     * @return {@code CacheBuilder} to allow chaining
+     * @see AbstractCache#setWriteBehindEnabled(boolean)
+     */
+    public CacheBuilder<K, V> setWriteBehindEnabled(boolean enabled) {
+        mWriteBehindEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Sets whether disk hits are decoded from memory-mapped views.
+     *
+     * @param enabled {@code true} to enable mapped reads
+     * @return {@code CacheBuilder} to allow chaining
+     * @see AbstractCache#setMappedReadsEnabled(boolean)
+     */
+    public CacheBuilder<K, V> setMappedReadsEnabled(boolean enabled) {
+        mMappedReadsEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Sets the {@link ValueCodec} encoding values for the off-heap and disk
+     * tiers.
+     *
+     * @param codec the {@code ValueCodec}
+     * @return {@code CacheBuilder} to allow chaining
+     */
+    public CacheBuilder<K, V> setValueCodec(ValueCodec<V> codec) {
+        mValueCodec = codec;
+        return this;
+    }
+
+    /**
+     * Sets the {@link RemovalListener} notified of entries removed from the
+     * heap and disk tiers.
+     *
+     * @param listener the {@code RemovalListener}
+     * @return {@code CacheBuilder} to allow chaining
+     * @see AbstractCache#setRemovalListener(RemovalListener)
+     */
+    public CacheBuilder<K, V> setRemovalListener(RemovalListener<K, V> listener) {
+        mRemovalListener = listener;
+        return this;
+    }
+
+    /**
+     * Enables tracking of the hottest keys, which are preloaded from the disk
+     * tier when it is enabled.
+     *
+     * @param maxKeys       the maximum number of keys in the hot set
+     * @param preloadBudget the maximum time spent preloading in milliseconds
+     * @return {@code CacheBuilder} to allow chaining
+     * @see AbstractCache#enableWarmRestart(int, long)
+     */
+    public CacheBuilder<K, V> setWarmRestart(int maxKeys, long preloadBudget) {
+        mHotSetSize = maxKeys;
+        mPreloadBudget = preloadBudget;
+        return this;
+    }
+
+    /**
+     * Sets whether the cache is registered with {@link MemoryPressure}, so its
+     * in-memory tiers are trimmed when the system runs low on memory.
+     *
+     * @param trim {@code true} to register the cache
+     * @return {@code CacheBuilder} to allow chaining
+     */
+    public CacheBuilder<K, V> setTrimOnMemoryPressure(boolean trim) {
+        mTrimOnMemoryPressure = trim;
+        return this;
+    }
+
+    /**
+     * An {@link AbstractCache} encoding values with a {@link ValueCodec}.
+     */
+    private static class TieredCache<K, V> extends AbstractCache<K, V> {
+
+        private final ValueCodec<V> mValueCodec;
+
+        TieredCache(String name, long defaultExpiration, ValueCodec<V> codec) {
+            super(name, defaultExpiration);
+            mValueCodec = codec;
+        }
+
+        TieredCache(String name, long defaultExpiration, Weigher<? super K, ? super V> weigher, long maxWeight,
+                    EvictionPolicy<K> policy, ValueCodec<V> codec) {
+            super(name, defaultExpiration, weigher, maxWeight, policy);
+            mValueCodec = codec;
+        }
+
+        @Override
+        protected V readValueFromDisk(File file) throws IOException {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                return readValueFromStream(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        protected void writeValueToDisk(File file, V value) throws IOException {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                writeValueToStream(out, value);
+            } finally {
+                out.close();
+            }
+        }
+
+        @Override
+        protected V readValueFromStream(InputStream in) throws IOException {
+            return mValueCodec.read(in);
+        }
+
+        @Override
+        protected void writeValueToStream(OutputStream out, V value) throws IOException {
+            mValueCodec.write(out, value);
+        }
+
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+/**
+ * <p>
+ * Computes values on cache misses for loading cache lookups. Concurrent misses
+ * on the same key share a single invocation of the loader.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public interface CacheLoader<K, V> {
+
+    /**
+     * Computes the value for the given key.
+     *
+     * @param key the key which missed in the cache
+     * @return the value to cache or {@code null} if there is none, in which
+     *         case nothing is cached
+     * @throws Exception if the value cannot be computed, which is propagated
+     *                   to all callers waiting for the load and not cached
+     */
+    V load(K key) throws Exception;
+
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+/**
+ * <p>
+ * An immutable snapshot of a cache's statistics: lookups broken down by the
+ * tier which served them, loads, removals by {@link RemovalCause}, and
+ * latency histograms of reads, writes and loads. Snapshots are taken with
+ * the {@code stats()} method of {@link LruCache}, {@link ExpirableCache} and
+ * {@link AbstractCache}. Counters only ever grow, so the difference of two
+ * snapshots describes the activity in between.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public final class CacheStats {
+
+    private final long mMemoryHitCount;
+    private final long mDiskHitCount;
+    private final long mMissCount;
+    private final long mLoadSuccessCount;
+    private final long mLoadFailureCount;
+    private final long mDiskProbeSkipCount;
+    private final long mDiskProbeFalsePositiveCount;
+    private final long[] mRemovalCounts;
+    private final Latency mReadLatency;
+    private final Latency mWriteLatency;
+    private final Latency mLoadLatency;
+
+    /**
+     * A snapshot of a latency histogram. Samples are counted in buckets whose
+     * bounds are powers of two nanoseconds, so percentiles are accurate within
+     * a factor of two.
+     */
+    public static final class Latency {
+
+        static final int BUCKETS = 64;
+
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mTotalNanos;
+
+        Latency(long[] buckets, long count, long totalNanos) {
+            mBuckets = buckets;
+            mCount = count;
+            mTotalNanos = totalNanos;
+        }
+
+        /**
+         * Returns the number of recorded samples.
+         *
+         * @return sample count
+         */
+        public long count() {
+            return mCount;
+        }
+
+        /**
+         * Returns the sum of all recorded samples.
+         *
+         * @return total latency in nanoseconds
+         */
+        public long totalNanos() {
+            return mTotalNanos;
+        }
+
+        /**
+         * Returns the mean of all recorded samples.
+         *
+         * @return mean latency in nanoseconds, or 0 if there are no samples
+         */
+        public double meanNanos() {
+            return mCount == 0 ? 0 : (double) mTotalNanos / mCount;
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given percentile.
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the percentile's latency bound in nanoseconds, or 0 if there
+         *         are no samples
+         */
+        public long percentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100)
+                throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+            long total = 0;
+            for (long bucket : mBuckets)
+                total += bucket;
+            if (total == 0)
+                return 0;
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank && mBuckets[i] > 0)
+                    return i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * Returns the sample counts per bucket. Bucket {@code i} holds samples
+         * of at least {@code 2^i} and less than {@code 2^(i+1)} nanoseconds,
+         * except for bucket 0, which also holds samples of 0 nanoseconds.
+         *
+         * @return a copy of the bucket counts
+         */
+        public long[] bucketCounts() {
+            return mBuckets.clone();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Latency[count=%d,mean=%.0fns,p50=%dns,p99=%dns]", mCount, meanNanos(),
+                    percentileNanos(50), percentileNanos(99));
+        }
+
+    }
+
+    CacheStats(long memoryHitCount, long diskHitCount, long missCount, long loadSuccessCount,
+               long loadFailureCount, long diskProbeSkipCount, long diskProbeFalsePositiveCount,
+               long[] removalCounts, Latency readLatency, Latency writeLatency, Latency loadLatency) {
+        mMemoryHitCount = memoryHitCount;
+        mDiskHitCount = diskHitCount;
+        mMissCount = missCount;
+        mLoadSuccessCount = loadSuccessCount;
+        mLoadFailureCount = loadFailureCount;
+        mDiskProbeSkipCount = diskProbeSkipCount;
+        mDiskProbeFalsePositiveCount = diskProbeFalsePositiveCount;
+        mRemovalCounts = removalCounts;
+        mReadLatency = readLatency;
+        mWriteLatency = writeLatency;
+        mLoadLatency = loadLatency;
+    }
+
+    /**
+     * Returns the number of lookups which found a cached value in any tier.
+     *
+     * @return hit count
+     */
+    public long hitCount() {
+        return mMemoryHitCount + mDiskHitCount;
+    }
+
+    /**
+     * Returns the number of lookups served from memory, on the heap or
+     * off-heap.
+     *
+     * @return memory hit count
+     */
+    public long memoryHitCount() {
+        return mMemoryHitCount;
+    }
+
+    /**
+     * Returns the number of lookups served from the disk cache.
+     *
+     * @return disk hit count
+     */
+    public long diskHitCount() {
+        return mDiskHitCount;
+    }
+
+    /**
+     * Returns the number of lookups which did not find a cached value.
+     *
+     * @return miss count
+     */
+    public long missCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the total number of lookups.
+     *
+     * @return request count
+     */
+    public long requestCount() {
+        return hitCount() + mMissCount;
+    }
+
+    /**
+     * Returns the ratio of hits to lookups.
+     *
+     * @return hit rate between 0 and 1, or 1 if there were no lookups
+     */
+    public double hitRate() {
+        long requests = requestCount();
+        return requests == 0 ? 1.0 : (double) hitCount() / requests;
+    }
+
+    /**
+     * Returns the number of values which were loaded successfully.
+     *
+     * @return load success count
+     */
+    public long loadSuccessCount() {
+        return mLoadSuccessCount;
+    }
+
+    /**
+     * Returns the number of loads which failed or returned no value.
+     *
+     * @return load failure count
+     */
+    public long loadFailureCount() {
+        return mLoadFailureCount;
+    }
+
+    /**
+     * Returns the number of disk cache lookups answered as misses from the
+     * in-memory expiration index, without probing the disk.
+     *
+     * @return skipped disk probe count
+     */
+    public long diskProbeSkipCount() {
+        return mDiskProbeSkipCount;
+    }
+
+    /**
+     * Returns the number of disk cache lookups for which the expiration index
+     * held a record but the disk held no entry, e.g. because its file was
+     * deleted externally.
+     *
+     * @return disk probe false positive count
+     */
+    public long diskProbeFalsePositiveCount() {
+        return mDiskProbeFalsePositiveCount;
+    }
+
+    /**
+     * Returns the ratio of lookups of absent disk entries which still probed
+     * the disk because the expiration index held a stale record.
+     *
+     * @return false positive rate between 0 and 1, or 0 if there were no
+     *         lookups of absent entries
+     */
+    public double diskProbeFalsePositiveRate() {
+        long negatives = mDiskProbeSkipCount + mDiskProbeFalsePositiveCount;
+        return negatives == 0 ? 0.0 : (double) mDiskProbeFalsePositiveCount / negatives;
+    }
+
+    /**
+     * Returns the number of entries removed for the given cause.
+     *
+     * @param cause the {@link RemovalCause}
+     * @return removal count
+     */
+    public long removalCount(RemovalCause cause) {
+        return mRemovalCounts[cause.ordinal()];
+    }
+
+    /**
+     * Returns the number of entries which were evicted rather than removed by
+     * the user.
+     *
+     * @return eviction count
+     * @see RemovalCause#wasEvicted()
+     */
+    public long evictionCount() {
+        long evictions = 0;
+        for (RemovalCause cause : RemovalCause.values()) {
+            if (cause.wasEvicted())
+                evictions += mRemovalCounts[cause.ordinal()];
+        }
+        return evictions;
+    }
+
+    /**
+     * Returns the latency of lookups. Only recorded by caches with a disk
+     * tier, where lookup latency varies.
+     *
+     * @return read {@link Latency}
+     */
+    public Latency readLatency() {
+        return mReadLatency;
+    }
+
+    /**
+     * Returns the latency of writes. Only recorded by caches with a disk tier,
+     * where write latency varies.
+     *
+     * @return write {@link Latency}
+     */
+    public Latency writeLatency() {
+        return mWriteLatency;
+    }
+
+    /**
+     * Returns the latency of loads, both successful and failed.
+     *
+     * @return load {@link Latency}
+     */
+    public Latency loadLatency() {
+        return mLoadLatency;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder removals = new StringBuilder();
+        for (RemovalCause cause : RemovalCause.values()) {
+            if (removals.length() > 0)
+                removals.append(',');
+            removals.append(cause).append('=').append(mRemovalCounts[cause.ordinal()]);
+        }
+        return String.format("CacheStats[hits=%d,memoryHits=%d,diskHits=%d,misses=%d,hitRate=%d%%,"
+                + "loads=%d,loadFailures=%d,diskProbesSkipped=%d,diskProbeFalsePositives=%d,removals={%s},"
+                + "read=%s,write=%s,load=%s]", hitCount(), mMemoryHitCount, mDiskHitCount, mMissCount,
+                (int) (hitRate() * 100), mLoadSuccessCount, mLoadFailureCount, mDiskProbeSkipCount,
+                mDiskProbeFalsePositiveCount, removals, mReadLatency, mWriteLatency, mLoadLatency);
+    }
+
+}
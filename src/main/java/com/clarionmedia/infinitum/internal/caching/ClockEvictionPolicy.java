@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * An {@link EvictionPolicy} implementing the CLOCK (second chance) algorithm.
+ * Entries are kept in a circular buffer and an access only sets a reference
+ * bit, which makes hits cheaper than with LRU. When an entry must be evicted,
+ * the clock hand sweeps the buffer, clearing reference bits until it finds an
+ * entry which has not been referenced since the last sweep.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public class ClockEvictionPolicy<K> extends EvictionPolicy<K> {
+
+    private final Map<K, PolicyQueue.Node<K>> mNodes;
+    private final PolicyQueue<K> mRing;
+    private PolicyQueue.Node<K> mHand;
+
+    /**
+     * Creates a new {@code ClockEvictionPolicy}.
+     */
+    public ClockEvictionPolicy() {
+        super("CLOCK");
+        mNodes = new HashMap<K, PolicyQueue.Node<K>>();
+        mRing = new PolicyQueue<K>();
+    }
+
+    @Override
+    protected void onAdd(K key, int size) {
+        PolicyQueue.Node<K> node = new PolicyQueue.Node<K>(key, size);
+        mNodes.put(key, node);
+        // New entries are inserted behind the hand, so they are inspected last
+        if (mHand == null) {
+            mRing.addLast(node);
+            mHand = node;
+        } else {
+            mRing.addBefore(mHand, node);
+        }
+    }
+
+    @Override
+    protected void onAccess(K key) {
+        PolicyQueue.Node<K> node = mNodes.get(key);
+        if (node != null)
+            node.mReferenced = true;
+    }
+
+    @Override
+    protected void onRemove(K key) {
+        PolicyQueue.Node<K> node = mNodes.remove(key);
+        if (node != null)
+            unlink(node);
+    }
+
+    @Override
+    protected K selectVictim() {
+        while (mHand != null) {
+            PolicyQueue.Node<K> node = mHand;
+            if (node.mReferenced) {
+                node.mReferenced = false;
+                mHand = mRing.nextCircular(node);
+            } else {
+                unlink(node);
+                mNodes.remove(node.mKey);
+                return node.mKey;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Appends the keys in the order the hand visits them. Referenced entries
+     * are only evicted after a full sweep, so they are appended last.
+     */
+    @Override
+    protected void appendInEvictionOrder(List<? super K> keys) {
+        if (mHand == null)
+            return;
+        for (int pass = 0; pass < 2; pass++) {
+            PolicyQueue.Node<K> node = mHand;
+            do {
+                if (node.mReferenced == (pass == 1))
+                    keys.add(node.mKey);
+                node = mRing.nextCircular(node);
+            } while (node != mHand);
+        }
+    }
+
+    private void unlink(PolicyQueue.Node<K> node) {
+        if (node == mHand)
+            mHand = mRing.count() == 1 ? null : mRing.nextCircular(node);
+        mRing.remove(node);
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * A {@link DiskStore.Codec} compressing the values encoded by another codec
+ * with a {@link CompressionCodec}. Values smaller than a threshold, or which
+ * do not shrink, are stored as encoded.
+ * </p>
+ * <p>
+ * Compressed values are prefixed with a header: {@code magic (3) | codec id
+ * (1) | original length (4)}. Values without the header are passed to the
+ * underlying codec unchanged, so entries written before compression was
+ * enabled, or after it was disabled, remain readable. Uncompressed values
+ * which happen to start with the magic bytes are stored with the reserved
+ * codec id 0.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+class CompressingCodec<V> implements DiskStore.Codec<V> {
+
+    private static final int HEADER_SIZE = 8;
+    // deflate, the codec with the highest ratio, expands at most 1032:1
+    private static final int MAX_RATIO = 1032;
+    private static final byte STORED = 0;
+    private static final byte[] MAGIC = {(byte) 0xC0, (byte) 0xDE, (byte) 0xC5};
+
+    private final DiskStore.Codec<V> mDelegate;
+    private final Map<Byte, CompressionCodec> mDecoders;
+    private final StripedCounter mCompressedCount;
+    private final StripedCounter mUncompressedCount;
+    private final StripedCounter mOriginalBytes;
+    private final StripedCounter mStoredBytes;
+    private final StatsCounter.Histogram mCompressLatency;
+    private final StatsCounter.Histogram mDecompressLatency;
+    private volatile CompressionCodec mCodec;
+    private volatile int mMinSize;
+
+    /**
+     * Creates a new {@code CompressingCodec} which does not compress until a
+     * {@link CompressionCodec} is set, but can decompress values compressed by
+     * the built-in codecs.
+     *
+     * @param delegate the {@link DiskStore.Codec} encoding and decoding values
+     */
+    CompressingCodec(DiskStore.Codec<V> delegate) {
+        mDelegate = delegate;
+        mDecoders = new ConcurrentHashMap<Byte, CompressionCodec>();
+        mDecoders.put(DeflateCodec.ID, new DeflateCodec());
+        mDecoders.put(Lz4Codec.ID, new Lz4Codec());
+        mCompressedCount = new StripedCounter();
+        mUncompressedCount = new StripedCounter();
+        mOriginalBytes = new StripedCounter();
+        mStoredBytes = new StripedCounter();
+        mCompressLatency = new StatsCounter.Histogram();
+        mDecompressLatency = new StatsCounter.Histogram();
+    }
+
+    /**
+     * Sets the {@link CompressionCodec} used for values written from now on.
+     *
+     * @param codec   the codec or {@code null} to disable compression
+     * @param minSize the encoded size in bytes below which values are not
+     *                compressed
+     */
+    void setCompression(CompressionCodec codec, int minSize) {
+        if (minSize < 0)
+            throw new IllegalArgumentException("Compression threshold must not be negative.");
+        if (codec != null) {
+            if (codec.getId() == STORED)
+                throw new IllegalArgumentException("Compression codec id 0 is reserved.");
+            mDecoders.put(codec.getId(), codec);
+        }
+        mMinSize = minSize;
+        mCodec = codec;
+    }
+
+    CompressionCodec getCompression() {
+        return mCodec;
+    }
+
+    /**
+     * Returns a snapshot of the compression statistics.
+     */
+    CompressionStats snapshot() {
+        return new CompressionStats(mCompressedCount.sum(), mUncompressedCount.sum(), mOriginalBytes.sum(),
+                mStoredBytes.sum(), mCompressLatency.snapshot(), mDecompressLatency.snapshot());
+    }
+
+    @Override
+    public V readFile(File file) throws IOException {
+        byte[] value = null;
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] header = new byte[HEADER_SIZE];
+            if (readFully(in, header) == HEADER_SIZE && isHeader(header))
+                value = decompress(header, toByteArray(in));
+        } finally {
+            in.close();
+        }
+        if (value == null)
+            return mDelegate.readFile(file);
+        return mDelegate.readStream(new ByteArrayInputStream(value));
+    }
+
+    @Override
+    public void writeFile(File file, V value) throws IOException {
+        if (mCodec == null) {
+            mDelegate.writeFile(file, value);
+            return;
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            writeStream(out, value);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public V readStream(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, HEADER_SIZE);
+        byte[] header = new byte[HEADER_SIZE];
+        int read = readFully(pushback, header);
+        if (read < HEADER_SIZE || !isHeader(header)) {
+            pushback.unread(header, 0, read);
+            return mDelegate.readStream(pushback);
+        }
+        return mDelegate.readStream(new ByteArrayInputStream(decompress(header, toByteArray(pushback))));
+    }
+
+    @Override
+    public void writeStream(OutputStream out, V value) throws IOException {
+        CompressionCodec codec = mCodec;
+        if (codec == null) {
+            mDelegate.writeStream(out, value);
+            return;
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        mDelegate.writeStream(encoded, value);
+        byte[] data = encoded.toByteArray();
+        mOriginalBytes.add(data.length);
+        if (data.length >= mMinSize) {
+            long start = System.nanoTime();
+            byte[] compressed = codec.compress(data);
+            mCompressLatency.record(System.nanoTime() - start);
+            if (compressed.length + HEADER_SIZE < data.length) {
+                out.write(header(codec.getId(), data.length));
+                out.write(compressed);
+                mCompressedCount.increment();
+                mStoredBytes.add(HEADER_SIZE + compressed.length);
+                return;
+            }
+        }
+        mUncompressedCount.increment();
+        if (data.length >= HEADER_SIZE && isHeader(data)) {
+            out.write(header(STORED, data.length));
+            mStoredBytes.add(HEADER_SIZE);
+        }
+        out.write(data);
+        mStoredBytes.add(data.length);
+    }
+
+    @Override
+    public V readBuffer(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE)
+            return mDelegate.readBuffer(buffer);
+        byte[] header = new byte[HEADER_SIZE];
+        buffer.duplicate().get(header);
+        if (!isHeader(header))
+            return mDelegate.readBuffer(buffer);
+        buffer.position(buffer.position() + HEADER_SIZE);
+        if (header[3] == STORED)
+            return mDelegate.readBuffer(buffer);
+        byte[] compressed = new byte[buffer.remaining()];
+        buffer.get(compressed);
+        return mDelegate.readBuffer(ByteBuffer.wrap(decompress(header, compressed)));
+    }
+
+    private byte[] decompress(byte[] header, byte[] data) throws IOException {
+        byte id = header[3];
+        if (id == STORED)
+            return data;
+        CompressionCodec codec = mDecoders.get(id);
+        if (codec == null)
+            throw new IOException("Unknown compression codec " + id);
+        int length = (header[4] & 0xff) << 24 | (header[5] & 0xff) << 16 | (header[6] & 0xff) << 8
+                | (header[7] & 0xff);
+        // reject corrupt lengths before the codec allocates the output
+        if (length < 0 || length > (long) data.length * MAX_RATIO)
+            throw new IOException("Invalid original length " + length + " for " + data.length + " compressed bytes");
+        long start = System.nanoTime();
+        byte[] value = codec.decompress(data, 0, data.length, length);
+        mDecompressLatency.record(System.nanoTime() - start);
+        return value;
+    }
+
+    private static byte[] header(byte id, int length) {
+        return new byte[] {MAGIC[0], MAGIC[1], MAGIC[2], id, (byte) (length >>> 24), (byte) (length >>> 16),
+                (byte) (length >>> 8), (byte) length};
+    }
+
+    private static boolean isHeader(byte[] bytes) {
+        return bytes[0] == MAGIC[0] && bytes[1] == MAGIC[1] && bytes[2] == MAGIC[2];
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            int count = in.read(buffer, read, buffer.length - read);
+            if (count < 0)
+                break;
+            read += count;
+        }
+        return read;
+    }
+
+    private static byte[] toByteArray(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Compresses the encoded values of disk cache entries. Every compressed entry
+ * is stored with the id of its codec, so entries are always decompressed
+ * with the codec which compressed them, even after the cache switched to
+ * another codec. Ids must therefore be stable and unique among the codecs
+ * used by a cache, and id 0 is reserved. {@link DeflateCodec} and
+ * {@link Lz4Codec} are built in.
+ * </p>
+ * <p>
+ * Implementations must be threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public interface CompressionCodec {
+
+    /**
+     * Returns the id stored with entries compressed by this codec.
+     *
+     * @return the codec id
+     */
+    byte getId();
+
+    /**
+     * Compresses the given bytes.
+     *
+     * @param data the bytes to compress
+     * @return the compressed bytes
+     */
+    byte[] compress(byte[] data);
+
+    /**
+     * Decompresses the given range of bytes.
+     *
+     * @param data           the compressed bytes
+     * @param offset         the offset of the first compressed byte
+     * @param length         the number of compressed bytes
+     * @param originalLength the number of bytes before compression
+     * @return the decompressed bytes
+     * @throws IOException if the bytes are corrupt
+     */
+    byte[] decompress(byte[] data, int offset, int length, int originalLength) throws IOException;
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+/**
+ * <p>
+ * An immutable snapshot of the disk cache compression statistics of an
+ * {@link AbstractCache}, taken with {@link AbstractCache#compressionStats()}.
+ * Comparing the bytes saved with the time spent compressing and
+ * decompressing tells whether compression pays off for a cache.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public final class CompressionStats {
+
+    private final long mCompressedCount;
+    private final long mUncompressedCount;
+    private final long mOriginalBytes;
+    private final long mStoredBytes;
+    private final CacheStats.Latency mCompressLatency;
+    private final CacheStats.Latency mDecompressLatency;
+
+    CompressionStats(long compressedCount, long uncompressedCount, long originalBytes, long storedBytes,
+                     CacheStats.Latency compressLatency, CacheStats.Latency decompressLatency) {
+        mCompressedCount = compressedCount;
+        mUncompressedCount = uncompressedCount;
+        mOriginalBytes = originalBytes;
+        mStoredBytes = storedBytes;
+        mCompressLatency = compressLatency;
+        mDecompressLatency = decompressLatency;
+    }
+
+    /**
+     * Returns the number of entries written compressed.
+     *
+     * @return compressed entry count
+     */
+    public long compressedCount() {
+        return mCompressedCount;
+    }
+
+    /**
+     * Returns the number of entries written uncompressed, either because they
+     * were smaller than the compression threshold or did not shrink.
+     *
+     * @return uncompressed entry count
+     */
+    public long uncompressedCount() {
+        return mUncompressedCount;
+    }
+
+    /**
+     * Returns the total size of all written entries before compression.
+     *
+     * @return original size in bytes
+     */
+    public long originalBytes() {
+        return mOriginalBytes;
+    }
+
+    /**
+     * Returns the total size of all written entries as stored on disk.
+     *
+     * @return stored size in bytes
+     */
+    public long storedBytes() {
+        return mStoredBytes;
+    }
+
+    /**
+     * Returns the ratio of the original size to the stored size of all
+     * written entries.
+     *
+     * @return compression ratio, or 1 if nothing was written
+     */
+    public double compressionRatio() {
+        return mStoredBytes == 0 ? 1.0 : (double) mOriginalBytes / mStoredBytes;
+    }
+
+    /**
+     * Returns the time spent compressing entries, including attempts on
+     * entries which did not shrink.
+     *
+     * @return compression {@link CacheStats.Latency}
+     */
+    public CacheStats.Latency compressLatency() {
+        return mCompressLatency;
+    }
+
+    /**
+     * Returns the time spent decompressing entries.
+     *
+     * @return decompression {@link CacheStats.Latency}
+     */
+    public CacheStats.Latency decompressLatency() {
+        return mDecompressLatency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompressionStats[compressed=%d,uncompressed=%d,ratio=%.2f,compress=%s,decompress=%s]",
+                mCompressedCount, mUncompressedCount, compressionRatio(), mCompressLatency, mDecompressLatency);
+    }
+
+}
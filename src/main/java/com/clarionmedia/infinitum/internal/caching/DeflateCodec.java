@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * A {@link CompressionCodec} using the DEFLATE algorithm of
+ * {@link Deflater}. It achieves good ratios on text such as JSON and XML at a
+ * moderate CPU cost.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public final class DeflateCodec implements CompressionCodec {
+
+    /**
+     * The id of entries compressed by this codec.
+     */
+    public static final byte ID = 1;
+
+    private final int mLevel;
+
+    /**
+     * Creates a new {@code DeflateCodec} using the default compression level.
+     */
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a new {@code DeflateCodec} using the given compression level.
+     *
+     * @param level the compression level, between 0 and 9, or
+     *              {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public DeflateCodec(int level) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("Compression level must be between 0 and 9.");
+        mLevel = level;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(mLevel, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int originalLength) throws IOException {
+        // Raw DEFLATE streams need a trailing dummy byte to be inflated completely
+        byte[] input = new byte[length + 1];
+        System.arraycopy(data, offset, input, 0, length);
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(input);
+            byte[] result = new byte[originalLength];
+            int inflated = 0;
+            while (inflated < originalLength) {
+                int count = inflater.inflate(result, inflated, originalLength - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput()))
+                    break;
+                inflated += count;
+            }
+            if (inflated != originalLength)
+                throw new IOException("Corrupt DEFLATE data");
+            return result;
+        } catch (DataFormatException e) {
+            IOException corrupt = new IOException("Corrupt DEFLATE data");
+            corrupt.initCause(e);
+            throw corrupt;
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Tracks the size and access time of the entries of a disk cache and trims
+ * it, least recently used first, once it exceeds its byte budget. All open
+ * quotas additionally share an optional global budget, which is enforced by
+ * evicting the least recently used entry across all of them.
+ * </p>
+ * <p>
+ * Access times are tracked in memory as entries are written and read, and
+ * are seeded from the entries' write times when a quota is loaded. Loading
+ * lists the whole store, so it is separate from opening and meant to run in
+ * the background while entries are already being tracked. Trimming
+ * runs on a shared background thread and evicts one entry at a time, so no
+ * lock is held for longer than a single eviction.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+class DiskQuota {
+
+    private static final ExecutorService TRIMMER = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Infinitum-DiskTrim");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    private static final Map<DiskQuota, Boolean> QUOTAS = new WeakHashMap<DiskQuota, Boolean>();
+    private static final AtomicBoolean TRIM_SCHEDULED = new AtomicBoolean();
+    private static volatile long sGlobalMaxBytes;
+
+    private static final Runnable TRIM_TASK = new Runnable() {
+        @Override
+        public void run() {
+            TRIM_SCHEDULED.set(false);
+            trim();
+        }
+    };
+
+    private final Evictor mEvictor;
+    private final LinkedHashMap<String, Usage> mEntries;
+    private DiskStore<?> mStore;
+    private int mGeneration;
+    private long mBytes;
+    private volatile long mMaxBytes;
+
+    /**
+     * Deletes entries chosen for eviction from the disk cache.
+     */
+    interface Evictor {
+
+        /**
+         * Evicts the given entry if it is still tracked with the given access
+         * time, see {@link DiskQuota#remove(String, long)}.
+         *
+         * @return {@code true} if the entry was evicted
+         */
+        boolean evict(String name, long accessTime);
+
+    }
+
+    /**
+     * The size and last access time of a tracked entry.
+     */
+    private static final class Usage {
+
+        private final long mBytes;
+        private long mAccessTime;
+
+        private Usage(long bytes, long accessTime) {
+            mBytes = bytes;
+            mAccessTime = accessTime;
+        }
+
+    }
+
+    /**
+     * A snapshot of the least recently used entry of a quota.
+     */
+    private static final class Eldest {
+
+        private final String mName;
+        private final long mAccessTime;
+
+        private Eldest(String name, long accessTime) {
+            mName = name;
+            mAccessTime = accessTime;
+        }
+
+    }
+
+    /**
+     * Creates a new, unbounded {@code DiskQuota}.
+     *
+     * @param evictor the {@link Evictor} deleting trimmed entries
+     */
+    DiskQuota(Evictor evictor) {
+        mEvictor = evictor;
+        mEntries = new LinkedHashMap<String, Usage>(16, 0.75f, true);
+    }
+
+    /**
+     * Sets the maximum total size of all open quotas in bytes.
+     *
+     * @param maxBytes the global budget in bytes, or 0 for no global budget
+     */
+    static void setGlobalMaxBytes(long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("Disk quota must not be negative.");
+        sGlobalMaxBytes = maxBytes;
+        scheduleTrim();
+    }
+
+    static long getGlobalMaxBytes() {
+        return sGlobalMaxBytes;
+    }
+
+    /**
+     * Returns the total size of the entries tracked by all open quotas.
+     */
+    static long getGlobalBytes() {
+        long bytes = 0;
+        for (DiskQuota quota : quotas())
+            bytes += quota.getBytes();
+        return bytes;
+    }
+
+    /**
+     * Sets the maximum total size of the tracked entries in bytes.
+     *
+     * @param maxBytes the budget in bytes, or 0 for no budget
+     */
+    void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("Disk quota must not be negative.");
+        mMaxBytes = maxBytes;
+        scheduleTrim();
+    }
+
+    long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Returns the total size of the tracked entries in bytes.
+     */
+    synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Stops tracking entries and starts tracking the entries of the given
+     * {@link DiskStore} as they are written, registering the quota for global
+     * trimming. Existing entries are tracked once {@link #load(DiskStore)} is
+     * called.
+     */
+    void open(DiskStore<?> store) {
+        synchronized (this) {
+            clear();
+            mStore = store;
+        }
+        synchronized (QUOTAS) {
+            QUOTAS.put(this, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Tracks the existing entries of the given {@link DiskStore}, ordered by
+     * write time and ahead of the entries written or read since the quota was
+     * opened. Does nothing if the quota is not open for the store, or if it
+     * was cleared, closed or reopened while the store was being listed.
+     */
+    void load(DiskStore<?> store) {
+        int generation;
+        synchronized (this) {
+            if (mStore != store)
+                return;
+            generation = mGeneration;
+        }
+        List<String> names = store.names();
+        final Map<String, Long> writeTimes = new LinkedHashMap<String, Long>(names.size());
+        Map<String, Long> lengths = new LinkedHashMap<String, Long>(names.size());
+        for (String name : names) {
+            writeTimes.put(name, store.lastModified(name));
+            lengths.put(name, store.length(name));
+        }
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                long left = writeTimes.get(lhs);
+                long right = writeTimes.get(rhs);
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        synchronized (this) {
+            if (mStore != store || mGeneration != generation)
+                return;
+            Map<String, Usage> recent = new LinkedHashMap<String, Usage>(mEntries);
+            mEntries.clear();
+            mBytes = 0;
+            for (String name : names) {
+                if (!recent.containsKey(name))
+                    track(name, new Usage(lengths.get(name), writeTimes.get(name)));
+            }
+            for (Map.Entry<String, Usage> entry : recent.entrySet())
+                track(entry.getKey(), entry.getValue());
+        }
+        scheduleTrim();
+    }
+
+    /**
+     * Stops tracking entries and unregisters the quota from global trimming.
+     */
+    void close() {
+        synchronized (QUOTAS) {
+            QUOTAS.remove(this);
+        }
+        synchronized (this) {
+            clear();
+            mStore = null;
+        }
+    }
+
+    /**
+     * Records a write of the given entry, scheduling a trim if a budget is
+     * exceeded.
+     *
+     * @param name  the entry name
+     * @param bytes the size of the entry on disk
+     */
+    void recordWrite(String name, long bytes) {
+        synchronized (this) {
+            untrack(name);
+            track(name, new Usage(bytes, System.currentTimeMillis()));
+        }
+        if (isOverBudget())
+            scheduleTrim();
+    }
+
+    /**
+     * Records a read of the given entry.
+     */
+    synchronized void recordAccess(String name) {
+        Usage usage = mEntries.get(name);
+        if (usage != null)
+            usage.mAccessTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Stops tracking the given entry.
+     */
+    synchronized void recordRemoval(String name) {
+        untrack(name);
+    }
+
+    /**
+     * Stops tracking the given entry if its last access time is the given
+     * one, i.e. if it was neither written nor read since it was chosen for
+     * eviction.
+     *
+     * @return {@code true} if the entry was tracked with the given access time
+     */
+    synchronized boolean remove(String name, long accessTime) {
+        Usage usage = mEntries.get(name);
+        if (usage == null || usage.mAccessTime != accessTime)
+            return false;
+        untrack(name);
+        return true;
+    }
+
+    /**
+     * Stops tracking all entries.
+     */
+    synchronized void clear() {
+        mGeneration++;
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    private void track(String name, Usage usage) {
+        mEntries.put(name, usage);
+        mBytes += usage.mBytes;
+    }
+
+    private void untrack(String name) {
+        Usage usage = mEntries.remove(name);
+        if (usage != null) {
+            mBytes -= usage.mBytes;
+        }
+    }
+
+    private boolean isOverBudget() {
+        long maxBytes = mMaxBytes;
+        long globalMaxBytes = sGlobalMaxBytes;
+        return (maxBytes > 0 && getBytes() > maxBytes) || (globalMaxBytes > 0 && getGlobalBytes() > globalMaxBytes);
+    }
+
+    /**
+     * Returns the least recently used entry, or {@code null} if there is none.
+     */
+    private synchronized Eldest eldest() {
+        if (mEntries.isEmpty())
+            return null;
+        Map.Entry<String, Usage> eldest = mEntries.entrySet().iterator().next();
+        // Copy the access time since it changes on reads
+        return new Eldest(eldest.getKey(), eldest.getValue().mAccessTime);
+    }
+
+    private static List<DiskQuota> quotas() {
+        synchronized (QUOTAS) {
+            return new ArrayList<DiskQuota>(QUOTAS.keySet());
+        }
+    }
+
+    private static void scheduleTrim() {
+        if (TRIM_SCHEDULED.compareAndSet(false, true))
+            TRIMMER.execute(TRIM_TASK);
+    }
+
+    /**
+     * Evicts entries one at a time until no budget is exceeded. Quotas over
+     * their own budget are trimmed first, then the least recently used entry
+     * across all quotas is evicted while the global budget is exceeded. The
+     * pass stops early if an eviction is declined, e.g. because the entry has
+     * a pending write, in which case the next write schedules another pass.
+     */
+    private static void trim() {
+        while (true) {
+            List<DiskQuota> quotas = quotas();
+            DiskQuota victim = null;
+            Eldest eldest = null;
+            for (DiskQuota quota : quotas) {
+                long maxBytes = quota.mMaxBytes;
+                if (maxBytes > 0 && quota.getBytes() > maxBytes) {
+                    victim = quota;
+                    eldest = quota.eldest();
+                    break;
+                }
+            }
+            long globalMaxBytes = sGlobalMaxBytes;
+            if (victim == null && globalMaxBytes > 0 && getGlobalBytes() > globalMaxBytes) {
+                for (DiskQuota quota : quotas) {
+                    Eldest candidate = quota.eldest();
+                    if (candidate != null && (eldest == null || candidate.mAccessTime < eldest.mAccessTime)) {
+                        victim = quota;
+                        eldest = candidate;
+                    }
+                }
+            }
+            if (eldest == null)
+                return;
+            if (!victim.mEvictor.evict(eldest.mName, eldest.mAccessTime))
+                return;
+        }
+    }
+
+}
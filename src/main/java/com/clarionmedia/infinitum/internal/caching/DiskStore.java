@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * <p>
+ * The persistent layout backing the L2 cache of an {@link AbstractCache}.
+ * Entries are identified by the file name the cache derives from their key
+ * and are encoded and decoded through a {@link Codec}.
+ * </p>
+ * <p>
+ * Implementations must be threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+abstract class DiskStore<V> {
+
+    /**
+     * The prefix of temporary files created in the store's directory.
+     */
+    static final String TEMP_FILE_PREFIX = ".tmp-";
+
+    protected final File mDirectory;
+    protected final Codec<V> mCodec;
+
+    /**
+     * Encodes and decodes cached values, either through files or streams.
+     */
+    interface Codec<V> {
+
+        V readFile(File file) throws IOException;
+
+        void writeFile(File file, V value) throws IOException;
+
+        V readStream(InputStream in) throws IOException;
+
+        void writeStream(OutputStream out, V value) throws IOException;
+
+        V readBuffer(ByteBuffer buffer) throws IOException;
+
+    }
+
+    /**
+     * Creates a new {@code DiskStore}.
+     *
+     * @param directory the directory holding the store's files
+     * @param codec     the {@link Codec} used to encode and decode values
+     */
+    protected DiskStore(File directory, Codec<V> codec) {
+        mDirectory = directory;
+        mCodec = codec;
+    }
+
+    /**
+     * Indicates if an entry with the given name is stored.
+     */
+    abstract boolean contains(String name);
+
+    /**
+     * Reads the entry with the given name.
+     *
+     * @return the decoded value or {@code null} if there is no such entry
+     */
+    abstract V read(String name) throws IOException;
+
+    /**
+     * Returns a read-only, memory-mapped view of the encoded value of the
+     * entry with the given name. The view remains valid after the entry is
+     * replaced or deleted, so implementations must never modify the bytes of
+     * a stored value in place.
+     *
+     * @return the mapped value or {@code null} if there is no such entry
+     */
+    abstract ByteBuffer map(String name) throws IOException;
+
+    /**
+     * Reads the entry with the given name by decoding a memory-mapped view of
+     * its value, avoiding copies onto the heap.
+     *
+     * @return the decoded value or {@code null} if there is no such entry
+     */
+    V readMapped(String name) throws IOException {
+        ByteBuffer buffer = map(name);
+        if (buffer == null)
+            return null;
+        return mCodec.readBuffer(buffer);
+    }
+
+    /**
+     * Writes the entry with the given name, replacing any previous entry.
+     */
+    abstract void write(String name, V value) throws IOException;
+
+    /**
+     * Deletes the entry with the given name.
+     *
+     * @return {@code true} if an entry was deleted
+     */
+    abstract boolean delete(String name);
+
+    /**
+     * Reads the entries with the given names. The default implementation reads
+     * them one by one in name order.
+     *
+     * @return the decoded values by name, omitting names without an entry
+     */
+    Map<String, V> readAll(Collection<String> names) throws IOException {
+        Map<String, V> values = new LinkedHashMap<String, V>();
+        for (String name : new TreeSet<String>(names)) {
+            V value = read(name);
+            if (value != null)
+                values.put(name, value);
+        }
+        return values;
+    }
+
+    /**
+     * Writes the given entries, replacing any previous entries. The default
+     * implementation writes them one by one in name order.
+     */
+    void writeAll(Map<String, V> values) throws IOException {
+        for (Map.Entry<String, V> entry : new TreeMap<String, V>(values).entrySet())
+            write(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Deletes the entries with the given names. The default implementation
+     * deletes them one by one.
+     *
+     * @return the number of entries deleted
+     */
+    int deleteAll(Collection<String> names) {
+        int deleted = 0;
+        for (String name : names) {
+            if (delete(name))
+                deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Returns the time the entry with the given name was written.
+     *
+     * @return the write time in milliseconds or 0 if there is no such entry
+     */
+    abstract long lastModified(String name);
+
+    /**
+     * Returns the number of bytes the entry with the given name occupies on
+     * disk.
+     *
+     * @return the size in bytes or 0 if there is no such entry
+     */
+    abstract long length(String name);
+
+    /**
+     * Returns the names of all stored entries.
+     */
+    abstract List<String> names();
+
+    /**
+     * Deletes all entries.
+     */
+    abstract void clear();
+
+    /**
+     * Deletes the temporary files in the store's directory which were last
+     * modified before the given time. Such files are left behind by writes
+     * which were interrupted, e.g. by the process being killed.
+     *
+     * @return the number of deleted files
+     */
+    int deleteTempFiles(long modifiedBefore) {
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+            return 0;
+        int deleted = 0;
+        for (File file : files) {
+            if (file.getName().startsWith(TEMP_FILE_PREFIX) && file.lastModified() < modifiedBefore && file.delete())
+                deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Releases any resources held by the store. The default implementation
+     * does nothing.
+     */
+    void close() {
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Decides which entry a bounded cache, such as {@link LruCache}, evicts when
+ * it exceeds its maximum size. The cache notifies the policy of every
+ * insertion and removal and replays recorded reads to it. Entry sizes are
+ * expressed in the same units as the cache's maximum size.
+ * </p>
+ * <p>
+ * All callbacks are invoked while the cache holds its eviction lock, so
+ * implementations do not need to be threadsafe. Because reads are recorded in
+ * lossy buffers, a policy may not see every access. A policy instance keeps
+ * per-cache state and must not be shared between caches.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public abstract class EvictionPolicy<K> {
+
+    private final PolicyStats mStats;
+    private int mMaxSize;
+
+    /**
+     * Creates a new {@code EvictionPolicy}.
+     *
+     * @param name the policy name reported in its {@link PolicyStats}
+     */
+    protected EvictionPolicy(String name) {
+        mStats = new PolicyStats(name);
+    }
+
+    /**
+     * Returns the hit, miss and eviction counters of this policy.
+     *
+     * @return {@link PolicyStats}
+     */
+    public final PolicyStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Returns the maximum size of the cache this policy is attached to.
+     *
+     * @return maximum size
+     */
+    protected final int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Attaches the policy to a cache with the given maximum size.
+     *
+     * @param maxSize the maximum size of the cache
+     */
+    void attach(int maxSize) {
+        if (mMaxSize != 0)
+            throw new IllegalStateException(getClass().getSimpleName() + " is already in use by another cache");
+        mMaxSize = maxSize;
+        onAttach(maxSize);
+    }
+
+    /**
+     * Called once when the policy is attached to a cache. The default
+     * implementation does nothing.
+     *
+     * @param maxSize the maximum size of the cache
+     */
+    protected void onAttach(int maxSize) {
+    }
+
+    /**
+     * Called when an entry has been inserted into the cache.
+     *
+     * @param key  the entry key
+     * @param size the entry size
+     */
+    protected abstract void onAdd(K key, int size);
+
+    /**
+     * Called when a cached entry has been read.
+     *
+     * @param key the entry key
+     */
+    protected abstract void onAccess(K key);
+
+    /**
+     * Called when a lookup did not find an entry. The default implementation
+     * does nothing.
+     *
+     * @param key the key which was looked up
+     */
+    protected void onMiss(K key) {
+    }
+
+    /**
+     * Called when an entry has been explicitly removed or replaced, as opposed
+     * to evicted by this policy.
+     *
+     * @param key the entry key
+     */
+    protected abstract void onRemove(K key);
+
+    /**
+     * Selects the next entry to evict and stops tracking it.
+     *
+     * @return the key of the entry to evict or {@code null} if the policy
+     *         tracks no entries
+     */
+    protected abstract K selectVictim();
+
+    /**
+     * Appends the keys of the tracked entries to the given {@link List} in
+     * the order the policy would evict them, i.e. from least to most valuable.
+     * Ghost entries, which are remembered after their eviction, are not
+     * included. The default implementation appends nothing, in which case the
+     * cache falls back to an unspecified order.
+     *
+     * @param keys the {@code List} to append the keys to
+     */
+    protected void appendInEvictionOrder(List<? super K> keys) {
+    }
+
+}
@@ -16,14 +16,34 @@
 
 package com.clarionmedia.infinitum.internal.caching;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.clarionmedia.infinitum.internal.caching.TimingWheel.ExpirationHandler;
+import com.clarionmedia.infinitum.internal.caching.TimingWheel.Owner;
+import com.clarionmedia.infinitum.internal.caching.TimingWheel.Timeout;
 
 /**
  * <p>
@@ -32,24 +52,105 @@ import java.util.concurrent.TimeUnit;
  * expiration time or rely on a default cache timeout.
  * </p>
  * <p>
+ * Expired entries are evicted by the process-wide {@link TimingWheel}, which
+ * is shared by all {@code ExpirableCache} instances.
+ * </p>
+ * <p>
+ * Each entry is stored as a single node holding both its value and deadline,
+ * so reads are a lock-free map lookup followed by a volatile deadline read.
+ * Expired entries which have not been evicted yet are invisible to all
+ * lookups and views.
+ * </p>
+ * <p>
+ * The cache can optionally be bounded by a maximum weight, which is computed
+ * per entry by a {@link Weigher}. When the total weight exceeds the maximum,
+ * entries are evicted least-recently-used first, or as decided by the
+ * {@link EvictionPolicy} the cache was created with, regardless of their
+ * deadlines. Bounded caches record reads in a lossy buffer without locking,
+ * while writes acquire an eviction lock. Subclasses can override
+ * {@link #entryEvicted(Object, Object, long)} to move evicted entries to
+ * another tier.
+ * </p>
+ * <p>
+ * With {@link #setRefreshAfterWrite(long, CacheLoader)}, entries are reloaded
+ * ahead of their expiration. The first read of an entry older than the
+ * refresh threshold triggers a background reload, while that read and all
+ * reads until the reload completes are served the current value. Entries are
+ * only replaced if the reload returns a value, otherwise they expire as usual.
+ * With {@link #setExpirationJitter(double)}, deadlines are shortened by a
+ * random fraction so entries cached together do not expire in waves.
+ * </p>
+ * <p>
+ * With {@link #setExpiry(Expiry)}, the lifetimes of entries cached without an
+ * explicit timeout are computed by an {@link Expiry} on creation, update and
+ * read instead, e.g. to expire idle entries or to honor a max-age supplied
+ * with the value. Reads extend deadlines without locking, and entries whose
+ * deadline was extended are rescheduled once their previous deadline fires.
+ * </p>
+ * <p>
+ * A {@link RemovalListener} set with
+ * {@link #setRemovalListener(RemovalListener)} is notified of removed
+ * entries and the {@link RemovalCause} of each removal, asynchronously and
+ * in batches.
+ * </p>
+ * <p>
+ * Registered with {@link MemoryPressure}, the cache drops entries when the
+ * system runs low on memory, least recently used first if it is weighted and
+ * closest to their deadline otherwise. With {@link #setSoftValues(boolean)},
+ * values are additionally held through soft references, so the garbage
+ * collector can reclaim them before running out of memory. Reclaimed entries
+ * are treated as evicted.
+ * </p>
+ * <p>
  * This class is threadsafe.
  * </p>
  *
  * @author Tyler Treat
- * @version 1.0.7 04/09/13
+ * @version 1.1.1 10/17/26
  * @since 1.0
  */
-public class ExpirableCache<K, V> implements Map<K, V> {
+public class ExpirableCache<K, V> implements Map<K, V>, MemoryPressure.Trimmable {
 
     /**
      * The expiration timeout used if none is specified.
      */
     public static final long DEFAULT_EXPIRATION_TIMEOUT = 60;
 
-    private final ConcurrentMap<K, V> mCache;
-    private final ConcurrentMap<K, Long> mTimeoutCache;
+    private static final int MAX_REFRESH_THREADS = 4;
+
+    private static final ExecutorService REFRESHER = new ThreadPoolExecutor(0, MAX_REFRESH_THREADS, 30,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Infinitum-CacheRefresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final ConcurrentMap<K, Node<K, V>> mCache;
     private final long mDefaultExpirationTimeout;
-    private final ExecutorService mThreadPool;
+    private final TimingWheel mTimingWheel;
+    private final ExpirationHandler mExpirationHandler;
+    private final Owner mOwner;
+    private final Weigher<? super K, ? super V> mWeigher;
+    private final long mMaxWeight;
+    private final EvictionPolicy<K> mPolicy;
+    private final StripedReadBuffer<Node<K, V>> mReadBuffer;
+    private final StripedReadBuffer.Sink<Node<K, V>> mAccessReplayer;
+    private final ReentrantLock mEvictionLock;
+    private final StatsCounter mStatsCounter;
+    private final ReferenceQueue<V> mCollected;
+    private final RemovalDispatcher<K, V> mRemovals;
+    private volatile long mWeight;
+    private volatile boolean mSoftValues;
+    private volatile CacheLoader<? super K, ? extends V> mRefreshLoader;
+    private volatile long mRefreshAfterWrite;
+    private volatile double mExpirationJitter;
+    private volatile Expiry<? super K, ? super V> mExpiry;
+    private Set<K> mKeySet;
+    private Collection<V> mValues;
+    private Set<Entry<K, V>> mEntrySet;
 
     /**
      * Creates a new {@code ExpirableCache} using the default expiration timeout
@@ -66,14 +167,7 @@ public class ExpirableCache<K, V> implements Map<K, V> {
      * @param defaultExpiration the default expiration time in seconds
      */
     public ExpirableCache(final long defaultExpiration) {
-        if (defaultExpiration <= 0)
-            throw new IllegalArgumentException(
-                    "Cache expiration timeout must be greater than 0.");
-        mCache = new ConcurrentHashMap<K, V>();
-        mTimeoutCache = new ConcurrentHashMap<K, Long>();
-        mDefaultExpirationTimeout = defaultExpiration;
-        mThreadPool = Executors.newFixedThreadPool(256);
-        scheduleCacheEviction();
+        this(defaultExpiration, 16);
     }
 
     /**
@@ -84,14 +178,81 @@ public class ExpirableCache<K, V> implements Map<K, V> {
      * @param initialCapacity   the initial capacity of the cache
      */
     public ExpirableCache(final long defaultExpiration, int initialCapacity) {
+        this(defaultExpiration, initialCapacity, null, 0);
+    }
+
+    /**
+     * Creates a new {@code ExpirableCache} with with the given default
+     * expiration time, which is bounded by the given maximum weight.
+     *
+     * @param defaultExpiration the default expiration time in seconds
+     * @param initialCapacity   the initial capacity of the cache
+     * @param weigher           the {@link Weigher} used to compute entry
+     *                          weights or {@code null} for an unbounded cache
+     * @param maxWeight         the maximum total weight of all entries, only
+     *                          used if {@code weigher} is not {@code null}
+     */
+    public ExpirableCache(final long defaultExpiration, int initialCapacity,
+                          Weigher<? super K, ? super V> weigher, long maxWeight) {
+        this(defaultExpiration, initialCapacity, weigher, maxWeight,
+                weigher == null ? null : new LruEvictionPolicy<K>());
+    }
+
+    /**
+     * Creates a new {@code ExpirableCache} with with the given default
+     * expiration time, which is bounded by the given maximum weight and
+     * evicts entries as decided by the given {@link EvictionPolicy}.
+     *
+     * @param defaultExpiration the default expiration time in seconds
+     * @param initialCapacity   the initial capacity of the cache
+     * @param weigher           the {@link Weigher} used to compute entry
+     *                          weights or {@code null} for an unbounded cache
+     * @param maxWeight         the maximum total weight of all entries, only
+     *                          used if {@code weigher} is not {@code null}
+     * @param policy            the {@link EvictionPolicy} deciding which
+     *                          entries to evict, which must not be shared with
+     *                          other caches, only used if {@code weigher} is
+     *                          not {@code null}
+     */
+    public ExpirableCache(final long defaultExpiration, int initialCapacity,
+                          Weigher<? super K, ? super V> weigher, long maxWeight, EvictionPolicy<K> policy) {
         if (defaultExpiration <= 0)
             throw new IllegalArgumentException(
                     "Cache expiration timeout must be greater than 0.");
-        mCache = new ConcurrentHashMap<K, V>(initialCapacity);
-        mTimeoutCache = new ConcurrentHashMap<K, Long>(initialCapacity);
+        if (weigher != null && maxWeight <= 0)
+            throw new IllegalArgumentException(
+                    "Cache maximum weight must be greater than 0.");
+        if (weigher != null && policy == null)
+            throw new NullPointerException("policy == null");
+        mCache = new ConcurrentHashMap<K, Node<K, V>>(initialCapacity);
         mDefaultExpirationTimeout = defaultExpiration;
-        mThreadPool = Executors.newFixedThreadPool(256);
-        scheduleCacheEviction();
+        mTimingWheel = TimingWheel.getInstance();
+        mExpirationHandler = new EvictionHandler();
+        mOwner = mTimingWheel.register(mExpirationHandler);
+        mWeigher = weigher;
+        mMaxWeight = maxWeight;
+        mStatsCounter = new StatsCounter();
+        mCollected = new ReferenceQueue<V>();
+        mRemovals = new RemovalDispatcher<K, V>();
+        if (weigher == null) {
+            mPolicy = null;
+            mReadBuffer = null;
+            mAccessReplayer = null;
+            mEvictionLock = null;
+        } else {
+            mPolicy = policy;
+            mPolicy.attach((int) Math.min(Integer.MAX_VALUE, maxWeight));
+            mReadBuffer = new StripedReadBuffer<Node<K, V>>();
+            mAccessReplayer = new StripedReadBuffer.Sink<Node<K, V>>() {
+                @Override
+                public void accept(Node<K, V> node) {
+                    // Entries may have been removed since the read was recorded
+                    if (mCache.get(node.mKey) == node)
+                        mPolicy.onAccess(node.mKey);
+                }
+            };
+            mEvictionLock = new ReentrantLock();
+        }
     }
 
     /**
@@ -104,7 +265,199 @@ public class ExpirableCache<K, V> implements Map<K, V> {
     }
 
     /**
-     * Caches the given {@link Object} using the default expiration timeout.
+     * Indicates if the cache is bounded by a maximum weight.
+     *
+     * @return {@code true} if the cache has a {@link Weigher}
+     */
+    public boolean isWeighted() {
+        return mWeigher != null;
+    }
+
+    /**
+     * Returns the current total weight of all entries, which is always 0 for
+     * caches without a {@link Weigher}.
+     *
+     * @return total weight
+     */
+    public long getWeight() {
+        return mWeight;
+    }
+
+    /**
+     * Returns the maximum total weight of all entries, which is 0 for caches
+     * without a {@link Weigher}.
+     *
+     * @return maximum weight
+     */
+    public long getMaxWeight() {
+        return mMaxWeight;
+    }
+
+    /**
+     * Returns a snapshot of the cache's {@link CacheStats}. Loads are the
+     * reloads performed by refresh-ahead.
+     *
+     * @return the cache statistics
+     */
+    public CacheStats stats() {
+        return mStatsCounter.snapshot();
+    }
+
+    /**
+     * Enables refresh-ahead: reads of entries cached at least
+     * {@code refreshAfterWrite} seconds ago trigger an asynchronous reload
+     * using the given {@link CacheLoader}, while the current value keeps being
+     * served. The threshold should be shorter than the expiration timeouts of
+     * the entries. Reloaded entries keep their expiration timeout.
+     *
+     * @param refreshAfterWrite the entry age in seconds after which entries
+     *                          are refreshed
+     * @param loader            the {@code CacheLoader} reloading entries or
+     *                          {@code null} to disable refresh-ahead
+     */
+    public void setRefreshAfterWrite(long refreshAfterWrite, CacheLoader<? super K, ? extends V> loader) {
+        if (loader != null && refreshAfterWrite <= 0)
+            throw new IllegalArgumentException(
+                    "Cache refresh threshold must be greater than 0.");
+        mRefreshAfterWrite = refreshAfterWrite * 1000;
+        mRefreshLoader = loader;
+    }
+
+    /**
+     * Sets the maximum fraction by which expiration timeouts are randomly
+     * shortened, spreading out the deadlines of entries cached at the same
+     * time with the same timeout. Defaults to 0, i.e. no jitter.
+     *
+     * @param jitter the maximum fraction of the timeout, between 0 and 1
+     */
+    public void setExpirationJitter(double jitter) {
+        if (jitter < 0 || jitter >= 1)
+            throw new IllegalArgumentException(
+                    "Cache expiration jitter must be between 0 and 1.");
+        mExpirationJitter = jitter;
+    }
+
+    /**
+     * Sets the {@link RemovalListener} notified of removed entries, including
+     * replaced, expired and evicted ones.
+     *
+     * @param listener the {@code RemovalListener} or {@code null} to remove
+     *                 it
+     */
+    public void setRemovalListener(RemovalListener<K, V> listener) {
+        mRemovals.setListener(listener);
+    }
+
+    /**
+     * Returns the {@link RemovalListener} notified of removed entries.
+     *
+     * @return the {@code RemovalListener} or {@code null} if there is none
+     */
+    public RemovalListener<K, V> getRemovalListener() {
+        return mRemovals.getListener();
+    }
+
+    /**
+     * Sets the {@link Expiry} computing the lifetimes of entries cached
+     * without an explicit expiration timeout. Entries cached with an explicit
+     * timeout still have their deadline extended on reads.
+     *
+     * @param expiry the {@code Expiry} or {@code null} to use the default
+     *               expiration timeout
+     */
+    public void setExpiry(Expiry<? super K, ? super V> expiry) {
+        mExpiry = expiry;
+    }
+
+    /**
+     * Returns the {@link Expiry} computing the lifetimes of entries.
+     *
+     * @return the {@code Expiry} or {@code null} if the default expiration
+     *         timeout is used
+     */
+    public Expiry<? super K, ? super V> getExpiry() {
+        return mExpiry;
+    }
+
+    /**
+     * Sets whether values cached from now on are held through soft
+     * references, allowing the garbage collector to reclaim them when memory
+     * runs low. Entries whose values were reclaimed are evicted. Defaults to
+     * {@code false}.
+     *
+     * @param softValues {@code true} to hold values softly
+     */
+    public void setSoftValues(boolean softValues) {
+        mSoftValues = softValues;
+    }
+
+    /**
+     * Indicates if values cached from now on are held through soft
+     * references.
+     *
+     * @return {@code true} if values are held softly
+     */
+    public boolean hasSoftValues() {
+        return mSoftValues;
+    }
+
+    /**
+     * Evicts the given fraction of the cached entries, least recently used
+     * first if the cache is weighted, or closest to their deadline otherwise.
+     * Weighted caches evict until their weight has shrunk by the fraction.
+     *
+     * @param fraction the fraction of entries to evict, between 0 and 1
+     */
+    @Override
+    public void trimMemory(float fraction) {
+        if (fraction < 0 || fraction > 1)
+            throw new IllegalArgumentException("Trim fraction must be between 0 and 1.");
+        purgeCollected();
+        if (fraction == 0)
+            return;
+        if (fraction == 1) {
+            for (Node<K, V> node : mCache.values())
+                evict(node, RemovalCause.MEMORY_PRESSURE);
+            return;
+        }
+        if (mEvictionLock != null) {
+            mEvictionLock.lock();
+            try {
+                mReadBuffer.drainTo(mAccessReplayer);
+                long target = (long) (mWeight * (1 - fraction));
+                while (mWeight > target) {
+                    K victim = mPolicy.selectVictim();
+                    if (victim == null)
+                        break;
+                    Node<K, V> evicted = mCache.remove(victim);
+                    if (evicted != null) {
+                        mTimingWheel.cancel(evicted);
+                        mWeight -= evicted.mWeight;
+                        notifyRemoval(evicted, RemovalCause.MEMORY_PRESSURE);
+                    }
+                }
+            } finally {
+                mEvictionLock.unlock();
+            }
+            return;
+        }
+        List<Node<K, V>> nodes = new ArrayList<Node<K, V>>(mCache.values());
+        Collections.sort(nodes, new Comparator<Node<K, V>>() {
+            @Override
+            public int compare(Node<K, V> lhs, Node<K, V> rhs) {
+                long lhsDeadline = lhs.getDeadline();
+                long rhsDeadline = rhs.getDeadline();
+                return lhsDeadline < rhsDeadline ? -1 : (lhsDeadline == rhsDeadline ? 0 : 1);
+            }
+        });
+        int count = (int) (nodes.size() * fraction);
+        for (int i = 0; i < count; i++)
+            evict(nodes.get(i), RemovalCause.MEMORY_PRESSURE);
+    }
+
+    /**
+     * Caches the given {@link Object} using the cache's {@link Expiry} or, if
+     * there is none, the default expiration timeout.
      *
      * @param key    the cache entry's key
      * @param object the {@code Object} to cache
@@ -113,7 +466,11 @@ public class ExpirableCache<K, V> implements Map<K, V> {
      */
     @Override
     public V put(final K key, final V object) {
-        return put(key, object, mDefaultExpirationTimeout);
+        Expiry<? super K, ? super V> expiry = mExpiry;
+        if (expiry == null)
+            return put(key, object, mDefaultExpirationTimeout);
+        purgeCollected();
+        return put(newNode(key, object, timeToLive(expiry, key, object, mCache.get(key))));
     }
 
     /**
@@ -125,9 +482,65 @@ public class ExpirableCache<K, V> implements Map<K, V> {
      * @return the previous cache entry with the associated key or {@code null}
      *         if there was none
      */
-    public synchronized V put(final K key, final V object, final long expirationTimeout) {
-        mTimeoutCache.put(key, System.currentTimeMillis() + expirationTimeout * 1000);
-        return mCache.put(key, object);
+    public V put(final K key, final V object, final long expirationTimeout) {
+        purgeCollected();
+        return put(newNode(key, object, expirationTimeout * 1000));
+    }
+
+    private V put(Node<K, V> node) {
+        Node<K, V> previous;
+        if (mWeigher == null) {
+            mTimingWheel.schedule(node);
+            previous = mCache.put(node.mKey, node);
+            if (previous != null) {
+                mTimingWheel.cancel(previous);
+                notifyRemoval(previous, RemovalCause.REPLACED);
+            }
+        } else {
+            previous = putWeighted(node);
+        }
+        if (previous == null)
+            return null;
+        return previous.isExpired(System.currentTimeMillis()) ? null : previous.value();
+    }
+
+    /**
+     * Computes the time to live of the given value with the given
+     * {@link Expiry}, treating it as an update if the given current
+     * {@link Node} is live.
+     */
+    private long timeToLive(Expiry<? super K, ? super V> expiry, K key, V value, Node<K, V> current) {
+        long now = System.currentTimeMillis();
+        if (current == null || current.isExpired(now) || current.isCollected())
+            return expiry.expireAfterCreate(key, value, now);
+        return expiry.expireAfterUpdate(key, value, now, current.getDeadline() - now);
+    }
+
+    /**
+     * Creates a {@link Node} for the given entry, applying the expiration
+     * jitter to its deadline and computing its weight if needed.
+     */
+    private Node<K, V> newNode(K key, V value, long timeToLive) {
+        long now = System.currentTimeMillis();
+        long deadline = deadline(now, timeToLive);
+        double jitter = mExpirationJitter;
+        if (jitter > 0) {
+            // Derive the jitter from a mixed hash rather than a shared Random
+            long hash = (now ^ System.nanoTime()) * 0x9E3779B97F4A7C15L + key.hashCode();
+            hash ^= hash >>> 31;
+            hash *= 0xBF58476D1CE4E5B9L;
+            hash ^= hash >>> 29;
+            double fraction = (hash >>> 11) * 0x1.0p-53;
+            deadline -= (long) (timeToLive * jitter * fraction);
+        }
+        Node<K, V> node = new Node<K, V>(mOwner, key, value, now, timeToLive, deadline,
+                mSoftValues ? mCollected : null);
+        if (mWeigher != null) {
+            node.mWeight = mWeigher.weigh(key, value);
+            if (node.mWeight < 0)
+                throw new IllegalStateException("Negative weight: " + key + "=" + value);
+        }
+        return node;
     }
 
     /**
@@ -138,100 +551,687 @@ public class ExpirableCache<K, V> implements Map<K, V> {
      *         no entry exists (or if it expired)
      */
     @Override
-    @SuppressWarnings("unchecked")
-    public synchronized V get(final Object key) {
-        final Long maxAge = mTimeoutCache.get(key);
-        if (maxAge == null)
+    public V get(final Object key) {
+        final Node<K, V> node = mCache.get(key);
+        if (node == null) {
+            mStatsCounter.recordMiss();
             return null;
-        if (System.currentTimeMillis() > maxAge) {
-            mThreadPool.execute(evictFromCache((K) key));
+        }
+        long now = System.currentTimeMillis();
+        if (node.isExpired(now)) {
+            evict(node, RemovalCause.EXPIRED);
+            mStatsCounter.recordMiss();
             return null;
         }
-        return mCache.get(key);
+        V value = node.value();
+        if (value == null) {
+            evict(node, RemovalCause.COLLECTED);
+            mStatsCounter.recordMiss();
+            return null;
+        }
+        mStatsCounter.recordMemoryHit();
+        if (mReadBuffer != null)
+            afterRead(node);
+        Expiry<? super K, ? super V> expiry = mExpiry;
+        if (expiry != null) {
+            long remaining = node.getDeadline() - now;
+            long timeToLive = expiry.expireAfterRead(node.mKey, value, now, remaining);
+            if (timeToLive != remaining)
+                node.setDeadline(deadline(now, timeToLive));
+        }
+        CacheLoader<? super K, ? extends V> loader = mRefreshLoader;
+        if (loader != null && now - node.mWriteTime >= mRefreshAfterWrite)
+            refresh(node, loader);
+        return value;
     }
 
     @Override
-    public synchronized boolean containsKey(Object key) {
-        return mCache.containsKey(key);
+    public boolean containsKey(Object key) {
+        Node<K, V> node = mCache.get(key);
+        return node != null && !node.isExpired(System.currentTimeMillis()) && !node.isCollected();
     }
 
     @Override
-    public synchronized boolean containsValue(Object value) {
-        return mCache.containsValue(value);
+    public boolean containsValue(Object value) {
+        return values().contains(value);
     }
 
     @Override
-    public synchronized V remove(Object key) {
-        return mCache.remove(key);
+    public V remove(Object key) {
+        Node<K, V> node;
+        if (mEvictionLock == null) {
+            node = mCache.remove(key);
+            if (node != null)
+                mTimingWheel.cancel(node);
+        } else {
+            mEvictionLock.lock();
+            try {
+                node = mCache.remove(key);
+                if (node != null)
+                    removed(node);
+            } finally {
+                mEvictionLock.unlock();
+            }
+        }
+        if (node == null)
+            return null;
+        notifyRemoval(node, RemovalCause.EXPLICIT);
+        return node.isExpired(System.currentTimeMillis()) ? null : node.value();
     }
 
     @Override
-    public synchronized void clear() {
-        mCache.clear();
+    public void clear() {
+        for (Node<K, V> node : mCache.values())
+            evict(node, RemovalCause.EXPLICIT);
     }
 
     @Override
-    public synchronized Set<Entry<K, V>> entrySet() {
-        return mCache.entrySet();
+    public Set<Entry<K, V>> entrySet() {
+        if (mEntrySet == null)
+            mEntrySet = new EntrySet();
+        return mEntrySet;
     }
 
     @Override
-    public synchronized boolean isEmpty() {
-        return mCache.isEmpty();
+    public boolean isEmpty() {
+        return !new NodeIterator().hasNext();
     }
 
     @Override
-    public synchronized Set<K> keySet() {
-        return mCache.keySet();
+    public Set<K> keySet() {
+        if (mKeySet == null)
+            mKeySet = new KeySet();
+        return mKeySet;
     }
 
+    /**
+     * Caches all entries of the given {@link Map} using the cache's
+     * {@link Expiry} or, if there is none, the default expiration timeout.
+     * Weighted caches acquire their eviction lock only once.
+     *
+     * @param map the entries to cache
+     */
     @Override
-    public synchronized void putAll(Map<? extends K, ? extends V> arg0) {
-        throw new UnsupportedOperationException();
+    public void putAll(Map<? extends K, ? extends V> map) {
+        if (mExpiry == null) {
+            putAll(map, mDefaultExpirationTimeout);
+            return;
+        }
+        if (mEvictionLock != null)
+            mEvictionLock.lock();
+        try {
+            for (Entry<? extends K, ? extends V> entry : map.entrySet())
+                put(entry.getKey(), entry.getValue());
+        } finally {
+            if (mEvictionLock != null)
+                mEvictionLock.unlock();
+        }
+    }
+
+    /**
+     * Caches all entries of the given {@link Map} using the given expiration
+     * timeout. Weighted caches acquire their eviction lock only once.
+     *
+     * @param map               the entries to cache
+     * @param expirationTimeout the expiration timeout of the entries in
+     *                          seconds
+     */
+    public void putAll(Map<? extends K, ? extends V> map, long expirationTimeout) {
+        if (mEvictionLock != null)
+            mEvictionLock.lock();
+        try {
+            for (Entry<? extends K, ? extends V> entry : map.entrySet())
+                put(entry.getKey(), entry.getValue(), expirationTimeout);
+        } finally {
+            if (mEvictionLock != null)
+                mEvictionLock.unlock();
+        }
     }
 
+    /**
+     * Returns the number of entries in the cache. Like iteration and
+     * {@link #isEmpty()}, this skips entries which have expired but have not
+     * been evicted by the {@link TimingWheel} yet, as well as entries whose
+     * soft values have been reclaimed, so it takes time linear in the number
+     * of cached entries.
+     */
     @Override
-    public synchronized int size() {
-        return mCache.size();
+    public int size() {
+        int size = 0;
+        for (NodeIterator nodes = new NodeIterator(); nodes.hasNext(); nodes.next())
+            size++;
+        return size;
     }
 
     @Override
-    public synchronized Collection<V> values() {
-        return mCache.values();
+    public Collection<V> values() {
+        if (mValues == null)
+            mValues = new Values();
+        return mValues;
+    }
+
+    /**
+     * Evicts the given {@link Node}, provided it has not been replaced in the
+     * meantime.
+     *
+     * @param node  the {@code Node} to evict
+     * @param cause the {@link RemovalCause} recorded if the {@code Node} was
+     *              evicted
+     */
+    private void evict(Node<K, V> node, RemovalCause cause) {
+        if (mEvictionLock == null) {
+            if (mCache.remove(node.mKey, node)) {
+                mTimingWheel.cancel(node);
+                notifyRemoval(node, cause);
+            }
+            return;
+        }
+        mEvictionLock.lock();
+        try {
+            if (mCache.remove(node.mKey, node)) {
+                removed(node);
+                notifyRemoval(node, cause);
+            }
+        } finally {
+            mEvictionLock.unlock();
+        }
+    }
+
+    /**
+     * Records the removal of the given {@link Node} and queues it for the
+     * {@link RemovalListener}.
+     */
+    private void notifyRemoval(Node<K, V> node, RemovalCause cause) {
+        mStatsCounter.recordRemoval(cause);
+        mRemovals.enqueue(node.mKey, node.value(), null, cause);
+    }
+
+    /**
+     * Evicts the entries whose values have been reclaimed by the garbage
+     * collector.
+     */
+    @SuppressWarnings("unchecked")
+    private void purgeCollected() {
+        Reference<? extends V> reference;
+        while ((reference = mCollected.poll()) != null)
+            evict(((SoftValue<K, V>) reference).mNode, RemovalCause.COLLECTED);
     }
 
     /**
-     * Schedules a thread pool to periodically sanitize the cache.
+     * Reloads the given {@link Node} in the background unless a reload is
+     * already in progress. The reloaded value only replaces the {@code Node}
+     * if it is still cached by then.
      */
-    private void scheduleCacheEviction() {
-        Executors.newScheduledThreadPool(2).scheduleWithFixedDelay(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        for (final K key : mTimeoutCache.keySet()) {
-                            if (System.currentTimeMillis() > mTimeoutCache.get(key))
-                                mThreadPool.execute(evictFromCache(key));
-                        }
+    private void refresh(final Node<K, V> node, final CacheLoader<? super K, ? extends V> loader) {
+        if (!Node.REFRESHING.compareAndSet(node, 0, 1))
+            return;
+        try {
+            REFRESHER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    V value = null;
+                    long start = System.nanoTime();
+                    try {
+                        value = loader.load(node.mKey);
+                    } catch (Exception e) {
+                        // Keep serving the current value until it expires
                     }
-                }, mDefaultExpirationTimeout / 2, mDefaultExpirationTimeout,
-                TimeUnit.SECONDS);
+                    if (value == null)
+                        mStatsCounter.recordLoadFailure(System.nanoTime() - start);
+                    else
+                        mStatsCounter.recordLoadSuccess(System.nanoTime() - start);
+                    if (value == null || !replace(node, newNode(node.mKey, value, refreshedTimeToLive(node, value))))
+                        node.mRefreshing = 0;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // All refresh threads are busy, so retry on a later read
+            node.mRefreshing = 0;
+        }
+    }
+
+    /**
+     * Returns the time to live of a reloaded value, which keeps the timeout
+     * of the {@link Node} it replaces unless an {@link Expiry} is set.
+     */
+    private long refreshedTimeToLive(Node<K, V> node, V value) {
+        Expiry<? super K, ? super V> expiry = mExpiry;
+        if (expiry == null)
+            return node.mTimeToLive;
+        long now = System.currentTimeMillis();
+        return expiry.expireAfterUpdate(node.mKey, value, now, node.getDeadline() - now);
+    }
+
+    /**
+     * Returns the deadline the given time to live after {@code now}, capped to
+     * avoid overflow.
+     */
+    private static long deadline(long now, long timeToLive) {
+        return timeToLive > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeToLive;
     }
 
     /**
-     * Returns a {@link Runnable} that evicts the {@link Object} with the given
-     * key from the cache.
+     * Replaces the given {@link Node} if it is still cached.
      *
-     * @param key the key of the {@code Object} to evict
+     * @return {@code true} if the {@code Node} was replaced
      */
-    private Runnable evictFromCache(final K key) {
-        return new Runnable() {
-            public void run() {
-                synchronized (ExpirableCache.this) {
-                    mCache.remove(key);
-                    mTimeoutCache.remove(key);
+    private boolean replace(Node<K, V> node, Node<K, V> replacement) {
+        if (mEvictionLock == null) {
+            mTimingWheel.schedule(replacement);
+            if (mCache.replace(node.mKey, node, replacement)) {
+                mTimingWheel.cancel(node);
+                notifyRemoval(node, RemovalCause.REPLACED);
+                return true;
+            }
+            mTimingWheel.cancel(replacement);
+            return false;
+        }
+        mEvictionLock.lock();
+        try {
+            if (mCache.get(node.mKey) != node)
+                return false;
+            putWeighted(replacement);
+            return true;
+        } finally {
+            mEvictionLock.unlock();
+        }
+    }
+
+    /**
+     * Inserts the given {@link Node} into a weighted cache and evicts entries
+     * until the cache is within its maximum weight again.
+     *
+     * @param node the {@code Node} to insert
+     * @return the replaced {@code Node} or {@code null} if there was none
+     */
+    private Node<K, V> putWeighted(Node<K, V> node) {
+        mEvictionLock.lock();
+        try {
+            mTimingWheel.schedule(node);
+            Node<K, V> previous = mCache.put(node.mKey, node);
+            if (previous != null) {
+                removed(previous);
+                notifyRemoval(previous, RemovalCause.REPLACED);
+            }
+            mPolicy.onAdd(node.mKey, node.mWeight);
+            mWeight += node.mWeight;
+            mReadBuffer.drainTo(mAccessReplayer);
+            while (mWeight > mMaxWeight) {
+                K victim = mPolicy.selectVictim();
+                if (victim == null)
+                    break;
+                Node<K, V> evicted = mCache.remove(victim);
+                if (evicted != null) {
+                    mTimingWheel.cancel(evicted);
+                    mWeight -= evicted.mWeight;
+                    V value = evicted.value();
+                    notifyRemoval(evicted, value == null ? RemovalCause.COLLECTED : RemovalCause.SIZE);
+                    if (value != null)
+                        entryEvicted(evicted.mKey, value, evicted.getDeadline());
                 }
             }
-        };
+            return previous;
+        } finally {
+            mEvictionLock.unlock();
+        }
+    }
+
+    /**
+     * Called when an entry is evicted to keep the cache within its maximum
+     * weight. The default implementation does nothing. Unlike the
+     * {@link RemovalListener}, this is called synchronously by the thread
+     * writing to the cache while it holds the eviction lock, so implementations
+     * must be fast and must not write to this cache.
+     *
+     * @param key      the evicted entry's key
+     * @param value    the evicted entry's value
+     * @param deadline the evicted entry's expiration deadline in milliseconds
+     */
+    protected void entryEvicted(K key, V value, long deadline) {
+    }
+
+    /**
+     * Releases the bookkeeping of a {@link Node} which has been removed from a
+     * weighted cache. Must be called while holding the eviction lock.
+     */
+    private void removed(Node<K, V> node) {
+        mTimingWheel.cancel(node);
+        mPolicy.onRemove(node.mKey);
+        mWeight -= node.mWeight;
+    }
+
+    /**
+     * Records a read of the given {@link Node} in a weighted cache and replays
+     * the buffered reads if a drain is due and the eviction lock is
+     * uncontended.
+     */
+    private void afterRead(Node<K, V> node) {
+        if (mReadBuffer.record(node) && mEvictionLock.tryLock()) {
+            try {
+                mReadBuffer.drainTo(mAccessReplayer);
+            } finally {
+                mEvictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Evicts entries from the cache once their {@link Timeout} fires, unless
+     * their deadline was extended in the meantime.
+     */
+    private class EvictionHandler implements ExpirationHandler {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onExpired(Timeout timeout) {
+            Node<K, V> node = (Node<K, V>) timeout;
+            if (!node.isExpired(System.currentTimeMillis()) && mCache.get(node.mKey) == node) {
+                mTimingWheel.schedule(node);
+                return;
+            }
+            evict(node, RemovalCause.EXPIRED);
+        }
+
+    }
+
+    /**
+     * A single cache entry, which doubles as its own {@link Timeout}. The
+     * value is either held directly or through a {@link SoftValue}.
+     */
+    private static class Node<K, V> extends Timeout {
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Node> REFRESHING =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "mRefreshing");
+
+        private final K mKey;
+        private final Object mValue;
+        private final long mWriteTime;
+        private final long mTimeToLive;
+        private int mWeight;
+        private volatile int mRefreshing;
+
+        /**
+         * @param queue the {@link ReferenceQueue} to hold the value softly
+         *              with or {@code null} to hold it directly
+         */
+        public Node(Owner owner, K key, V value, long writeTime, long timeToLive, long deadline,
+                    ReferenceQueue<V> queue) {
+            super(owner, deadline);
+            mKey = key;
+            mValue = queue == null ? value : new SoftValue<K, V>(value, queue, this);
+            mWriteTime = writeTime;
+            mTimeToLive = timeToLive;
+        }
+
+        /**
+         * Returns the value or {@code null} if it has been reclaimed.
+         */
+        @SuppressWarnings("unchecked")
+        V value() {
+            if (mValue instanceof SoftValue)
+                return ((SoftValue<K, V>) mValue).get();
+            return (V) mValue;
+        }
+
+        boolean isCollected() {
+            return mValue instanceof SoftValue && ((SoftValue<?, ?>) mValue).get() == null;
+        }
+
+    }
+
+    /**
+     * A softly referenced value, which is enqueued with its {@link Node} once
+     * reclaimed.
+     */
+    private static final class SoftValue<K, V> extends SoftReference<V> {
+
+        private final Node<K, V> mNode;
+
+        SoftValue(V value, ReferenceQueue<V> queue, Node<K, V> node) {
+            super(value, queue);
+            mNode = node;
+        }
+
+    }
+
+    /**
+     * Iterates over all live {@link Node} instances, skipping expired and
+     * reclaimed ones. The value of each returned {@code Node} is strongly
+     * held until the next {@code Node} is returned.
+     */
+    private class NodeIterator implements Iterator<Node<K, V>> {
+
+        private final Iterator<Node<K, V>> mIterator = mCache.values().iterator();
+        private final long mNow = System.currentTimeMillis();
+        private Node<K, V> mNext;
+        private V mNextValue;
+        private Node<K, V> mLast;
+        private V mLastValue;
+
+        @Override
+        public boolean hasNext() {
+            while (mNext == null && mIterator.hasNext()) {
+                Node<K, V> node = mIterator.next();
+                if (node.isExpired(mNow))
+                    continue;
+                mNextValue = node.value();
+                if (mNextValue != null)
+                    mNext = node;
+            }
+            return mNext != null;
+        }
+
+        @Override
+        public Node<K, V> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            mLast = mNext;
+            mLastValue = mNextValue;
+            mNext = null;
+            mNextValue = null;
+            return mLast;
+        }
+
+        /**
+         * Returns the value of the last returned {@link Node}.
+         */
+        V lastValue() {
+            return mLastValue;
+        }
+
+        @Override
+        public void remove() {
+            if (mLast == null)
+                throw new IllegalStateException();
+            evict(mLast, RemovalCause.EXPLICIT);
+            mLast = null;
+            mLastValue = null;
+        }
+
+    }
+
+    private class KeySet extends AbstractSet<K> {
+
+        @Override
+        public Iterator<K> iterator() {
+            final NodeIterator nodes = new NodeIterator();
+            return new Iterator<K>() {
+                @Override
+                public boolean hasNext() {
+                    return nodes.hasNext();
+                }
+
+                @Override
+                public K next() {
+                    return nodes.next().mKey;
+                }
+
+                @Override
+                public void remove() {
+                    nodes.remove();
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return containsKey(key);
+        }
+
+        @Override
+        public boolean remove(Object key) {
+            return ExpirableCache.this.remove(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return ExpirableCache.this.size();
+        }
+
+        @Override
+        public void clear() {
+            ExpirableCache.this.clear();
+        }
+
+    }
+
+    private class Values extends AbstractCollection<V> {
+
+        @Override
+        public Iterator<V> iterator() {
+            final NodeIterator nodes = new NodeIterator();
+            return new Iterator<V>() {
+                @Override
+                public boolean hasNext() {
+                    return nodes.hasNext();
+                }
+
+                @Override
+                public V next() {
+                    nodes.next();
+                    return nodes.lastValue();
+                }
+
+                @Override
+                public void remove() {
+                    nodes.remove();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ExpirableCache.this.size();
+        }
+
+        @Override
+        public void clear() {
+            ExpirableCache.this.clear();
+        }
+
+    }
+
+    /**
+     * A snapshot of a cache entry returned by the entry set iterator.
+     */
+    private static final class ImmutableEntry<K, V> implements Entry<K, V> {
+
+        private final K mKey;
+        private final V mValue;
+
+        private ImmutableEntry(K key, V value) {
+            mKey = key;
+            mValue = value;
+        }
+
+        @Override
+        public K getKey() {
+            return mKey;
+        }
+
+        @Override
+        public V getValue() {
+            return mValue;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            return (mKey == null ? entry.getKey() == null : mKey.equals(entry.getKey()))
+                    && (mValue == null ? entry.getValue() == null : mValue.equals(entry.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return (mKey == null ? 0 : mKey.hashCode()) ^ (mValue == null ? 0 : mValue.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return mKey + "=" + mValue;
+        }
+
+    }
+
+    private class EntrySet extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            final NodeIterator nodes = new NodeIterator();
+            return new Iterator<Entry<K, V>>() {
+                @Override
+                public boolean hasNext() {
+                    return nodes.hasNext();
+                }
+
+                @Override
+                public Entry<K, V> next() {
+                    Node<K, V> node = nodes.next();
+                    return new ImmutableEntry<K, V>(node.mKey, nodes.lastValue());
+                }
+
+                @Override
+                public void remove() {
+                    nodes.remove();
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            V value = get(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o))
+                return false;
+            ExpirableCache.this.remove(((Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return ExpirableCache.this.size();
+        }
+
+        @Override
+        public void clear() {
+            ExpirableCache.this.clear();
+        }
+
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A durable index of disk cache expiration deadlines, stored in a
+ * memory-mapped file of fixed-size records. Each record holds the name of a
+ * disk cache entry and its absolute deadline, so expiration metadata survives
+ * process restarts and expired entries can be found without listing the disk
+ * cache directory.
+ * </p>
+ * <p>
+ * Record layout: {@code name length (2, 0 for free slots) | deadline (8) |
+ * name (up to 262 bytes)}. Updates are written through the mapping and
+ * flushed to disk by the operating system.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+class ExpirationIndex {
+
+    /**
+     * The name of the index file within the disk cache directory.
+     */
+    static final String FILE_NAME = ".expiration";
+
+    private static final int RECORD_SIZE = 272;
+    private static final int HEADER_SIZE = 10;
+    private static final int MAX_NAME_LENGTH = RECORD_SIZE - HEADER_SIZE;
+    private static final int INITIAL_SLOTS = 256;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final Map<String, Integer> mSlots;
+    private final Map<String, Long> mVolatileDeadlines;
+    private final List<Integer> mFreeSlots;
+    private MappedByteBuffer mBuffer;
+    private int mCapacity;
+    private int mUsedSlots;
+
+    /**
+     * Opens the index in the given directory, loading any existing records.
+     *
+     * @param directory the disk cache directory
+     * @throws IOException if the index file cannot be opened or mapped
+     */
+    ExpirationIndex(File directory) throws IOException {
+        mFile = new RandomAccessFile(new File(directory, FILE_NAME), "rw");
+        mChannel = mFile.getChannel();
+        mSlots = new HashMap<String, Integer>();
+        mVolatileDeadlines = new HashMap<String, Long>();
+        mFreeSlots = new ArrayList<Integer>();
+        int slots = (int) (mChannel.size() / RECORD_SIZE);
+        map(Math.max(INITIAL_SLOTS, slots));
+        load(slots);
+    }
+
+    /**
+     * Returns the deadline of the entry with the given name.
+     *
+     * @return the deadline in milliseconds or {@code null} if unknown
+     */
+    synchronized Long get(String name) {
+        Integer slot = mSlots.get(name);
+        if (slot == null)
+            return mVolatileDeadlines.get(name);
+        return mBuffer.getLong(slot * RECORD_SIZE + 2);
+    }
+
+    /**
+     * Stores the deadline of the entry with the given name. Names exceeding
+     * the record size are only kept in memory.
+     *
+     * @param name     the entry name
+     * @param deadline the deadline in milliseconds
+     */
+    synchronized void put(String name, long deadline) {
+        Integer slot = mSlots.get(name);
+        if (slot != null) {
+            mBuffer.putLong(slot * RECORD_SIZE + 2, deadline);
+            return;
+        }
+        byte[] bytes = encode(name);
+        if (bytes.length > MAX_NAME_LENGTH) {
+            mVolatileDeadlines.put(name, deadline);
+            return;
+        }
+        slot = allocate();
+        int offset = slot * RECORD_SIZE;
+        mBuffer.putLong(offset + 2, deadline);
+        for (int i = 0; i < bytes.length; i++)
+            mBuffer.put(offset + HEADER_SIZE + i, bytes[i]);
+        // The length is written last, marking the record as valid
+        mBuffer.putShort(offset, (short) bytes.length);
+        mSlots.put(name, slot);
+    }
+
+    /**
+     * Removes the entry with the given name from the index.
+     */
+    synchronized void remove(String name) {
+        Integer slot = mSlots.remove(name);
+        if (slot == null) {
+            mVolatileDeadlines.remove(name);
+            return;
+        }
+        mBuffer.putShort(slot * RECORD_SIZE, (short) 0);
+        mFreeSlots.add(slot);
+    }
+
+    /**
+     * Returns the names of all entries whose deadline has passed.
+     *
+     * @param now the current time in milliseconds
+     * @return expired entry names
+     */
+    synchronized List<String> expired(long now) {
+        List<String> expired = new ArrayList<String>();
+        for (Map.Entry<String, Integer> entry : mSlots.entrySet()) {
+            if (mBuffer.getLong(entry.getValue() * RECORD_SIZE + 2) <= now)
+                expired.add(entry.getKey());
+        }
+        for (Map.Entry<String, Long> entry : mVolatileDeadlines.entrySet()) {
+            if (entry.getValue() <= now)
+                expired.add(entry.getKey());
+        }
+        return expired;
+    }
+
+    /**
+     * Removes all entries from the index.
+     */
+    synchronized void clear() {
+        for (int slot : mSlots.values())
+            mBuffer.putShort(slot * RECORD_SIZE, (short) 0);
+        mSlots.clear();
+        mVolatileDeadlines.clear();
+        mFreeSlots.clear();
+        mUsedSlots = 0;
+    }
+
+    /**
+     * Flushes the index to disk and closes it.
+     */
+    synchronized void close() {
+        mBuffer.force();
+        try {
+            mFile.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private int allocate() {
+        if (!mFreeSlots.isEmpty())
+            return mFreeSlots.remove(mFreeSlots.size() - 1);
+        if (mUsedSlots == mCapacity) {
+            try {
+                map(mCapacity * 2);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to grow expiration index", e);
+            }
+        }
+        return mUsedSlots++;
+    }
+
+    private void map(int slots) throws IOException {
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * RECORD_SIZE);
+        mCapacity = slots;
+    }
+
+    private void load(int slots) {
+        for (int slot = 0; slot < slots; slot++) {
+            int offset = slot * RECORD_SIZE;
+            int length = mBuffer.getShort(offset);
+            if (length <= 0 || length > MAX_NAME_LENGTH) {
+                mFreeSlots.add(slot);
+                continue;
+            }
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++)
+                bytes[i] = mBuffer.get(offset + HEADER_SIZE + i);
+            String name = decode(bytes);
+            Integer previous = mSlots.put(name, slot);
+            if (previous != null) {
+                // Keep the latest record if a crash left a duplicate behind
+                mBuffer.putShort(previous * RECORD_SIZE, (short) 0);
+                mFreeSlots.add(previous);
+            }
+        }
+        mUsedSlots = slots;
+    }
+
+    private static byte[] encode(String name) {
+        try {
+            return name.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
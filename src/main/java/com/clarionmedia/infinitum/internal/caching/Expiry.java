@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Computes how long cache entries live, in milliseconds, when they are
+ * created, updated and read. {@link #afterWrite(long, TimeUnit)} expires
+ * entries a fixed time after they were last written,
+ * {@link #afterAccess(long, TimeUnit)} a fixed time after they were last
+ * written or read. Subclasses can compute variable durations per entry,
+ * e.g. from a max-age supplied with the value.
+ * </p>
+ * <p>
+ * {@link #expireAfterRead(Object, Object, long, long)} is called on every
+ * cache hit without holding a lock, so it must be fast and must not block.
+ * Implementations must be threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public abstract class Expiry<K, V> {
+
+    /**
+     * Returns an {@code Expiry} expiring entries the given time after they
+     * were created or last updated. Reads do not extend the deadline.
+     *
+     * @param duration the time to live
+     * @param unit     the {@link TimeUnit} of {@code duration}
+     * @return the {@code Expiry}
+     */
+    public static <K, V> Expiry<K, V> afterWrite(long duration, TimeUnit unit) {
+        final long millis = toMillis(duration, unit);
+        return new Expiry<K, V>() {
+            @Override
+            public long expireAfterCreate(K key, V value, long currentTime) {
+                return millis;
+            }
+        };
+    }
+
+    /**
+     * Returns an {@code Expiry} expiring entries the given time after they
+     * were created, last updated or last read, i.e. once they have been idle
+     * for that long.
+     *
+     * @param duration the time to idle
+     * @param unit     the {@link TimeUnit} of {@code duration}
+     * @return the {@code Expiry}
+     */
+    public static <K, V> Expiry<K, V> afterAccess(long duration, TimeUnit unit) {
+        final long millis = toMillis(duration, unit);
+        return new Expiry<K, V>() {
+            @Override
+            public long expireAfterCreate(K key, V value, long currentTime) {
+                return millis;
+            }
+
+            @Override
+            public long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+                return millis;
+            }
+        };
+    }
+
+    /**
+     * Returns how long a new entry lives.
+     *
+     * @param key         the entry key
+     * @param value       the entry value
+     * @param currentTime the current time in milliseconds
+     * @return the time to live in milliseconds
+     */
+    public abstract long expireAfterCreate(K key, V value, long currentTime);
+
+    /**
+     * Returns how long an entry lives after its value was replaced. Defaults
+     * to {@link #expireAfterCreate(Object, Object, long)}.
+     *
+     * @param key             the entry key
+     * @param value           the new entry value
+     * @param currentTime     the current time in milliseconds
+     * @param currentDuration the remaining time to live of the replaced value
+     *                        in milliseconds
+     * @return the time to live in milliseconds
+     */
+    public long expireAfterUpdate(K key, V value, long currentTime, long currentDuration) {
+        return expireAfterCreate(key, value, currentTime);
+    }
+
+    /**
+     * Returns how long an entry lives after it was read. Defaults to the
+     * remaining time to live, i.e. reads do not change the deadline.
+     *
+     * @param key             the entry key
+     * @param value           the entry value
+     * @param currentTime     the current time in milliseconds
+     * @param currentDuration the remaining time to live in milliseconds
+     * @return the time to live in milliseconds
+     */
+    public long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+
+    private static long toMillis(long duration, TimeUnit unit) {
+        if (duration <= 0)
+            throw new IllegalArgumentException("Expiration duration must be greater than 0.");
+        return unit.toMillis(duration);
+    }
+
+}
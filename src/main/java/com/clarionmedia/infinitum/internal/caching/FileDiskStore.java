@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * A {@link DiskStore} which persists each entry to its own file. Entries are
+ * written to a temporary file which then replaces the entry's file, so
+ * readers never observe partially written or truncated values.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+class FileDiskStore<V> extends DiskStore<V> {
+
+    /**
+     * Creates a new {@code FileDiskStore}.
+     *
+     * @param directory the directory holding the cache files
+     * @param codec     the {@link DiskStore.Codec} used to encode and decode
+     *                  values
+     */
+    FileDiskStore(File directory, Codec<V> codec) {
+        super(directory, codec);
+    }
+
+    @Override
+    boolean contains(String name) {
+        return fileFor(name).exists();
+    }
+
+    @Override
+    V read(String name) throws IOException {
+        File file = fileFor(name);
+        if (!file.exists())
+            return null;
+        return mCodec.readFile(file);
+    }
+
+    @Override
+    ByteBuffer map(String name) throws IOException {
+        File file = fileFor(name);
+        if (!file.exists())
+            return null;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    void write(String name, V value) throws IOException {
+        File temp = File.createTempFile(TEMP_FILE_PREFIX, null, mDirectory);
+        try {
+            mCodec.writeFile(temp, value);
+            if (!temp.renameTo(fileFor(name)))
+                throw new IOException("Unable to replace cache file " + name);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    @Override
+    boolean delete(String name) {
+        return fileFor(name).delete();
+    }
+
+    @Override
+    long lastModified(String name) {
+        return fileFor(name).lastModified();
+    }
+
+    @Override
+    long length(String name) {
+        return fileFor(name).length();
+    }
+
+    @Override
+    List<String> names() {
+        List<String> names = new ArrayList<String>();
+        String[] files = mDirectory.list();
+        if (files == null)
+            return names;
+        for (String file : files) {
+            if (isEntry(file))
+                names.add(file);
+        }
+        return names;
+    }
+
+    @Override
+    void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (isEntry(file.getName()))
+                file.delete();
+        }
+    }
+
+    /**
+     * Returns the {@link File} holding the entry with the given name.
+     */
+    File fileFor(String name) {
+        return new File(mDirectory, name);
+    }
+
+    /**
+     * Indicates if the given file name is used for bookkeeping rather than for
+     * a cache entry, i.e. for the {@link ExpirationIndex}, the {@link HotSet}
+     * or a {@link JournaledDiskStore} segment.
+     */
+    static boolean isReserved(String fileName) {
+        return fileName.equals(ExpirationIndex.FILE_NAME) || fileName.equals(HotSet.FILE_NAME)
+                || JournaledDiskStore.isSegment(fileName);
+    }
+
+    /**
+     * Indicates if the given file name is used for a cache entry, i.e. if it is
+     * neither reserved nor a temporary file.
+     */
+    static boolean isEntry(String fileName) {
+        return !isReserved(fileName) && !fileName.startsWith(TEMP_FILE_PREFIX);
+    }
+
+}
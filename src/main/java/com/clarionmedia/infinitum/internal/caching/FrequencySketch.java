@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+/**
+ * <p>
+ * A count-min sketch estimating how often keys have been accessed, used by
+ * {@link TinyLfuEvictionPolicy} to decide admission. Counters saturate at 15
+ * and are halved once the number of recorded accesses reaches ten times the
+ * sketch width, so that the estimates favor recent popularity.
+ * </p>
+ * <p>
+ * This class is not threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = { 0x97CB3127, 0xB8E1AFED, 0x5851F42D, 0x2545F491 };
+
+    private final byte[][] mTable;
+    private final int mMask;
+    private final int mSampleSize;
+    private int mAdditions;
+
+    /**
+     * Creates a new {@code FrequencySketch} for roughly the given number of
+     * distinct keys.
+     *
+     * @param expectedEntries the expected number of cached entries
+     */
+    FrequencySketch(int expectedEntries) {
+        int width = 16;
+        while (width < expectedEntries && width < (1 << 24))
+            width <<= 1;
+        mTable = new byte[DEPTH][width];
+        mMask = width - 1;
+        mSampleSize = 10 * width;
+    }
+
+    /**
+     * Records an access of the given key.
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            if (mTable[i][index] < MAX_COUNT) {
+                mTable[i][index]++;
+                added = true;
+            }
+        }
+        if (added && ++mAdditions >= mSampleSize)
+            reset();
+    }
+
+    /**
+     * Returns the estimated access frequency of the given key.
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++)
+            frequency = Math.min(frequency, mTable[i][indexOf(hash, i)]);
+        return frequency;
+    }
+
+    private void reset() {
+        for (byte[] row : mTable) {
+            for (int i = 0; i < row.length; i++)
+                row[i] >>= 1;
+        }
+        mAdditions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * SEEDS[row];
+        return (h ^ (h >>> 16)) & mMask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= (hash >>> 17);
+        hash *= 0xED5AD4BB;
+        hash ^= (hash >>> 11);
+        return hash;
+    }
+
+}
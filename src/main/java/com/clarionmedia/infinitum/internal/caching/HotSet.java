@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Tracks the hottest keys of a cache, so they can be persisted and preloaded
+ * after a restart. Recently accessed keys are kept in a bounded window and
+ * ranked by their access frequency, as estimated by a
+ * {@link FrequencySketch} which favors recent popularity, with ties going to
+ * the more recently accessed key.
+ * </p>
+ * <p>
+ * Hot sets are stored as a list of individually serialized keys in a reserved
+ * file of the disk cache directory. Keys which are not {@link Serializable},
+ * or which fail to serialize, are skipped.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+final class HotSet<K> {
+
+    /**
+     * The name of the hot set file within the disk cache directory.
+     */
+    static final String FILE_NAME = ".hotset";
+
+    private static final int VERSION = 2;
+    private static final int CANDIDATES_PER_KEY = 4;
+
+    private final int mMaxKeys;
+    private final FrequencySketch mSketch;
+    private final LinkedHashMap<K, Boolean> mRecent;
+
+    /**
+     * Creates a new {@code HotSet}.
+     *
+     * @param maxKeys the maximum number of keys in the hot set
+     */
+    HotSet(int maxKeys) {
+        if (maxKeys <= 0)
+            throw new IllegalArgumentException("Hot set size must be greater than 0.");
+        final int window = maxKeys * CANDIDATES_PER_KEY;
+        mMaxKeys = maxKeys;
+        mSketch = new FrequencySketch(window);
+        mRecent = new LinkedHashMap<K, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Boolean> eldest) {
+                return size() > window;
+            }
+        };
+    }
+
+    int getMaxKeys() {
+        return mMaxKeys;
+    }
+
+    synchronized void recordAccess(K key) {
+        mSketch.increment(key);
+        mRecent.put(key, Boolean.TRUE);
+    }
+
+    synchronized void remove(Object key) {
+        mRecent.remove(key);
+    }
+
+    synchronized void clear() {
+        mRecent.clear();
+    }
+
+    /**
+     * Returns the hottest keys, hottest first.
+     */
+    synchronized List<K> hottest() {
+        List<K> keys = new ArrayList<K>(mRecent.keySet());
+        Collections.reverse(keys);
+        final Map<K, Integer> frequencies = new LinkedHashMap<K, Integer>();
+        for (K key : keys)
+            frequencies.put(key, mSketch.frequency(key));
+        // The sort is stable, so equally frequent keys stay most recent first
+        Collections.sort(keys, new Comparator<K>() {
+            @Override
+            public int compare(K lhs, K rhs) {
+                return frequencies.get(rhs) - frequencies.get(lhs);
+            }
+        });
+        return keys.size() > mMaxKeys ? new ArrayList<K>(keys.subList(0, mMaxKeys)) : keys;
+    }
+
+    /**
+     * Writes the given keys to the hot set file in the given directory,
+     * replacing it atomically. Each key is serialized into a scratch buffer
+     * first, so keys which fail to serialize are skipped without corrupting
+     * the file.
+     *
+     * @param directory the disk cache directory
+     * @param keys      the keys, hottest first
+     * @throws IOException if the file cannot be written
+     */
+    static void save(File directory, List<?> keys) throws IOException {
+        File file = new File(directory, FILE_NAME);
+        File temp = File.createTempFile(DiskStore.TEMP_FILE_PREFIX, null, directory);
+        try {
+            List<byte[]> serialized = new ArrayList<byte[]>(keys.size());
+            ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+            for (Object key : keys) {
+                if (!(key instanceof Serializable))
+                    continue;
+                scratch.reset();
+                try {
+                    ObjectOutputStream keyOut = new ObjectOutputStream(scratch);
+                    keyOut.writeObject(key);
+                    keyOut.close();
+                } catch (IOException e) {
+                    // e.g. a NotSerializableException for one of the key's fields
+                    continue;
+                }
+                serialized.add(scratch.toByteArray());
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(VERSION);
+                out.writeInt(serialized.size());
+                for (byte[] key : serialized) {
+                    out.writeInt(key.length);
+                    out.write(key);
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file))
+                throw new IOException("Unable to replace hot set " + file);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Reads the keys from the hot set file in the given directory.
+     *
+     * @param directory the disk cache directory
+     * @return the keys, hottest first, or an empty {@link List} if there is no
+     *         hot set
+     * @throws IOException if the file is corrupt
+     */
+    static List<Object> load(File directory) throws IOException {
+        List<Object> keys = new ArrayList<Object>();
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(directory, FILE_NAME))));
+        } catch (FileNotFoundException e) {
+            return keys;
+        }
+        try {
+            if (in.readInt() != VERSION)
+                return keys;
+            for (int i = in.readInt(); i > 0; i--) {
+                int length = in.readInt();
+                if (length < 0)
+                    throw new IOException("Invalid hot set key length " + length);
+                byte[] key = new byte[length];
+                in.readFully(key);
+                keys.add(new ObjectInputStream(new ByteArrayInputStream(key)).readObject());
+            }
+        } catch (ClassNotFoundException e) {
+            IOException exception = new IOException("Unknown hot set key class " + e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        } finally {
+            in.close();
+        }
+        return keys;
+    }
+
+}
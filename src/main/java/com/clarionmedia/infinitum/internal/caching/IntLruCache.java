@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+/**
+ * <p>
+ * A bounded least-recently-used cache keyed by {@code int} values, such as
+ * resource ids. It is backed by a {@link LongLruCache}, so keys are not boxed
+ * and lookups and updates of existing keys do not allocate.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public class IntLruCache<V> implements MemoryPressure.Trimmable {
+
+    private final LongLruCache<V> mCache;
+
+    /**
+     * Creates a new {@code IntLruCache}.
+     *
+     * @param maxSize the maximum number of entries in the cache
+     */
+    public IntLruCache(int maxSize) {
+        mCache = new LongLruCache<V>(maxSize);
+    }
+
+    /**
+     * Returns the value cached for the given key and marks it as the most
+     * recently used.
+     *
+     * @param key the cache key
+     * @return the cached value or {@code null} if there is none
+     */
+    public V get(int key) {
+        return mCache.get(key);
+    }
+
+    /**
+     * Caches the given value, evicting the least recently used entry if the
+     * cache is full.
+     *
+     * @param key   the cache key
+     * @param value the value to cache
+     * @return the previous value of the key or {@code null} if there was none
+     */
+    public V put(int key, V value) {
+        return mCache.put(key, value);
+    }
+
+    /**
+     * Removes the value cached for the given key.
+     *
+     * @param key the cache key
+     * @return the removed value or {@code null} if there was none
+     */
+    public V remove(int key) {
+        return mCache.remove(key);
+    }
+
+    /**
+     * Indicates if a value is cached for the given key, without marking it as
+     * used.
+     *
+     * @param key the cache key
+     * @return {@code true} if the key is cached
+     */
+    public boolean containsKey(int key) {
+        return mCache.containsKey(key);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        mCache.clear();
+    }
+
+    /**
+     * Evicts the given fraction of the entries, least recently used first.
+     *
+     * @param fraction the fraction of entries to evict, between 0 and 1
+     */
+    @Override
+    public void trimMemory(float fraction) {
+        mCache.trimMemory(fraction);
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return mCache.size();
+    }
+
+    /**
+     * Returns the maximum number of entries in the cache.
+     *
+     * @return maximum number of entries
+     */
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    /**
+     * Returns a snapshot of the cache's {@link CacheStats}.
+     *
+     * @return the cache statistics
+     */
+    public CacheStats stats() {
+        return mCache.stats();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IntLruCache[size=%d,maxSize=%d]", size(), maxSize());
+    }
+
+}
@@ -0,0 +1,692 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * A log-structured {@link DiskStore}. Entries are appended as records to a
+ * series of segment files, and an in-memory index maps each entry name to the
+ * position of its latest record. Every write is a single sequential append
+ * and every read a single positioned read, regardless of the number of
+ * entries. Removals append a tombstone record.
+ * </p>
+ * <p>
+ * Once a segment is full, a new one is started. Sealed segments whose live
+ * records make up less than half of their size are compacted in the
+ * background by copying the live records to the active segment and deleting
+ * the old segment. The index is rebuilt by replaying the segments when the
+ * store is opened, and a torn record at the end of a segment is truncated.
+ * </p>
+ * <p>
+ * Record layout: {@code magic (4) | name length (4) | value length (4, -1 for
+ * tombstones) | timestamp (8) | CRC32 of name and value (4) | name | value}.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+class JournaledDiskStore<V> extends DiskStore<V> {
+
+    /**
+     * The default maximum size of a segment in bytes.
+     */
+    static final long DEFAULT_MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final int MAGIC = 0x494E464A;
+    private static final int HEADER_SIZE = 24;
+    private static final int TOMBSTONE = -1;
+    private static final double COMPACTION_THRESHOLD = 0.5;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final ExecutorService COMPACTOR = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Infinitum-JournalCompactor");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    private final long mMaxSegmentSize;
+    private final Map<String, Location> mIndex;
+    private final TreeMap<Integer, Segment> mSegments;
+    private final Set<Integer> mCompacting;
+    private Segment mActive;
+    private int mNextSegmentId;
+
+    /**
+     * A segment file of the journal.
+     */
+    private static final class Segment {
+
+        private final int mId;
+        private final File mFile;
+        private final RandomAccessFile mRaf;
+        private final FileChannel mChannel;
+        private long mSize;
+        private long mLiveBytes;
+
+        private Segment(int id, File file) throws IOException {
+            mId = id;
+            mFile = file;
+            mRaf = new RandomAccessFile(file, "rw");
+            mChannel = mRaf.getChannel();
+            mSize = mChannel.size();
+        }
+
+        private void close() {
+            try {
+                mRaf.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+    }
+
+    /**
+     * The position of an entry's latest record.
+     */
+    static final class Location {
+
+        final int mSegment;
+        final long mOffset;
+        final int mRecordLength;
+        final int mValueLength;
+        final long mTimestamp;
+
+        Location(int segment, long offset, int recordLength, int valueLength, long timestamp) {
+            mSegment = segment;
+            mOffset = offset;
+            mRecordLength = recordLength;
+            mValueLength = valueLength;
+            mTimestamp = timestamp;
+        }
+
+        long valueOffset() {
+            return mOffset + mRecordLength - mValueLength;
+        }
+
+    }
+
+    /**
+     * Creates a new {@code JournaledDiskStore}, replaying any existing
+     * segments in the given directory.
+     *
+     * @param directory the directory holding the segment files
+     * @param codec     the {@link DiskStore.Codec} used to encode and decode
+     *                  values
+     * @throws IOException if the segments cannot be opened
+     */
+    JournaledDiskStore(File directory, Codec<V> codec) throws IOException {
+        this(directory, codec, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a new {@code JournaledDiskStore}, replaying any existing
+     * segments in the given directory.
+     *
+     * @param directory      the directory holding the segment files
+     * @param codec          the {@link DiskStore.Codec} used to encode and
+     *                       decode values
+     * @param maxSegmentSize the size in bytes after which a new segment is
+     *                       started
+     * @throws IOException if the segments cannot be opened
+     */
+    JournaledDiskStore(File directory, Codec<V> codec, long maxSegmentSize) throws IOException {
+        super(directory, codec);
+        mMaxSegmentSize = maxSegmentSize;
+        mIndex = new HashMap<String, Location>();
+        mSegments = new TreeMap<Integer, Segment>();
+        mCompacting = new HashSet<Integer>();
+        open();
+    }
+
+    @Override
+    synchronized boolean contains(String name) {
+        return mIndex.containsKey(name);
+    }
+
+    @Override
+    V read(String name) throws IOException {
+        byte[] value = readBytes(name);
+        if (value == null)
+            return null;
+        return mCodec.readStream(new ByteArrayInputStream(value));
+    }
+
+    @Override
+    void write(String name, V value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mCodec.writeStream(out, value);
+        append(name, out.toByteArray(), System.currentTimeMillis());
+    }
+
+    @Override
+    Map<String, V> readAll(Collection<String> names) throws IOException {
+        Map<String, V> values = new LinkedHashMap<String, V>();
+        for (Map.Entry<String, byte[]> entry : readAllBytes(names).entrySet())
+            values.put(entry.getKey(), mCodec.readStream(new ByteArrayInputStream(entry.getValue())));
+        return values;
+    }
+
+    @Override
+    void writeAll(Map<String, V> values) throws IOException {
+        Map<String, byte[]> encoded = new LinkedHashMap<String, byte[]>();
+        for (Map.Entry<String, V> entry : values.entrySet()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            mCodec.writeStream(out, entry.getValue());
+            encoded.put(entry.getKey(), out.toByteArray());
+        }
+        appendAll(encoded, System.currentTimeMillis());
+    }
+
+    @Override
+    synchronized int deleteAll(Collection<String> names) {
+        Map<String, byte[]> tombstones = new LinkedHashMap<String, byte[]>();
+        for (String name : names) {
+            Location location = mIndex.remove(name);
+            if (location != null) {
+                release(location);
+                tombstones.put(name, null);
+            }
+        }
+        try {
+            appendAll(tombstones, System.currentTimeMillis());
+        } catch (IOException e) {
+            // The entries may resurface after a restart and will be sanitized then
+            e.printStackTrace();
+        }
+        return tombstones.size();
+    }
+
+    @Override
+    synchronized boolean delete(String name) {
+        Location location = mIndex.remove(name);
+        if (location == null)
+            return false;
+        release(location);
+        try {
+            appendRecord(name, null, System.currentTimeMillis());
+        } catch (IOException e) {
+            // The entry may resurface after a restart and will be sanitized then
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    @Override
+    synchronized long lastModified(String name) {
+        Location location = mIndex.get(name);
+        return location == null ? 0 : location.mTimestamp;
+    }
+
+    @Override
+    synchronized long length(String name) {
+        Location location = mIndex.get(name);
+        return location == null ? 0 : location.mRecordLength;
+    }
+
+    @Override
+    synchronized List<String> names() {
+        return new ArrayList<String>(mIndex.keySet());
+    }
+
+    @Override
+    synchronized void clear() {
+        for (Segment segment : mSegments.values()) {
+            segment.close();
+            segment.mFile.delete();
+        }
+        mSegments.clear();
+        mIndex.clear();
+        // Compactions queued before the clear find their segment gone
+        mCompacting.clear();
+        mActive = null;
+        try {
+            roll();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    synchronized void close() {
+        for (Segment segment : mSegments.values())
+            segment.close();
+        mSegments.clear();
+        mIndex.clear();
+        mCompacting.clear();
+        mActive = null;
+    }
+
+    /**
+     * Reads the raw value bytes of the entry with the given name.
+     *
+     * @return the value bytes or {@code null} if there is no such entry
+     */
+    synchronized byte[] readBytes(String name) throws IOException {
+        Location location = mIndex.get(name);
+        if (location == null)
+            return null;
+        Segment segment = mSegments.get(location.mSegment);
+        ByteBuffer buffer = ByteBuffer.allocate(location.mValueLength);
+        readFully(segment.mChannel, buffer, location.valueOffset());
+        return buffer.array();
+    }
+
+    @Override
+    synchronized ByteBuffer map(String name) throws IOException {
+        Location location = mIndex.get(name);
+        if (location == null)
+            return null;
+        Segment segment = mSegments.get(location.mSegment);
+        // Segments are append-only, so the mapping stays valid after compaction
+        return segment.mChannel.map(FileChannel.MapMode.READ_ONLY, location.valueOffset(), location.mValueLength);
+    }
+
+    /**
+     * Reads the raw value bytes of the entries with the given names in segment
+     * and offset order, so each segment is read sequentially.
+     *
+     * @return the value bytes by name, omitting names without an entry
+     */
+    synchronized Map<String, byte[]> readAllBytes(Collection<String> names) throws IOException {
+        List<String> found = new ArrayList<String>(names.size());
+        for (String name : names) {
+            if (mIndex.containsKey(name))
+                found.add(name);
+        }
+        // The index does not change while the store lock is held
+        Collections.sort(found, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                Location left = mIndex.get(lhs);
+                Location right = mIndex.get(rhs);
+                if (left.mSegment != right.mSegment)
+                    return left.mSegment < right.mSegment ? -1 : 1;
+                return left.mOffset < right.mOffset ? -1 : (left.mOffset == right.mOffset ? 0 : 1);
+            }
+        });
+        Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+        for (String name : found) {
+            Location location = mIndex.get(name);
+            ByteBuffer buffer = ByteBuffer.allocate(location.mValueLength);
+            readFully(mSegments.get(location.mSegment).mChannel, buffer, location.valueOffset());
+            values.put(name, buffer.array());
+        }
+        return values;
+    }
+
+    /**
+     * Appends records with the given raw value bytes, or tombstones for
+     * {@code null} values, using a single gathering write per segment.
+     * Tombstoned entries must already have been removed from the index.
+     */
+    synchronized void appendAll(Map<String, byte[]> values, long timestamp) throws IOException {
+        List<String> names = new ArrayList<String>();
+        List<ByteBuffer> records = new ArrayList<ByteBuffer>();
+        List<Location> locations = new ArrayList<Location>();
+        long batchSize = 0;
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            byte[] value = entry.getValue();
+            ByteBuffer record = encodeRecord(encodeName(entry.getKey()), value, timestamp);
+            int recordLength = record.remaining();
+            if (mActive == null || (mActive.mSize + batchSize > 0
+                    && mActive.mSize + batchSize + recordLength > mMaxSegmentSize)) {
+                writeBatch(names, records, locations, batchSize);
+                batchSize = 0;
+                roll();
+            }
+            names.add(entry.getKey());
+            records.add(record);
+            locations.add(value == null ? null
+                    : new Location(mActive.mId, mActive.mSize + batchSize, recordLength, value.length, timestamp));
+            batchSize += recordLength;
+        }
+        writeBatch(names, records, locations, batchSize);
+    }
+
+    /**
+     * Writes a batch of records to the end of the active segment and indexes
+     * them, then clears the batch.
+     */
+    private void writeBatch(List<String> names, List<ByteBuffer> records, List<Location> locations, long batchSize)
+            throws IOException {
+        if (records.isEmpty())
+            return;
+        ByteBuffer[] buffers = records.toArray(new ByteBuffer[records.size()]);
+        FileChannel channel = mActive.mChannel;
+        channel.position(mActive.mSize);
+        long written = 0;
+        while (written < batchSize)
+            written += channel.write(buffers);
+        mActive.mSize += batchSize;
+        for (int i = 0; i < names.size(); i++) {
+            Location location = locations.get(i);
+            if (location == null)
+                continue;
+            mActive.mLiveBytes += location.mRecordLength;
+            Location previous = mIndex.put(names.get(i), location);
+            if (previous != null)
+                release(previous);
+        }
+        names.clear();
+        records.clear();
+        locations.clear();
+    }
+
+    /**
+     * Appends a record with the given raw value bytes.
+     */
+    synchronized void append(String name, byte[] value, long timestamp) throws IOException {
+        Location location = appendRecord(name, value, timestamp);
+        Location previous = mIndex.put(name, location);
+        if (previous != null)
+            release(previous);
+    }
+
+    private Location appendRecord(String name, byte[] value, long timestamp) throws IOException {
+        byte[] nameBytes = encodeName(name);
+        int valueLength = value == null ? TOMBSTONE : value.length;
+        int recordLength = HEADER_SIZE + nameBytes.length + Math.max(0, valueLength);
+        if (mActive == null || (mActive.mSize > 0 && mActive.mSize + recordLength > mMaxSegmentSize))
+            roll();
+        ByteBuffer record = encodeRecord(nameBytes, value, timestamp);
+        long offset = mActive.mSize;
+        while (record.hasRemaining())
+            mActive.mChannel.write(record, offset + record.position());
+        mActive.mSize += recordLength;
+        if (value == null)
+            return null;
+        mActive.mLiveBytes += recordLength;
+        return new Location(mActive.mId, offset, recordLength, valueLength, timestamp);
+    }
+
+    /**
+     * Encodes a record, or a tombstone if the value is {@code null}.
+     */
+    private static ByteBuffer encodeRecord(byte[] nameBytes, byte[] value, long timestamp) {
+        int valueLength = value == null ? TOMBSTONE : value.length;
+        CRC32 crc = new CRC32();
+        crc.update(nameBytes);
+        if (value != null)
+            crc.update(value);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + nameBytes.length + Math.max(0, valueLength));
+        record.putInt(MAGIC).putInt(nameBytes.length).putInt(valueLength).putLong(timestamp)
+                .putInt((int) crc.getValue()).put(nameBytes);
+        if (value != null)
+            record.put(value);
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Marks the record at the given {@link Location} as dead.
+     */
+    private void release(Location location) {
+        Segment segment = mSegments.get(location.mSegment);
+        if (segment == null)
+            return;
+        segment.mLiveBytes -= location.mRecordLength;
+        maybeCompact(segment);
+    }
+
+    /**
+     * Schedules the given segment for compaction if it is sealed and mostly
+     * made up of dead records.
+     */
+    private void maybeCompact(Segment segment) {
+        if (segment != mActive && segment.mLiveBytes < segment.mSize * COMPACTION_THRESHOLD
+                && mCompacting.add(segment.mId)) {
+            final int id = segment.mId;
+            COMPACTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compact(id);
+                }
+            });
+        }
+    }
+
+    /**
+     * Seals the active segment and starts a new one. Segment ids are never
+     * reused, not even after {@link #clear()}, so a pending compaction cannot
+     * mistake a new segment for the one it was scheduled for.
+     */
+    private void roll() throws IOException {
+        int id = mNextSegmentId++;
+        mActive = new Segment(id, new File(mDirectory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX));
+        mSegments.put(id, mActive);
+    }
+
+    /**
+     * Copies the live records of the given segment to the active segment and
+     * deletes it. Records are copied one at a time, so that the store remains
+     * available while compacting.
+     */
+    private void compact(int id) {
+        long offset = 0;
+        while (true) {
+            synchronized (this) {
+                Segment segment = mSegments.get(id);
+                if (segment == null)
+                    return; // cleared or closed in the meantime
+                if (segment == mActive) {
+                    mCompacting.remove(id);
+                    return;
+                }
+                try {
+                    if (offset >= segment.mSize || segment.mLiveBytes <= 0) {
+                        if (!keepsTombstones(segment, offset)) {
+                            mSegments.remove(id);
+                            mCompacting.remove(id);
+                            segment.close();
+                            segment.mFile.delete();
+                            return;
+                        }
+                    }
+                    offset = copyRecord(segment, offset);
+                } catch (IOException e) {
+                    // Leave the segment as is, it will be retried on the next release
+                    mCompacting.remove(id);
+                    e.printStackTrace();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Indicates if the remainder of the given segment, starting at the given
+     * offset, still needs to be scanned for tombstones. Tombstones are only
+     * relevant as long as older segments exist.
+     */
+    private boolean keepsTombstones(Segment segment, long offset) {
+        return offset < segment.mSize && mSegments.firstKey() < segment.mId;
+    }
+
+    /**
+     * Copies the record at the given offset to the active segment if it is
+     * still live, or if it is a tombstone still shadowing an older record.
+     *
+     * @return the offset of the next record
+     */
+    private long copyRecord(Segment segment, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(segment.mChannel, header, offset);
+        header.flip();
+        header.getInt();
+        int nameLength = header.getInt();
+        int valueLength = header.getInt();
+        long timestamp = header.getLong();
+        ByteBuffer nameBuffer = ByteBuffer.allocate(nameLength);
+        readFully(segment.mChannel, nameBuffer, offset + HEADER_SIZE);
+        String name = decodeName(nameBuffer.array());
+        int recordLength = HEADER_SIZE + nameLength + Math.max(0, valueLength);
+        Location location = mIndex.get(name);
+        if (valueLength == TOMBSTONE) {
+            if (location == null && mSegments.firstKey() < segment.mId)
+                appendRecord(name, null, timestamp);
+        } else if (location != null && location.mSegment == segment.mId && location.mOffset == offset) {
+            ByteBuffer value = ByteBuffer.allocate(valueLength);
+            readFully(segment.mChannel, value, offset + HEADER_SIZE + nameLength);
+            segment.mLiveBytes -= recordLength;
+            mIndex.put(name, appendRecord(name, value.array(), timestamp));
+        }
+        return offset + recordLength;
+    }
+
+    /**
+     * Opens the existing segments and rebuilds the index from their records.
+     */
+    private void open() throws IOException {
+        mDirectory.mkdirs();
+        String[] files = mDirectory.list();
+        if (files != null) {
+            Arrays.sort(files);
+            for (String file : files) {
+                if (!isSegment(file))
+                    continue;
+                try {
+                    int id = Integer.parseInt(file.substring(SEGMENT_PREFIX.length(),
+                            file.length() - SEGMENT_SUFFIX.length()));
+                    mSegments.put(id, new Segment(id, new File(mDirectory, file)));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        for (Segment segment : mSegments.values())
+            replay(segment);
+        mNextSegmentId = mSegments.isEmpty() ? 1 : mSegments.lastKey() + 1;
+        if (mSegments.isEmpty()) {
+            roll();
+        } else {
+            mActive = mSegments.get(mSegments.lastKey());
+            for (Segment segment : mSegments.values())
+                maybeCompact(segment);
+        }
+    }
+
+    /**
+     * Applies the records of the given segment to the index, truncating the
+     * segment at the first corrupt record.
+     */
+    private void replay(Segment segment) throws IOException {
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (offset + HEADER_SIZE <= segment.mSize) {
+            header.clear();
+            readFully(segment.mChannel, header, offset);
+            header.flip();
+            int magic = header.getInt();
+            int nameLength = header.getInt();
+            int valueLength = header.getInt();
+            long timestamp = header.getLong();
+            int checksum = header.getInt();
+            long recordLength = (long) HEADER_SIZE + nameLength + Math.max(0, valueLength);
+            if (magic != MAGIC || nameLength < 0 || valueLength < TOMBSTONE
+                    || offset + recordLength > segment.mSize)
+                break;
+            ByteBuffer body = ByteBuffer.allocate((int) recordLength - HEADER_SIZE);
+            readFully(segment.mChannel, body, offset + HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(body.array());
+            if ((int) crc.getValue() != checksum)
+                break;
+            byte[] nameBytes = new byte[nameLength];
+            System.arraycopy(body.array(), 0, nameBytes, 0, nameLength);
+            String name = decodeName(nameBytes);
+            Location previous;
+            if (valueLength == TOMBSTONE) {
+                previous = mIndex.remove(name);
+            } else {
+                previous = mIndex.put(name, new Location(segment.mId, offset, (int) recordLength, valueLength, timestamp));
+                segment.mLiveBytes += recordLength;
+            }
+            if (previous != null)
+                mSegments.get(previous.mSegment).mLiveBytes -= previous.mRecordLength;
+            offset += recordLength;
+        }
+        if (offset < segment.mSize) {
+            segment.mChannel.truncate(offset);
+            segment.mSize = offset;
+        }
+    }
+
+    /**
+     * Indicates if the given file name is used for a journal segment.
+     */
+    static boolean isSegment(String fileName) {
+        return fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new IOException("Unexpected end of segment");
+        }
+    }
+
+    private static byte[] encodeName(String name) {
+        try {
+            return name.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decodeName(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
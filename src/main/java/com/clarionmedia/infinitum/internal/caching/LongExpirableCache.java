@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+/**
+ * <p>
+ * A bounded time-expiration cache keyed by {@code long} values, such as row
+ * ids. Unlike {@link ExpirableCache}, keys are not boxed and entries are held
+ * in an open-addressing table with intrusive access-order links, so lookups
+ * and updates of existing keys do not allocate.
+ * </p>
+ * <p>
+ * Entries expire lazily: expired entries are invisible to all lookups and
+ * are removed when accessed, when evicted to make room, or by
+ * {@link #cleanUp()}. Once the cache holds its maximum number of entries,
+ * adding an entry evicts the least recently used one.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public class LongExpirableCache<V> implements MemoryPressure.Trimmable {
+
+    private final LongLinkedTable mTable;
+    private final int mMaxSize;
+    private final long mDefaultExpirationTimeout;
+    private final StatsCounter mStatsCounter;
+
+    /**
+     * Creates a new {@code LongExpirableCache}.
+     *
+     * @param defaultExpiration the default expiration time in seconds
+     * @param maxSize           the maximum number of entries in the cache
+     */
+    public LongExpirableCache(long defaultExpiration, int maxSize) {
+        if (defaultExpiration <= 0)
+            throw new IllegalArgumentException("Cache expiration timeout must be greater than 0.");
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("Cache maximum size must be greater than 0.");
+        mTable = new LongLinkedTable(maxSize, true);
+        mMaxSize = maxSize;
+        mDefaultExpirationTimeout = defaultExpiration;
+        mStatsCounter = new StatsCounter();
+    }
+
+    /**
+     * Returns the default expiration timeout for the cache.
+     *
+     * @return default expiration timeout in seconds
+     */
+    public long getDefaultExpirationTimeout() {
+        return mDefaultExpirationTimeout;
+    }
+
+    /**
+     * Returns the value cached for the given key and marks it as the most
+     * recently used.
+     *
+     * @param key the cache key
+     * @return the cached value or {@code null} if there is none or it expired
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V get(long key) {
+        int slot = mTable.indexOf(key);
+        if (slot == LongLinkedTable.NONE) {
+            mStatsCounter.recordMiss();
+            return null;
+        }
+        if (mTable.deadlineAt(slot) < System.currentTimeMillis()) {
+            mTable.removeAt(slot);
+            mStatsCounter.recordRemoval(RemovalCause.EXPIRED);
+            mStatsCounter.recordMiss();
+            return null;
+        }
+        mTable.touch(slot);
+        mStatsCounter.recordMemoryHit();
+        return (V) mTable.valueAt(slot);
+    }
+
+    /**
+     * Caches the given value using the default expiration timeout.
+     *
+     * @param key   the cache key
+     * @param value the value to cache
+     * @return the previous value of the key or {@code null} if there was none
+     *         or it expired
+     */
+    public V put(long key, V value) {
+        return put(key, value, mDefaultExpirationTimeout);
+    }
+
+    /**
+     * Caches the given value using the given expiration timeout, evicting the
+     * least recently used entry if the cache is full.
+     *
+     * @param key               the cache key
+     * @param value             the value to cache
+     * @param expirationTimeout the entry's expiration timeout in seconds
+     * @return the previous value of the key or {@code null} if there was none
+     *         or it expired
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V put(long key, V value, long expirationTimeout) {
+        if (value == null)
+            throw new NullPointerException("value == null");
+        long now = System.currentTimeMillis();
+        int slot = mTable.indexOf(key);
+        if (slot != LongLinkedTable.NONE) {
+            boolean expired = mTable.deadlineAt(slot) < now;
+            V previous = (V) mTable.put(key, value, now + expirationTimeout * 1000);
+            mStatsCounter.recordRemoval(expired ? RemovalCause.EXPIRED : RemovalCause.REPLACED);
+            return expired ? null : previous;
+        }
+        if (mTable.size() >= mMaxSize) {
+            int eldest = mTable.eldest();
+            boolean expired = mTable.deadlineAt(eldest) < now;
+            mTable.removeAt(eldest);
+            mStatsCounter.recordRemoval(expired ? RemovalCause.EXPIRED : RemovalCause.SIZE);
+        }
+        mTable.put(key, value, now + expirationTimeout * 1000);
+        return null;
+    }
+
+    /**
+     * Removes the value cached for the given key.
+     *
+     * @param key the cache key
+     * @return the removed value or {@code null} if there was none or it
+     *         expired
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(long key) {
+        int slot = mTable.indexOf(key);
+        if (slot == LongLinkedTable.NONE)
+            return null;
+        boolean expired = mTable.deadlineAt(slot) < System.currentTimeMillis();
+        V value = (V) mTable.removeAt(slot);
+        mStatsCounter.recordRemoval(expired ? RemovalCause.EXPIRED : RemovalCause.EXPLICIT);
+        return expired ? null : value;
+    }
+
+    /**
+     * Indicates if an unexpired value is cached for the given key, without
+     * marking it as used.
+     *
+     * @param key the cache key
+     * @return {@code true} if the key is cached
+     */
+    public synchronized boolean containsKey(long key) {
+        int slot = mTable.indexOf(key);
+        return slot != LongLinkedTable.NONE && mTable.deadlineAt(slot) >= System.currentTimeMillis();
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        mStatsCounter.recordRemovals(RemovalCause.EXPLICIT, mTable.size());
+        mTable.clear();
+    }
+
+    /**
+     * Removes all expired entries.
+     */
+    public synchronized void cleanUp() {
+        long now = System.currentTimeMillis();
+        int slot = mTable.eldest();
+        while (slot != LongLinkedTable.NONE) {
+            int next = mTable.newer(slot);
+            if (mTable.deadlineAt(slot) >= now) {
+                slot = next;
+                continue;
+            }
+            // Removals may move the next entry to another slot
+            long nextKey = next == LongLinkedTable.NONE ? 0 : mTable.keyAt(next);
+            mTable.removeAt(slot);
+            mStatsCounter.recordRemoval(RemovalCause.EXPIRED);
+            slot = next == LongLinkedTable.NONE ? LongLinkedTable.NONE : mTable.indexOf(nextKey);
+        }
+    }
+
+    /**
+     * Removes all expired entries, then evicts the given fraction of the
+     * remaining entries, least recently used first.
+     *
+     * @param fraction the fraction of entries to evict, between 0 and 1
+     */
+    @Override
+    public synchronized void trimMemory(float fraction) {
+        if (fraction < 0 || fraction > 1)
+            throw new IllegalArgumentException("Trim fraction must be between 0 and 1.");
+        cleanUp();
+        for (int count = (int) (mTable.size() * fraction); count > 0; count--) {
+            mTable.removeAt(mTable.eldest());
+            mStatsCounter.recordRemoval(RemovalCause.MEMORY_PRESSURE);
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache, including expired entries
+     * which have not been removed yet.
+     *
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return mTable.size();
+    }
+
+    /**
+     * Returns the maximum number of entries in the cache.
+     *
+     * @return maximum number of entries
+     */
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns a snapshot of the cache's {@link CacheStats}.
+     *
+     * @return the cache statistics
+     */
+    public CacheStats stats() {
+        return mStatsCounter.snapshot();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("LongExpirableCache[size=%d,maxSize=%d,defaultExpiration=%ds]", mTable.size(),
+                mMaxSize, mDefaultExpirationTimeout);
+    }
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+/**
+ * <p>
+ * An open-addressing hash table of {@code long} keys, which links its slots
+ * into a doubly-linked list in access order. Keys, values, deadlines and
+ * links are held in parallel arrays, so lookups and updates do not allocate.
+ * Collisions are resolved by linear probing, and removals shift subsequent
+ * entries back rather than leaving tombstones.
+ * </p>
+ * <p>
+ * The table grows by doubling up to the capacity needed for its maximum
+ * size, and never shrinks except when cleared.
+ * </p>
+ * <p>
+ * This class is not threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+final class LongLinkedTable {
+
+    /**
+     * The slot index denoting the end of the access-order list, or a missing
+     * key.
+     */
+    static final int NONE = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final int mMaxCapacity;
+    private final boolean mHasDeadlines;
+    private long[] mKeys;
+    private Object[] mValues;
+    private long[] mDeadlines;
+    private int[] mPrev;
+    private int[] mNext;
+    private int mMask;
+    private int mHead = NONE;
+    private int mTail = NONE;
+    private int mSize;
+
+    /**
+     * Creates a new {@code LongLinkedTable}.
+     *
+     * @param maxSize      the maximum number of entries the table will hold
+     * @param hasDeadlines {@code true} to store a deadline per entry
+     */
+    LongLinkedTable(int maxSize, boolean hasDeadlines) {
+        // Keep the load factor at or below 3/4
+        long capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < maxSize)
+            capacity <<= 1;
+        if (capacity > 1 << 30)
+            throw new IllegalArgumentException("Cache maximum size is too large.");
+        mMaxCapacity = (int) capacity;
+        mHasDeadlines = hasDeadlines;
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Returns the slot of the given key.
+     *
+     * @return the slot or {@link #NONE} if the key is absent
+     */
+    int indexOf(long key) {
+        int slot = slotFor(key);
+        while (mValues[slot] != null) {
+            if (mKeys[slot] == key)
+                return slot;
+            slot = (slot + 1) & mMask;
+        }
+        return NONE;
+    }
+
+    long keyAt(int slot) {
+        return mKeys[slot];
+    }
+
+    Object valueAt(int slot) {
+        return mValues[slot];
+    }
+
+    long deadlineAt(int slot) {
+        return mDeadlines[slot];
+    }
+
+    /**
+     * Returns the slot of the least recently used entry.
+     *
+     * @return the slot or {@link #NONE} if the table is empty
+     */
+    int eldest() {
+        return mHead;
+    }
+
+    /**
+     * Returns the slot of the entry used after the one in the given slot.
+     *
+     * @return the slot or {@link #NONE} if the entry is the most recently used
+     */
+    int newer(int slot) {
+        return mNext[slot];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Marks the entry in the given slot as the most recently used.
+     */
+    void touch(int slot) {
+        if (slot == mTail)
+            return;
+        unlink(slot);
+        link(slot);
+    }
+
+    /**
+     * Stores the given value and marks it as the most recently used. The
+     * caller must make room beforehand if the key is new and the table holds
+     * its maximum size.
+     *
+     * @param key      the key
+     * @param value    the value, which must not be {@code null}
+     * @param deadline the deadline, ignored if the table stores none
+     * @return the previous value or {@code null} if there was none
+     */
+    Object put(long key, Object value, long deadline) {
+        int slot = indexOf(key);
+        if (slot != NONE) {
+            Object previous = mValues[slot];
+            mValues[slot] = value;
+            if (mHasDeadlines)
+                mDeadlines[slot] = deadline;
+            touch(slot);
+            return previous;
+        }
+        if ((mSize + 1) * 4L > mKeys.length * 3L && mKeys.length < mMaxCapacity)
+            grow();
+        slot = slotFor(key);
+        while (mValues[slot] != null)
+            slot = (slot + 1) & mMask;
+        mKeys[slot] = key;
+        mValues[slot] = value;
+        if (mHasDeadlines)
+            mDeadlines[slot] = deadline;
+        link(slot);
+        mSize++;
+        return null;
+    }
+
+    /**
+     * Removes the entry in the given slot. Entries following it in the same
+     * probe sequence may move to other slots.
+     *
+     * @return the removed value
+     */
+    Object removeAt(int slot) {
+        Object value = mValues[slot];
+        unlink(slot);
+        mValues[slot] = null;
+        mSize--;
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mMask;
+            if (mValues[next] == null)
+                break;
+            // Move the entry into the hole unless its probe sequence starts
+            // after the hole
+            int distance = (next - slotFor(mKeys[next])) & mMask;
+            if (distance >= ((next - hole) & mMask)) {
+                move(next, hole);
+                hole = next;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Removes all entries and shrinks the table to its initial capacity.
+     */
+    void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private int slotFor(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mMask;
+    }
+
+    private void link(int slot) {
+        mPrev[slot] = mTail;
+        mNext[slot] = NONE;
+        if (mTail == NONE)
+            mHead = slot;
+        else
+            mNext[mTail] = slot;
+        mTail = slot;
+    }
+
+    private void unlink(int slot) {
+        int prev = mPrev[slot];
+        int next = mNext[slot];
+        if (prev == NONE)
+            mHead = next;
+        else
+            mNext[prev] = next;
+        if (next == NONE)
+            mTail = prev;
+        else
+            mPrev[next] = prev;
+    }
+
+    /**
+     * Moves the entry in slot {@code from} to the empty slot {@code to},
+     * keeping its position in the access-order list.
+     */
+    private void move(int from, int to) {
+        mKeys[to] = mKeys[from];
+        mValues[to] = mValues[from];
+        if (mHasDeadlines)
+            mDeadlines[to] = mDeadlines[from];
+        int prev = mPrev[from];
+        int next = mNext[from];
+        mPrev[to] = prev;
+        mNext[to] = next;
+        if (prev == NONE)
+            mHead = to;
+        else
+            mNext[prev] = to;
+        if (next == NONE)
+            mTail = to;
+        else
+            mPrev[next] = to;
+        mValues[from] = null;
+    }
+
+    /**
+     * Doubles the capacity of the table, reinserting all entries in access
+     * order.
+     */
+    private void grow() {
+        long[] keys = mKeys;
+        Object[] values = mValues;
+        long[] deadlines = mDeadlines;
+        int[] next = mNext;
+        int slot = mHead;
+        allocate(keys.length << 1);
+        while (slot != NONE) {
+            put(keys[slot], values[slot], deadlines == null ? 0 : deadlines[slot]);
+            slot = next[slot];
+        }
+    }
+
+    /**
+     * Replaces the arrays with empty ones of the given capacity.
+     */
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        mDeadlines = mHasDeadlines ? new long[capacity] : null;
+        mPrev = new int[capacity];
+        mNext = new int[capacity];
+        mMask = capacity - 1;
+        mHead = NONE;
+        mTail = NONE;
+        mSize = 0;
+    }
+
+}
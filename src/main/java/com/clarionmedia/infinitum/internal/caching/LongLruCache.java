@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+/**
+ * <p>
+ * A bounded least-recently-used cache keyed by {@code long} values, such as
+ * row ids. Unlike {@link LruCache}, keys are not boxed and entries are held
+ * in an open-addressing table with intrusive access-order links, so lookups
+ * and updates of existing keys do not allocate.
+ * </p>
+ * <p>
+ * Once the cache holds its maximum number of entries, adding an entry evicts
+ * the least recently used one.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public class LongLruCache<V> implements MemoryPressure.Trimmable {
+
+    private final LongLinkedTable mTable;
+    private final int mMaxSize;
+    private final StatsCounter mStatsCounter;
+
+    /**
+     * Creates a new {@code LongLruCache}.
+     *
+     * @param maxSize the maximum number of entries in the cache
+     */
+    public LongLruCache(int maxSize) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("Cache maximum size must be greater than 0.");
+        mTable = new LongLinkedTable(maxSize, false);
+        mMaxSize = maxSize;
+        mStatsCounter = new StatsCounter();
+    }
+
+    /**
+     * Returns the value cached for the given key and marks it as the most
+     * recently used.
+     *
+     * @param key the cache key
+     * @return the cached value or {@code null} if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V get(long key) {
+        int slot = mTable.indexOf(key);
+        if (slot == LongLinkedTable.NONE) {
+            mStatsCounter.recordMiss();
+            return null;
+        }
+        mTable.touch(slot);
+        mStatsCounter.recordMemoryHit();
+        return (V) mTable.valueAt(slot);
+    }
+
+    /**
+     * Caches the given value, evicting the least recently used entry if the
+     * cache is full.
+     *
+     * @param key   the cache key
+     * @param value the value to cache
+     * @return the previous value of the key or {@code null} if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V put(long key, V value) {
+        if (value == null)
+            throw new NullPointerException("value == null");
+        if (mTable.size() >= mMaxSize && mTable.indexOf(key) == LongLinkedTable.NONE) {
+            mTable.removeAt(mTable.eldest());
+            mStatsCounter.recordRemoval(RemovalCause.SIZE);
+        }
+        V previous = (V) mTable.put(key, value, 0);
+        if (previous != null)
+            mStatsCounter.recordRemoval(RemovalCause.REPLACED);
+        return previous;
+    }
+
+    /**
+     * Removes the value cached for the given key.
+     *
+     * @param key the cache key
+     * @return the removed value or {@code null} if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(long key) {
+        int slot = mTable.indexOf(key);
+        if (slot == LongLinkedTable.NONE)
+            return null;
+        mStatsCounter.recordRemoval(RemovalCause.EXPLICIT);
+        return (V) mTable.removeAt(slot);
+    }
+
+    /**
+     * Indicates if a value is cached for the given key, without marking it as
+     * used.
+     *
+     * @param key the cache key
+     * @return {@code true} if the key is cached
+     */
+    public synchronized boolean containsKey(long key) {
+        return mTable.indexOf(key) != LongLinkedTable.NONE;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        mStatsCounter.recordRemovals(RemovalCause.EXPLICIT, mTable.size());
+        mTable.clear();
+    }
+
+    /**
+     * Evicts the given fraction of the entries, least recently used first.
+     *
+     * @param fraction the fraction of entries to evict, between 0 and 1
+     */
+    @Override
+    public synchronized void trimMemory(float fraction) {
+        if (fraction < 0 || fraction > 1)
+            throw new IllegalArgumentException("Trim fraction must be between 0 and 1.");
+        for (int count = (int) (mTable.size() * fraction); count > 0; count--) {
+            mTable.removeAt(mTable.eldest());
+            mStatsCounter.recordRemoval(RemovalCause.MEMORY_PRESSURE);
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return mTable.size();
+    }
+
+    /**
+     * Returns the maximum number of entries in the cache.
+     *
+     * @return maximum number of entries
+     */
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns a snapshot of the cache's {@link CacheStats}.
+     *
+     * @return the cache statistics
+     */
+    public CacheStats stats() {
+        return mStatsCounter.snapshot();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("LongLruCache[size=%d,maxSize=%d]", mTable.size(), mMaxSize);
+    }
+
+}
@@ -16,19 +16,33 @@
 
 package com.clarionmedia.infinitum.internal.caching;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <p>
- * A {@link Map} implementation that acts as a least-recently-used (LRU) cache.
- * If the maximum cache capacity is reached, the {@link Object} that was last
- * accessed will be evicted. This is implemented using a {@link LinkedHashMap},
- * such that when an {@code Object} is accessed or added, it is placed at the
- * head of the queue. When space is needed, the {@code Object} at the end of the
- * queue is evicted.
+ * A {@link Map} implementation that acts as a bounded cache. If the maximum
+ * cache capacity is reached, entries are evicted according to the cache's
+ * {@link EvictionPolicy}. By default, this is a least-recently-used (LRU)
+ * policy: when an {@code Object} is accessed or added, it is placed at the
+ * head of a queue, and when space is needed, the {@code Object} at the end of
+ * the queue is evicted. Scan-resistant policies, such as
+ * {@link TinyLfuEvictionPolicy}, {@link ArcEvictionPolicy} or
+ * {@link ClockEvictionPolicy}, can be selected per cache instance.
+ * </p>
+ * <p>
+ * Reads do not take a lock. Entries are looked up in a
+ * {@link ConcurrentHashMap} and the access is recorded in a striped, lossy
+ * read buffer, which is replayed to the eviction policy by whichever thread
+ * manages to acquire the eviction lock. Writes acquire the eviction lock.
  * </p>
  * <p>
  * By default, the cache size is measured in the number of {@code Objects} it
@@ -36,23 +50,31 @@ import java.util.Set;
  * {@link LruCache#sizeOf(Object, Object)} method.
  * </p>
  * <p>
+ * Registered with {@link MemoryPressure}, the cache evicts part of its
+ * entries when the system runs low on memory.
+ * </p>
+ * <p>
  * This class is threadsafe.
  * </p>
  *
  * @author Tyler Treat
- * @version 1.0.6 04/09/13
+ * @version 1.1.1 10/17/26
  * @since 1.0
  */
-public class LruCache<K, V> implements Map<K, V> {
-
-    private final LinkedHashMap<K, V> mMap;
-    private int mSize;
-    private int mMaxSize;
-    private int mPutCount;
-    private int mCreateCount;
-    private int mEvictionCount;
-    private int mHitCount;
-    private int mMissCount;
+public class LruCache<K, V> implements Map<K, V>, MemoryPressure.Trimmable {
+
+    private final ConcurrentHashMap<K, Node<K, V>> mMap;
+    private final StripedReadBuffer<Node<K, V>> mReadBuffer;
+    private final ReentrantLock mEvictionLock;
+    private final EvictionPolicy<K> mPolicy;
+    private final PolicyStats mStats;
+    private final StatsCounter mStatsCounter;
+    private final StripedReadBuffer.Sink<Node<K, V>> mAccessReplayer;
+    private final SingleFlight<K, V> mLoads;
+    private volatile int mSize;
+    private volatile int mMaxSize;
+    private volatile int mPutCount;
+    private volatile int mCreateCount;
 
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is the
@@ -61,11 +83,44 @@ public class LruCache<K, V> implements Map<K, V> {
      *                cache.
      */
     public LruCache(int maxSize) {
+        this(maxSize, new LruEvictionPolicy<K>());
+    }
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is the
+     *                maximum number of entries in the cache. For all other caches,
+     *                this is the maximum sum of the sizes of the entries in this
+     *                cache.
+     * @param policy  the {@link EvictionPolicy} deciding which entries to evict,
+     *                which must not be shared with other caches
+     */
+    public LruCache(int maxSize, EvictionPolicy<K> policy) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
+        if (policy == null) {
+            throw new NullPointerException("policy == null");
+        }
         this.mMaxSize = maxSize;
-        this.mMap = new LinkedHashMap<K, V>(16, 0.75f, true);
+        this.mMap = new ConcurrentHashMap<K, Node<K, V>>(16, 0.75f);
+        this.mReadBuffer = new StripedReadBuffer<Node<K, V>>();
+        this.mEvictionLock = new ReentrantLock();
+        this.mPolicy = policy;
+        this.mPolicy.attach(maxSize);
+        this.mStats = policy.getStats();
+        // Hits and misses are counted once, in counters shared with the policy
+        this.mStatsCounter = new StatsCounter(mStats.hitCounter(), mStats.missCounter());
+        this.mLoads = new SingleFlight<K, V>();
+        this.mAccessReplayer = new StripedReadBuffer.Sink<Node<K, V>>() {
+            @Override
+            public void accept(Node<K, V> node) {
+                if (node.mValue == null)
+                    mPolicy.onMiss(node.mKey);
+                // Entries may have been removed since the read was recorded
+                else if (mMap.get(node.mKey) == node)
+                    mPolicy.onAccess(node.mKey);
+            }
+        };
     }
 
     /**
@@ -81,15 +136,14 @@ public class LruCache<K, V> implements Map<K, V> {
             throw new NullPointerException("key == null");
         }
 
-        V mapValue;
-        synchronized (this) {
-            mapValue = mMap.get(key);
-            if (mapValue != null) {
-                mHitCount++;
-                return mapValue;
-            }
-            mMissCount++;
+        Node<K, V> node = mMap.get(key);
+        if (node != null) {
+            mStatsCounter.recordMemoryHit();
+            afterRead(node);
+            return node.mValue;
         }
+        mStatsCounter.recordMiss();
+        afterRead(new Node<K, V>((K) key, null, 0));
 
 		/*
          * Attempt to create a value. This may take a long time, and the map may
@@ -98,28 +152,93 @@ public class LruCache<K, V> implements Map<K, V> {
 		 * and release the created value.
 		 */
 
+        long start = System.nanoTime();
         V createdValue = create(key);
         if (createdValue == null) {
             return null;
         }
+        mStatsCounter.recordLoadSuccess(System.nanoTime() - start);
+        return install((K) key, createdValue);
+    }
 
-        synchronized (this) {
-            mCreateCount++;
-            mapValue = mMap.put((K) key, createdValue);
+    /**
+     * Returns the value for {@code key} if it exists in the cache or loads it
+     * using the given {@link CacheLoader}. Concurrent misses on the same key
+     * are coalesced: only one caller invokes the loader while the others wait
+     * for its result. Values which fail to load are not cached, and the
+     * failure is propagated to every waiting caller.
+     *
+     * @param key    the cache key
+     * @param loader the {@link CacheLoader} computing the value on a miss
+     * @return the cached or loaded value, or null if the loader returned null
+     */
+    public final V get(final K key, final CacheLoader<? super K, ? extends V> loader) {
+        if (key == null || loader == null) {
+            throw new NullPointerException("key == null || loader == null");
+        }
+
+        Node<K, V> node = mMap.get(key);
+        if (node != null) {
+            mStatsCounter.recordMemoryHit();
+            afterRead(node);
+            return node.mValue;
+        }
+        mStatsCounter.recordMiss();
+        afterRead(new Node<K, V>(key, null, 0));
+
+        return mLoads.execute(key, new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                // A previous load may have completed since the miss
+                Node<K, V> loaded = mMap.get(key);
+                if (loaded != null)
+                    return loaded.mValue;
+                long start = System.nanoTime();
+                V value;
+                try {
+                    value = loader.load(key);
+                } catch (Exception e) {
+                    mStatsCounter.recordLoadFailure(System.nanoTime() - start);
+                    throw e;
+                }
+                if (value == null) {
+                    mStatsCounter.recordLoadFailure(System.nanoTime() - start);
+                    return null;
+                }
+                mStatsCounter.recordLoadSuccess(System.nanoTime() - start);
+                return install(key, value);
+            }
+        });
+    }
 
-            if (mapValue != null) {
-                // There was a conflict so undo that last put
-                mMap.put((K) key, mapValue);
+    /**
+     * Adds a created or loaded value unless a conflicting value was added in
+     * the meantime, and returns the value left in the cache.
+     */
+    private V install(K key, V createdValue) {
+        V mapValue = null;
+        mEvictionLock.lock();
+        try {
+            mCreateCount++;
+            Node<K, V> existing = mMap.get(key);
+            if (existing != null) {
+                // There was a conflict so keep the existing value
+                mapValue = existing.mValue;
             } else {
-                mSize += safeSizeOf(key, createdValue);
+                Node<K, V> created = new Node<K, V>(key, createdValue, safeSizeOf(key, createdValue));
+                mMap.put(key, created);
+                mPolicy.onAdd(created.mKey, created.mSize);
+                mSize += created.mSize;
             }
+        } finally {
+            mEvictionLock.unlock();
         }
 
         if (mapValue != null) {
             entryRemoved(false, key, createdValue, mapValue);
             return mapValue;
         } else {
-            trimToSize(mMaxSize);
+            trimToSize(mMaxSize, RemovalCause.SIZE);
             return createdValue;
         }
     }
@@ -136,21 +255,29 @@ public class LruCache<K, V> implements Map<K, V> {
             throw new NullPointerException("key == null || value == null");
         }
 
-        V previous;
-        synchronized (this) {
+        V previous = null;
+        Node<K, V> node = new Node<K, V>(key, value, safeSizeOf(key, value));
+        mEvictionLock.lock();
+        try {
             mPutCount++;
-            mSize += safeSizeOf(key, value);
-            previous = mMap.put(key, value);
-            if (previous != null) {
-                mSize -= safeSizeOf(key, previous);
+            mSize += node.mSize;
+            Node<K, V> old = mMap.put(key, node);
+            if (old != null) {
+                previous = old.mValue;
+                mSize -= old.mSize;
+                mPolicy.onRemove(key);
+                mStatsCounter.recordRemoval(RemovalCause.REPLACED);
             }
+            mPolicy.onAdd(key, node.mSize);
+        } finally {
+            mEvictionLock.unlock();
         }
 
         if (previous != null) {
             entryRemoved(false, key, previous, value);
         }
 
-        trimToSize(mMaxSize);
+        trimToSize(mMaxSize, RemovalCause.SIZE);
         return previous;
     }
 
@@ -161,9 +288,7 @@ public class LruCache<K, V> implements Map<K, V> {
      */
     @Override
     public final boolean containsKey(Object key) {
-        synchronized (this) {
-            return mMap.containsKey(key);
-        }
+        return mMap.containsKey(key);
     }
 
     /**
@@ -176,12 +301,18 @@ public class LruCache<K, V> implements Map<K, V> {
             throw new NullPointerException("key == null");
         }
 
-        V previous;
-        synchronized (this) {
-            previous = mMap.remove(key);
-            if (previous != null) {
-                mSize -= safeSizeOf(key, previous);
+        V previous = null;
+        mEvictionLock.lock();
+        try {
+            Node<K, V> old = mMap.remove(key);
+            if (old != null) {
+                previous = old.mValue;
+                mSize -= old.mSize;
+                mPolicy.onRemove(old.mKey);
+                mStatsCounter.recordRemoval(RemovalCause.EXPLICIT);
             }
+        } finally {
+            mEvictionLock.unlock();
         }
 
         if (previous != null) {
@@ -256,7 +387,22 @@ public class LruCache<K, V> implements Map<K, V> {
      */
     @Override
     public final void clear() {
-        trimToSize(-1); // -1 will evict 0-sized elements
+        trimToSize(-1, RemovalCause.EXPLICIT); // -1 will evict 0-sized elements
+    }
+
+    /**
+     * Evicts entries until the cache size has shrunk by the given fraction,
+     * calling {@link #entryRemoved} on each evicted entry.
+     *
+     * @param fraction the fraction of the cache size to evict, between 0 and
+     *                 1
+     */
+    @Override
+    public final void trimMemory(float fraction) {
+        if (fraction < 0 || fraction > 1)
+            throw new IllegalArgumentException("Trim fraction must be between 0 and 1.");
+        if (fraction > 0)
+            trimToSize(fraction == 1 ? -1 : (int) (mSize * (1 - fraction)), RemovalCause.MEMORY_PRESSURE);
     }
 
     /**
@@ -264,7 +410,7 @@ public class LruCache<K, V> implements Map<K, V> {
      * of entries in the cache. For all other caches, this returns the sum of
      * the sizes of the entries in this cache.
      */
-    public synchronized final int size() {
+    public final int size() {
         return mSize;
     }
 
@@ -273,103 +419,176 @@ public class LruCache<K, V> implements Map<K, V> {
      * number of entries in the cache. For all other caches, this returns the
      * maximum sum of the sizes of the entries in this cache.
      */
-    public synchronized final int maxSize() {
+    public final int maxSize() {
         return mMaxSize;
     }
 
     /**
      * Returns the number of times {@link #get} returned a value.
      */
-    public synchronized final int hitCount() {
-        return mHitCount;
+    public final int hitCount() {
+        return (int) mStats.hitCount();
     }
 
     /**
      * Returns the number of times {@link #get} returned null or required a new
      * value to be created.
      */
-    public synchronized final int missCount() {
-        return mMissCount;
+    public final int missCount() {
+        return (int) mStats.missCount();
     }
 
     /**
-     * Returns the number of times {@link #create(Object)} returned a value.
+     * Returns the number of times {@link #create(Object)} or a
+     * {@link CacheLoader} returned a value.
      */
-    public synchronized final int createCount() {
+    public final int createCount() {
         return mCreateCount;
     }
 
     /**
      * Returns the number of times {@link #put} was called.
      */
-    public synchronized final int putCount() {
+    public final int putCount() {
         return mPutCount;
     }
 
     /**
      * Returns the number of values that have been evicted.
      */
-    public synchronized final int evictionCount() {
-        return mEvictionCount;
+    public final int evictionCount() {
+        return (int) mStats.evictionCount();
+    }
+
+    /**
+     * Returns a snapshot of the cache's {@link CacheStats}. Loads include
+     * values returned by {@link #create(Object)}.
+     */
+    public final CacheStats stats() {
+        return mStatsCounter.snapshot();
     }
 
     /**
-     * Returns a copy of the current contents of the cache, ordered from least
-     * recently accessed to most recently accessed.
+     * Returns the hit, miss and eviction counters of the cache's
+     * {@link EvictionPolicy}.
      */
-    public synchronized final Map<K, V> snapshot() {
-        return new LinkedHashMap<K, V>(mMap);
+    public final PolicyStats policyStats() {
+        return mStats;
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from the
+     * next entry to be evicted to the last one. For the default LRU policy,
+     * this is from least recently accessed to most recently accessed.
+     */
+    public final Map<K, V> snapshot() {
+        Map<K, V> snapshot = new LinkedHashMap<K, V>();
+        mEvictionLock.lock();
+        try {
+            // Replay buffered reads so the order reflects them
+            mReadBuffer.drainTo(mAccessReplayer);
+            List<K> keys = new ArrayList<K>(mMap.size());
+            mPolicy.appendInEvictionOrder(keys);
+            for (K key : keys) {
+                Node<K, V> node = mMap.get(key);
+                if (node != null)
+                    snapshot.put(key, node.mValue);
+            }
+            // Policies which do not report an order leave these to the end
+            if (snapshot.size() < mMap.size()) {
+                for (Node<K, V> node : mMap.values()) {
+                    if (!snapshot.containsKey(node.mKey))
+                        snapshot.put(node.mKey, node.mValue);
+                }
+            }
+        } finally {
+            mEvictionLock.unlock();
+        }
+        return snapshot;
     }
 
     @Override
-    public synchronized final boolean containsValue(Object value) {
-        return mMap.containsValue(value);
+    public final boolean containsValue(Object value) {
+        for (Node<K, V> node : mMap.values()) {
+            if (node.mValue.equals(value))
+                return true;
+        }
+        return false;
     }
 
+    /**
+     * Returns an unmodifiable copy of the cache entries, in the order of
+     * {@link #snapshot()}.
+     */
     @Override
-    public synchronized final Set<Entry<K, V>> entrySet() {
-        return mMap.entrySet();
+    public final Set<Entry<K, V>> entrySet() {
+        return Collections.unmodifiableMap(snapshot()).entrySet();
     }
 
     @Override
-    public synchronized final boolean isEmpty() {
+    public final boolean isEmpty() {
         return mMap.isEmpty();
     }
 
+    /**
+     * Returns an unmodifiable copy of the cache keys, in the order of
+     * {@link #snapshot()}.
+     */
     @Override
-    public synchronized final Set<K> keySet() {
-        return mMap.keySet();
+    public final Set<K> keySet() {
+        return Collections.unmodifiableMap(snapshot()).keySet();
     }
 
     @Override
-    public synchronized final void putAll(Map<? extends K, ? extends V> other) {
+    public final void putAll(Map<? extends K, ? extends V> other) {
         for (Entry<? extends K, ? extends V> entry : other.entrySet())
             put(entry.getKey(), entry.getValue());
     }
 
+    /**
+     * Returns an unmodifiable copy of the cache values, in the order of
+     * {@link #snapshot()}.
+     */
     @Override
-    public synchronized final Collection<V> values() {
-        return mMap.values();
+    public final Collection<V> values() {
+        return Collections.unmodifiableMap(snapshot()).values();
     }
 
     @Override
-    public synchronized final String toString() {
-        int accesses = mHitCount + mMissCount;
-        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+    public final String toString() {
+        long hits = mStats.hitCount();
+        long accesses = hits + mStats.missCount();
+        long hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
         return String.format(
-                "LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]", mMaxSize,
-                mHitCount, mMissCount, hitPercent);
+                "LruCache[maxSize=%d,policy=%s,hits=%d,misses=%d,hitRate=%d%%]", mMaxSize,
+                mStats.getPolicyName(), hits, accesses - hits, hitPercent);
+    }
+
+    /**
+     * Records a read of the given {@link Node} and replays the buffered reads
+     * if a drain is due and the eviction lock is uncontended.
+     */
+    private void afterRead(Node<K, V> node) {
+        if (mReadBuffer.record(node) && mEvictionLock.tryLock()) {
+            try {
+                mReadBuffer.drainTo(mAccessReplayer);
+            } finally {
+                mEvictionLock.unlock();
+            }
+        }
     }
 
     /**
      * @param maxSize the maximum size of the cache before returning. May be -1 to
      *                evict even 0-sized elements.
+     * @param cause   the {@link RemovalCause} recorded for evicted entries
      */
-    private void trimToSize(int maxSize) {
-        while (true) {
-            K key;
-            V value;
-            synchronized (this) {
+    private void trimToSize(int maxSize, RemovalCause cause) {
+        List<Node<K, V>> evicted = null;
+        mEvictionLock.lock();
+        try {
+            mReadBuffer.drainTo(mAccessReplayer);
+            while (true) {
                 if (mSize < 0 || (mMap.isEmpty() && mSize != 0)) {
                     throw new IllegalStateException(getClass().getName()
                             + ".sizeOf() is reporting inconsistent results!");
@@ -379,15 +598,44 @@ public class LruCache<K, V> implements Map<K, V> {
                     break;
                 }
 
-                Map.Entry<K, V> toEvict = mMap.entrySet().iterator().next();
-                key = toEvict.getKey();
-                value = toEvict.getValue();
-                mMap.remove(key);
-                mSize -= safeSizeOf(key, value);
-                mEvictionCount++;
+                K victim = mPolicy.selectVictim();
+                Node<K, V> toEvict = victim == null ? null : mMap.remove(victim);
+                if (toEvict == null) {
+                    throw new IllegalStateException(mPolicy.getClass().getName()
+                            + " is out of sync with the cache contents!");
+                }
+                mSize -= toEvict.mSize;
+                mStats.recordEviction();
+                mStatsCounter.recordRemoval(cause);
+                if (evicted == null)
+                    evicted = new ArrayList<Node<K, V>>();
+                evicted.add(toEvict);
             }
+        } finally {
+            mEvictionLock.unlock();
+        }
 
-            entryRemoved(true, key, value, null);
+        if (evicted != null) {
+            for (Node<K, V> node : evicted)
+                entryRemoved(true, node.mKey, node.mValue, null);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A cache entry. Nodes without a value are only used to record misses.
+     */
+    private static final class Node<K, V> {
+
+        private final K mKey;
+        private final V mValue;
+        private final int mSize;
+
+        public Node(K key, V value, int size) {
+            mKey = key;
+            mValue = value;
+            mSize = size;
+        }
+
+    }
+
+}
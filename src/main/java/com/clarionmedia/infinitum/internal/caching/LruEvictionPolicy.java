@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * An {@link EvictionPolicy} which evicts the least recently used entry. This is
+ * the default policy of {@link LruCache}.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public class LruEvictionPolicy<K> extends EvictionPolicy<K> {
+
+    private final Map<K, PolicyQueue.Node<K>> mNodes;
+    private final PolicyQueue<K> mQueue;
+
+    /**
+     * Creates a new {@code LruEvictionPolicy}.
+     */
+    public LruEvictionPolicy() {
+        super("LRU");
+        mNodes = new HashMap<K, PolicyQueue.Node<K>>();
+        mQueue = new PolicyQueue<K>();
+    }
+
+    @Override
+    protected void onAdd(K key, int size) {
+        PolicyQueue.Node<K> node = new PolicyQueue.Node<K>(key, size);
+        mNodes.put(key, node);
+        mQueue.addFirst(node);
+    }
+
+    @Override
+    protected void onAccess(K key) {
+        PolicyQueue.Node<K> node = mNodes.get(key);
+        if (node != null)
+            mQueue.moveToFront(node);
+    }
+
+    @Override
+    protected void onRemove(K key) {
+        PolicyQueue.Node<K> node = mNodes.remove(key);
+        if (node != null)
+            mQueue.remove(node);
+    }
+
+    @Override
+    protected K selectVictim() {
+        PolicyQueue.Node<K> node = mQueue.pollLast();
+        if (node == null)
+            return null;
+        mNodes.remove(node.mKey);
+        return node.mKey;
+    }
+
+    @Override
+    protected void appendInEvictionOrder(List<? super K> keys) {
+        mQueue.appendKeysFromTail(keys);
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * A fast {@link CompressionCodec} producing the LZ4 block format. Matches are
+ * found greedily through a small hash table of 4-byte sequences, which trades
+ * compression ratio for speed: compression is several times faster than
+ * {@link DeflateCodec}, and decompression is little more than copying bytes.
+ * </p>
+ * <p>
+ * A block is a series of sequences, each made of a token holding the literal
+ * and match lengths, the literals, a 2-byte little-endian match offset and
+ * any length overflow bytes. The last sequence only holds literals.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public final class Lz4Codec implements CompressionCodec {
+
+    /**
+     * The id of entries compressed by this codec.
+     */
+    public static final byte ID = 2;
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int RUN_MASK = 15;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        int length = data.length;
+        byte[] out = new byte[length + length / 255 + 16];
+        // Positions are stored plus one, so 0 marks an empty slot
+        int[] table = new int[1 << HASH_LOG];
+        int anchor = 0;
+        int position = 0;
+        int written = 0;
+        int limit = length - MATCH_FIND_LIMIT;
+        int matchLimit = length - LAST_LITERALS;
+        while (position < limit) {
+            int sequence = readInt(data, position);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int reference = table[hash] - 1;
+            table[hash] = position + 1;
+            if (reference < 0 || position - reference > MAX_OFFSET || readInt(data, reference) != sequence) {
+                position++;
+                continue;
+            }
+            while (position > anchor && reference > 0 && data[position - 1] == data[reference - 1]) {
+                position--;
+                reference--;
+            }
+            int matchLength = MIN_MATCH;
+            while (position + matchLength < matchLimit && data[position + matchLength] == data[reference + matchLength])
+                matchLength++;
+            written = writeSequence(data, anchor, position - anchor, position - reference, matchLength, out, written);
+            position += matchLength;
+            anchor = position;
+        }
+        written = writeSequence(data, anchor, length - anchor, 0, 0, out, written);
+        byte[] result = new byte[written];
+        System.arraycopy(out, 0, result, 0, written);
+        return result;
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int originalLength) throws IOException {
+        byte[] result = new byte[originalLength];
+        int end = offset + length;
+        int in = offset;
+        int out = 0;
+        try {
+            while (true) {
+                int token = data[in++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == RUN_MASK) {
+                    int b;
+                    do {
+                        b = data[in++] & 0xff;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(data, in, result, out, literals);
+                in += literals;
+                out += literals;
+                if (in >= end)
+                    break;
+                int matchOffset = (data[in++] & 0xff) | (data[in++] & 0xff) << 8;
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = data[in++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int reference = out - matchOffset;
+                if (matchOffset == 0 || reference < 0)
+                    throw new IOException("Corrupt LZ4 block");
+                // Matches may overlap the bytes they produce, so copy one at a time
+                for (int i = 0; i < matchLength; i++)
+                    result[out++] = result[reference++];
+            }
+        } catch (IndexOutOfBoundsException e) {
+            IOException corrupt = new IOException("Corrupt LZ4 block");
+            corrupt.initCause(e);
+            throw corrupt;
+        }
+        if (in != end || out != originalLength)
+            throw new IOException("Corrupt LZ4 block");
+        return result;
+    }
+
+    /**
+     * Writes a sequence of the given literals followed by the given match, or
+     * only the literals if the match length is 0.
+     *
+     * @return the position after the sequence
+     */
+    private static int writeSequence(byte[] data, int literalStart, int literals, int matchOffset, int matchLength,
+                                     byte[] out, int position) {
+        int tokenPosition = position++;
+        int token = Math.min(literals, RUN_MASK) << 4;
+        if (literals >= RUN_MASK)
+            position = writeLength(literals - RUN_MASK, out, position);
+        System.arraycopy(data, literalStart, out, position, literals);
+        position += literals;
+        if (matchLength > 0) {
+            out[position++] = (byte) matchOffset;
+            out[position++] = (byte) (matchOffset >>> 8);
+            int length = matchLength - MIN_MATCH;
+            token |= Math.min(length, RUN_MASK);
+            if (length >= RUN_MASK)
+                position = writeLength(length - RUN_MASK, out, position);
+        }
+        out[tokenPosition] = (byte) token;
+        return position;
+    }
+
+    private static int writeLength(int length, byte[] out, int position) {
+        while (length >= 255) {
+            out[position++] = (byte) 255;
+            length -= 255;
+        }
+        out[position++] = (byte) length;
+        return position;
+    }
+
+    private static int readInt(byte[] data, int position) {
+        return (data[position] & 0xff) | (data[position + 1] & 0xff) << 8 | (data[position + 2] & 0xff) << 16
+                | (data[position + 3] & 0xff) << 24;
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Shrinks the in-memory tiers of registered caches when the system runs low
+ * on memory. Applications forward their {@code onTrimMemory(int)} and
+ * {@code onLowMemory()} callbacks, typically from their
+ * {@code Application}, to {@link #onTrimMemory(int)} and
+ * {@link #onLowMemory()}. Each registered cache then drops a fraction of its
+ * in-memory entries proportional to the trim level, least recently used
+ * first where the cache tracks recency. Entries cached on disk remain there
+ * and are read back into memory on their next access.
+ * </p>
+ * <p>
+ * The trim level constants mirror those of {@code ComponentCallbacks2},
+ * which is not available on all supported platform versions. Caches are
+ * trimmed on a background thread, so the callbacks return immediately, and
+ * are only weakly referenced, so registering a cache does not keep it alive.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public final class MemoryPressure {
+
+    /**
+     * The process is running and not killable, but the system is beginning
+     * to run low on memory.
+     */
+    public static final int TRIM_MEMORY_RUNNING_MODERATE = 5;
+
+    /**
+     * The process is running and not killable, but the system is running
+     * significantly low on memory.
+     */
+    public static final int TRIM_MEMORY_RUNNING_LOW = 10;
+
+    /**
+     * The process is running, but the system is running extremely low on
+     * memory and is about to kill background processes.
+     */
+    public static final int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+
+    /**
+     * The process's user interface is no longer visible.
+     */
+    public static final int TRIM_MEMORY_UI_HIDDEN = 20;
+
+    /**
+     * The process is in the background and has entered the list of processes
+     * which may be killed to free memory.
+     */
+    public static final int TRIM_MEMORY_BACKGROUND = 40;
+
+    /**
+     * The process is in the background, around the middle of the list of
+     * processes which may be killed to free memory.
+     */
+    public static final int TRIM_MEMORY_MODERATE = 60;
+
+    /**
+     * The process is in the background and will be one of the first to be
+     * killed if memory is not freed.
+     */
+    public static final int TRIM_MEMORY_COMPLETE = 80;
+
+    private static final List<WeakReference<Trimmable>> CACHES = new ArrayList<WeakReference<Trimmable>>();
+
+    private static final ExecutorService TRIMMER = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Infinitum-MemoryTrim");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * A cache whose in-memory tiers can be shrunk.
+     */
+    public interface Trimmable {
+
+        /**
+         * Drops the given fraction of the entries held in memory. Entries
+         * which are also cached on disk must remain there.
+         *
+         * @param fraction the fraction of entries to drop, between 0 and 1,
+         *                 where 1 drops all of them
+         */
+        void trimMemory(float fraction);
+
+    }
+
+    private MemoryPressure() {
+    }
+
+    /**
+     * Registers the given cache to be trimmed under memory pressure.
+     * Registering a cache more than once has no effect.
+     *
+     * @param cache the {@link Trimmable} cache to register
+     */
+    public static void register(Trimmable cache) {
+        if (cache == null)
+            throw new IllegalArgumentException("Cache must not be null.");
+        synchronized (CACHES) {
+            if (indexOf(cache) < 0)
+                CACHES.add(new WeakReference<Trimmable>(cache));
+        }
+    }
+
+    /**
+     * Unregisters the given cache.
+     *
+     * @param cache the {@link Trimmable} cache to unregister
+     */
+    public static void unregister(Trimmable cache) {
+        synchronized (CACHES) {
+            int index = indexOf(cache);
+            if (index >= 0)
+                CACHES.remove(index);
+        }
+    }
+
+    /**
+     * Trims all registered caches in proportion to the given trim level.
+     * Should be called from {@code ComponentCallbacks2.onTrimMemory(int)}.
+     *
+     * @param level the trim level, e.g. {@link #TRIM_MEMORY_BACKGROUND}
+     */
+    public static void onTrimMemory(int level) {
+        trimAll(fractionFor(level));
+    }
+
+    /**
+     * Drops the in-memory entries of all registered caches. Should be called
+     * from {@code ComponentCallbacks.onLowMemory()}.
+     */
+    public static void onLowMemory() {
+        trimAll(1);
+    }
+
+    /**
+     * Returns the fraction of in-memory entries dropped at the given trim
+     * level. Background levels drop more as the process moves up the list
+     * of processes to kill, while running levels drop less since the
+     * entries are likely still in use.
+     *
+     * @param level the trim level
+     * @return the fraction of entries to drop, between 0 and 1
+     */
+    public static float fractionFor(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE)
+            return 1f;
+        if (level >= TRIM_MEMORY_MODERATE)
+            return 0.75f;
+        if (level >= TRIM_MEMORY_BACKGROUND)
+            return 0.5f;
+        if (level >= TRIM_MEMORY_UI_HIDDEN)
+            return 0.25f;
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL)
+            return 0.5f;
+        if (level >= TRIM_MEMORY_RUNNING_LOW)
+            return 0.25f;
+        if (level >= TRIM_MEMORY_RUNNING_MODERATE)
+            return 0.1f;
+        return 0f;
+    }
+
+    private static void trimAll(final float fraction) {
+        if (fraction <= 0)
+            return;
+        final List<Trimmable> caches = new ArrayList<Trimmable>();
+        synchronized (CACHES) {
+            Iterator<WeakReference<Trimmable>> iterator = CACHES.iterator();
+            while (iterator.hasNext()) {
+                Trimmable cache = iterator.next().get();
+                if (cache == null)
+                    iterator.remove();
+                else
+                    caches.add(cache);
+            }
+        }
+        if (caches.isEmpty())
+            return;
+        TRIMMER.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Trimmable cache : caches)
+                    cache.trimMemory(fraction);
+            }
+        });
+    }
+
+    /**
+     * Returns the index of the given cache in the registry, purging caches
+     * which have been garbage collected. Must be called while holding the
+     * registry lock.
+     */
+    private static int indexOf(Trimmable cache) {
+        int index = -1;
+        Iterator<WeakReference<Trimmable>> iterator = CACHES.iterator();
+        for (int i = 0; iterator.hasNext(); ) {
+            Trimmable registered = iterator.next().get();
+            if (registered == null) {
+                iterator.remove();
+                continue;
+            }
+            if (registered == cache)
+                index = i;
+            i++;
+        }
+        return index;
+    }
+
+}
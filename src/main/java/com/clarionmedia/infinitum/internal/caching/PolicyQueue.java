@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.List;
+
+/**
+ * <p>
+ * An intrusive, doubly-linked queue of {@link Node} instances used by the
+ * {@link EvictionPolicy} implementations. The queue keeps track of the total
+ * size of its nodes. The head is the most recently and the tail the least
+ * recently added node.
+ * </p>
+ * <p>
+ * This class is not threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+final class PolicyQueue<K> {
+
+    private final Node<K> mSentinel;
+    private long mWeight;
+    private int mCount;
+
+    /**
+     * A queued cache key.
+     */
+    static final class Node<K> {
+
+        final K mKey;
+        int mSize;
+        PolicyQueue<K> mQueue;
+        boolean mReferenced;
+        Node<K> mPrev;
+        Node<K> mNext;
+
+        Node(K key, int size) {
+            mKey = key;
+            mSize = size;
+        }
+
+    }
+
+    PolicyQueue() {
+        mSentinel = new Node<K>(null, 0);
+        mSentinel.mPrev = mSentinel;
+        mSentinel.mNext = mSentinel;
+    }
+
+    long weight() {
+        return mWeight;
+    }
+
+    int count() {
+        return mCount;
+    }
+
+    boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    void addFirst(Node<K> node) {
+        linkAfter(mSentinel, node);
+    }
+
+    void addLast(Node<K> node) {
+        linkAfter(mSentinel.mPrev, node);
+    }
+
+    /**
+     * Inserts the given {@link Node} right before {@code successor}.
+     */
+    void addBefore(Node<K> successor, Node<K> node) {
+        linkAfter(successor.mPrev, node);
+    }
+
+    void moveToFront(Node<K> node) {
+        remove(node);
+        addFirst(node);
+    }
+
+    void remove(Node<K> node) {
+        node.mPrev.mNext = node.mNext;
+        node.mNext.mPrev = node.mPrev;
+        node.mPrev = null;
+        node.mNext = null;
+        node.mQueue = null;
+        mWeight -= node.mSize;
+        mCount--;
+    }
+
+    Node<K> peekFirst() {
+        return mCount == 0 ? null : mSentinel.mNext;
+    }
+
+    Node<K> peekLast() {
+        return mCount == 0 ? null : mSentinel.mPrev;
+    }
+
+    /**
+     * Appends the keys of the queued nodes to the given {@link List}, from
+     * the tail to the head of the queue.
+     */
+    void appendKeysFromTail(List<? super K> keys) {
+        for (Node<K> node = mSentinel.mPrev; node != mSentinel; node = node.mPrev)
+            keys.add(node.mKey);
+    }
+
+    Node<K> pollLast() {
+        Node<K> last = peekLast();
+        if (last != null)
+            remove(last);
+        return last;
+    }
+
+    /**
+     * Returns the node following the given one, wrapping around at the end of
+     * the queue, or {@code null} if the queue is empty.
+     */
+    Node<K> nextCircular(Node<K> node) {
+        if (mCount == 0)
+            return null;
+        Node<K> next = node.mNext;
+        return next == mSentinel ? mSentinel.mNext : next;
+    }
+
+    private void linkAfter(Node<K> predecessor, Node<K> node) {
+        node.mPrev = predecessor;
+        node.mNext = predecessor.mNext;
+        predecessor.mNext.mPrev = node;
+        predecessor.mNext = node;
+        node.mQueue = this;
+        mWeight += node.mSize;
+        mCount++;
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+/**
+ * <p>
+ * Hit, miss and eviction counters of a single {@link EvictionPolicy}, used to
+ * compare the effectiveness of policies against the same workload. The
+ * counters are striped, so recording hits from many reader threads does not
+ * contend on a single value.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public class PolicyStats {
+
+    private final String mPolicyName;
+    private final StripedCounter mHitCount;
+    private final StripedCounter mMissCount;
+    private final StripedCounter mEvictionCount;
+
+    /**
+     * Creates a new {@code PolicyStats} instance.
+     *
+     * @param policyName the name of the policy being tracked
+     */
+    public PolicyStats(String policyName) {
+        mPolicyName = policyName;
+        mHitCount = new StripedCounter();
+        mMissCount = new StripedCounter();
+        mEvictionCount = new StripedCounter();
+    }
+
+    /**
+     * Returns the name of the policy being tracked.
+     *
+     * @return policy name
+     */
+    public String getPolicyName() {
+        return mPolicyName;
+    }
+
+    /**
+     * Returns the number of lookups which found a cached value.
+     *
+     * @return hit count
+     */
+    public long hitCount() {
+        return mHitCount.sum();
+    }
+
+    /**
+     * Returns the number of lookups which did not find a cached value.
+     *
+     * @return miss count
+     */
+    public long missCount() {
+        return mMissCount.sum();
+    }
+
+    /**
+     * Returns the number of entries evicted by the policy.
+     *
+     * @return eviction count
+     */
+    public long evictionCount() {
+        return mEvictionCount.sum();
+    }
+
+    /**
+     * Returns the ratio of hits to lookups.
+     *
+     * @return hit rate between 0 and 1, or 1 if there were no lookups
+     */
+    public double hitRate() {
+        long hits = mHitCount.sum();
+        long lookups = hits + mMissCount.sum();
+        return lookups == 0 ? 1.0 : (double) hits / lookups;
+    }
+
+    /**
+     * Returns the counter of hits, which the cache shares with its
+     * {@link StatsCounter} so that each hit is only counted once.
+     */
+    StripedCounter hitCounter() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the counter of misses, which the cache shares with its
+     * {@link StatsCounter}.
+     */
+    StripedCounter missCounter() {
+        return mMissCount;
+    }
+
+    void recordEviction() {
+        mEvictionCount.increment();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PolicyStats[policy=%s,hits=%d,misses=%d,evictions=%d,hitRate=%d%%]",
+                mPolicyName, hitCount(), missCount(), evictionCount(), (int) (hitRate() * 100));
+    }
+
+}
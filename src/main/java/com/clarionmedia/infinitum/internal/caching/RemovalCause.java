@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+/**
+ * <p>
+ * The reason a cache entry was removed.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public enum RemovalCause {
+
+    /**
+     * The entry was removed by the user, e.g. through {@code remove} or
+     * {@code clear}.
+     */
+    EXPLICIT,
+
+    /**
+     * The entry's value was replaced by the user.
+     */
+    REPLACED,
+
+    /**
+     * The entry's expiration deadline passed.
+     */
+    EXPIRED,
+
+    /**
+     * The entry was evicted to keep the cache within its maximum size or
+     * weight.
+     */
+    SIZE,
+
+    /**
+     * The entry was deleted from the disk cache to keep it within its byte
+     * budget.
+     */
+    DISK_TRIM,
+
+    /**
+     * The entry was dropped from memory in response to memory pressure, see
+     * {@link MemoryPressure}.
+     */
+    MEMORY_PRESSURE,
+
+    /**
+     * The entry's softly referenced value was reclaimed by the garbage
+     * collector.
+     */
+    COLLECTED;
+
+    /**
+     * Indicates if the entry was removed automatically rather than by the
+     * user.
+     *
+     * @return {@code true} for evictions
+     */
+    public boolean wasEvicted() {
+        return this != EXPLICIT && this != REPLACED;
+    }
+
+}
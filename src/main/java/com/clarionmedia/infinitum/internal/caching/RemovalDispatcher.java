@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Queues the removals of a cache and delivers them to its
+ * {@link RemovalListener} in batches on a shared background thread. At most
+ * one delivery per dispatcher is in progress at any time, so notifications
+ * arrive in the order they were queued. Nothing is queued while no listener
+ * is set.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+final class RemovalDispatcher<K, V> {
+
+    private static final int BATCH_SIZE = 128;
+
+    private static final ExecutorService NOTIFIER = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Infinitum-RemovalListener");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Queue<RemovalNotification<K, V>> mQueue;
+    private final AtomicBoolean mScheduled;
+    private final Runnable mDrainer;
+    private volatile RemovalListener<K, V> mListener;
+
+    RemovalDispatcher() {
+        mQueue = new ConcurrentLinkedQueue<RemovalNotification<K, V>>();
+        mScheduled = new AtomicBoolean();
+        mDrainer = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    void setListener(RemovalListener<K, V> listener) {
+        mListener = listener;
+    }
+
+    RemovalListener<K, V> getListener() {
+        return mListener;
+    }
+
+    /**
+     * Queues a removal for delivery if a listener is set.
+     *
+     * @param key      the key or {@code null} if it is unknown
+     * @param value    the value or {@code null} if it is not available
+     * @param diskName the disk entry name or {@code null} for memory removals
+     * @param cause    the {@link RemovalCause}
+     */
+    void enqueue(K key, V value, String diskName, RemovalCause cause) {
+        if (mListener == null)
+            return;
+        mQueue.add(new RemovalNotification<K, V>(key, value, diskName, cause));
+        if (mScheduled.compareAndSet(false, true))
+            NOTIFIER.execute(mDrainer);
+    }
+
+    private void drain() {
+        while (true) {
+            List<RemovalNotification<K, V>> batch = new ArrayList<RemovalNotification<K, V>>();
+            RemovalNotification<K, V> notification;
+            while (batch.size() < BATCH_SIZE && (notification = mQueue.poll()) != null)
+                batch.add(notification);
+            if (batch.isEmpty()) {
+                mScheduled.set(false);
+                // Removals queued after the last poll would otherwise be stuck
+                if (mQueue.isEmpty() || !mScheduled.compareAndSet(false, true))
+                    return;
+                continue;
+            }
+            RemovalListener<K, V> listener = mListener;
+            if (listener == null)
+                continue;
+            try {
+                listener.onRemoval(batch);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
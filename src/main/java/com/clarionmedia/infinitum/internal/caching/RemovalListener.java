@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Receives the entries removed from a cache, together with the
+ * {@link RemovalCause} of each removal. Notifications are delivered
+ * asynchronously on a background thread, in batches and in the order the
+ * removals happened, so listeners can release resources or update secondary
+ * indexes without slowing down the thread which removed the entries.
+ * </p>
+ * <p>
+ * Listeners of different caches share the delivery thread, so they should
+ * not block for long.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public interface RemovalListener<K, V> {
+
+    /**
+     * Called with a batch of removals.
+     *
+     * @param notifications the removed entries, oldest first
+     */
+    void onRemoval(List<RemovalNotification<K, V>> notifications);
+
+}
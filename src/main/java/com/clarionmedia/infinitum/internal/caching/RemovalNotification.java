@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+/**
+ * <p>
+ * A removed cache entry, as passed to a {@link RemovalListener}.
+ * </p>
+ * <p>
+ * Entries removed from memory carry their key and value, unless the value
+ * was reclaimed by the garbage collector. Entries removed from a disk cache
+ * carry the name of their disk entry instead of a value, and carry their key
+ * only if it was known at the time, e.g. not for entries trimmed or expired
+ * in the background.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public final class RemovalNotification<K, V> {
+
+    private final K mKey;
+    private final V mValue;
+    private final String mDiskName;
+    private final RemovalCause mCause;
+
+    RemovalNotification(K key, V value, String diskName, RemovalCause cause) {
+        mKey = key;
+        mValue = value;
+        mDiskName = diskName;
+        mCause = cause;
+    }
+
+    /**
+     * Returns the key of the removed entry.
+     *
+     * @return the key or {@code null} if it is unknown
+     */
+    public K getKey() {
+        return mKey;
+    }
+
+    /**
+     * Returns the value of the removed entry.
+     *
+     * @return the value or {@code null} if the entry was removed from disk or
+     *         its value was reclaimed
+     */
+    public V getValue() {
+        return mValue;
+    }
+
+    /**
+     * Returns the name of the removed disk cache entry.
+     *
+     * @return the disk entry name or {@code null} if the entry was removed
+     *         from memory
+     */
+    public String getDiskName() {
+        return mDiskName;
+    }
+
+    /**
+     * Returns the reason the entry was removed.
+     *
+     * @return the {@link RemovalCause}
+     */
+    public RemovalCause getCause() {
+        return mCause;
+    }
+
+    /**
+     * Indicates if the entry was removed automatically rather than by the
+     * user.
+     *
+     * @return {@code true} for evictions
+     */
+    public boolean wasEvicted() {
+        return mCause.wasEvicted();
+    }
+
+    @Override
+    public String toString() {
+        return "RemovalNotification[key=" + mKey + ",disk=" + mDiskName + ",cause=" + mCause + "]";
+    }
+
+}
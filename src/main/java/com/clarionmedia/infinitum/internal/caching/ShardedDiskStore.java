@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A {@link FileDiskStore} which fans entry files out into two levels of
+ * subdirectories, named after the first two bytes of the {@link Murmur3} hash
+ * of the entry name in hex, e.g. {@code 3f/a2/name}. Directories thus stay
+ * small regardless of the number of entries, which keeps lookups fast.
+ * </p>
+ * <p>
+ * Listing, clearing and batched deletions process the top-level shards in
+ * parallel on a small shared pool, with the calling thread taking on work
+ * whenever all pool threads are busy.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+class ShardedDiskStore<V> extends FileDiskStore<V> {
+
+    private static final int WORKERS = 4;
+
+    private static final ExecutorService SHARD_WORKERS = new ThreadPoolExecutor(0, WORKERS, 30, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Infinitum-DiskShard");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    /**
+     * Creates a new {@code ShardedDiskStore}.
+     *
+     * @param directory the directory holding the shard directories
+     * @param codec     the {@link DiskStore.Codec} used to encode and decode
+     *                  values
+     */
+    ShardedDiskStore(File directory, Codec<V> codec) {
+        super(directory, codec);
+    }
+
+    @Override
+    void write(String name, V value) throws IOException {
+        File parent = fileFor(name).getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+            throw new IOException("Unable to create cache shard " + parent);
+        super.write(name, value);
+    }
+
+    @Override
+    int deleteAll(Collection<String> names) {
+        Map<String, List<String>> shards = new HashMap<String, List<String>>();
+        for (String name : names) {
+            String shard = fileFor(name).getParentFile().getParentFile().getName();
+            List<String> shardNames = shards.get(shard);
+            if (shardNames == null) {
+                shardNames = new ArrayList<String>();
+                shards.put(shard, shardNames);
+            }
+            shardNames.add(name);
+        }
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(shards.size());
+        for (final List<String> shardNames : shards.values()) {
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int deleted = 0;
+                    for (String name : shardNames) {
+                        if (delete(name))
+                            deleted++;
+                    }
+                    return deleted;
+                }
+            });
+        }
+        int deleted = 0;
+        for (int count : runAll(tasks))
+            deleted += count;
+        return deleted;
+    }
+
+    @Override
+    List<String> names() {
+        List<Callable<List<String>>> tasks = new ArrayList<Callable<List<String>>>();
+        for (final File shard : shards()) {
+            tasks.add(new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    List<String> names = new ArrayList<String>();
+                    File[] subshards = shard.listFiles();
+                    if (subshards == null)
+                        return names;
+                    for (File subshard : subshards) {
+                        String[] files = subshard.list();
+                        if (files == null)
+                            continue;
+                        for (String file : files) {
+                            if (isEntry(file))
+                                names.add(file);
+                        }
+                    }
+                    return names;
+                }
+            });
+        }
+        List<String> names = new ArrayList<String>();
+        for (List<String> shardNames : runAll(tasks))
+            names.addAll(shardNames);
+        return names;
+    }
+
+    @Override
+    void clear() {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final File shard : shards()) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    deleteRecursively(shard);
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+    }
+
+    @Override
+    File fileFor(String name) {
+        String hash = Murmur3.hashHex(name);
+        File shard = new File(new File(mDirectory, hash.substring(0, 2)), hash.substring(2, 4));
+        return new File(shard, name);
+    }
+
+    /**
+     * Returns the top-level shard directories.
+     */
+    private List<File> shards() {
+        List<File> shards = new ArrayList<File>();
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+            return shards;
+        for (File file : files) {
+            if (file.isDirectory() && file.getName().length() == 2 && !isReserved(file.getName()))
+                shards.add(file);
+        }
+        return shards;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteRecursively(child);
+        }
+        file.delete();
+    }
+
+    /**
+     * Runs the given tasks on the shard workers and returns their results in
+     * order.
+     */
+    private static <T> List<T> runAll(List<Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (Callable<T> task : tasks)
+            futures.add(SHARD_WORKERS.submit(task));
+        List<T> results = new ArrayList<T>(futures.size());
+        boolean interrupted = false;
+        for (Future<T> future : futures) {
+            while (true) {
+                try {
+                    results.add(future.get());
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return results;
+    }
+
+}
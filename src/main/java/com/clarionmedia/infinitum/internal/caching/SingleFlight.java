@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.clarionmedia.infinitum.exception.InfinitumRuntimeException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>
+ * Coalesces concurrent loads of the same key into a single in-flight call.
+ * The first caller runs the call on its own thread while later callers for the
+ * same key wait for its result. Once the call completes, successfully or not,
+ * it is forgotten, so failures are never cached.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> mCalls;
+
+    /**
+     * Creates a new {@code SingleFlight}.
+     */
+    SingleFlight() {
+        mCalls = new ConcurrentHashMap<K, FutureTask<V>>();
+    }
+
+    /**
+     * Runs the given call unless a call for the same key is already in flight,
+     * in which case its result is awaited instead. Calls should store their
+     * result in the cache before returning, so callers arriving after the call
+     * completes find it there.
+     *
+     * @param key  the key being loaded
+     * @param call the load to run
+     * @return the result of the call
+     * @throws InfinitumRuntimeException if the call failed with a checked
+     *                                   exception
+     */
+    V execute(K key, Callable<V> call) {
+        FutureTask<V> task = new FutureTask<V>(call);
+        FutureTask<V> inFlight = mCalls.putIfAbsent(key, task);
+        if (inFlight == null) {
+            try {
+                task.run();
+            } finally {
+                mCalls.remove(key, task);
+            }
+            inFlight = task;
+        }
+        return await(key, inFlight);
+    }
+
+    private V await(K key, FutureTask<V> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    // Waiters share the owner's load, so finish waiting for it
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new InfinitumRuntimeException("Failed loading value for key " + key, cause);
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+}
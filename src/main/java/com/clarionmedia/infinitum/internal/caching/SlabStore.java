@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * An off-heap store for encoded cache values. Values are copied into chunks of
+ * direct {@link ByteBuffer} slabs, so only a small index entry per value lives
+ * on the Java heap. Slabs are assigned to size classes on demand, and each
+ * value is stored in a chunk of the smallest size class it fits in, which
+ * bounds fragmentation without a general-purpose allocator.
+ * </p>
+ * <p>
+ * Once all slabs are assigned, values are evicted least-recently-used first
+ * within the size class being written to. If that size class holds no values,
+ * a slab is reassigned from the size class owning the most slabs. Expired
+ * values are released when they are accessed.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+class SlabStore<K> {
+
+    /**
+     * The size of each slab, which is also the largest value that can be
+     * stored.
+     */
+    static final int SLAB_SIZE = 1 << 20;
+
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final double GROWTH_FACTOR = 1.25;
+    private static final int CHUNK_BITS = 20;
+
+    private final SizeClass<K>[] mClasses;
+    private final ByteBuffer[] mSlabs;
+    private final int[] mSlabClasses;
+    private final Map<K, Slot> mIndex;
+    private int mSlabCount;
+    private long mUsedBytes;
+
+    /**
+     * The location of a stored value.
+     */
+    private static final class Slot {
+
+        private final int mClass;
+        private final int mChunk;
+        private final int mLength;
+        private final long mDeadline;
+
+        private Slot(int sizeClass, int chunk, int length, long deadline) {
+            mClass = sizeClass;
+            mChunk = chunk;
+            mLength = length;
+            mDeadline = deadline;
+        }
+
+        private int slab() {
+            return mChunk >>> CHUNK_BITS;
+        }
+
+    }
+
+    /**
+     * The chunks and values of a size class.
+     */
+    private static final class SizeClass<K> {
+
+        private final int mChunkSize;
+        private final LinkedHashMap<K, Slot> mEntries;
+        private int[] mFree;
+        private int mFreeCount;
+        private int mSlabCount;
+
+        private SizeClass(int chunkSize) {
+            mChunkSize = chunkSize;
+            mEntries = new LinkedHashMap<K, Slot>(16, 0.75f, true);
+            mFree = new int[16];
+        }
+
+        private void free(int chunk) {
+            if (mFreeCount == mFree.length) {
+                int[] free = new int[mFree.length * 2];
+                System.arraycopy(mFree, 0, free, 0, mFreeCount);
+                mFree = free;
+            }
+            mFree[mFreeCount++] = chunk;
+        }
+
+    }
+
+    /**
+     * Creates a new {@code SlabStore}.
+     *
+     * @param maxBytes the off-heap memory budget in bytes, which is rounded up
+     *                 to a whole number of slabs
+     */
+    @SuppressWarnings("unchecked")
+    SlabStore(long maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("Off-heap cache size must be greater than 0.");
+        int slabs = (int) Math.min(1 << (31 - CHUNK_BITS), (maxBytes + SLAB_SIZE - 1) / SLAB_SIZE);
+        mSlabs = new ByteBuffer[slabs];
+        mSlabClasses = new int[slabs];
+        List<SizeClass<K>> classes = new ArrayList<SizeClass<K>>();
+        int size = MIN_CHUNK_SIZE;
+        while (size < SLAB_SIZE) {
+            classes.add(new SizeClass<K>(size));
+            // Keep chunk sizes 8-byte aligned
+            size = Math.max(size + 8, (int) (size * GROWTH_FACTOR) + 7 & ~7);
+        }
+        classes.add(new SizeClass<K>(SLAB_SIZE));
+        mClasses = (SizeClass<K>[]) classes.toArray(new SizeClass<?>[classes.size()]);
+        mIndex = new HashMap<K, Slot>();
+    }
+
+    /**
+     * Stores the given encoded value, replacing any previous value of the key.
+     *
+     * @param key      the cache key
+     * @param value    the encoded value
+     * @param deadline the value's expiration deadline in milliseconds
+     * @return {@code true} if the value was stored, {@code false} if it is
+     *         larger than {@link #SLAB_SIZE}
+     */
+    synchronized boolean put(K key, byte[] value, long deadline) {
+        remove(key);
+        if (value.length > SLAB_SIZE)
+            return false;
+        int sizeClass = sizeClassFor(value.length);
+        int chunk = allocate(sizeClass);
+        if (chunk < 0)
+            return false;
+        ByteBuffer slab = mSlabs[chunk >>> CHUNK_BITS].duplicate();
+        slab.position(offset(sizeClass, chunk));
+        slab.put(value);
+        Slot slot = new Slot(sizeClass, chunk, value.length, deadline);
+        mIndex.put(key, slot);
+        mClasses[sizeClass].mEntries.put(key, slot);
+        mUsedBytes += value.length;
+        return true;
+    }
+
+    /**
+     * Returns a heap copy of the encoded value of the given key.
+     *
+     * @param key the cache key
+     * @param now the current time in milliseconds
+     * @return the encoded value or {@code null} if there is none or it expired
+     */
+    synchronized byte[] get(K key, long now) {
+        Slot slot = mIndex.get(key);
+        if (slot == null)
+            return null;
+        if (slot.mDeadline <= now) {
+            remove(key);
+            return null;
+        }
+        // Record the access in the size class's LRU order
+        mClasses[slot.mClass].mEntries.get(key);
+        byte[] value = new byte[slot.mLength];
+        ByteBuffer slab = mSlabs[slot.slab()].duplicate();
+        slab.position(offset(slot.mClass, slot.mChunk));
+        slab.get(value);
+        return value;
+    }
+
+    /**
+     * Returns the expiration deadline of the value of the given key.
+     *
+     * @return the deadline in milliseconds or 0 if there is no such value
+     */
+    synchronized long getDeadline(K key) {
+        Slot slot = mIndex.get(key);
+        return slot == null ? 0 : slot.mDeadline;
+    }
+
+    /**
+     * Indicates if a value which has not expired is stored for the given key.
+     */
+    synchronized boolean contains(K key, long now) {
+        Slot slot = mIndex.get(key);
+        return slot != null && slot.mDeadline > now;
+    }
+
+    /**
+     * Removes the value of the given key.
+     *
+     * @return {@code true} if a value was removed
+     */
+    synchronized boolean remove(Object key) {
+        Slot slot = mIndex.remove(key);
+        if (slot == null)
+            return false;
+        SizeClass<K> sizeClass = mClasses[slot.mClass];
+        sizeClass.mEntries.remove(key);
+        sizeClass.free(slot.mChunk);
+        mUsedBytes -= slot.mLength;
+        return true;
+    }
+
+    /**
+     * Removes all values. Slabs stay allocated and assigned.
+     */
+    synchronized void clear() {
+        for (Slot slot : mIndex.values())
+            mClasses[slot.mClass].free(slot.mChunk);
+        for (SizeClass<K> sizeClass : mClasses)
+            sizeClass.mEntries.clear();
+        mIndex.clear();
+        mUsedBytes = 0;
+    }
+
+    /**
+     * Removes the given fraction of the values of each size class, least
+     * recently used first. Removing all values also releases the slabs, which
+     * are allocated again on demand.
+     *
+     * @param fraction the fraction of values to remove, between 0 and 1
+     */
+    synchronized void trim(float fraction) {
+        if (fraction >= 1) {
+            clear();
+            for (SizeClass<K> sizeClass : mClasses) {
+                sizeClass.mFreeCount = 0;
+                sizeClass.mSlabCount = 0;
+            }
+            Arrays.fill(mSlabs, null);
+            mSlabCount = 0;
+            return;
+        }
+        for (SizeClass<K> sizeClass : mClasses) {
+            int count = (int) (sizeClass.mEntries.size() * fraction);
+            Iterator<Map.Entry<K, Slot>> entries = sizeClass.mEntries.entrySet().iterator();
+            for (int i = 0; i < count; i++) {
+                Map.Entry<K, Slot> entry = entries.next();
+                entries.remove();
+                mIndex.remove(entry.getKey());
+                sizeClass.free(entry.getValue().mChunk);
+                mUsedBytes -= entry.getValue().mLength;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of stored values, including expired ones which have
+     * not been accessed since they expired.
+     */
+    synchronized int size() {
+        return mIndex.size();
+    }
+
+    /**
+     * Returns the total size of the stored values in bytes.
+     */
+    synchronized long getUsedBytes() {
+        return mUsedBytes;
+    }
+
+    /**
+     * Returns the off-heap memory budget in bytes.
+     */
+    long getCapacity() {
+        return (long) mSlabs.length * SLAB_SIZE;
+    }
+
+    private int sizeClassFor(int length) {
+        int low = 0;
+        int high = mClasses.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mClasses[mid].mChunkSize < length)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private int offset(int sizeClass, int chunk) {
+        return (chunk & ((1 << CHUNK_BITS) - 1)) * mClasses[sizeClass].mChunkSize;
+    }
+
+    /**
+     * Allocates a chunk of the given size class, assigning a new slab or
+     * evicting values if needed.
+     *
+     * @return the chunk handle or -1 if no chunk could be allocated
+     */
+    private int allocate(int index) {
+        SizeClass<K> sizeClass = mClasses[index];
+        if (sizeClass.mFreeCount == 0) {
+            if (mSlabCount < mSlabs.length) {
+                assignSlab(mSlabCount, index);
+                mSlabs[mSlabCount] = ByteBuffer.allocateDirect(SLAB_SIZE);
+                mSlabCount++;
+            } else if (!sizeClass.mEntries.isEmpty()) {
+                remove(sizeClass.mEntries.keySet().iterator().next());
+            } else if (!reassignSlab(index)) {
+                return -1;
+            }
+        }
+        return sizeClass.mFree[--sizeClass.mFreeCount];
+    }
+
+    private void assignSlab(int slab, int index) {
+        SizeClass<K> sizeClass = mClasses[index];
+        mSlabClasses[slab] = index;
+        sizeClass.mSlabCount++;
+        int chunks = SLAB_SIZE / sizeClass.mChunkSize;
+        for (int chunk = chunks - 1; chunk >= 0; chunk--)
+            sizeClass.free(slab << CHUNK_BITS | chunk);
+    }
+
+    /**
+     * Moves a slab from the size class owning the most slabs to the given size
+     * class, evicting the values stored in it.
+     */
+    private boolean reassignSlab(int index) {
+        int donor = -1;
+        for (int i = 0; i < mClasses.length; i++) {
+            if (i != index && mClasses[i].mSlabCount > 0
+                    && (donor < 0 || mClasses[i].mSlabCount > mClasses[donor].mSlabCount))
+                donor = i;
+        }
+        if (donor < 0)
+            return false;
+        SizeClass<K> sizeClass = mClasses[donor];
+        // Prefer the slab holding the donor's least recently used value
+        int slab = -1;
+        if (!sizeClass.mEntries.isEmpty()) {
+            slab = sizeClass.mEntries.values().iterator().next().slab();
+        } else {
+            for (int i = 0; i < mSlabCount && slab < 0; i++) {
+                if (mSlabClasses[i] == donor)
+                    slab = i;
+            }
+        }
+        Iterator<Map.Entry<K, Slot>> entries = sizeClass.mEntries.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<K, Slot> entry = entries.next();
+            if (entry.getValue().slab() == slab) {
+                entries.remove();
+                mIndex.remove(entry.getKey());
+                mUsedBytes -= entry.getValue().mLength;
+            }
+        }
+        int kept = 0;
+        for (int i = 0; i < sizeClass.mFreeCount; i++) {
+            if (sizeClass.mFree[i] >>> CHUNK_BITS != slab)
+                sizeClass.mFree[kept++] = sizeClass.mFree[i];
+        }
+        sizeClass.mFreeCount = kept;
+        sizeClass.mSlabCount--;
+        assignSlab(slab, index);
+        return true;
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Records the statistics of a cache using {@link StripedCounter} instances,
+ * so recording from many threads stays cheap, and produces
+ * {@link CacheStats} snapshots.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+final class StatsCounter {
+
+    private final StripedCounter mMemoryHits;
+    private final StripedCounter mDiskHits;
+    private final StripedCounter mMisses;
+    private final StripedCounter mLoadSuccesses;
+    private final StripedCounter mLoadFailures;
+    private final StripedCounter mDiskProbesSkipped;
+    private final StripedCounter mDiskProbeFalsePositives;
+    private final StripedCounter[] mRemovals;
+    private final Histogram mReadLatency;
+    private final Histogram mWriteLatency;
+    private final Histogram mLoadLatency;
+
+    /**
+     * Counts latency samples in power-of-two buckets.
+     */
+    static final class Histogram {
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(CacheStats.Latency.BUCKETS);
+        private final StripedCounter mCount = new StripedCounter();
+        private final StripedCounter mTotalNanos = new StripedCounter();
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            mBuckets.incrementAndGet(Math.max(0, 63 - Long.numberOfLeadingZeros(nanos)));
+            mCount.increment();
+            mTotalNanos.add(nanos);
+        }
+
+        CacheStats.Latency snapshot() {
+            long[] buckets = new long[mBuckets.length()];
+            for (int i = 0; i < buckets.length; i++)
+                buckets[i] = mBuckets.get(i);
+            return new CacheStats.Latency(buckets, mCount.sum(), mTotalNanos.sum());
+        }
+
+    }
+
+    StatsCounter() {
+        this(new StripedCounter(), new StripedCounter());
+    }
+
+    /**
+     * Creates a {@code StatsCounter} which counts memory hits and misses in
+     * the given counters, so that they can be shared with a
+     * {@link PolicyStats} instead of being counted twice.
+     */
+    StatsCounter(StripedCounter memoryHits, StripedCounter misses) {
+        mMemoryHits = memoryHits;
+        mDiskHits = new StripedCounter();
+        mMisses = misses;
+        mLoadSuccesses = new StripedCounter();
+        mLoadFailures = new StripedCounter();
+        mDiskProbesSkipped = new StripedCounter();
+        mDiskProbeFalsePositives = new StripedCounter();
+        mRemovals = new StripedCounter[RemovalCause.values().length];
+        for (int i = 0; i < mRemovals.length; i++)
+            mRemovals[i] = new StripedCounter();
+        mReadLatency = new Histogram();
+        mWriteLatency = new Histogram();
+        mLoadLatency = new Histogram();
+    }
+
+    void recordMemoryHit() {
+        mMemoryHits.increment();
+    }
+
+    void recordDiskHit() {
+        mDiskHits.increment();
+    }
+
+    void recordMiss() {
+        mMisses.increment();
+    }
+
+    void recordLoadSuccess(long nanos) {
+        mLoadSuccesses.increment();
+        mLoadLatency.record(nanos);
+    }
+
+    void recordLoadFailure(long nanos) {
+        mLoadFailures.increment();
+        mLoadLatency.record(nanos);
+    }
+
+    void recordDiskProbeSkipped() {
+        mDiskProbesSkipped.increment();
+    }
+
+    void recordDiskProbeFalsePositive() {
+        mDiskProbeFalsePositives.increment();
+    }
+
+    void recordRemoval(RemovalCause cause) {
+        mRemovals[cause.ordinal()].increment();
+    }
+
+    void recordRemovals(RemovalCause cause, int count) {
+        mRemovals[cause.ordinal()].add(count);
+    }
+
+    void recordRead(long nanos) {
+        mReadLatency.record(nanos);
+    }
+
+    void recordWrite(long nanos) {
+        mWriteLatency.record(nanos);
+    }
+
+    /**
+     * Returns a snapshot of the recorded statistics.
+     */
+    CacheStats snapshot() {
+        return snapshot(null);
+    }
+
+    /**
+     * Returns a snapshot of the recorded statistics, adding the removals of
+     * another tier, such as the memory tier of a multi-tier cache.
+     *
+     * @param tier the statistics of the other tier or {@code null}
+     */
+    CacheStats snapshot(CacheStats tier) {
+        long[] removals = new long[mRemovals.length];
+        for (RemovalCause cause : RemovalCause.values()) {
+            removals[cause.ordinal()] = mRemovals[cause.ordinal()].sum();
+            if (tier != null)
+                removals[cause.ordinal()] += tier.removalCount(cause);
+        }
+        return new CacheStats(mMemoryHits.sum(), mDiskHits.sum(), mMisses.sum(), mLoadSuccesses.sum(),
+                mLoadFailures.sum(), mDiskProbesSkipped.sum(), mDiskProbeFalsePositives.sum(), removals,
+                mReadLatency.snapshot(), mWriteLatency.snapshot(),
+                mLoadLatency.snapshot());
+    }
+
+}
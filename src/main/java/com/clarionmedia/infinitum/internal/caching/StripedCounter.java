@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A counter which spreads concurrent increments across padded cells, one per
+ * group of threads, so hot counters do not serialize all threads on a single
+ * contended value. Reading the counter sums the cells and is therefore only
+ * weakly consistent with concurrent updates.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+final class StripedCounter {
+
+    private static final int MAX_CELLS = 64;
+
+    // Cells are 8 longs apart so they do not share a cache line
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray mCells;
+    private final int mCellMask;
+
+    /**
+     * Creates a new {@code StripedCounter} sized for the number of available
+     * processors.
+     */
+    StripedCounter() {
+        int cells = 1;
+        int target = Math.min(MAX_CELLS, Runtime.getRuntime().availableProcessors() * 2);
+        while (cells < target)
+            cells <<= 1;
+        mCells = new AtomicLongArray(cells * PADDING);
+        mCellMask = cells - 1;
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long delta) {
+        mCells.getAndAdd(cellIndex() * PADDING, delta);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < mCells.length(); i += PADDING)
+            sum += mCells.get(i);
+        return sum;
+    }
+
+    private int cellIndex() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mCellMask;
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * A set of lossy, bounded ring buffers used to record cache reads without
+ * taking a lock. Threads are spread across stripes by their id to reduce
+ * contention. When a stripe is full or a concurrent write races for the same
+ * slot, the element is simply dropped, since read recording only serves as a
+ * hint for the eviction policy.
+ * </p>
+ * <p>
+ * Recording is threadsafe, while draining must be performed by a single
+ * thread at a time, typically the holder of the cache's eviction lock.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+final class StripedReadBuffer<E> {
+
+    /**
+     * The capacity of a single stripe.
+     */
+    static final int BUFFER_SIZE = 16;
+
+    /**
+     * The number of pending elements in a stripe which triggers a drain.
+     */
+    static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+    private static final int MAX_STRIPES = 64;
+
+    private final Stripe[] mStripes;
+    private final int mStripeMask;
+
+    /**
+     * Receives drained elements.
+     */
+    interface Sink<E> {
+
+        void accept(E element);
+
+    }
+
+    private static final class Stripe {
+
+        private final AtomicLong mWriteCount = new AtomicLong();
+        private final AtomicReferenceArray<Object> mElements = new AtomicReferenceArray<Object>(BUFFER_SIZE);
+        private volatile long mReadCount;
+
+    }
+
+    /**
+     * Creates a new {@code StripedReadBuffer} sized for the number of
+     * available processors.
+     */
+    StripedReadBuffer() {
+        int stripes = 1;
+        int target = Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors() * 4);
+        while (stripes < target)
+            stripes <<= 1;
+        mStripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++)
+            mStripes[i] = new Stripe();
+        mStripeMask = stripes - 1;
+    }
+
+    /**
+     * Records the given element, dropping it if its stripe is full or
+     * contended.
+     *
+     * @param element the element to record
+     * @return {@code true} if the stripe should be drained
+     */
+    boolean record(E element) {
+        Stripe stripe = mStripes[stripeIndex()];
+        long write = stripe.mWriteCount.get();
+        long pending = write - stripe.mReadCount;
+        if (pending >= BUFFER_SIZE)
+            return true;
+        if (!stripe.mWriteCount.compareAndSet(write, write + 1))
+            return false;
+        stripe.mElements.set((int) write & BUFFER_MASK, element);
+        return pending + 1 >= DRAIN_THRESHOLD;
+    }
+
+    /**
+     * Drains all stripes into the given {@link Sink}. Must not be called
+     * concurrently.
+     *
+     * @param sink the {@code Sink} to replay elements to
+     */
+    @SuppressWarnings("unchecked")
+    void drainTo(Sink<E> sink) {
+        for (Stripe stripe : mStripes) {
+            long read = stripe.mReadCount;
+            long write = stripe.mWriteCount.get();
+            for (; read < write; read++) {
+                int index = (int) read & BUFFER_MASK;
+                Object element = stripe.mElements.get(index);
+                if (element == null)
+                    break; // claimed but not yet published
+                stripe.mElements.set(index, null);
+                sink.accept((E) element);
+            }
+            stripe.mReadCount = read;
+        }
+    }
+
+    private int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mStripeMask;
+    }
+
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * A process-wide, hierarchical timing wheel used to expire cache entries.
+ * Scheduling and cancelling a {@link Timeout} are constant-time operations and
+ * all expirations are driven by a single daemon thread, which is started
+ * lazily and terminates once there are no pending timeouts or no registered
+ * caches are reachable anymore.
+ * </p>
+ * <p>
+ * The wheel consists of four levels of 64 buckets each. Level 0 has a
+ * resolution of one tick, every following level covers 64 times the span of
+ * the level below it. Timeouts in higher
+ * levels are cascaded down as the wheel turns, so that each timeout is touched
+ * at most {@code LEVELS} times before it fires.
+ * </p>
+ * <p>
+ * Caches register an {@link ExpirationHandler} through {@link #register}. The
+ * wheel only holds the handler weakly, so an unreachable cache never stays
+ * alive because of its pending timeouts.
+ * </p>
+ * <p>
+ * This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public final class TimingWheel {
+
+    /**
+     * The duration of a single tick in milliseconds.
+     */
+    public static final long TICK_MILLIS = 1000;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    private static final TimingWheel INSTANCE = new TimingWheel();
+
+    private final Object mLock = new Object();
+    private final Timeout[][] mBuckets;
+    private final ReferenceQueue<ExpirationHandler> mCollected;
+    private final long mStartMillis;
+    private long mCurrentTick;
+    private int mPending;
+    private int mOwners;
+    private Thread mWorker;
+
+    /**
+     * Returns the process-wide {@code TimingWheel}.
+     *
+     * @return {@code TimingWheel} instance
+     */
+    public static TimingWheel getInstance() {
+        return INSTANCE;
+    }
+
+    private TimingWheel() {
+        mBuckets = new Timeout[LEVELS][SLOTS];
+        mCollected = new ReferenceQueue<ExpirationHandler>();
+        mStartMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Receives the timeouts scheduled by a cache once they have fired.
+     */
+    public interface ExpirationHandler {
+
+        /**
+         * Called from the wheel thread when the given {@link Timeout} expires.
+         * Implementations should be short and must not block.
+         *
+         * @param timeout the expired {@code Timeout}
+         */
+        void onExpired(Timeout timeout);
+
+    }
+
+    /**
+     * A weak registration of an {@link ExpirationHandler} with the wheel.
+     * Caches must keep a strong reference to their handler for as long as they
+     * are in use.
+     */
+    public static final class Owner extends WeakReference<ExpirationHandler> {
+
+        private Owner(ExpirationHandler handler, ReferenceQueue<ExpirationHandler> queue) {
+            super(handler, queue);
+        }
+
+    }
+
+    /**
+     * A scheduled expiration of a single cache entry. Subclasses can carry
+     * whatever state the owning cache needs to identify the entry.
+     */
+    public static class Timeout {
+
+        private final Owner mOwner;
+        private volatile long mDeadline;
+        private long mExpiryTick;
+        private int mLevel = -1;
+        private int mSlot;
+        private Timeout mPrev;
+        private Timeout mNext;
+
+        /**
+         * Creates a new {@code Timeout}.
+         *
+         * @param owner    the {@link Owner} to notify on expiration
+         * @param deadline the absolute deadline in milliseconds
+         */
+        public Timeout(Owner owner, long deadline) {
+            mOwner = owner;
+            mDeadline = deadline;
+        }
+
+        /**
+         * Returns the absolute deadline of this {@code Timeout}.
+         *
+         * @return deadline in milliseconds since the epoch
+         */
+        public long getDeadline() {
+            return mDeadline;
+        }
+
+        /**
+         * Indicates if the deadline has passed.
+         *
+         * @param now the current time in milliseconds
+         * @return {@code true} if this {@code Timeout} is expired
+         */
+        public boolean isExpired(long now) {
+            return now > mDeadline;
+        }
+
+        /**
+         * Updates the deadline. The new deadline only takes effect in the wheel
+         * once the {@code Timeout} is rescheduled.
+         *
+         * @param deadline the absolute deadline in milliseconds
+         */
+        protected void setDeadline(long deadline) {
+            mDeadline = deadline;
+        }
+
+    }
+
+    /**
+     * Registers the given {@link ExpirationHandler} with the wheel.
+     *
+     * @param handler the {@code ExpirationHandler} to register
+     * @return the {@link Owner} to create {@link Timeout} instances with
+     */
+    public Owner register(ExpirationHandler handler) {
+        synchronized (mLock) {
+            mOwners++;
+            return new Owner(handler, mCollected);
+        }
+    }
+
+    /**
+     * Schedules the given {@link Timeout}. If it is already scheduled, it will
+     * be moved according to its current deadline.
+     *
+     * @param timeout the {@code Timeout} to schedule
+     */
+    public void schedule(Timeout timeout) {
+        synchronized (mLock) {
+            if (timeout.mLevel >= 0)
+                unlink(timeout);
+            else
+                mPending++;
+            if (mWorker == null) {
+                if (mPending == 1)
+                    mCurrentTick = tickFor(System.currentTimeMillis());
+                mWorker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        turn();
+                    }
+                }, "Infinitum-TimingWheel");
+                mWorker.setDaemon(true);
+                mWorker.start();
+            }
+            long expiryTick = tickFor(timeout.mDeadline) + 1;
+            timeout.mExpiryTick = Math.max(expiryTick, mCurrentTick + 1);
+            place(timeout);
+        }
+    }
+
+    /**
+     * Cancels the given {@link Timeout}. Has no effect if the {@code Timeout}
+     * is not scheduled.
+     *
+     * @param timeout the {@code Timeout} to cancel
+     * @return {@code true} if the {@code Timeout} was cancelled
+     */
+    public boolean cancel(Timeout timeout) {
+        synchronized (mLock) {
+            if (timeout.mLevel < 0)
+                return false;
+            unlink(timeout);
+            mPending--;
+            return true;
+        }
+    }
+
+    private long tickFor(long millis) {
+        return Math.max(0, millis - mStartMillis) / TICK_MILLIS;
+    }
+
+    private void place(Timeout timeout) {
+        long ticks = timeout.mExpiryTick - mCurrentTick;
+        long tick = timeout.mExpiryTick;
+        if (ticks >= MAX_SPAN) {
+            // Park it in the outermost level, it is re-placed once cascaded
+            tick = mCurrentTick + MAX_SPAN - 1;
+            ticks = MAX_SPAN - 1;
+        }
+        int level = 0;
+        while (ticks >= (1L << (SLOT_BITS * (level + 1))))
+            level++;
+        int slot = (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+        Timeout head = mBuckets[level][slot];
+        timeout.mLevel = level;
+        timeout.mSlot = slot;
+        timeout.mPrev = null;
+        timeout.mNext = head;
+        if (head != null)
+            head.mPrev = timeout;
+        mBuckets[level][slot] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.mPrev != null)
+            timeout.mPrev.mNext = timeout.mNext;
+        else
+            mBuckets[timeout.mLevel][timeout.mSlot] = timeout.mNext;
+        if (timeout.mNext != null)
+            timeout.mNext.mPrev = timeout.mPrev;
+        timeout.mPrev = null;
+        timeout.mNext = null;
+        timeout.mLevel = -1;
+    }
+
+    /**
+     * Detaches the bucket at the given position and returns its first element.
+     */
+    private Timeout detach(int level, int slot) {
+        Timeout head = mBuckets[level][slot];
+        mBuckets[level][slot] = null;
+        for (Timeout t = head; t != null; t = t.mNext)
+            t.mLevel = -1;
+        return head;
+    }
+
+    private void turn() {
+        List<Timeout> expired = new ArrayList<Timeout>();
+        while (true) {
+            synchronized (mLock) {
+                while (mCollected.poll() != null)
+                    mOwners--;
+                if (mPending == 0 || mOwners == 0) {
+                    clear();
+                    mWorker = null;
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                long target = tickFor(now);
+                if (mCurrentTick >= target) {
+                    long wait = mStartMillis + (mCurrentTick + 1) * TICK_MILLIS - now;
+                    try {
+                        mLock.wait(Math.max(1, wait));
+                    } catch (InterruptedException e) {
+                        mWorker = null;
+                        return;
+                    }
+                    continue;
+                }
+                while (mCurrentTick < target)
+                    advance(expired);
+            }
+            // Handlers run outside of the lock so they can reschedule
+            for (Timeout timeout : expired) {
+                ExpirationHandler handler = timeout.mOwner.get();
+                if (handler != null)
+                    handler.onExpired(timeout);
+            }
+            expired.clear();
+        }
+    }
+
+    /**
+     * Moves the wheel forward by one tick, cascading higher levels as needed,
+     * and adds all fired timeouts to the given {@link List}.
+     */
+    private void advance(List<Timeout> expired) {
+        mCurrentTick++;
+        for (int level = 1; level < LEVELS; level++) {
+            if ((mCurrentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0)
+                break;
+            int slot = (int) (mCurrentTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+            Timeout t = detach(level, slot);
+            while (t != null) {
+                Timeout next = t.mNext;
+                place(t);
+                t = next;
+            }
+        }
+        Timeout t = detach(0, (int) mCurrentTick & SLOT_MASK);
+        while (t != null) {
+            Timeout next = t.mNext;
+            if (t.mExpiryTick <= mCurrentTick) {
+                mPending--;
+                t.mPrev = null;
+                t.mNext = null;
+                expired.add(t);
+            } else {
+                place(t);
+            }
+            t = next;
+        }
+    }
+
+    private void clear() {
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++)
+                detach(level, slot);
+        }
+        mPending = 0;
+    }
+
+}
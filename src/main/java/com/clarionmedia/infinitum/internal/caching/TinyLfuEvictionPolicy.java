@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * An {@link EvictionPolicy} implementing Window TinyLFU (W-TinyLFU). New
+ * entries enter a small LRU admission window. Entries leaving the window
+ * become candidates for the main space, a segmented LRU made of a probation
+ * and a protected segment. A candidate is only admitted if a
+ * {@link FrequencySketch} estimates it to be accessed more often than the
+ * entry the main space would evict in its place. One-time scans therefore
+ * pass through the window without displacing popular entries.
+ * </p>
+ * <p>
+ * The sketch is sized for the expected number of cached entries. Caches
+ * bounded by weight, e.g. in bytes, hold far fewer entries than their
+ * maximum size, so unless an explicit estimate is given, the sketch is sized
+ * for at most {@link #DEFAULT_MAX_EXPECTED_ENTRIES} entries.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public class TinyLfuEvictionPolicy<K> extends EvictionPolicy<K> {
+
+    /**
+     * The default share of the cache size used for the admission window.
+     */
+    public static final double DEFAULT_WINDOW_RATIO = 0.01;
+
+    /**
+     * The largest number of entries the frequency sketch is sized for if no
+     * expected number of entries is given, which keeps it at 256KB.
+     */
+    public static final int DEFAULT_MAX_EXPECTED_ENTRIES = 1 << 16;
+
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final double mWindowRatio;
+    private final int mExpectedEntries;
+    private final Map<K, PolicyQueue.Node<K>> mNodes;
+    private final PolicyQueue<K> mWindow;
+    private final PolicyQueue<K> mCandidates;
+    private final PolicyQueue<K> mProbation;
+    private final PolicyQueue<K> mProtected;
+    private FrequencySketch mSketch;
+    private long mMaxWindow;
+    private long mMaxProtected;
+
+    /**
+     * Creates a new {@code TinyLfuEvictionPolicy} using the
+     * {@link #DEFAULT_WINDOW_RATIO}.
+     */
+    public TinyLfuEvictionPolicy() {
+        this(DEFAULT_WINDOW_RATIO);
+    }
+
+    /**
+     * Creates a new {@code TinyLfuEvictionPolicy}.
+     *
+     * @param windowRatio the share of the cache size used for the admission
+     *                    window, between 0 and 1
+     */
+    public TinyLfuEvictionPolicy(double windowRatio) {
+        this(windowRatio, 0);
+    }
+
+    /**
+     * Creates a new {@code TinyLfuEvictionPolicy} whose frequency sketch is
+     * sized for the given number of entries. Caches bounded by weight should
+     * use this to size the sketch for the number of entries they actually
+     * hold.
+     *
+     * @param windowRatio     the share of the cache size used for the
+     *                        admission window, between 0 and 1
+     * @param expectedEntries the expected number of cached entries, or 0 to
+     *                        derive it from the maximum cache size
+     */
+    public TinyLfuEvictionPolicy(double windowRatio, int expectedEntries) {
+        super("W-TinyLFU");
+        if (windowRatio <= 0 || windowRatio >= 1)
+            throw new IllegalArgumentException("windowRatio must be between 0 and 1");
+        if (expectedEntries < 0)
+            throw new IllegalArgumentException("expectedEntries must not be negative");
+        mWindowRatio = windowRatio;
+        mExpectedEntries = expectedEntries;
+        mNodes = new HashMap<K, PolicyQueue.Node<K>>();
+        mWindow = new PolicyQueue<K>();
+        mCandidates = new PolicyQueue<K>();
+        mProbation = new PolicyQueue<K>();
+        mProtected = new PolicyQueue<K>();
+    }
+
+    @Override
+    protected void onAttach(int maxSize) {
+        mMaxWindow = Math.max(1, (long) (maxSize * mWindowRatio));
+        mMaxProtected = (long) ((maxSize - mMaxWindow) * PROTECTED_RATIO);
+        mSketch = new FrequencySketch(mExpectedEntries > 0 ? mExpectedEntries
+                : Math.min(maxSize, DEFAULT_MAX_EXPECTED_ENTRIES));
+    }
+
+    @Override
+    protected void onAdd(K key, int size) {
+        mSketch.increment(key);
+        PolicyQueue.Node<K> node = new PolicyQueue.Node<K>(key, size);
+        mNodes.put(key, node);
+        mWindow.addFirst(node);
+        while (mWindow.weight() > mMaxWindow && mWindow.count() > 1)
+            mCandidates.addFirst(mWindow.pollLast());
+    }
+
+    @Override
+    protected void onAccess(K key) {
+        mSketch.increment(key);
+        PolicyQueue.Node<K> node = mNodes.get(key);
+        if (node == null)
+            return;
+        if (node.mQueue == mWindow || node.mQueue == mProtected) {
+            node.mQueue.moveToFront(node);
+        } else {
+            // Probation hits, including pending candidates, are promoted
+            node.mQueue.remove(node);
+            mProtected.addFirst(node);
+            while (mProtected.weight() > mMaxProtected && mProtected.count() > 1)
+                mProbation.addFirst(mProtected.pollLast());
+        }
+    }
+
+    @Override
+    protected void onMiss(K key) {
+        mSketch.increment(key);
+    }
+
+    @Override
+    protected void onRemove(K key) {
+        PolicyQueue.Node<K> node = mNodes.remove(key);
+        if (node != null)
+            node.mQueue.remove(node);
+    }
+
+    @Override
+    protected K selectVictim() {
+        PolicyQueue.Node<K> candidate = mCandidates.peekLast();
+        PolicyQueue.Node<K> victim = mProbation.peekLast();
+        if (victim == null)
+            victim = mProtected.peekLast();
+        PolicyQueue.Node<K> evicted;
+        if (candidate == null) {
+            evicted = victim != null ? victim : mWindow.peekLast();
+        } else if (victim == null) {
+            evicted = candidate;
+        } else if (mSketch.frequency(candidate.mKey) > mSketch.frequency(victim.mKey)) {
+            // Admit the candidate in place of the main space's victim
+            mCandidates.remove(candidate);
+            mProbation.addFirst(candidate);
+            evicted = victim;
+        } else {
+            evicted = candidate;
+        }
+        if (evicted == null)
+            return null;
+        evicted.mQueue.remove(evicted);
+        mNodes.remove(evicted.mKey);
+        return evicted.mKey;
+    }
+
+    /**
+     * Appends the pending candidates, then the probation, protected and
+     * window segments, which approximates the eviction order without
+     * accounting for admission decisions.
+     */
+    @Override
+    protected void appendInEvictionOrder(List<? super K> keys) {
+        mCandidates.appendKeysFromTail(keys);
+        mProbation.appendKeysFromTail(keys);
+        mProtected.appendKeysFromTail(keys);
+        mWindow.appendKeysFromTail(keys);
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * Encodes cache values to bytes and decodes them again, for caches built by
+ * {@link CacheBuilder} which hold values off-heap or on disk.
+ * </p>
+ * <p>
+ * Implementations must be threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public interface ValueCodec<V> {
+
+    /**
+     * Writes the given value to the given stream.
+     *
+     * @param out   the stream to write to, which must not be closed
+     * @param value the value to encode
+     * @throws IOException if the value cannot be written
+     */
+    void write(OutputStream out, V value) throws IOException;
+
+    /**
+     * Reads a value previously written by
+     * {@link #write(OutputStream, Object)} from the given stream.
+     *
+     * @param in the stream holding the encoded value, which must not be
+     *           closed
+     * @return the decoded value
+     * @throws IOException if the value cannot be read
+     */
+    V read(InputStream in) throws IOException;
+
+}
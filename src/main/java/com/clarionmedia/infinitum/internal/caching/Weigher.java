@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+/**
+ * <p>
+ * Calculates the weight of cache entries, typically their approximate size in
+ * bytes, for caches bounded by a maximum weight.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+public interface Weigher<K, V> {
+
+    /**
+     * Returns the weight of the given cache entry. An entry's weight must not
+     * change while it is cached.
+     *
+     * @param key   the cache entry's key
+     * @param value the cache entry's value
+     * @return the non-negative weight of the entry
+     */
+    int weigh(K key, V value);
+
+}
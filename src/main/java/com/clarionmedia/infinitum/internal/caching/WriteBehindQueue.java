@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Buffers disk cache writes and deletions so they can be applied by a
+ * background flusher instead of the calling thread. Pending operations are
+ * keyed by entry name, so repeated writes to the same entry are coalesced
+ * and only the latest one reaches the disk.
+ * </p>
+ * <p>
+ * Operations are applied one at a time and in order, each while holding the
+ * lock passed to the constructor, i.e. the monitor of the cache whose disk
+ * tier they modify. An operation therefore remains visible through
+ * {@link #get(String)} until it has been applied completely, and threads
+ * holding the lock can flush or discard pending operations without waiting
+ * for the background flusher. This class is threadsafe.
+ * </p>
+ *
+ * @author Tyler Treat
+ * @version 1.1.1 10/17/26
+ * @since 1.1.1
+ */
+class WriteBehindQueue<V> {
+
+    private static final ExecutorService FLUSHER = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Infinitum-WriteBehind");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Writer<V> mWriter;
+    private final Object mLock;
+    private final Runnable mFlushTask;
+    private final Map<String, Entry<V>> mPending;
+    private boolean mIsFlushScheduled;
+
+    /**
+     * Applies flushed operations to the disk cache.
+     */
+    interface Writer<V> {
+
+        void write(String name, V value, long deadline);
+
+        void delete(String name);
+
+    }
+
+    /**
+     * A pending write, or a pending deletion if its value is {@code null}.
+     */
+    static final class Entry<V> {
+
+        final V mValue;
+        final long mDeadline;
+
+        private Entry(V value, long deadline) {
+            mValue = value;
+            mDeadline = deadline;
+        }
+
+    }
+
+    /**
+     * Creates a new {@code WriteBehindQueue}.
+     *
+     * @param writer the {@link Writer} applying flushed operations
+     * @param lock   the lock held while applying an operation
+     */
+    WriteBehindQueue(Writer<V> writer, Object lock) {
+        mWriter = writer;
+        mLock = lock;
+        mPending = new LinkedHashMap<String, Entry<V>>();
+        mFlushTask = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (WriteBehindQueue.this) {
+                    mIsFlushScheduled = false;
+                }
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Enqueues a write of the given entry, replacing any pending operation on
+     * it.
+     *
+     * @param name     the entry name
+     * @param value    the value to write
+     * @param deadline the entry's expiration deadline in milliseconds
+     */
+    void enqueueWrite(String name, V value, long deadline) {
+        enqueue(name, new Entry<V>(value, deadline));
+    }
+
+    /**
+     * Enqueues a deletion of the given entry, replacing any pending operation
+     * on it.
+     *
+     * @param name the entry name
+     */
+    void enqueueDelete(String name) {
+        enqueue(name, new Entry<V>(null, 0));
+    }
+
+    /**
+     * Returns the latest operation on the given entry which has not reached
+     * the disk yet.
+     *
+     * @param name the entry name
+     * @return the pending operation or {@code null} if there is none
+     */
+    synchronized Entry<V> get(String name) {
+        return mPending.get(name);
+    }
+
+    /**
+     * Returns the number of pending operations.
+     */
+    synchronized int size() {
+        return mPending.size();
+    }
+
+    /**
+     * Applies all pending operations on the calling thread and returns once
+     * they have reached the disk.
+     */
+    void flush() {
+        while (true) {
+            synchronized (mLock) {
+                String name;
+                Entry<V> entry;
+                synchronized (this) {
+                    if (mPending.isEmpty())
+                        return;
+                    Map.Entry<String, Entry<V>> first = mPending.entrySet().iterator().next();
+                    name = first.getKey();
+                    entry = first.getValue();
+                }
+                try {
+                    if (entry.mValue == null)
+                        mWriter.delete(name);
+                    else
+                        mWriter.write(name, entry.mValue, entry.mDeadline);
+                } finally {
+                    synchronized (this) {
+                        // A newer operation on the entry is applied separately
+                        if (mPending.get(name) == entry)
+                            mPending.remove(name);
+                        notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocks until the background flusher has applied all pending operations.
+     * Must not be called while holding the lock passed to the constructor.
+     *
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    synchronized void awaitQuiescence() throws InterruptedException {
+        while (!mPending.isEmpty())
+            wait();
+    }
+
+    /**
+     * Drops all pending operations and waits for an operation in progress to
+     * complete, after which no buffered operation will reach the disk.
+     */
+    void discard() {
+        synchronized (this) {
+            mPending.clear();
+            notifyAll();
+        }
+        synchronized (mLock) {
+            // An operation in progress holds the lock until it has been applied
+        }
+    }
+
+    private synchronized void enqueue(String name, Entry<V> entry) {
+        mPending.put(name, entry);
+        if (!mIsFlushScheduled) {
+            mIsFlushScheduled = true;
+            FLUSHER.execute(mFlushTask);
+        }
+    }
+
+}
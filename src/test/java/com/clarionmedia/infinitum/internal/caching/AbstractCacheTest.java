@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class AbstractCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String rootDir;
+    private StringCache cache;
+
+    @Before
+    public void setup() {
+        rootDir = folder.getRoot().getAbsolutePath();
+        cache = new StringCache("cache");
+        cache.setDiskCacheEnabled(rootDir, AbstractCache.DISK_LAYOUT_FILES);
+    }
+
+    @After
+    public void tearDown() {
+        cache.setDiskCacheEnabled(null);
+    }
+
+    @Test
+    public void testWriteBehind_flush() {
+        // Setup
+        cache.setWriteBehindEnabled(true);
+        cache.put("a", "1");
+
+        // Run
+        cache.flush();
+
+        // Verify
+        assertTrue("Flushed entry should be written to disk", diskFile("a").exists());
+        cache.removeKey("a");
+        assertEquals("Flushed entry should be read from disk", "1", cache.get("a"));
+    }
+
+    @Test
+    public void testWriteBehind_pendingRead() {
+        // Setup
+        cache.setWriteBehindEnabled(true);
+        synchronized (cache) {
+            cache.put("a", "1");
+            cache.removeKey("a");
+
+            // Run
+            String value = cache.get("a");
+
+            // Verify
+            assertEquals("Pending write should be returned before it reaches the disk", "1", value);
+            assertFalse("Pending write should not reach the disk while the cache is locked", diskFile("a").exists());
+        }
+    }
+
+    @Test
+    public void testWriteBehind_remove() {
+        // Setup
+        cache.setWriteBehindEnabled(true);
+        cache.put("a", "1");
+        cache.flush();
+
+        // Run
+        cache.remove("a");
+        cache.flush();
+
+        // Verify
+        assertFalse("Removed entry should be deleted from disk", diskFile("a").exists());
+        assertNull("Removed entry should not be returned", cache.get("a"));
+    }
+
+    @Test(timeout = 5000)
+    public void testWriteBehind_disableWhileFlusherWaits() throws InterruptedException {
+        // Setup
+        cache.setWriteBehindEnabled(true);
+        synchronized (cache) {
+            cache.put("a", "1");
+            // Let the background flusher block on the cache lock
+            Thread.sleep(100);
+
+            // Run
+            cache.setDiskCacheEnabled(null);
+        }
+        cache.awaitQuiescence();
+
+        // Verify
+        assertTrue("Pending write should be flushed before the disk cache is disabled", diskFile("a").exists());
+    }
+
+    @Test
+    public void testGetWithLoader_writesThrough() {
+        // Setup
+        final AtomicInteger loads = new AtomicInteger();
+        CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+            @Override
+            public String load(String key) {
+                loads.incrementAndGet();
+                return "value-" + key;
+            }
+        };
+
+        // Run
+        String value = cache.get("a", loader);
+        cache.removeKey("a");
+        String reloaded = cache.get("a", loader);
+
+        // Verify
+        assertEquals("Loaded value should be returned", "value-a", value);
+        assertEquals("Loaded value should be read back from disk", "value-a", reloaded);
+        assertEquals("Value found on disk should not be loaded again", 1, loads.get());
+        assertTrue("Loaded value should be written to disk", diskFile("a").exists());
+    }
+
+    @Test
+    public void testGetWithLoader_concurrentMisses() throws InterruptedException {
+        // Setup
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+            @Override
+            public String load(String key) throws InterruptedException {
+                loads.incrementAndGet();
+                release.await();
+                return "value-" + key;
+            }
+        };
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> callers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            callers.add(new Thread() {
+                @Override
+                public void run() {
+                    results.add(cache.get("a", loader));
+                }
+            });
+        }
+
+        // Run
+        for (Thread caller : callers)
+            caller.start();
+        Thread.sleep(100);
+        // The load runs without holding the cache lock
+        assertNull("Other keys should be readable while loading", cache.get("b"));
+        release.countDown();
+        for (Thread caller : callers)
+            caller.join(5000);
+
+        // Verify
+        assertEquals("Concurrent misses should be loaded once", 1, loads.get());
+        assertEquals("Every caller should receive the loaded value", Collections.nCopies(4, "value-a"), results);
+    }
+
+    @Test
+    public void testOffHeap_roundTrip() {
+        // Setup
+        cache.enableOffHeapCache(SlabStore.SLAB_SIZE);
+
+        // Run
+        cache.put("a", "1");
+        String value = cache.get("a");
+
+        // Verify
+        assertEquals("Value should be decoded from the off-heap tier", "1", value);
+        assertTrue("Off-heap value should be contained", cache.containsKeyInMemory("a"));
+        assertFalse("Off-heap values should not be part of the key set", cache.keySet().contains("a"));
+    }
+
+    @Test
+    public void testStats_tiers() {
+        // Setup
+        cache.put("a", "1");
+
+        // Run
+        cache.get("a");
+        cache.removeKey("a");
+        cache.get("a");
+        cache.get("b");
+        CacheStats stats = cache.stats();
+
+        // Verify
+        assertEquals("Memory hit should be counted", 1, stats.memoryHitCount());
+        assertEquals("Disk hit should be counted", 1, stats.diskHitCount());
+        assertEquals("Miss should be counted", 1, stats.missCount());
+        assertEquals("Every lookup should be sampled", 3, stats.readLatency().count());
+        assertTrue("Write should be sampled", stats.writeLatency().count() >= 1);
+    }
+
+    @Test
+    public void testTrimMemory_keepsDiskEntries() {
+        // Setup
+        cache.put("a", "1");
+        cache.put("b", "2");
+
+        // Run
+        cache.trimMemory(1);
+
+        // Verify
+        assertFalse("Trimmed entry should be dropped from memory", cache.containsKeyInMemory("a"));
+        assertTrue("Trimmed entry should remain on disk", diskFile("a").exists());
+        assertEquals("Trimmed entry should be read back from disk", "1", cache.get("a"));
+        assertTrue("Entry read from disk should be held in memory again", cache.containsKeyInMemory("a"));
+    }
+
+    @Test
+    public void testSanitize_removesOrphanedEntries() throws IOException, InterruptedException {
+        // Setup
+        cache.put("kept", "1");
+        File orphan = diskFile("orphan");
+        write(orphan, "2");
+        assertNull("Entry without an index record should be treated as missing", cache.get("orphan"));
+
+        // Run
+        cache.setDiskCacheEnabled(rootDir, AbstractCache.DISK_LAYOUT_FILES);
+
+        // Verify
+        assertTrue("Sanitizer should delete the entry without an index record", awaitDeletion(orphan));
+        cache.removeKey("kept");
+        assertEquals("Indexed entry should be kept", "1", cache.get("kept"));
+    }
+
+    @Test
+    public void testSanitize_removesExpiredEntries() throws InterruptedException {
+        // Setup
+        cache.put("expired", "1", 1);
+        cache.put("kept", "2", 60);
+        File expired = diskFile("expired");
+        assertTrue("Entry should be written to disk", expired.exists());
+        Thread.sleep(1100);
+
+        // Run
+        cache.setDiskCacheEnabled(rootDir, AbstractCache.DISK_LAYOUT_FILES);
+
+        // Verify
+        assertTrue("Sanitizer should delete the expired entry", awaitDeletion(expired));
+        cache.removeKey("kept");
+        assertEquals("Unexpired entry should be kept", "2", cache.get("kept"));
+        assertFalse("Expired entry should not be returned", cache.containsKey("expired"));
+    }
+
+    @Test
+    public void testSanitize_deletesStaleTempFiles() throws IOException, InterruptedException {
+        // Setup
+        cache.put("kept", "1");
+        File directory = new File(cache.getDiskCacheDirectory());
+        File stale = File.createTempFile(DiskStore.TEMP_FILE_PREFIX, null, directory);
+        assertTrue("Temp file should be backdated", stale.setLastModified(System.currentTimeMillis() - 10 * 60 * 1000));
+        File fresh = File.createTempFile(DiskStore.TEMP_FILE_PREFIX, null, directory);
+
+        // Run
+        cache.setDiskCacheEnabled(rootDir, AbstractCache.DISK_LAYOUT_FILES);
+
+        // Verify
+        assertTrue("Sanitizer should delete the stale temp file", awaitDeletion(stale));
+        assertTrue("Sanitizer should keep temp files which may still be written", fresh.exists());
+        assertTrue("Sanitizer should keep the expiration index",
+                new File(directory, ExpirationIndex.FILE_NAME).exists());
+        cache.removeKey("kept");
+        assertEquals("Indexed entry should be kept", "1", cache.get("kept"));
+    }
+
+    @Test
+    public void testWarmRestart_preloadsHotEntries() throws InterruptedException {
+        // Setup
+        cache.enableWarmRestart(16, 5000);
+        cache.put("hot", "1");
+        cache.put("cold", "2");
+        cache.get("hot");
+        assertTrue("Hot set should be saved", cache.saveHotSet());
+        StringCache restarted = new StringCache("cache");
+        restarted.enableWarmRestart(16, 5000);
+
+        // Run
+        restarted.setDiskCacheEnabled(rootDir, AbstractCache.DISK_LAYOUT_FILES);
+
+        // Verify
+        long end = System.currentTimeMillis() + 5000;
+        while (!restarted.containsKeyInMemory("hot") && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        try {
+            assertTrue("Hot entry should be preloaded into memory", restarted.containsKeyInMemory("hot"));
+            assertEquals("Preloaded entry should be returned", "1", restarted.get("hot"));
+        } finally {
+            restarted.setDiskCacheEnabled(null);
+        }
+    }
+
+    @Test
+    public void testRemovalListener_diskRemoval() throws InterruptedException {
+        // Setup
+        RecordingListener listener = new RecordingListener();
+        cache.setRemovalListener(listener);
+        cache.put("a", "1");
+
+        // Run
+        cache.remove("a");
+
+        // Verify
+        RemovalNotification<String, String> memory = listener.await(null, 5000);
+        RemovalNotification<String, String> disk = listener.await(cache.getFileNameForKey("a"), 5000);
+        assertEquals("Memory removal should carry the key", "a", memory.getKey());
+        assertEquals("Memory removal should carry the value", "1", memory.getValue());
+        assertEquals("Memory removal should be explicit", RemovalCause.EXPLICIT, memory.getCause());
+        assertEquals("Disk removal should carry the key", "a", disk.getKey());
+        assertNull("Disk removal should not carry a value", disk.getValue());
+        assertEquals("Disk removal should be explicit", RemovalCause.EXPLICIT, disk.getCause());
+    }
+
+    @Test
+    public void testRemovalListener_sanitizedEntry() throws InterruptedException {
+        // Setup
+        RecordingListener listener = new RecordingListener();
+        cache.setRemovalListener(listener);
+        cache.put("expired", "1", 1);
+        Thread.sleep(1100);
+
+        // Run
+        cache.setDiskCacheEnabled(rootDir, AbstractCache.DISK_LAYOUT_FILES);
+
+        // Verify
+        RemovalNotification<String, String> disk = listener.await(cache.getFileNameForKey("expired"), 5000);
+        assertNull("Key of an entry removed in the background should be unknown", disk.getKey());
+        assertEquals("Sanitized entry should be expired", RemovalCause.EXPIRED, disk.getCause());
+    }
+
+    private File diskFile(String key) {
+        return new File(cache.getDiskCacheDirectory(), cache.getFileNameForKey(key));
+    }
+
+    private static void write(File file, String value) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(value.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static boolean awaitDeletion(File file) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (file.exists()) {
+            if (System.currentTimeMillis() > end)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static class RecordingListener implements RemovalListener<String, String> {
+
+        private final List<RemovalNotification<String, String>> mNotifications =
+                new ArrayList<RemovalNotification<String, String>>();
+
+        @Override
+        public synchronized void onRemoval(List<RemovalNotification<String, String>> notifications) {
+            mNotifications.addAll(notifications);
+            notifyAll();
+        }
+
+        /**
+         * Waits for a removal with the given disk name, or for a memory removal
+         * if it is {@code null}.
+         */
+        synchronized RemovalNotification<String, String> await(String diskName, long timeoutMillis)
+                throws InterruptedException {
+            long end = System.currentTimeMillis() + timeoutMillis;
+            while (true) {
+                for (RemovalNotification<String, String> notification : mNotifications) {
+                    if (diskName == null ? notification.getDiskName() == null
+                            : diskName.equals(notification.getDiskName()))
+                        return notification;
+                }
+                long wait = end - System.currentTimeMillis();
+                assertTrue("Removal should be delivered", wait > 0);
+                wait(wait);
+            }
+        }
+
+    }
+
+}
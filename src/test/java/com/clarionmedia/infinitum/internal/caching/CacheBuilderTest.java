@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CacheBuilderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RecordingListener listener;
+    private AbstractCache<String, String> cache;
+
+    @Before
+    public void setup() {
+        listener = new RecordingListener();
+    }
+
+    @After
+    public void tearDown() {
+        if (cache != null)
+            cache.setDiskCacheEnabled(null);
+    }
+
+    @Test
+    public void testBuild_exclusiveTier_demotesEvictedEntries() throws InterruptedException {
+        // Setup
+        cache = new CacheBuilder<String, String>("exclusive").setMaxSize(2)
+                .setOffHeapTier(1 << 20, AbstractCache.TIER_MODE_EXCLUSIVE).setValueCodec(new StringValueCodec())
+                .setRemovalListener(listener).build();
+
+        // Run
+        cache.put("k0", "v0");
+        cache.put("k1", "v1");
+        cache.put("k2", "v2");
+
+        // Verify
+        assertEquals("Entry evicted from the heap should be reported", Arrays.asList("k0"), listener.awaitEvictions(1));
+        assertEquals("Heap should hold its maximum size", 2, cache.getMemoryWeight());
+        assertTrue("Evicted entry should be demoted off-heap", cache.getOffHeapUsage() > 0);
+        assertTrue("Demoted entry should be held in memory", cache.containsKeyInMemory("k0"));
+        assertEquals("Entries should be counted once across tiers", 3, cache.size());
+    }
+
+    @Test
+    public void testBuild_exclusiveTier_promotesHits() throws InterruptedException {
+        // Setup
+        cache = new CacheBuilder<String, String>("exclusive").setMaxSize(2)
+                .setOffHeapTier(1 << 20, AbstractCache.TIER_MODE_EXCLUSIVE).setValueCodec(new StringValueCodec())
+                .setRemovalListener(listener).build();
+        cache.put("k0", "v0");
+        cache.put("k1", "v1");
+        cache.put("k2", "v2");
+
+        // Run
+        String value = cache.get("k0");
+
+        // Verify
+        assertEquals("Off-heap hit should return the demoted value", "v0", value);
+        assertEquals("Promotion should evict the least recently used heap entry", Arrays.asList("k0", "k1"),
+                listener.awaitEvictions(2));
+        assertEquals("Entry displaced by the promotion should be demoted", "v1", cache.get("k1"));
+        assertEquals("Entries should be counted once across tiers", 3, cache.size());
+    }
+
+    @Test
+    public void testBuild_inclusiveTier() throws InterruptedException {
+        // Setup
+        cache = new CacheBuilder<String, String>("inclusive").setMaxSize(2)
+                .setOffHeapTier(1 << 20, AbstractCache.TIER_MODE_INCLUSIVE).setValueCodec(new StringValueCodec())
+                .setRemovalListener(listener).build();
+        cache.put("k0", "v0");
+        cache.put("k1", "v1");
+        cache.put("k2", "v2");
+
+        // Run
+        String value = cache.get("k0");
+
+        // Verify
+        assertEquals("Entries evicted from the heap should remain off-heap", "v0", value);
+        assertEquals("Promotion should evict the least recently used heap entry", Arrays.asList("k0", "k1"),
+                listener.awaitEvictions(2));
+        assertEquals("Entries held in both tiers should be counted once", 3, cache.size());
+    }
+
+    @Test
+    public void testBuild_diskTier() throws InterruptedException {
+        // Setup
+        cache = new CacheBuilder<String, String>("disk").setMaxSize(1)
+                .setDiskTier(folder.getRoot().getAbsolutePath(), AbstractCache.DISK_LAYOUT_JOURNAL)
+                .setValueCodec(new StringValueCodec()).build();
+        cache.put("k0", "v0");
+        cache.put("k1", "v1");
+
+        // Run
+        String first = cache.get("k0");
+        String second = cache.get("k0");
+
+        // Verify
+        assertTrue("Disk tier should be enabled", cache.isDiskCacheEnabled());
+        assertEquals("Entry evicted from the heap should be read from disk", "v0", first);
+        assertEquals("Promoted entry should be read from the heap", "v0", second);
+        assertEquals("Disk hit should be promoted to the heap", 1, cache.stats().diskHitCount());
+    }
+
+    @Test
+    public void testBuild_plain() {
+        // Setup
+        cache = new CacheBuilder<String, String>("plain").setMaxSize(2).build();
+
+        // Run
+        for (int i = 0; i < 5; i++)
+            cache.put("k" + i, "v" + i);
+
+        // Verify
+        assertEquals("Cache should hold its maximum size", 2, cache.size());
+        assertEquals("Most recent entry should be kept", "v4", cache.get("k4"));
+        assertFalse("Least recent entry should be evicted", cache.containsKey("k0"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuild_offHeapTierWithoutCodec() {
+        // Setup
+        CacheBuilder<String, String> builder = new CacheBuilder<String, String>("invalid")
+                .setOffHeapTier(1 << 20, AbstractCache.TIER_MODE_INCLUSIVE);
+
+        // Run
+        builder.build();
+
+        // Verify
+        assertTrue("build should throw an IllegalStateException", false);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuild_policyWithoutMaxSize() {
+        // Setup
+        CacheBuilder<String, String> builder = new CacheBuilder<String, String>("invalid")
+                .setEvictionPolicy(new LruEvictionPolicy<String>());
+
+        // Run
+        builder.build();
+
+        // Verify
+        assertTrue("build should throw an IllegalStateException", false);
+    }
+
+    private static class RecordingListener implements RemovalListener<String, String> {
+
+        private final List<String> mEvicted = new ArrayList<String>();
+
+        @Override
+        public synchronized void onRemoval(List<RemovalNotification<String, String>> notifications) {
+            for (RemovalNotification<String, String> notification : notifications) {
+                if (notification.getCause() == RemovalCause.SIZE)
+                    mEvicted.add(notification.getKey());
+            }
+            notifyAll();
+        }
+
+        /**
+         * Waits for the given number of size evictions and returns the keys
+         * evicted so far.
+         */
+        synchronized List<String> awaitEvictions(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000;
+            while (mEvicted.size() < count) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                    break;
+                wait(wait);
+            }
+            return new ArrayList<String>(mEvicted);
+        }
+
+    }
+
+}
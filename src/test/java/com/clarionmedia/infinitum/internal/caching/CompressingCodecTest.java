@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompressingCodecTest {
+
+    private static final int[] SIZES = {0, 1, 15, 16, 17, 255, 4096, 65536, 100000};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CompressingCodec<byte[]> codec;
+
+    @Before
+    public void setup() {
+        codec = new CompressingCodec<byte[]>(new BytesCodec());
+    }
+
+    @Test
+    public void testDeflate_roundTrip() throws IOException {
+        assertRoundTrips(new DeflateCodec());
+    }
+
+    @Test
+    public void testLz4_roundTrip() throws IOException {
+        assertRoundTrips(new Lz4Codec());
+    }
+
+    @Test
+    public void testWriteStream_compresses() throws IOException {
+        // Setup
+        byte[] value = compressible(10000);
+        codec.setCompression(new Lz4Codec(), 0);
+
+        // Run
+        byte[] encoded = encode(value);
+
+        // Verify
+        assertTrue("Compressible value should be stored compressed", encoded.length < value.length);
+        assertArrayEquals("readStream should restore the value", value, codec.readStream(new ByteArrayInputStream(encoded)));
+        assertArrayEquals("readBuffer should restore the value", value, codec.readBuffer(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    public void testWriteStream_belowMinSize() throws IOException {
+        // Setup
+        byte[] value = compressible(100);
+        codec.setCompression(new DeflateCodec(), 1000);
+
+        // Run
+        byte[] encoded = encode(value);
+
+        // Verify
+        assertArrayEquals("Value below the threshold should be stored as is", value, encoded);
+        assertArrayEquals("readStream should restore the value", value, codec.readStream(new ByteArrayInputStream(encoded)));
+    }
+
+    @Test
+    public void testWriteStream_magicPrefix() throws IOException {
+        // Setup
+        byte[] value = {(byte) 0xC0, (byte) 0xDE, (byte) 0xC5, 1, 2, 3, 4, 5, 6, 7, 8};
+        codec.setCompression(new DeflateCodec(), 0);
+
+        // Run
+        byte[] encoded = encode(value);
+
+        // Verify
+        assertArrayEquals("readStream should restore a value starting with the magic bytes", value,
+                codec.readStream(new ByteArrayInputStream(encoded)));
+        assertArrayEquals("readBuffer should restore a value starting with the magic bytes", value,
+                codec.readBuffer(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    public void testReadStream_uncompressedEntry() throws IOException {
+        // Setup
+        byte[] value = compressible(10000);
+        codec.setCompression(new DeflateCodec(), 0);
+
+        // Run
+        byte[] actual = codec.readStream(new ByteArrayInputStream(value));
+
+        // Verify
+        assertArrayEquals("Entries written without compression should remain readable", value, actual);
+    }
+
+    @Test
+    public void testReadStream_afterCodecSwitch() throws IOException {
+        // Setup
+        byte[] value = compressible(10000);
+        codec.setCompression(new DeflateCodec(), 0);
+        byte[] encoded = encode(value);
+
+        // Run
+        codec.setCompression(new Lz4Codec(), 0);
+        byte[] actual = codec.readStream(new ByteArrayInputStream(encoded));
+
+        // Verify
+        assertArrayEquals("Entries should be decompressed with the codec which compressed them", value, actual);
+    }
+
+    @Test
+    public void testFile_roundTrip() throws IOException {
+        // Setup
+        byte[] value = compressible(10000);
+        File file = folder.newFile("entry");
+        codec.setCompression(new DeflateCodec(), 0);
+
+        // Run
+        codec.writeFile(file, value);
+
+        // Verify
+        assertTrue("Compressible value should be stored compressed", file.length() < value.length);
+        assertArrayEquals("readFile should restore the value", value, codec.readFile(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadStream_negativeLength() throws IOException {
+        // Setup
+        codec.setCompression(new DeflateCodec(), 0);
+        byte[] encoded = encode(compressible(10000));
+        encoded[4] = (byte) 0x80;
+
+        // Run
+        codec.readStream(new ByteArrayInputStream(encoded));
+
+        // Verify
+        assertTrue("readStream should throw an IOException", false);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadBuffer_excessiveLength() throws IOException {
+        // Setup
+        codec.setCompression(new Lz4Codec(), 0);
+        byte[] encoded = encode(compressible(10000));
+        encoded[4] = 0x7f;
+
+        // Run
+        codec.readBuffer(ByteBuffer.wrap(encoded));
+
+        // Verify
+        assertTrue("readBuffer should throw an IOException", false);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadStream_unknownCodec() throws IOException {
+        // Setup
+        codec.setCompression(new DeflateCodec(), 0);
+        byte[] encoded = encode(compressible(10000));
+        encoded[3] = 99;
+
+        // Run
+        codec.readStream(new ByteArrayInputStream(encoded));
+
+        // Verify
+        assertTrue("readStream should throw an IOException", false);
+    }
+
+    private void assertRoundTrips(CompressionCodec compression) throws IOException {
+        Random random = new Random(42);
+        for (int size : SIZES) {
+            byte[] incompressible = new byte[size];
+            random.nextBytes(incompressible);
+            for (byte[] data : new byte[][] {incompressible, compressible(size)}) {
+                byte[] compressed = compression.compress(data);
+                assertArrayEquals("Codec should restore " + size + " bytes", data,
+                        compression.decompress(compressed, 0, compressed.length, data.length));
+                codec.setCompression(compression, 0);
+                assertArrayEquals("CompressingCodec should restore " + size + " bytes", data,
+                        codec.readStream(new ByteArrayInputStream(encode(data))));
+            }
+        }
+    }
+
+    private byte[] encode(byte[] value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeStream(out, value);
+        return out.toByteArray();
+    }
+
+    private static byte[] compressible(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (byte) ("compressible".charAt(i % 12));
+        return data;
+    }
+
+    private static class BytesCodec implements DiskStore.Codec<byte[]> {
+
+        @Override
+        public byte[] readFile(File file) throws IOException {
+            InputStream in = new FileInputStream(file);
+            try {
+                return readStream(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        public void writeFile(File file, byte[] value) throws IOException {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                writeStream(out, value);
+            } finally {
+                out.close();
+            }
+        }
+
+        @Override
+        public byte[] readStream(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return out.toByteArray();
+        }
+
+        @Override
+        public void writeStream(OutputStream out, byte[] value) throws IOException {
+            out.write(value);
+        }
+
+        @Override
+        public byte[] readBuffer(ByteBuffer buffer) {
+            byte[] value = new byte[buffer.remaining()];
+            buffer.get(value);
+            return value;
+        }
+
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class DiskQuotaTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RecordingEvictor evictor;
+    private DiskQuota diskQuota;
+
+    @Before
+    public void setup() {
+        evictor = new RecordingEvictor(true);
+        diskQuota = evictor.mQuota;
+        diskQuota.open(null);
+    }
+
+    @After
+    public void tearDown() {
+        DiskQuota.setGlobalMaxBytes(0);
+        diskQuota.close();
+    }
+
+    @Test
+    public void testTrim_evictsLeastRecentlyUsed() throws InterruptedException {
+        // Setup
+        diskQuota.setMaxBytes(100);
+        diskQuota.recordWrite("a", 40);
+        diskQuota.recordWrite("b", 40);
+        diskQuota.recordAccess("a");
+
+        // Run
+        diskQuota.recordWrite("c", 40);
+
+        // Verify
+        assertTrue("Quota should be trimmed", evictor.awaitEvictions(1));
+        assertEquals("Least recently used entry should be evicted", Collections.singletonList("b"), evictor.evicted());
+        assertEquals("Quota should be back within its budget", 80, diskQuota.getBytes());
+    }
+
+    @Test
+    public void testTrim_evictsUntilWithinBudget() throws InterruptedException {
+        // Setup
+        diskQuota.recordWrite("a", 40);
+        diskQuota.recordWrite("b", 40);
+        diskQuota.recordWrite("c", 40);
+
+        // Run
+        diskQuota.setMaxBytes(50);
+
+        // Verify
+        assertTrue("Quota should be trimmed", evictor.awaitEvictions(2));
+        assertEquals("Entries should be evicted oldest first", Arrays.asList("a", "b"), evictor.evicted());
+        assertEquals("Quota should be back within its budget", 40, diskQuota.getBytes());
+    }
+
+    @Test
+    public void testTrim_declined() throws InterruptedException {
+        // Setup
+        evictor = new RecordingEvictor(false);
+        diskQuota.close();
+        diskQuota = evictor.mQuota;
+        diskQuota.open(null);
+        diskQuota.setMaxBytes(50);
+        diskQuota.recordWrite("a", 40);
+
+        // Run
+        diskQuota.recordWrite("b", 40);
+
+        // Verify
+        assertTrue("Eviction should be attempted", evictor.awaitEvictions(1));
+        Thread.sleep(100);
+        assertEquals("Trimming should stop once an eviction is declined", Collections.singletonList("a"),
+                evictor.evicted());
+        assertEquals("Declined entries should stay tracked", 80, diskQuota.getBytes());
+    }
+
+    @Test
+    public void testRecordRemoval() {
+        // Setup
+        diskQuota.recordWrite("a", 40);
+        diskQuota.recordWrite("b", 30);
+
+        // Run
+        diskQuota.recordRemoval("a");
+
+        // Verify
+        assertEquals("Removed entries should not be tracked", 30, diskQuota.getBytes());
+    }
+
+    @Test
+    public void testLoad_ordersByWriteTime() throws IOException, InterruptedException {
+        // Setup
+        File directory = folder.newFolder("quota");
+        FileDiskStore<String> store = new FileDiskStore<String>(directory, new StringCodec());
+        store.write("new", "0123456789");
+        store.write("old", "0123456789");
+        new File(directory, "old").setLastModified(System.currentTimeMillis() - 60000);
+        diskQuota.open(store);
+        diskQuota.recordWrite("recent", 10);
+
+        // Run
+        diskQuota.load(store);
+
+        // Verify
+        assertEquals("Loading should track the existing entries", 30, diskQuota.getBytes());
+        diskQuota.setMaxBytes(15);
+        assertTrue("Quota should be trimmed", evictor.awaitEvictions(2));
+        assertEquals("Existing entries should be evicted by write time and before recent ones",
+                Arrays.asList("old", "new"), evictor.evicted());
+    }
+
+    @Test
+    public void testTrim_globalBudget() throws InterruptedException {
+        // Setup
+        RecordingEvictor otherEvictor = new RecordingEvictor(true);
+        DiskQuota other = otherEvictor.mQuota;
+        other.open(null);
+        try {
+            other.recordWrite("other", 40);
+            Thread.sleep(5);
+            diskQuota.recordWrite("a", 40);
+            Thread.sleep(5);
+
+            // Run
+            diskQuota.recordWrite("b", 40);
+            DiskQuota.setGlobalMaxBytes(100);
+
+            // Verify
+            assertTrue("Global budget should be enforced", otherEvictor.awaitEvictions(1));
+            assertEquals("Least recently used entry across all quotas should be evicted",
+                    Collections.singletonList("other"), otherEvictor.evicted());
+            assertEquals("Other quotas should keep their entries", 80, diskQuota.getBytes());
+        } finally {
+            other.close();
+        }
+    }
+
+    private static class RecordingEvictor implements DiskQuota.Evictor {
+
+        private final DiskQuota mQuota;
+        private final boolean mAccept;
+        private final List<String> mEvicted;
+
+        RecordingEvictor(boolean accept) {
+            mQuota = new DiskQuota(this);
+            mAccept = accept;
+            mEvicted = new ArrayList<String>();
+        }
+
+        @Override
+        public synchronized boolean evict(String name, long accessTime) {
+            boolean evicted = mAccept && mQuota.remove(name, accessTime);
+            mEvicted.add(name);
+            notifyAll();
+            return evicted;
+        }
+
+        synchronized boolean awaitEvictions(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000;
+            while (mEvicted.size() < count) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                    return false;
+                wait(wait);
+            }
+            return true;
+        }
+
+        synchronized List<String> evicted() {
+            return new ArrayList<String>(mEvicted);
+        }
+
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class EvictionPolicyTest {
+
+    @Test
+    public void testLru_evictsLeastRecentlyUsed() {
+        // Setup
+        EvictionPolicy<String> policy = new LruEvictionPolicy<String>();
+        Set<String> cached = new HashSet<String>();
+        policy.attach(3);
+        add(policy, cached, 3, "a", "b", "c");
+        policy.onAccess("a");
+
+        // Run
+        List<String> victims = add(policy, cached, 3, "d", "e");
+
+        // Verify
+        assertEquals("Least recently used entries should be evicted first", Arrays.asList("b", "c"), victims);
+        assertEquals("Remaining entries should be evicted in LRU order", "a", policy.selectVictim());
+    }
+
+    @Test
+    public void testLru_remove() {
+        // Setup
+        EvictionPolicy<String> policy = new LruEvictionPolicy<String>();
+        policy.attach(3);
+        add(policy, new HashSet<String>(), 3, "a", "b");
+
+        // Run
+        policy.onRemove("a");
+
+        // Verify
+        assertEquals("Removed entries should not be selected", "b", policy.selectVictim());
+        assertNull("Empty policy should not select a victim", policy.selectVictim());
+    }
+
+    @Test
+    public void testClock_referencedEntriesGetSecondChance() {
+        // Setup
+        EvictionPolicy<String> policy = new ClockEvictionPolicy<String>();
+        Set<String> cached = new HashSet<String>();
+        policy.attach(3);
+        add(policy, cached, 3, "a", "b", "c");
+        policy.onAccess("a");
+
+        // Run
+        List<String> victims = add(policy, cached, 3, "d", "e");
+
+        // Verify
+        assertEquals("Unreferenced entries should be evicted first", Arrays.asList("b", "c"), victims);
+        assertTrue("Referenced entry should survive", cached.contains("a"));
+    }
+
+    @Test
+    public void testClock_allReferenced() {
+        // Setup
+        EvictionPolicy<String> policy = new ClockEvictionPolicy<String>();
+        policy.attach(3);
+        add(policy, new HashSet<String>(), 3, "a", "b", "c");
+        policy.onAccess("a");
+        policy.onAccess("b");
+        policy.onAccess("c");
+
+        // Run
+        String victim = policy.selectVictim();
+
+        // Verify
+        assertEquals("Hand should evict the first entry once a sweep cleared all reference bits", "a", victim);
+    }
+
+    @Test
+    public void testArc_frequentEntriesSurviveScan() {
+        // Setup
+        EvictionPolicy<String> policy = new ArcEvictionPolicy<String>();
+        Set<String> cached = new HashSet<String>();
+        policy.attach(4);
+        add(policy, cached, 4, "a", "b");
+        policy.onAccess("a");
+        policy.onAccess("b");
+
+        // Run
+        List<String> victims = add(policy, cached, 4, "s0", "s1", "s2", "s3", "s4", "s5");
+
+        // Verify
+        assertEquals("Scan should only evict recently used entries", Arrays.asList("s0", "s1", "s2", "s3"), victims);
+        assertTrue("Frequently used entries should survive the scan", cached.containsAll(Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void testArc_ghostHit() {
+        // Setup
+        EvictionPolicy<String> policy = new ArcEvictionPolicy<String>();
+        Set<String> cached = new HashSet<String>();
+        policy.attach(2);
+        List<String> victims = add(policy, cached, 2, "a", "b", "c");
+
+        // Run
+        victims.addAll(add(policy, cached, 2, "a", "d"));
+
+        // Verify
+        assertEquals("Ghost hit should protect the readmitted entry", Arrays.asList("a", "b", "c"), victims);
+        assertTrue("Readmitted entry should survive", cached.contains("a"));
+    }
+
+    @Test
+    public void testTinyLfu_frequentEntriesSurviveScan() {
+        // Setup
+        EvictionPolicy<String> policy = new TinyLfuEvictionPolicy<String>();
+        Set<String> cached = new HashSet<String>();
+        policy.attach(10);
+        for (int i = 0; i < 10; i++)
+            add(policy, cached, 10, "hot" + i);
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 9; j++)
+                policy.onAccess("hot" + j);
+        }
+        String[] scan = new String[20];
+        for (int i = 0; i < scan.length; i++)
+            scan[i] = "scan" + i;
+
+        // Run
+        List<String> victims = add(policy, cached, 10, scan);
+
+        // Verify
+        assertEquals("Every scanned entry should cause one eviction", scan.length, victims.size());
+        for (int i = 0; i < 9; i++)
+            assertFalse("Frequently used entries should survive the scan", victims.contains("hot" + i));
+    }
+
+    @Test
+    public void testTinyLfu_remove() {
+        // Setup
+        EvictionPolicy<String> policy = new TinyLfuEvictionPolicy<String>();
+        policy.attach(10);
+        add(policy, new HashSet<String>(), 10, "a", "b");
+
+        // Run
+        policy.onRemove("a");
+
+        // Verify
+        assertEquals("Removed entries should not be selected", "b", policy.selectVictim());
+        assertNull("Empty policy should not select a victim", policy.selectVictim());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAttach_shared() {
+        // Setup
+        EvictionPolicy<String> policy = new LruEvictionPolicy<String>();
+        policy.attach(10);
+
+        // Run
+        policy.attach(10);
+
+        // Verify
+        assertTrue("attach should throw an IllegalStateException", false);
+    }
+
+    /**
+     * Adds the given keys with a size of 1 each, evicting entries chosen by
+     * the policy while the cache holds more than the given maximum.
+     *
+     * @return the evicted keys
+     */
+    private static List<String> add(EvictionPolicy<String> policy, Set<String> cached, int maxSize, String... keys) {
+        List<String> victims = new ArrayList<String>();
+        for (String key : keys) {
+            policy.onAdd(key, 1);
+            cached.add(key);
+            while (cached.size() > maxSize) {
+                String victim = policy.selectVictim();
+                cached.remove(victim);
+                victims.add(victim);
+            }
+        }
+        return victims;
+    }
+
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ExpirableCacheTest {
+
+    private RecordingListener listener;
+    private ExpirableCache<String, String> cache;
+
+    @Before
+    public void setup() {
+        listener = new RecordingListener();
+        cache = new ExpirableCache<String, String>();
+        cache.setRemovalListener(listener);
+    }
+
+    @Test
+    public void testExpiry_evictsExpiredEntries() throws InterruptedException {
+        // Setup
+        cache.put("a", "1", 1);
+        cache.put("b", "2", 60);
+
+        // Run
+        List<String> expired = listener.awaitExpirations(1, 5000);
+
+        // Verify
+        assertEquals("Timing wheel should evict the expired entry", Collections.singletonList("a"), expired);
+        assertNull("Expired entry should not be returned", cache.get("a"));
+        assertEquals("Unexpired entry should be kept", "2", cache.get("b"));
+    }
+
+    @Test
+    public void testExpiry_rescheduledOnUpdate() throws InterruptedException {
+        // Setup
+        cache.put("a", "1", 1);
+
+        // Run
+        cache.put("a", "2", 60);
+
+        // Verify
+        assertTrue("Updated entry should not expire at its original deadline",
+                listener.awaitExpirations(1, 2500).isEmpty());
+        assertEquals("Updated entry should be kept", "2", cache.get("a"));
+    }
+
+    @Test
+    public void testSize_skipsExpiredEntries() throws InterruptedException {
+        // Setup
+        cache.setRemovalListener(null);
+        cache.put("a", "1", 1);
+        cache.put("b", "2", 60);
+
+        // Run
+        Thread.sleep(1100);
+
+        // Verify
+        int iterated = 0;
+        for (String ignored : cache.keySet())
+            iterated++;
+        assertEquals("size should skip expired entries", 1, cache.size());
+        assertEquals("keySet size should match its iterator", iterated, cache.keySet().size());
+        assertEquals("values size should match size", 1, cache.values().size());
+        assertEquals("entrySet size should match size", 1, cache.entrySet().size());
+        assertFalse("Cache with a live entry should not be empty", cache.isEmpty());
+    }
+
+    @Test
+    public void testIsEmpty_onlyExpiredEntries() throws InterruptedException {
+        // Setup
+        cache.setRemovalListener(null);
+        cache.put("a", "1", 1);
+
+        // Run
+        Thread.sleep(1100);
+
+        // Verify
+        assertEquals("size should skip expired entries", 0, cache.size());
+        assertTrue("Cache with only expired entries should be empty", cache.isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testEntrySet_immutableEntries() {
+        // Setup
+        cache.put("a", "1");
+        Map.Entry<String, String> entry = cache.entrySet().iterator().next();
+
+        // Run
+        entry.setValue("2");
+
+        // Verify
+        assertTrue("setValue should throw an UnsupportedOperationException", false);
+    }
+
+    @Test
+    public void testEntrySet_entryEquality() {
+        // Setup
+        cache.put("a", "1");
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("a", "1");
+
+        // Run
+        Map.Entry<String, String> entry = cache.entrySet().iterator().next();
+
+        // Verify
+        assertEquals("Entries should equal map entries with the same key and value",
+                expected.entrySet().iterator().next(), entry);
+        assertEquals("Entries should hash like map entries", expected.entrySet().iterator().next().hashCode(),
+                entry.hashCode());
+        assertEquals("Cache should equal a map with the same entries", expected, new HashMap<String, String>(cache));
+    }
+
+    @Test
+    public void testRefreshAfterWrite_servesStaleValueWhileReloading() throws InterruptedException {
+        // Setup
+        CountDownLatch release = new CountDownLatch(1);
+        CountingLoader loader = new CountingLoader("2", release);
+        cache.setRefreshAfterWrite(1, loader);
+        cache.put("a", "1", 60);
+        Thread.sleep(1100);
+
+        // Run
+        List<String> stale = new ArrayList<String>();
+        for (int i = 0; i < 3; i++)
+            stale.add(cache.get("a"));
+        release.countDown();
+
+        // Verify
+        assertEquals("Stale value should be served while reloading", Collections.nCopies(3, "1"), stale);
+        assertEquals("Reloaded value should replace the stale one", "2", awaitValue("a", "2", 5000));
+        assertEquals("Concurrent reads should trigger a single reload", 1, loader.mLoads.get());
+        assertEquals("Reload should be recorded", 1, cache.stats().loadSuccessCount());
+    }
+
+    @Test
+    public void testRefreshAfterWrite_freshEntryNotReloaded() {
+        // Setup
+        CountingLoader loader = new CountingLoader("2", new CountDownLatch(0));
+        cache.setRefreshAfterWrite(60, loader);
+        cache.put("a", "1", 120);
+
+        // Run
+        String value = cache.get("a");
+
+        // Verify
+        assertEquals("Fresh value should be returned", "1", value);
+        assertEquals("Fresh entry should not be reloaded", 0, loader.mLoads.get());
+    }
+
+    @Test
+    public void testRefreshAfterWrite_failedReloadKeepsValue() throws InterruptedException {
+        // Setup
+        cache.setRefreshAfterWrite(1, new CacheLoader<String, String>() {
+            @Override
+            public String load(String key) {
+                throw new IllegalStateException();
+            }
+        });
+        cache.put("a", "1", 60);
+        Thread.sleep(1100);
+
+        // Run
+        cache.get("a");
+        long end = System.currentTimeMillis() + 5000;
+        while (cache.stats().loadFailureCount() == 0 && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+
+        // Verify
+        assertEquals("Failed reload should be recorded", 1, cache.stats().loadFailureCount());
+        assertEquals("Current value should be kept after a failed reload", "1", cache.get("a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRefreshAfterWrite_invalidThreshold() {
+        // Run
+        cache.setRefreshAfterWrite(0, new CountingLoader("2", new CountDownLatch(0)));
+
+        // Verify
+        assertTrue("setRefreshAfterWrite should throw an IllegalArgumentException", false);
+    }
+
+    @Test
+    public void testExpirationJitter_spreadsDeadlines() {
+        // Setup
+        final List<Long> deadlines = new ArrayList<Long>();
+        ExpirableCache<String, String> weighted = new ExpirableCache<String, String>(60, 16,
+                new Weigher<String, String>() {
+                    @Override
+                    public int weigh(String key, String value) {
+                        return 1;
+                    }
+                }, 1) {
+            @Override
+            protected void entryEvicted(String key, String value, long deadline) {
+                deadlines.add(deadline);
+            }
+        };
+        weighted.setExpirationJitter(0.5);
+        long start = System.currentTimeMillis();
+
+        // Run
+        for (int i = 0; i <= 50; i++)
+            weighted.put("key" + i, "value", 100);
+        long end = System.currentTimeMillis();
+
+        // Verify
+        assertEquals("Every entry but the last should be evicted", 50, deadlines.size());
+        for (long deadline : deadlines) {
+            assertTrue("Jitter should shorten the timeout by at most half", deadline >= start + 50000);
+            assertTrue("Jitter should not extend the timeout", deadline <= end + 100000);
+        }
+        assertTrue("Deadlines should be spread out", new HashSet<Long>(deadlines).size() > 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExpirationJitter_invalid() {
+        // Run
+        cache.setExpirationJitter(1);
+
+        // Verify
+        assertTrue("setExpirationJitter should throw an IllegalArgumentException", false);
+    }
+
+    /**
+     * Polls the cache until the given key maps to the expected value or the
+     * timeout elapses, and returns the last value read.
+     */
+    @Test
+    public void testExpiry_afterAccessExtendsDeadlineOnRead() throws InterruptedException {
+        // Setup
+        cache.setExpiry(Expiry.<String, String>afterAccess(1500, TimeUnit.MILLISECONDS));
+        cache.put("a", "1");
+
+        // Run
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(500);
+            assertEquals("Entry read within its idle time should be returned", "1", cache.get("a"));
+        }
+
+        // Verify
+        assertTrue("Entry read within its idle time should not be evicted", listener.awaitExpirations(0, 0).isEmpty());
+        assertEquals("Idle entry should be evicted once its extended deadline passes",
+                Collections.singletonList("a"), listener.awaitExpirations(1, 5000));
+        assertNull("Idle entry should not be returned", cache.get("a"));
+    }
+
+    @Test
+    public void testExpiry_afterWriteIgnoresReads() throws InterruptedException {
+        // Setup
+        cache.setExpiry(Expiry.<String, String>afterWrite(500, TimeUnit.MILLISECONDS));
+        cache.put("a", "1");
+        Thread.sleep(300);
+        assertEquals("Entry should be returned before its deadline", "1", cache.get("a"));
+
+        // Run
+        Thread.sleep(300);
+        String value = cache.get("a");
+
+        // Verify
+        assertNull("Reads should not extend the deadline", value);
+    }
+
+    @Test
+    public void testExpiry_variable() throws InterruptedException {
+        // Setup
+        cache.setExpiry(new Expiry<String, String>() {
+            @Override
+            public long expireAfterCreate(String key, String value, long currentTime) {
+                return Long.parseLong(value);
+            }
+        });
+        cache.put("short", "300");
+        cache.put("long", "60000");
+
+        // Run
+        Thread.sleep(500);
+
+        // Verify
+        assertNull("Entry should expire after its own time to live", cache.get("short"));
+        assertEquals("Entry with a longer time to live should be kept", "60000", cache.get("long"));
+    }
+
+    @Test
+    public void testExpiry_update() {
+        // Setup
+        final List<String> calls = new ArrayList<String>();
+        cache.setExpiry(new Expiry<String, String>() {
+            @Override
+            public long expireAfterCreate(String key, String value, long currentTime) {
+                calls.add("create " + value);
+                return 60000;
+            }
+
+            @Override
+            public long expireAfterUpdate(String key, String value, long currentTime, long currentDuration) {
+                calls.add("update " + value);
+                return currentDuration;
+            }
+        });
+        cache.put("a", "1");
+
+        // Run
+        String previous = cache.put("a", "2");
+
+        // Verify
+        assertEquals("put should return the replaced value", "1", previous);
+        assertEquals("Replacing a live entry should be treated as an update", Arrays.asList("create 1", "update 2"),
+                calls);
+        assertEquals("Updated value should be returned", "2", cache.get("a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExpiry_invalidDuration() {
+        // Run
+        Expiry.afterAccess(0, TimeUnit.SECONDS);
+
+        // Verify
+        assertTrue("afterAccess should throw an IllegalArgumentException", false);
+    }
+
+    @Test
+    public void testRemovalListener_explicitAndReplaced() throws InterruptedException {
+        // Setup
+        cache.put("a", "1");
+        cache.put("a", "2");
+
+        // Run
+        cache.remove("a");
+
+        // Verify
+        List<RemovalNotification<String, String>> notifications = listener.awaitNotifications(2, 5000);
+        assertEquals("Every removal should be delivered", 2, notifications.size());
+        assertEquals("Replacement should be delivered first", RemovalCause.REPLACED, notifications.get(0).getCause());
+        assertEquals("Replaced value should be delivered", "1", notifications.get(0).getValue());
+        assertEquals("Explicit removal should be delivered", RemovalCause.EXPLICIT, notifications.get(1).getCause());
+        assertEquals("Removed value should be delivered", "2", notifications.get(1).getValue());
+        assertEquals("Removed key should be delivered", "a", notifications.get(1).getKey());
+        assertNull("Memory removals should not carry a disk name", notifications.get(1).getDiskName());
+        assertFalse("Explicit removals should not be evictions", notifications.get(1).wasEvicted());
+    }
+
+    @Test
+    public void testRemovalListener_size() throws InterruptedException {
+        // Setup
+        ExpirableCache<String, String> weighted = new ExpirableCache<String, String>(60, 16,
+                new Weigher<String, String>() {
+                    @Override
+                    public int weigh(String key, String value) {
+                        return 1;
+                    }
+                }, 2);
+        weighted.setRemovalListener(listener);
+        weighted.put("a", "1");
+        weighted.put("b", "2");
+
+        // Run
+        weighted.put("c", "3");
+
+        // Verify
+        List<RemovalNotification<String, String>> notifications = listener.awaitNotifications(1, 5000);
+        assertEquals("Eviction should be delivered", 1, notifications.size());
+        assertEquals("Least recently used entry should be evicted", "a", notifications.get(0).getKey());
+        assertEquals("Eviction should be caused by size", RemovalCause.SIZE, notifications.get(0).getCause());
+        assertTrue("Size removals should be evictions", notifications.get(0).wasEvicted());
+    }
+
+    @Test
+    public void testRemovalListener_expired() throws InterruptedException {
+        // Setup
+        cache.put("a", "1", 1);
+
+        // Run
+        List<RemovalNotification<String, String>> notifications = listener.awaitNotifications(1, 5000);
+
+        // Verify
+        assertEquals("Expiration should be delivered", 1, notifications.size());
+        assertEquals("Expired value should be delivered", "1", notifications.get(0).getValue());
+        assertEquals("Removal should be caused by expiration", RemovalCause.EXPIRED, notifications.get(0).getCause());
+    }
+
+    private String awaitValue(String key, String expected, long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        String value = cache.get(key);
+        while (!expected.equals(value) && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+            value = cache.get(key);
+        }
+        return value;
+    }
+
+    private static class RecordingListener implements RemovalListener<String, String> {
+
+        private final List<String> mExpired = new ArrayList<String>();
+        private final List<RemovalNotification<String, String>> mNotifications =
+                new ArrayList<RemovalNotification<String, String>>();
+
+        @Override
+        public synchronized void onRemoval(List<RemovalNotification<String, String>> notifications) {
+            mNotifications.addAll(notifications);
+            for (RemovalNotification<String, String> notification : notifications) {
+                if (notification.getCause() == RemovalCause.EXPIRED)
+                    mExpired.add(notification.getKey());
+            }
+            notifyAll();
+        }
+
+        /**
+         * Waits for the given number of expirations and returns the keys
+         * expired so far.
+         */
+        synchronized List<String> awaitExpirations(int count, long timeoutMillis) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeoutMillis;
+            while (mExpired.size() < count) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                    break;
+                wait(wait);
+            }
+            return new ArrayList<String>(mExpired);
+        }
+
+        /**
+         * Waits for the given number of removals and returns the removals
+         * delivered so far.
+         */
+        synchronized List<RemovalNotification<String, String>> awaitNotifications(int count, long timeoutMillis)
+                throws InterruptedException {
+            long end = System.currentTimeMillis() + timeoutMillis;
+            while (mNotifications.size() < count) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                    break;
+                wait(wait);
+            }
+            return new ArrayList<RemovalNotification<String, String>>(mNotifications);
+        }
+
+    }
+
+    private static class CountingLoader implements CacheLoader<String, String> {
+
+        private final AtomicInteger mLoads = new AtomicInteger();
+        private final String mValue;
+        private final CountDownLatch mRelease;
+
+        CountingLoader(String value, CountDownLatch release) {
+            mValue = value;
+            mRelease = release;
+        }
+
+        @Override
+        public String load(String key) throws InterruptedException {
+            mLoads.incrementAndGet();
+            mRelease.await();
+            return mValue;
+        }
+
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class HotSetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHottest() {
+        // Setup
+        HotSet<String> hotSet = new HotSet<String>(2);
+        for (int i = 0; i < 3; i++)
+            hotSet.recordAccess("a");
+        hotSet.recordAccess("b");
+        hotSet.recordAccess("c");
+        hotSet.recordAccess("c");
+
+        // Run
+        List<String> hottest = hotSet.hottest();
+
+        // Verify
+        assertEquals("Hottest keys should be ranked by frequency", Arrays.asList("a", "c"), hottest);
+    }
+
+    @Test
+    public void testSave_roundTrip() throws IOException {
+        // Setup
+        File directory = folder.getRoot();
+        List<Object> keys = Arrays.<Object>asList("a", 42, 7L);
+
+        // Run
+        HotSet.save(directory, keys);
+
+        // Verify
+        assertEquals("Saved keys should be loaded in order", keys, HotSet.load(directory));
+        assertEquals("Only the hot set file should remain", Collections.singletonList(HotSet.FILE_NAME),
+                Arrays.asList(directory.list()));
+    }
+
+    @Test
+    public void testSave_skipsUnserializableKeys() throws IOException {
+        // Setup
+        File directory = folder.getRoot();
+
+        // Run
+        HotSet.save(directory, Arrays.asList("a", new Object(), new UnserializableField(), "b"));
+
+        // Verify
+        assertEquals("Keys which fail to serialize should be skipped", Arrays.<Object>asList("a", "b"),
+                HotSet.load(directory));
+    }
+
+    @Test
+    public void testLoad_missing() throws IOException {
+        // Run
+        List<Object> keys = HotSet.load(folder.getRoot());
+
+        // Verify
+        assertTrue("Missing hot set should load as empty", keys.isEmpty());
+    }
+
+    private static class UnserializableField implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @SuppressWarnings("unused")
+        private final Object mField = new Object();
+
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class JournaledDiskStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private JournaledDiskStore<String> diskStore;
+
+    @Before
+    public void setup() throws IOException {
+        directory = folder.newFolder("journal");
+        diskStore = new JournaledDiskStore<String>(directory, new StringCodec());
+    }
+
+    @After
+    public void tearDown() {
+        diskStore.close();
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        // Setup
+        diskStore.write("a", "1");
+        diskStore.write("b", "2");
+        diskStore.write("a", "3");
+        diskStore.delete("b");
+        diskStore.close();
+
+        // Run
+        diskStore = new JournaledDiskStore<String>(directory, new StringCodec());
+
+        // Verify
+        assertEquals("Replay should restore the latest value", "3", diskStore.read("a"));
+        assertFalse("Replay should apply tombstones", diskStore.contains("b"));
+        assertNull("Deleted entry should not be readable", diskStore.read("b"));
+        assertEquals("Replay should restore the live names", Collections.singletonList("a"), diskStore.names());
+    }
+
+    @Test
+    public void testReplay_multipleSegments() throws IOException {
+        // Setup
+        diskStore.close();
+        diskStore = new JournaledDiskStore<String>(directory, new StringCodec(), 64);
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 20; i++)
+            values.put("key" + i, "value" + i);
+        for (Map.Entry<String, String> entry : values.entrySet())
+            diskStore.write(entry.getKey(), entry.getValue());
+        diskStore.close();
+
+        // Run
+        diskStore = new JournaledDiskStore<String>(directory, new StringCodec(), 64);
+
+        // Verify
+        assertTrue("Entries should be spread over several segments", segments().length > 1);
+        assertEquals("Replay should restore entries from all segments", values, diskStore.readAll(values.keySet()));
+    }
+
+    @Test
+    public void testReplay_tornHeader() throws IOException {
+        // Setup
+        diskStore.write("a", "1");
+        diskStore.write("b", "2");
+        diskStore.close();
+        File segment = segments()[0];
+        long length = segment.length();
+        append(segment, new byte[] {0x49, 0x4E, 0x46, 0x4A, 0, 0, 0});
+
+        // Run
+        diskStore = new JournaledDiskStore<String>(directory, new StringCodec());
+
+        // Verify
+        assertEquals("Torn tail should be truncated", length, segment.length());
+        assertEquals("Records before the torn tail should be restored", "1", diskStore.read("a"));
+        assertEquals("Records before the torn tail should be restored", "2", diskStore.read("b"));
+    }
+
+    @Test
+    public void testReplay_corruptRecord() throws IOException {
+        // Setup
+        diskStore.write("a", "1");
+        diskStore.close();
+        File segment = segments()[0];
+        long length = segment.length();
+        diskStore = new JournaledDiskStore<String>(directory, new StringCodec());
+        diskStore.write("b", "2");
+        diskStore.close();
+        flipLastByte(segment);
+
+        // Run
+        diskStore = new JournaledDiskStore<String>(directory, new StringCodec());
+
+        // Verify
+        assertEquals("Corrupt record should be truncated", length, segment.length());
+        assertEquals("Records before the corrupt record should be restored", "1", diskStore.read("a"));
+        assertFalse("Corrupt record should not be restored", diskStore.contains("b"));
+    }
+
+    @Test
+    public void testReplay_writeAfterTruncation() throws IOException {
+        // Setup
+        diskStore.write("a", "1");
+        diskStore.close();
+        append(segments()[0], new byte[] {1, 2, 3});
+        diskStore = new JournaledDiskStore<String>(directory, new StringCodec());
+
+        // Run
+        diskStore.write("b", "2");
+        diskStore.close();
+        diskStore = new JournaledDiskStore<String>(directory, new StringCodec());
+
+        // Verify
+        assertEquals("Records written before the truncation should be restored", "1", diskStore.read("a"));
+        assertEquals("Records written after the truncation should be restored", "2", diskStore.read("b"));
+    }
+
+    @Test
+    public void testClear_pendingCompaction() throws Exception {
+        // Setup
+        diskStore.close();
+        diskStore = new JournaledDiskStore<String>(directory, new StringCodec(), 64);
+        for (int i = 0; i < 6; i++)
+            diskStore.write("key" + i, "value" + i);
+        synchronized (diskStore) {
+            // Queue a compaction of the first segment which can only run after the clear
+            diskStore.delete("key0");
+            diskStore.delete("key1");
+
+            // Run
+            diskStore.clear();
+        }
+        Thread.sleep(200);
+        diskStore.write("a", "1");
+        diskStore.close();
+        diskStore = new JournaledDiskStore<String>(directory, new StringCodec(), 64);
+
+        // Verify
+        assertEquals("Entry written after the clear should survive the compaction", "1", diskStore.read("a"));
+        assertEquals("Only the entry written after the clear should remain", Collections.singletonList("a"),
+                diskStore.names());
+    }
+
+    private File[] segments() {
+        File[] segments = directory.listFiles();
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static void append(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void flipLastByte(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xff);
+        } finally {
+            raf.close();
+        }
+    }
+
+}
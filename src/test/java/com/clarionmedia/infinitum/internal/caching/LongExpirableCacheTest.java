@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class LongExpirableCacheTest {
+
+    private LongExpirableCache<String> cache;
+
+    @Before
+    public void setup() {
+        cache = new LongExpirableCache<String>(60, 3);
+    }
+
+    @Test
+    public void testGet_expired() throws InterruptedException {
+        // Setup
+        cache.put(1L, "1", 1);
+        cache.put(2L, "2");
+        Thread.sleep(1100);
+
+        // Run
+        String value = cache.get(1L);
+
+        // Verify
+        assertNull("Expired entry should not be returned", value);
+        assertEquals("Expired entry should be removed on access", 1, cache.size());
+        assertEquals("Unexpired entry should be returned", "2", cache.get(2L));
+        assertEquals("Expiration should be counted", 1, cache.stats().removalCount(RemovalCause.EXPIRED));
+    }
+
+    @Test
+    public void testContainsKey_expired() throws InterruptedException {
+        // Setup
+        cache.put(1L, "1", 1);
+        Thread.sleep(1100);
+
+        // Run
+        boolean contains = cache.containsKey(1L);
+
+        // Verify
+        assertFalse("Expired entry should not be contained", contains);
+    }
+
+    @Test
+    public void testPut_replaceExpired() throws InterruptedException {
+        // Setup
+        cache.put(1L, "1", 1);
+        Thread.sleep(1100);
+
+        // Run
+        String previous = cache.put(1L, "one");
+
+        // Verify
+        assertNull("Replacing an expired entry should not return it", previous);
+        assertEquals("New value should be returned", "one", cache.get(1L));
+    }
+
+    @Test
+    public void testPut_evictsLeastRecentlyUsed() {
+        // Setup
+        cache.put(1L, "1");
+        cache.put(2L, "2");
+        cache.put(3L, "3");
+        cache.get(1L);
+
+        // Run
+        cache.put(4L, "4");
+
+        // Verify
+        assertEquals("Cache should contain 3 entries", 3, cache.size());
+        assertFalse("Least recently used entry should be evicted", cache.containsKey(2L));
+        assertEquals("Eviction should be counted", 1, cache.stats().removalCount(RemovalCause.SIZE));
+    }
+
+    @Test
+    public void testCleanUp() throws InterruptedException {
+        // Setup
+        cache.put(1L, "1", 1);
+        cache.put(2L, "2");
+        cache.put(3L, "3", 1);
+        Thread.sleep(1100);
+
+        // Run
+        cache.cleanUp();
+
+        // Verify
+        assertEquals("Expired entries should be removed", 1, cache.size());
+        assertEquals("Unexpired entry should be kept", "2", cache.get(2L));
+        assertEquals("Expirations should be counted", 2, cache.stats().removalCount(RemovalCause.EXPIRED));
+    }
+
+    @Test
+    public void testTrimMemory() {
+        // Setup
+        cache.put(1L, "1");
+        cache.put(2L, "2");
+        cache.get(1L);
+
+        // Run
+        cache.trimMemory(0.5f);
+
+        // Verify
+        assertEquals("Trimming half should keep 1 entry", 1, cache.size());
+        assertTrue("Recently used entry should be kept", cache.containsKey(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidExpiration() {
+        // Run
+        new LongExpirableCache<String>(0, 3);
+
+        // Verify
+        assertTrue("Constructor should throw an IllegalArgumentException", false);
+    }
+
+}
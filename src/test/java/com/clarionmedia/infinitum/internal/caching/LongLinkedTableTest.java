@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class LongLinkedTableTest {
+
+    @Test
+    public void testRemoveAt() {
+        // Setup
+        LongLinkedTable table = new LongLinkedTable(16, true);
+        for (long key = 1; key <= 5; key++)
+            table.put(key, "value" + key, key * 100);
+
+        // Run
+        Object removed = table.removeAt(table.indexOf(3));
+
+        // Verify
+        assertEquals("removeAt should return the removed value", "value3", removed);
+        assertEquals("Removed key should be absent", LongLinkedTable.NONE, table.indexOf(3));
+        assertEquals("Size should shrink", 4, table.size());
+        assertEquals("Access order should skip the removed key", Arrays.asList(1L, 2L, 4L, 5L), keys(table));
+        assertEquals("Remaining deadlines should be kept", 500, table.deadlineAt(table.indexOf(5)));
+    }
+
+    @Test
+    public void testRemoveAt_keepsProbeChainsIntact() {
+        // Setup
+        LongLinkedTable table = new LongLinkedTable(48, true);
+        Map<Long, String> expected = new LinkedHashMap<Long, String>(16, 0.75f, true);
+        Random random = new Random(42);
+
+        // Run
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextInt(64);
+            int slot = table.indexOf(key);
+            int operation = random.nextInt(3);
+            if (operation == 0 && slot != LongLinkedTable.NONE) {
+                assertEquals("removeAt should return the removed value", expected.remove(key), table.removeAt(slot));
+            } else if (operation == 1 && slot != LongLinkedTable.NONE) {
+                table.touch(slot);
+                expected.get(key);
+            } else if (slot != LongLinkedTable.NONE || expected.size() < 48) {
+                table.put(key, "value" + i, i);
+                expected.put(key, "value" + i);
+            }
+
+            // Verify
+            assertEquals("Size should match", expected.size(), table.size());
+            // Look up values in a copy, since reading the model reorders it
+            Map<Long, String> values = new HashMap<Long, String>(expected);
+            for (long candidate = 0; candidate < 64; candidate++) {
+                int index = table.indexOf(candidate);
+                if (values.containsKey(candidate))
+                    assertEquals("Present key should be found", values.get(candidate), table.valueAt(index));
+                else
+                    assertEquals("Absent key should not be found", LongLinkedTable.NONE, index);
+            }
+            assertEquals("Access order should match", new ArrayList<Long>(expected.keySet()), keys(table));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        // Setup
+        LongLinkedTable table = new LongLinkedTable(100, false);
+        for (long key = 0; key < 100; key++)
+            table.put(key, key, 0);
+
+        // Run
+        table.clear();
+
+        // Verify
+        assertEquals("Cleared table should be empty", 0, table.size());
+        assertEquals("Cleared table should have no eldest entry", LongLinkedTable.NONE, table.eldest());
+        assertEquals("Cleared keys should be absent", LongLinkedTable.NONE, table.indexOf(42));
+    }
+
+    private static List<Long> keys(LongLinkedTable table) {
+        List<Long> keys = new ArrayList<Long>();
+        for (int slot = table.eldest(); slot != LongLinkedTable.NONE; slot = table.newer(slot))
+            keys.add(table.keyAt(slot));
+        return keys;
+    }
+
+}
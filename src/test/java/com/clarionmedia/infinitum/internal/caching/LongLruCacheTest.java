@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class LongLruCacheTest {
+
+    private LongLruCache<String> cache;
+
+    @Before
+    public void setup() {
+        cache = new LongLruCache<String>(3);
+    }
+
+    @Test
+    public void testPut_evictsLeastRecentlyUsed() {
+        // Setup
+        cache.put(1L, "1");
+        cache.put(2L, "2");
+        cache.put(3L, "3");
+        cache.get(1L);
+
+        // Run
+        cache.put(4L, "4");
+
+        // Verify
+        assertEquals("Cache should contain 3 entries", 3, cache.size());
+        assertFalse("Least recently used entry should be evicted", cache.containsKey(2L));
+        assertEquals("Recently used entry should be kept", "1", cache.get(1L));
+        assertEquals("Eviction should be counted", 1, cache.stats().removalCount(RemovalCause.SIZE));
+    }
+
+    @Test
+    public void testPut_replace() {
+        // Setup
+        cache.put(1L, "1");
+        cache.put(2L, "2");
+        cache.put(3L, "3");
+
+        // Run
+        String previous = cache.put(1L, "one");
+
+        // Verify
+        assertEquals("put should return the replaced value", "1", previous);
+        assertEquals("Replacing should not evict", 3, cache.size());
+        assertEquals("Replaced value should be returned", "one", cache.get(1L));
+        assertEquals("Replacement should be counted", 1, cache.stats().removalCount(RemovalCause.REPLACED));
+    }
+
+    @Test
+    public void testRemove() {
+        // Setup
+        cache.put(Long.MIN_VALUE, "min");
+        cache.put(0L, "zero");
+
+        // Run
+        String removed = cache.remove(Long.MIN_VALUE);
+
+        // Verify
+        assertEquals("remove should return the removed value", "min", removed);
+        assertNull("Removed key should not be cached", cache.get(Long.MIN_VALUE));
+        assertEquals("Other keys should be kept", "zero", cache.get(0L));
+    }
+
+    @Test
+    public void testStats() {
+        // Setup
+        cache.put(1L, "1");
+
+        // Run
+        cache.get(1L);
+        cache.get(2L);
+
+        // Verify
+        assertEquals("Hit should be counted", 1, cache.stats().hitCount());
+        assertEquals("Miss should be counted", 1, cache.stats().missCount());
+    }
+
+    @Test
+    public void testTrimMemory() {
+        // Setup
+        LongLruCache<String> cache = new LongLruCache<String>(4);
+        for (long key = 1; key <= 4; key++)
+            cache.put(key, String.valueOf(key));
+        cache.get(1L);
+
+        // Run
+        cache.trimMemory(0.5f);
+
+        // Verify
+        assertEquals("Trimming half should keep 2 entries", 2, cache.size());
+        assertTrue("Recently used entry should be kept", cache.containsKey(1L));
+        assertTrue("Recently used entry should be kept", cache.containsKey(4L));
+        assertEquals("Trimmed entries should be counted", 2,
+                cache.stats().removalCount(RemovalCause.MEMORY_PRESSURE));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testPut_nullValue() {
+        // Run
+        cache.put(1L, null);
+
+        // Verify
+        assertTrue("put should throw a NullPointerException", false);
+    }
+
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class LruCacheTest {
+
+    private LruCache<String, String> cache;
+
+    @Before
+    public void setup() {
+        cache = new LruCache<String, String>(3);
+    }
+
+    @Test
+    public void testSnapshot_accessOrder() {
+        // Setup
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        cache.get("a");
+
+        // Run
+        Map<String, String> snapshot = cache.snapshot();
+
+        // Verify
+        assertEquals("Snapshot should be ordered from least to most recently accessed",
+                Arrays.asList("b", "c", "a"), new ArrayList<String>(snapshot.keySet()));
+        assertEquals("Snapshot values should follow the key order", Arrays.asList("2", "3", "1"),
+                new ArrayList<String>(snapshot.values()));
+    }
+
+    @Test
+    public void testViews_accessOrder() {
+        // Setup
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        cache.get("b");
+        cache.get("a");
+
+        // Run
+        List<String> keys = new ArrayList<String>(cache.keySet());
+        List<String> values = new ArrayList<String>(cache.values());
+        List<String> entryKeys = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : cache.entrySet())
+            entryKeys.add(entry.getKey());
+
+        // Verify
+        assertEquals("keySet should be ordered from least to most recently accessed",
+                Arrays.asList("c", "b", "a"), keys);
+        assertEquals("values should be ordered from least to most recently accessed",
+                Arrays.asList("3", "2", "1"), values);
+        assertEquals("entrySet should be ordered from least to most recently accessed",
+                Arrays.asList("c", "b", "a"), entryKeys);
+    }
+
+    @Test
+    public void testSnapshot_policyWithoutOrder() {
+        // Setup
+        LruCache<String, String> unordered = new LruCache<String, String>(3, new FifoEvictionPolicy());
+        unordered.put("a", "1");
+        unordered.put("b", "2");
+
+        // Run
+        Map<String, String> snapshot = unordered.snapshot();
+
+        // Verify
+        assertEquals("Snapshot should contain every entry", 2, snapshot.size());
+        assertEquals("Snapshot should contain every entry", "1", snapshot.get("a"));
+        assertEquals("Snapshot should contain every entry", "2", snapshot.get("b"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testKeySet_unmodifiable() {
+        // Setup
+        cache.put("a", "1");
+
+        // Run
+        cache.keySet().remove("a");
+
+        // Verify
+        assertTrue("keySet should throw an UnsupportedOperationException", false);
+    }
+
+    @Test
+    public void testGet_hitsCountedOnce() {
+        // Setup
+        cache.put("a", "1");
+
+        // Run
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+
+        // Verify
+        assertEquals("hitCount should be 2", 2, cache.hitCount());
+        assertEquals("missCount should be 1", 1, cache.missCount());
+        assertEquals("Policy hit count should be 2", 2, cache.policyStats().hitCount());
+        assertEquals("Policy miss count should be 1", 1, cache.policyStats().missCount());
+        assertEquals("Memory hit count should be 2", 2, cache.stats().memoryHitCount());
+        assertEquals("Miss count should be 1", 1, cache.stats().missCount());
+    }
+
+    @Test
+    public void testGet_concurrentHits() throws InterruptedException {
+        // Setup
+        final int threads = 4;
+        final int reads = 1000;
+        cache.put("a", "1");
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            readers.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < reads; j++)
+                        cache.get("a");
+                }
+            });
+        }
+
+        // Run
+        for (Thread reader : readers)
+            reader.start();
+        for (Thread reader : readers)
+            reader.join();
+
+        // Verify
+        assertEquals("Every concurrent hit should be counted", threads * reads, cache.hitCount());
+        assertEquals("Every concurrent hit should be counted", threads * reads, cache.stats().memoryHitCount());
+    }
+
+    @Test
+    public void testPut_evictsLeastRecentlyUsed() {
+        // Setup
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        cache.get("a");
+
+        // Run
+        cache.put("d", "4");
+
+        // Verify
+        assertEquals("Cache should contain 3 entries", 3, cache.size());
+        assertFalse("Least recently used entry should be evicted", cache.containsKey("b"));
+        assertEquals("evictionCount should be 1", 1, cache.evictionCount());
+        assertEquals("Policy eviction count should be 1", 1, cache.policyStats().evictionCount());
+    }
+
+    @Test
+    public void testTrimMemory_evictsLeastRecentlyUsed() {
+        // Setup
+        LruCache<String, String> cache = new LruCache<String, String>(4);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        cache.put("d", "4");
+        cache.get("a");
+
+        // Run
+        cache.trimMemory(0.5f);
+
+        // Verify
+        assertEquals("Trimming half should keep 2 entries", 2, cache.size());
+        assertTrue("Recently used entry should be kept", cache.containsKey("a"));
+        assertTrue("Recently used entry should be kept", cache.containsKey("d"));
+        assertFalse("Least recently used entry should be trimmed", cache.containsKey("b"));
+        assertFalse("Least recently used entry should be trimmed", cache.containsKey("c"));
+    }
+
+    @Test
+    public void testTrimMemory_all() {
+        // Setup
+        cache.put("a", "1");
+        cache.put("b", "2");
+
+        // Run
+        cache.trimMemory(1);
+
+        // Verify
+        assertEquals("Trimming everything should empty the cache", 0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTrimMemory_invalidFraction() {
+        // Run
+        cache.trimMemory(1.5f);
+
+        // Verify
+        assertTrue("trimMemory should throw an IllegalArgumentException", false);
+    }
+
+    @Test
+    public void testGetWithLoader_loadsAndCaches() {
+        // Setup
+        CountingLoader loader = new CountingLoader();
+
+        // Run
+        String first = cache.get("a", loader);
+        String second = cache.get("a", loader);
+
+        // Verify
+        assertEquals("Loaded value should be returned", "value-a", first);
+        assertEquals("Cached value should be returned", "value-a", second);
+        assertEquals("Value should only be loaded once", 1, loader.mLoads.get());
+        assertEquals("Load should be recorded", 1, cache.stats().loadSuccessCount());
+        assertEquals("Loaded value should be cached", "value-a", cache.get("a"));
+    }
+
+    @Test
+    public void testGetWithLoader_nullNotCached() {
+        // Setup
+        CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+            @Override
+            public String load(String key) {
+                return null;
+            }
+        };
+
+        // Run
+        String value = cache.get("a", loader);
+
+        // Verify
+        assertNull("Missing value should be returned as null", value);
+        assertFalse("Missing value should not be cached", cache.containsKey("a"));
+        assertEquals("Missing value should be recorded as a failed load", 1, cache.stats().loadFailureCount());
+    }
+
+    @Test
+    public void testGetWithLoader_failureNotCached() {
+        // Setup
+        CacheLoader<String, String> failing = new CacheLoader<String, String>() {
+            @Override
+            public String load(String key) {
+                throw new IllegalStateException();
+            }
+        };
+        try {
+            cache.get("a", failing);
+        } catch (IllegalStateException ignored) {
+        }
+        CountingLoader loader = new CountingLoader();
+
+        // Run
+        String value = cache.get("a", loader);
+
+        // Verify
+        assertEquals("Value should be loaded again after a failure", "value-a", value);
+        assertEquals("Failed load should be recorded", 1, cache.stats().loadFailureCount());
+    }
+
+    @Test
+    public void testGetWithLoader_concurrentMisses() throws InterruptedException {
+        // Setup
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingLoader loader = new CountingLoader(release);
+        List<Thread> callers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            callers.add(new Thread() {
+                @Override
+                public void run() {
+                    cache.get("a", loader);
+                }
+            });
+        }
+
+        // Run
+        for (Thread caller : callers)
+            caller.start();
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread caller : callers)
+            caller.join(5000);
+
+        // Verify
+        assertEquals("Concurrent misses should be loaded once", 1, loader.mLoads.get());
+        assertEquals("Loaded value should be cached", "value-a", cache.get("a"));
+    }
+
+    /**
+     * A policy which does not report its eviction order.
+     */
+    private static class FifoEvictionPolicy extends EvictionPolicy<String> {
+
+        private final LinkedList<String> mKeys = new LinkedList<String>();
+
+        public FifoEvictionPolicy() {
+            super("FIFO");
+        }
+
+        @Override
+        protected void onAdd(String key, int size) {
+            mKeys.addLast(key);
+        }
+
+        @Override
+        protected void onAccess(String key) {
+        }
+
+        @Override
+        protected void onRemove(String key) {
+            mKeys.remove(key);
+        }
+
+        @Override
+        protected String selectVictim() {
+            return mKeys.poll();
+        }
+
+    }
+
+    private static class CountingLoader implements CacheLoader<String, String> {
+
+        private final AtomicInteger mLoads = new AtomicInteger();
+        private final CountDownLatch mRelease;
+
+        CountingLoader() {
+            this(new CountDownLatch(0));
+        }
+
+        CountingLoader(CountDownLatch release) {
+            mRelease = release;
+        }
+
+        @Override
+        public String load(String key) throws InterruptedException {
+            mLoads.incrementAndGet();
+            mRelease.await();
+            return "value-" + key;
+        }
+
+    }
+
+}
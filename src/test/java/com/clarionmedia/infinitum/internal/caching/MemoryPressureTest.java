@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class MemoryPressureTest {
+
+    private final List<RecordingCache> registered = new ArrayList<RecordingCache>();
+
+    @After
+    public void tearDown() {
+        for (RecordingCache cache : registered)
+            MemoryPressure.unregister(cache);
+    }
+
+    @Test
+    public void testOnTrimMemory() throws InterruptedException {
+        // Setup
+        RecordingCache cache = register(new RecordingCache());
+
+        // Run
+        MemoryPressure.onTrimMemory(MemoryPressure.TRIM_MEMORY_BACKGROUND);
+
+        // Verify
+        assertTrue("Registered cache should be trimmed", cache.await());
+        assertEquals("Cache should be trimmed by the fraction of the level", Collections.singletonList(0.5f),
+                cache.fractions());
+    }
+
+    @Test
+    public void testOnLowMemory() throws InterruptedException {
+        // Setup
+        RecordingCache cache = register(new RecordingCache());
+
+        // Run
+        MemoryPressure.onLowMemory();
+
+        // Verify
+        assertTrue("Registered cache should be trimmed", cache.await());
+        assertEquals("Low memory should drop all in-memory entries", Collections.singletonList(1f), cache.fractions());
+    }
+
+    @Test
+    public void testOnTrimMemory_levelWithoutTrim() throws InterruptedException {
+        // Setup
+        RecordingCache cache = register(new RecordingCache());
+
+        // Run
+        MemoryPressure.onTrimMemory(0);
+        MemoryPressure.onTrimMemory(MemoryPressure.TRIM_MEMORY_COMPLETE);
+
+        // Verify
+        assertTrue("Registered cache should be trimmed", cache.await());
+        assertEquals("Levels below the lowest trim level should not trim", Collections.singletonList(1f),
+                cache.fractions());
+    }
+
+    @Test
+    public void testRegister_twice() throws InterruptedException {
+        // Setup
+        RecordingCache cache = register(new RecordingCache());
+        MemoryPressure.register(cache);
+        RecordingCache last = register(new RecordingCache());
+
+        // Run
+        MemoryPressure.onLowMemory();
+
+        // Verify
+        assertTrue("Registered cache should be trimmed", last.await());
+        assertEquals("Cache registered twice should be trimmed once", 1, cache.fractions().size());
+    }
+
+    @Test
+    public void testUnregister() throws InterruptedException {
+        // Setup
+        RecordingCache cache = register(new RecordingCache());
+        RecordingCache last = register(new RecordingCache());
+        MemoryPressure.unregister(cache);
+
+        // Run
+        MemoryPressure.onLowMemory();
+
+        // Verify
+        assertTrue("Registered cache should be trimmed", last.await());
+        assertTrue("Unregistered cache should not be trimmed", cache.fractions().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegister_null() {
+        // Run
+        MemoryPressure.register(null);
+
+        // Verify
+        assertTrue("register should throw an IllegalArgumentException", false);
+    }
+
+    @Test
+    public void testFractionFor() {
+        // Run
+        List<Float> fractions = Arrays.asList(MemoryPressure.fractionFor(0),
+                MemoryPressure.fractionFor(MemoryPressure.TRIM_MEMORY_RUNNING_MODERATE),
+                MemoryPressure.fractionFor(MemoryPressure.TRIM_MEMORY_RUNNING_LOW),
+                MemoryPressure.fractionFor(MemoryPressure.TRIM_MEMORY_RUNNING_CRITICAL),
+                MemoryPressure.fractionFor(MemoryPressure.TRIM_MEMORY_UI_HIDDEN),
+                MemoryPressure.fractionFor(MemoryPressure.TRIM_MEMORY_BACKGROUND),
+                MemoryPressure.fractionFor(MemoryPressure.TRIM_MEMORY_MODERATE),
+                MemoryPressure.fractionFor(MemoryPressure.TRIM_MEMORY_COMPLETE));
+
+        // Verify
+        assertEquals("Fractions should follow the trim levels", Arrays.asList(0f, 0.1f, 0.25f, 0.5f, 0.25f, 0.5f,
+                0.75f, 1f), fractions);
+    }
+
+    private RecordingCache register(RecordingCache cache) {
+        MemoryPressure.register(cache);
+        registered.add(cache);
+        return cache;
+    }
+
+    private static class RecordingCache implements MemoryPressure.Trimmable {
+
+        private final List<Float> mFractions = new ArrayList<Float>();
+        private final CountDownLatch mTrimmed = new CountDownLatch(1);
+
+        @Override
+        public void trimMemory(float fraction) {
+            synchronized (mFractions) {
+                mFractions.add(fraction);
+            }
+            mTrimmed.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return mTrimmed.await(5, TimeUnit.SECONDS);
+        }
+
+        List<Float> fractions() {
+            synchronized (mFractions) {
+                return new ArrayList<Float>(mFractions);
+            }
+        }
+
+    }
+
+}
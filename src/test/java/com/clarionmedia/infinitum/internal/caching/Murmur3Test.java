@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.UnsupportedEncodingException;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class Murmur3Test {
+
+    @Test
+    public void testHash128_empty() throws UnsupportedEncodingException {
+        assertHash("", 0L, 0L);
+    }
+
+    @Test
+    public void testHash128_tail() throws UnsupportedEncodingException {
+        assertHash("a", 0x85555565f6597889L, 0xe6b53a48510e895aL);
+        assertHash("hello", 0xcbd8a7b341bd9b02L, 0x5b1e906a48ae1d19L);
+    }
+
+    @Test
+    public void testHash128_fullBlock() throws UnsupportedEncodingException {
+        assertHash("abcdefghijklmnop", 0xc4ca3ca3224cb723L, 0x4333d695b331eb1aL);
+    }
+
+    @Test
+    public void testHash128_blockAndTail() throws UnsupportedEncodingException {
+        assertHash("abcdefghijklmnopq", 0x7564747f88bda657L, 0xecda499da1110de4L);
+        assertHash("The quick brown fox jumps over the lazy dog", 0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L);
+    }
+
+    @Test
+    public void testHash128_multiByteCharacters() throws UnsupportedEncodingException {
+        assertHash("h\u00e9llo w\u00f6rld \u2603", 0x039a044421eb43a9L, 0x11c01762873c1c7eL);
+    }
+
+    @Test
+    public void testHashHex() {
+        // Run
+        String hex = Murmur3.hashHex("hello");
+
+        // Verify
+        assertEquals("hashHex should encode both halves big-endian", "cbd8a7b341bd9b025b1e906a48ae1d19", hex);
+    }
+
+    @Test
+    public void testHashHex_empty() {
+        // Run
+        String hex = Murmur3.hashHex("");
+
+        // Verify
+        assertEquals("hashHex should zero-pad to 32 characters", "00000000000000000000000000000000", hex);
+    }
+
+    private static void assertHash(String value, long h1, long h2) throws UnsupportedEncodingException {
+        long[] hash = Murmur3.hash128(value.getBytes("UTF-8"));
+        assertEquals("hash128 should return two longs for \"" + value + "\"", 2, hash.length);
+        assertEquals("First half of the hash of \"" + value + "\" should match", h1, hash[0]);
+        assertEquals("Second half of the hash of \"" + value + "\" should match", h2, hash[1]);
+    }
+
+}
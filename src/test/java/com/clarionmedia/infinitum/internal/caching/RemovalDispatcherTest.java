@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class RemovalDispatcherTest {
+
+    private RemovalDispatcher<Integer, String> dispatcher;
+    private RecordingListener listener;
+
+    @Before
+    public void setup() {
+        dispatcher = new RemovalDispatcher<Integer, String>();
+        listener = new RecordingListener();
+        dispatcher.setListener(listener);
+    }
+
+    @Test
+    public void testEnqueue_deliversInOrder() throws InterruptedException {
+        // Run
+        for (int i = 0; i < 300; i++)
+            dispatcher.enqueue(i, "value" + i, null, RemovalCause.EXPLICIT);
+
+        // Verify
+        List<RemovalNotification<Integer, String>> notifications = listener.await(300, 5000);
+        assertEquals("Every removal should be delivered", 300, notifications.size());
+        for (int i = 0; i < 300; i++) {
+            assertEquals("Removals should be delivered in order", Integer.valueOf(i), notifications.get(i).getKey());
+            assertEquals("Notification should carry the value", "value" + i, notifications.get(i).getValue());
+        }
+        for (int size : listener.batchSizes())
+            assertTrue("Batches should hold at most 128 removals", size <= 128);
+    }
+
+    @Test
+    public void testEnqueue_deliversOnBackgroundThread() throws InterruptedException {
+        // Run
+        dispatcher.enqueue(1, "1", null, RemovalCause.SIZE);
+
+        // Verify
+        List<RemovalNotification<Integer, String>> notifications = listener.await(1, 5000);
+        assertEquals("Removal should be delivered", 1, notifications.size());
+        assertTrue("Size removal should be an eviction", notifications.get(0).wasEvicted());
+        assertTrue("Removal should not be delivered on the removing thread",
+                listener.thread() != Thread.currentThread());
+    }
+
+    @Test
+    public void testEnqueue_diskName() throws InterruptedException {
+        // Run
+        dispatcher.enqueue(null, null, "name", RemovalCause.DISK_TRIM);
+
+        // Verify
+        RemovalNotification<Integer, String> notification = listener.await(1, 5000).get(0);
+        assertEquals("Notification should carry the disk name", "name", notification.getDiskName());
+        assertEquals("Notification should carry the cause", RemovalCause.DISK_TRIM, notification.getCause());
+    }
+
+    @Test
+    public void testEnqueue_withoutListener() throws InterruptedException {
+        // Setup
+        dispatcher.setListener(null);
+        dispatcher.enqueue(1, "1", null, RemovalCause.EXPLICIT);
+        dispatcher.setListener(listener);
+
+        // Run
+        dispatcher.enqueue(2, "2", null, RemovalCause.EXPLICIT);
+
+        // Verify
+        List<RemovalNotification<Integer, String>> notifications = listener.await(1, 5000);
+        assertEquals("Removals without a listener should not be queued", Integer.valueOf(2),
+                notifications.get(0).getKey());
+        assertEquals("Only removals with a listener should be delivered", 1, listener.await(2, 200).size());
+    }
+
+    @Test
+    public void testEnqueue_failingListener() throws InterruptedException {
+        // Setup
+        final RecordingListener delegate = listener;
+        dispatcher.setListener(new RemovalListener<Integer, String>() {
+            private boolean mFailed;
+
+            @Override
+            public void onRemoval(List<RemovalNotification<Integer, String>> notifications) {
+                if (!mFailed) {
+                    mFailed = true;
+                    throw new IllegalStateException();
+                }
+                delegate.onRemoval(notifications);
+            }
+        });
+        dispatcher.enqueue(1, "1", null, RemovalCause.EXPLICIT);
+        Thread.sleep(100);
+
+        // Run
+        dispatcher.enqueue(2, "2", null, RemovalCause.EXPLICIT);
+
+        // Verify
+        List<RemovalNotification<Integer, String>> notifications = listener.await(1, 5000);
+        assertFalse("Removals after a failing delivery should be delivered", notifications.isEmpty());
+        assertEquals("Removals after a failing delivery should be delivered", Integer.valueOf(2),
+                notifications.get(notifications.size() - 1).getKey());
+    }
+
+    private static class RecordingListener implements RemovalListener<Integer, String> {
+
+        private final List<RemovalNotification<Integer, String>> mNotifications =
+                new ArrayList<RemovalNotification<Integer, String>>();
+        private final List<Integer> mBatchSizes = new ArrayList<Integer>();
+        private Thread mThread;
+
+        @Override
+        public synchronized void onRemoval(List<RemovalNotification<Integer, String>> notifications) {
+            mNotifications.addAll(notifications);
+            mBatchSizes.add(notifications.size());
+            mThread = Thread.currentThread();
+            notifyAll();
+        }
+
+        /**
+         * Waits for the given number of removals and returns the removals
+         * delivered so far.
+         */
+        synchronized List<RemovalNotification<Integer, String>> await(int count, long timeoutMillis)
+                throws InterruptedException {
+            long end = System.currentTimeMillis() + timeoutMillis;
+            while (mNotifications.size() < count) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                    break;
+                wait(wait);
+            }
+            return new ArrayList<RemovalNotification<Integer, String>>(mNotifications);
+        }
+
+        synchronized List<Integer> batchSizes() {
+            return new ArrayList<Integer>(mBatchSizes);
+        }
+
+        synchronized Thread thread() {
+            return mThread;
+        }
+
+    }
+
+}
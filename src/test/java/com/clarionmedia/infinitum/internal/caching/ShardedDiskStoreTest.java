@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ShardedDiskStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private ShardedDiskStore<String> diskStore;
+
+    @Before
+    public void setup() throws IOException {
+        directory = folder.newFolder("sharded");
+        diskStore = new ShardedDiskStore<String>(directory, new StringCodec());
+    }
+
+    @Test
+    public void testWrite_layout() throws IOException {
+        // Run
+        diskStore.write("hello", "world");
+
+        // Verify
+        File file = new File(new File(new File(directory, "cb"), "d8"), "hello");
+        assertTrue("Entry should be written under its two-level hash shard", file.isFile());
+        assertEquals("fileFor should resolve to the sharded file", file, diskStore.fileFor("hello"));
+        assertEquals("Entry should be readable", "world", diskStore.read("hello"));
+    }
+
+    @Test
+    public void testRead_missing() throws IOException {
+        // Run
+        String value = diskStore.read("missing");
+
+        // Verify
+        assertNull("Missing entry should read as null", value);
+        assertFalse("Missing entry should not be contained", diskStore.contains("missing"));
+    }
+
+    @Test
+    public void testNames() throws IOException {
+        // Setup
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            diskStore.write("key" + i, "value" + i);
+            expected.add("key" + i);
+        }
+
+        // Run
+        List<String> names = diskStore.names();
+
+        // Verify
+        Collections.sort(expected);
+        Collections.sort(names);
+        assertEquals("names should list entries across all shards", expected, names);
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        // Setup
+        diskStore.write("a", "1");
+
+        // Run
+        boolean deleted = diskStore.delete("a");
+
+        // Verify
+        assertTrue("delete should report the removed entry", deleted);
+        assertFalse("Deleted entry should not be contained", diskStore.contains("a"));
+        assertFalse("Deleted entry should not be listed", diskStore.names().contains("a"));
+    }
+
+    @Test
+    public void testDeleteAll() throws IOException {
+        // Setup
+        for (int i = 0; i < 20; i++)
+            diskStore.write("key" + i, "value" + i);
+
+        // Run
+        int deleted = diskStore.deleteAll(Arrays.asList("key0", "key1", "key2", "absent"));
+
+        // Verify
+        assertEquals("deleteAll should count only removed entries", 3, deleted);
+        assertEquals("Remaining entries should be kept", 17, diskStore.names().size());
+        assertFalse("Deleted entry should not be contained", diskStore.contains("key1"));
+        assertTrue("Remaining entry should be contained", diskStore.contains("key3"));
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        // Setup
+        for (int i = 0; i < 20; i++)
+            diskStore.write("key" + i, "value" + i);
+
+        // Run
+        diskStore.clear();
+
+        // Verify
+        assertTrue("clear should remove all entries", diskStore.names().isEmpty());
+        assertEquals("clear should remove the shard directories", 0, directory.listFiles().length);
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.clarionmedia.infinitum.exception.InfinitumRuntimeException;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SingleFlightTest {
+
+    private SingleFlight<String, String> singleFlight;
+    private AtomicInteger calls;
+
+    @Before
+    public void setup() {
+        singleFlight = new SingleFlight<String, String>();
+        calls = new AtomicInteger();
+    }
+
+    @Test
+    public void testExecute_coalescesConcurrentCalls() throws InterruptedException {
+        // Setup
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> call = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                release.await();
+                return "value";
+            }
+        };
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> callers = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            callers.add(new Thread() {
+                @Override
+                public void run() {
+                    results.add(singleFlight.execute("key", call));
+                }
+            });
+        }
+
+        // Run
+        for (Thread caller : callers)
+            caller.start();
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread caller : callers)
+            caller.join(5000);
+
+        // Verify
+        assertEquals("Concurrent calls for the same key should run once", 1, calls.get());
+        assertEquals("Every caller should receive the result", Collections.nCopies(8, "value"), results);
+    }
+
+    @Test
+    public void testExecute_differentKeys() {
+        // Setup
+        Callable<String> call = countingCall("value");
+
+        // Run
+        singleFlight.execute("a", call);
+        singleFlight.execute("b", call);
+
+        // Verify
+        assertEquals("Calls for different keys should each run", 2, calls.get());
+    }
+
+    @Test
+    public void testExecute_completedCallsForgotten() {
+        // Setup
+        Callable<String> call = countingCall("value");
+
+        // Run
+        singleFlight.execute("key", call);
+        String result = singleFlight.execute("key", call);
+
+        // Verify
+        assertEquals("Completed call should not be reused", 2, calls.get());
+        assertEquals("Second call should return its own result", "value", result);
+    }
+
+    @Test
+    public void testExecute_runtimeExceptionPropagated() {
+        // Setup
+        final IllegalStateException failure = new IllegalStateException();
+
+        // Run
+        RuntimeException thrown = null;
+        try {
+            singleFlight.execute("key", new Callable<String>() {
+                @Override
+                public String call() {
+                    throw failure;
+                }
+            });
+        } catch (RuntimeException e) {
+            thrown = e;
+        }
+
+        // Verify
+        assertSame("Runtime exception should be rethrown as is", failure, thrown);
+    }
+
+    @Test
+    public void testExecute_checkedExceptionWrapped() {
+        // Setup
+        final IOException failure = new IOException();
+
+        // Run
+        InfinitumRuntimeException thrown = null;
+        try {
+            singleFlight.execute("key", new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    throw failure;
+                }
+            });
+        } catch (InfinitumRuntimeException e) {
+            thrown = e;
+        }
+
+        // Verify
+        assertTrue("Checked exception should be wrapped", thrown != null);
+        assertSame("Checked exception should be the cause", failure, thrown.getCause());
+    }
+
+    @Test
+    public void testExecute_failureNotCached() {
+        // Setup
+        try {
+            singleFlight.execute("key", new Callable<String>() {
+                @Override
+                public String call() {
+                    throw new IllegalStateException();
+                }
+            });
+        } catch (IllegalStateException ignored) {
+        }
+
+        // Run
+        String result = singleFlight.execute("key", countingCall("value"));
+
+        // Verify
+        assertEquals("Call after a failure should run again", 1, calls.get());
+        assertEquals("Call after a failure should return its result", "value", result);
+    }
+
+    @Test
+    public void testExecute_failurePropagatedToWaiters() throws InterruptedException {
+        // Setup
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> call = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                release.await();
+                throw new IllegalStateException("failed");
+            }
+        };
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> callers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            callers.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        singleFlight.execute("key", call);
+                    } catch (IllegalStateException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        // Run
+        for (Thread caller : callers)
+            caller.start();
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread caller : callers)
+            caller.join(5000);
+
+        // Verify
+        assertEquals("Concurrent calls for the same key should run once", 1, calls.get());
+        assertEquals("Every waiting caller should receive the failure", 4, failures.get());
+    }
+
+    private Callable<String> countingCall(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                calls.incrementAndGet();
+                return value;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SlabStoreTest {
+
+    private static final long NEVER = Long.MAX_VALUE;
+
+    private SlabStore<String> slabStore;
+
+    @Before
+    public void setup() {
+        slabStore = new SlabStore<String>(1);
+    }
+
+    @Test
+    public void testPut_roundTrip() {
+        // Setup
+        slabStore = new SlabStore<String>(2 * SlabStore.SLAB_SIZE);
+        byte[] small = value(10, 1);
+        byte[] large = value(100000, 2);
+
+        // Run
+        slabStore.put("small", small, NEVER);
+        slabStore.put("large", large, NEVER);
+
+        // Verify
+        assertArrayEquals("Small value should be read back", small, slabStore.get("small", 0));
+        assertArrayEquals("Large value should be read back", large, slabStore.get("large", 0));
+        assertEquals("Used bytes should be the sum of the value sizes", 100010, slabStore.getUsedBytes());
+        assertEquals("Store should hold 2 values", 2, slabStore.size());
+    }
+
+    @Test
+    public void testPut_replace() {
+        // Setup
+        slabStore = new SlabStore<String>(2 * SlabStore.SLAB_SIZE);
+        slabStore.put("a", value(10, 1), NEVER);
+        byte[] replacement = value(2000, 2);
+
+        // Run
+        slabStore.put("a", replacement, NEVER);
+
+        // Verify
+        assertArrayEquals("Replacement should be read back", replacement, slabStore.get("a", 0));
+        assertEquals("Used bytes should only count the replacement", 2000, slabStore.getUsedBytes());
+        assertEquals("Store should hold 1 value", 1, slabStore.size());
+    }
+
+    @Test
+    public void testPut_tooLarge() {
+        // Run
+        boolean stored = slabStore.put("a", new byte[SlabStore.SLAB_SIZE + 1], NEVER);
+
+        // Verify
+        assertFalse("Value larger than a slab should be rejected", stored);
+        assertNull("Rejected value should not be stored", slabStore.get("a", 0));
+    }
+
+    @Test
+    public void testPut_slabSizedValue() {
+        // Setup
+        byte[] value = value(SlabStore.SLAB_SIZE, 3);
+
+        // Run
+        boolean stored = slabStore.put("a", value, NEVER);
+
+        // Verify
+        assertTrue("Value as large as a slab should be stored", stored);
+        assertArrayEquals("Slab-sized value should be read back", value, slabStore.get("a", 0));
+    }
+
+    @Test
+    public void testRemove() {
+        // Setup
+        slabStore.put("a", value(10, 1), NEVER);
+
+        // Run
+        boolean removed = slabStore.remove("a");
+
+        // Verify
+        assertTrue("remove should report the removed value", removed);
+        assertNull("Removed value should not be returned", slabStore.get("a", 0));
+        assertEquals("Used bytes should be released", 0, slabStore.getUsedBytes());
+        assertFalse("Removing a missing value should report nothing removed", slabStore.remove("a"));
+    }
+
+    @Test
+    public void testGet_expired() {
+        // Setup
+        slabStore.put("a", value(10, 1), 1000);
+
+        // Run
+        byte[] beforeDeadline = slabStore.get("a", 999);
+        long deadline = slabStore.getDeadline("a");
+        byte[] afterDeadline = slabStore.get("a", 1000);
+
+        // Verify
+        assertNotNull("Value should be returned before its deadline", beforeDeadline);
+        assertEquals("Deadline should be kept", 1000, deadline);
+        assertNull("Expired value should not be returned", afterDeadline);
+        assertFalse("Expired value should not be contained", slabStore.contains("a", 1000));
+        assertEquals("Expired value should be released on access", 0, slabStore.size());
+    }
+
+    @Test
+    public void testPut_evictsLeastRecentlyUsedOfSizeClass() {
+        // Setup
+        slabStore.put("key0", value(1000, 0), NEVER);
+        int count = 1;
+
+        // Run
+        while (slabStore.size() == count) {
+            slabStore.get("key0", 0);
+            slabStore.put("key" + count, value(1000, count), NEVER);
+            count++;
+        }
+
+        // Verify
+        assertNotNull("Recently read value should survive the eviction", slabStore.get("key0", 0));
+        assertNull("Least recently used value should be evicted", slabStore.get("key1", 0));
+        assertArrayEquals("Latest value should be stored", value(1000, count - 1),
+                slabStore.get("key" + (count - 1), 0));
+        assertTrue("Store should stay within its single slab", slabStore.getUsedBytes() <= SlabStore.SLAB_SIZE);
+    }
+
+    @Test
+    public void testPut_reassignsSlab() {
+        // Setup
+        for (int i = 0; i < 100; i++)
+            slabStore.put("small" + i, value(64, i), NEVER);
+        byte[] large = value(600000, 7);
+
+        // Run
+        boolean stored = slabStore.put("large", large, NEVER);
+
+        // Verify
+        assertTrue("Slab should be reassigned to the larger size class", stored);
+        assertArrayEquals("Large value should be read back", large, slabStore.get("large", 0));
+        assertNull("Values on the reassigned slab should be evicted", slabStore.get("small0", 0));
+        assertEquals("Only the large value should remain", 1, slabStore.size());
+        assertEquals("Used bytes should only count the large value", 600000, slabStore.getUsedBytes());
+    }
+
+    @Test
+    public void testTrim() {
+        // Setup
+        for (int i = 0; i < 10; i++)
+            slabStore.put("key" + i, value(10, i), NEVER);
+        slabStore.get("key0", 0);
+
+        // Run
+        slabStore.trim(0.5f);
+
+        // Verify
+        assertEquals("Half of the values should be removed", 5, slabStore.size());
+        assertNotNull("Recently read value should be kept", slabStore.get("key0", 0));
+        assertNull("Least recently used value should be removed", slabStore.get("key1", 0));
+        assertEquals("Used bytes should be released", 50, slabStore.getUsedBytes());
+    }
+
+    @Test
+    public void testTrim_all() {
+        // Setup
+        slabStore.put("a", value(10, 1), NEVER);
+
+        // Run
+        slabStore.trim(1);
+        boolean stored = slabStore.put("b", value(10, 2), NEVER);
+
+        // Verify
+        assertNull("Trimmed value should be removed", slabStore.get("a", 0));
+        assertTrue("Slabs should be allocated again after releasing them", stored);
+        assertEquals("Store should hold the new value only", 1, slabStore.size());
+    }
+
+    @Test
+    public void testClear() {
+        // Setup
+        slabStore.put("a", value(10, 1), NEVER);
+        slabStore.put("b", value(1000, 2), NEVER);
+
+        // Run
+        slabStore.clear();
+
+        // Verify
+        assertEquals("Store should be empty", 0, slabStore.size());
+        assertEquals("Used bytes should be released", 0, slabStore.getUsedBytes());
+        assertNull("Cleared value should not be returned", slabStore.get("a", 0));
+    }
+
+    @Test
+    public void testCapacity() {
+        // Run
+        SlabStore<String> store = new SlabStore<String>(SlabStore.SLAB_SIZE + 1);
+
+        // Verify
+        assertEquals("Capacity should be rounded up to whole slabs", 2L * SlabStore.SLAB_SIZE, store.getCapacity());
+    }
+
+    private static byte[] value(int length, int seed) {
+        byte[] value = new byte[length];
+        Arrays.fill(value, (byte) seed);
+        if (length > 0)
+            value[0] = (byte) (seed >>> 8);
+        return value;
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class StatsCounterTest {
+
+    private static final double DELTA = 1e-9;
+
+    private StatsCounter statsCounter;
+
+    @Before
+    public void setup() {
+        statsCounter = new StatsCounter();
+    }
+
+    @Test
+    public void testSnapshot_lookups() {
+        // Setup
+        statsCounter.recordMemoryHit();
+        statsCounter.recordMemoryHit();
+        statsCounter.recordDiskHit();
+        statsCounter.recordMiss();
+
+        // Run
+        CacheStats stats = statsCounter.snapshot();
+
+        // Verify
+        assertEquals("Memory hits should be counted", 2, stats.memoryHitCount());
+        assertEquals("Disk hits should be counted", 1, stats.diskHitCount());
+        assertEquals("Hits should include both tiers", 3, stats.hitCount());
+        assertEquals("Misses should be counted", 1, stats.missCount());
+        assertEquals("Requests should include hits and misses", 4, stats.requestCount());
+        assertEquals("Hit rate should be the ratio of hits to requests", 0.75, stats.hitRate(), DELTA);
+    }
+
+    @Test
+    public void testSnapshot_noLookups() {
+        // Run
+        CacheStats stats = statsCounter.snapshot();
+
+        // Verify
+        assertEquals("Hit rate without lookups should be 1", 1.0, stats.hitRate(), DELTA);
+        assertEquals("False positive rate without lookups should be 0", 0.0, stats.diskProbeFalsePositiveRate(),
+                DELTA);
+        assertEquals("Load latency without samples should have a mean of 0", 0.0, stats.loadLatency().meanNanos(),
+                DELTA);
+        assertEquals("Load latency without samples should have percentiles of 0", 0,
+                stats.loadLatency().percentileNanos(99));
+    }
+
+    @Test
+    public void testSnapshot_loads() {
+        // Setup
+        statsCounter.recordLoadSuccess(100);
+        statsCounter.recordLoadSuccess(300);
+        statsCounter.recordLoadFailure(200);
+
+        // Run
+        CacheStats stats = statsCounter.snapshot();
+
+        // Verify
+        assertEquals("Successful loads should be counted", 2, stats.loadSuccessCount());
+        assertEquals("Failed loads should be counted", 1, stats.loadFailureCount());
+        assertEquals("Every load should be sampled", 3, stats.loadLatency().count());
+        assertEquals("Load latencies should be summed", 600, stats.loadLatency().totalNanos());
+        assertEquals("Mean load latency should be computed", 200.0, stats.loadLatency().meanNanos(), DELTA);
+    }
+
+    @Test
+    public void testSnapshot_removals() {
+        // Setup
+        statsCounter.recordRemoval(RemovalCause.EXPLICIT);
+        statsCounter.recordRemoval(RemovalCause.REPLACED);
+        statsCounter.recordRemovals(RemovalCause.SIZE, 3);
+        statsCounter.recordRemoval(RemovalCause.EXPIRED);
+
+        // Run
+        CacheStats stats = statsCounter.snapshot();
+
+        // Verify
+        assertEquals("Explicit removals should be counted", 1, stats.removalCount(RemovalCause.EXPLICIT));
+        assertEquals("Batched removals should be counted", 3, stats.removalCount(RemovalCause.SIZE));
+        assertEquals("Evictions should exclude explicit removals and replacements", 4, stats.evictionCount());
+    }
+
+    @Test
+    public void testSnapshot_tierRemovals() {
+        // Setup
+        StatsCounter tier = new StatsCounter();
+        tier.recordRemoval(RemovalCause.SIZE);
+        statsCounter.recordRemoval(RemovalCause.SIZE);
+        statsCounter.recordRemoval(RemovalCause.DISK_TRIM);
+
+        // Run
+        CacheStats stats = statsCounter.snapshot(tier.snapshot());
+
+        // Verify
+        assertEquals("Removals of both tiers should be added", 2, stats.removalCount(RemovalCause.SIZE));
+        assertEquals("Removals of one tier should be kept", 1, stats.removalCount(RemovalCause.DISK_TRIM));
+    }
+
+    @Test
+    public void testSnapshot_diskProbes() {
+        // Setup
+        statsCounter.recordDiskProbeSkipped();
+        statsCounter.recordDiskProbeSkipped();
+        statsCounter.recordDiskProbeSkipped();
+        statsCounter.recordDiskProbeFalsePositive();
+
+        // Run
+        CacheStats stats = statsCounter.snapshot();
+
+        // Verify
+        assertEquals("Skipped probes should be counted", 3, stats.diskProbeSkipCount());
+        assertEquals("False positives should be counted", 1, stats.diskProbeFalsePositiveCount());
+        assertEquals("False positive rate should be the share of absent lookups which probed the disk", 0.25,
+                stats.diskProbeFalsePositiveRate(), DELTA);
+    }
+
+    @Test
+    public void testLatency_percentiles() {
+        // Setup
+        for (int i = 0; i < 99; i++)
+            statsCounter.recordRead(100);
+        statsCounter.recordRead(1000000);
+        statsCounter.recordWrite(0);
+
+        // Run
+        CacheStats stats = statsCounter.snapshot();
+
+        // Verify
+        assertEquals("Median should be bounded by the bucket holding 100ns", 127,
+                stats.readLatency().percentileNanos(50));
+        assertEquals("99th percentile should still be in the 100ns bucket", 127,
+                stats.readLatency().percentileNanos(99));
+        assertEquals("Maximum should be bounded by the bucket holding 1ms", (1L << 20) - 1,
+                stats.readLatency().percentileNanos(100));
+        assertEquals("Samples should be counted in power-of-two buckets", 99,
+                stats.readLatency().bucketCounts()[6]);
+        assertEquals("Samples of 0ns should be counted in the first bucket", 1,
+                stats.writeLatency().bucketCounts()[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLatency_invalidPercentile() {
+        // Run
+        statsCounter.snapshot().readLatency().percentileNanos(101);
+
+        // Verify
+        assertTrue("percentileNanos should throw an IllegalArgumentException", false);
+    }
+
+    @Test
+    public void testStripedCounter_concurrentIncrements() throws InterruptedException {
+        // Setup
+        final StripedCounter counter = new StripedCounter();
+        final int threads = 8;
+        final int increments = 10000;
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            writers.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < increments; j++)
+                        counter.increment();
+                    counter.add(-1);
+                }
+            });
+        }
+
+        // Run
+        for (Thread writer : writers)
+            writer.start();
+        for (Thread writer : writers)
+            writer.join();
+
+        // Verify
+        assertEquals("Striped counter should sum the increments of every thread",
+                threads * (increments - 1), counter.sum());
+    }
+
+    @Test
+    public void testSnapshot_immutable() {
+        // Setup
+        statsCounter.recordMemoryHit();
+        CacheStats stats = statsCounter.snapshot();
+
+        // Run
+        statsCounter.recordMemoryHit();
+        stats.readLatency().bucketCounts()[0] = 42;
+
+        // Verify
+        assertEquals("Snapshot should not change after it was taken", 1, stats.memoryHitCount());
+        assertEquals("Bucket counts should be returned as a copy", 0, stats.readLatency().bucketCounts()[0]);
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DiskStore.Codec} encoding {@link String} values as UTF-8.
+ */
+class StringCodec implements DiskStore.Codec<String> {
+
+    @Override
+    public String readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return readStream(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void writeFile(File file, String value) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            writeStream(out, value);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public String readStream(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        return out.toString("UTF-8");
+    }
+
+    @Override
+    public void writeStream(OutputStream out, String value) throws IOException {
+        out.write(value.getBytes("UTF-8"));
+    }
+
+    @Override
+    public String readBuffer(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class TimingWheelTest {
+
+    private TimingWheel timingWheel;
+    private RecordingHandler handler;
+    private TimingWheel.Owner owner;
+
+    @Before
+    public void setup() {
+        timingWheel = TimingWheel.getInstance();
+        handler = new RecordingHandler();
+        owner = timingWheel.register(handler);
+    }
+
+    @Test
+    public void testSchedule_expires() throws InterruptedException {
+        // Setup
+        long deadline = System.currentTimeMillis() + 100;
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(owner, deadline);
+
+        // Run
+        timingWheel.schedule(timeout);
+
+        // Verify
+        assertTrue("Timeout should expire", handler.awaitExpirations(1, 3000));
+        assertEquals("Handler should be notified of the scheduled timeout", timeout, handler.expired().get(0));
+        assertTrue("Timeout should not expire before its deadline", handler.expiredAt().get(0) > deadline);
+    }
+
+    @Test
+    public void testSchedule_rescheduledLater() throws InterruptedException {
+        // Setup
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(owner, System.currentTimeMillis() + 100);
+        timingWheel.schedule(timeout);
+        long deadline = System.currentTimeMillis() + 2500;
+        timeout.setDeadline(deadline);
+
+        // Run
+        timingWheel.schedule(timeout);
+
+        // Verify
+        assertFalse("Timeout should not expire at its original deadline", handler.awaitExpirations(1, 1500));
+        assertTrue("Timeout should expire at its new deadline", handler.awaitExpirations(1, 3000));
+        assertTrue("Timeout should not expire before its new deadline", handler.expiredAt().get(0) > deadline);
+        assertEquals("Timeout should expire once", 1, handler.expired().size());
+    }
+
+    @Test
+    public void testSchedule_rescheduledEarlier() throws InterruptedException {
+        // Setup
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(owner, System.currentTimeMillis() + 60000);
+        timingWheel.schedule(timeout);
+        timeout.setDeadline(System.currentTimeMillis() + 100);
+
+        // Run
+        timingWheel.schedule(timeout);
+
+        // Verify
+        assertTrue("Timeout should expire at its new deadline", handler.awaitExpirations(1, 3000));
+        assertEquals("Timeout should expire once", 1, handler.expired().size());
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        // Setup
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(owner, System.currentTimeMillis() + 100);
+        timingWheel.schedule(timeout);
+
+        // Run
+        boolean cancelled = timingWheel.cancel(timeout);
+
+        // Verify
+        assertTrue("cancel should return true for a scheduled timeout", cancelled);
+        assertFalse("cancel should return false for a cancelled timeout", timingWheel.cancel(timeout));
+        assertFalse("Cancelled timeout should not expire", handler.awaitExpirations(1, 2100));
+    }
+
+    private static class RecordingHandler implements TimingWheel.ExpirationHandler {
+
+        private final List<TimingWheel.Timeout> mExpired = new ArrayList<TimingWheel.Timeout>();
+        private final List<Long> mExpiredAt = new ArrayList<Long>();
+
+        @Override
+        public synchronized void onExpired(TimingWheel.Timeout timeout) {
+            mExpired.add(timeout);
+            mExpiredAt.add(System.currentTimeMillis());
+            notifyAll();
+        }
+
+        synchronized boolean awaitExpirations(int count, long timeoutMillis) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeoutMillis;
+            while (mExpired.size() < count) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                    return false;
+                wait(wait);
+            }
+            return true;
+        }
+
+        synchronized List<TimingWheel.Timeout> expired() {
+            return new ArrayList<TimingWheel.Timeout>(mExpired);
+        }
+
+        synchronized List<Long> expiredAt() {
+            return new ArrayList<Long>(mExpiredAt);
+        }
+
+    }
+
+}
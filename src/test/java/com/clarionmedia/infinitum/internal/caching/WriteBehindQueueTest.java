@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2013 Clarion Media, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.clarionmedia.infinitum.internal.caching;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class WriteBehindQueueTest {
+
+    private static final String BLOCKING = "blocking";
+    private static final String REENQUEUING = "reenqueuing";
+
+    private Object lock;
+    private RecordingWriter writer;
+    private WriteBehindQueue<String> writeBehindQueue;
+
+    @Before
+    public void setup() {
+        lock = new Object();
+        writer = new RecordingWriter(lock);
+        writeBehindQueue = new WriteBehindQueue<String>(writer, lock);
+        writer.mQueue = writeBehindQueue;
+    }
+
+    @After
+    public void tearDown() {
+        writer.mRelease.countDown();
+    }
+
+    @Test
+    public void testFlush_coalescesWrites() throws InterruptedException {
+        // Setup
+        blockFlusher();
+        writeBehindQueue.enqueueWrite("a", "1", 100);
+        writeBehindQueue.enqueueWrite("a", "2", 200);
+        writeBehindQueue.enqueueDelete("b");
+
+        // Run
+        writer.mRelease.countDown();
+        writeBehindQueue.awaitQuiescence();
+
+        // Verify
+        assertEquals("Only the latest operation on each entry should be applied",
+                Arrays.asList("write blocking=0@0", "write a=2@200", "delete b"), writer.operations());
+        assertEquals("No operations should be pending after the flush", 0, writeBehindQueue.size());
+    }
+
+    @Test
+    public void testGet_pending() throws InterruptedException {
+        // Setup
+        blockFlusher();
+
+        // Run
+        writeBehindQueue.enqueueWrite("a", "1", 100);
+        writeBehindQueue.enqueueDelete("b");
+
+        // Verify
+        assertEquals("Pending write should be returned", "1", writeBehindQueue.get("a").mValue);
+        assertEquals("Pending write should keep its deadline", 100, writeBehindQueue.get("a").mDeadline);
+        assertNull("Pending deletion should have no value", writeBehindQueue.get("b").mValue);
+        assertEquals("Operation being flushed should be returned", "0", writeBehindQueue.get(BLOCKING).mValue);
+        assertNull("Unknown entry should have no pending operation", writeBehindQueue.get("c"));
+    }
+
+    @Test
+    public void testFlush_callingThread() {
+        // Setup
+        writer.mRelease.countDown();
+        writeBehindQueue.enqueueWrite("a", "1", 100);
+
+        // Run
+        writeBehindQueue.flush();
+
+        // Verify
+        assertEquals("flush should apply pending operations before returning",
+                Arrays.asList("write a=1@100"), writer.operations());
+        assertNull("Flushed operation should not be pending", writeBehindQueue.get("a"));
+    }
+
+    @Test
+    public void testDiscard() throws InterruptedException {
+        // Setup
+        blockFlusher();
+        writeBehindQueue.enqueueWrite("a", "1", 100);
+        writeBehindQueue.enqueueDelete("b");
+        Thread discarder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBehindQueue.discard();
+            }
+        });
+
+        // Run
+        discarder.start();
+        while (writeBehindQueue.size() > 0)
+            Thread.sleep(10);
+        Thread.sleep(50);
+        boolean waited = discarder.isAlive();
+        writer.mRelease.countDown();
+        discarder.join(5000);
+
+        // Verify
+        assertTrue("discard should wait for the operation in progress", waited);
+        assertFalse("discard should return once the operation in progress completed", discarder.isAlive());
+        assertEquals("Discarded operations should not be applied", Arrays.asList("write blocking=0@0"),
+                writer.operations());
+        assertNull("Discarded operation should not be pending", writeBehindQueue.get("a"));
+        assertEquals("No operations should be pending after discard", 0, writeBehindQueue.size());
+    }
+
+    @Test
+    public void testFlush_holdsLock() {
+        // Setup
+        writer.mRelease.countDown();
+        writeBehindQueue.enqueueWrite("a", "1", 100);
+        writeBehindQueue.enqueueDelete("b");
+
+        // Run
+        writeBehindQueue.flush();
+
+        // Verify
+        assertEquals("flush should apply every operation", Arrays.asList("write a=1@100", "delete b"),
+                writer.operations());
+        assertTrue("Operations should be applied while holding the lock", writer.mAlwaysLocked);
+    }
+
+    @Test(timeout = 5000)
+    public void testFlush_whileFlusherWaitsForLock() throws InterruptedException {
+        // Setup
+        writer.mRelease.countDown();
+        synchronized (lock) {
+            writeBehindQueue.enqueueWrite("a", "1", 100);
+            // Let the background flusher block on the lock
+            Thread.sleep(100);
+
+            // Run
+            writeBehindQueue.flush();
+
+            // Verify
+            assertEquals("flush should apply the operation on the calling thread",
+                    Arrays.asList("write a=1@100"), writer.operations());
+            assertNull("Flushed operation should not be pending", writeBehindQueue.get("a"));
+        }
+        writeBehindQueue.awaitQuiescence();
+        assertEquals("Background flusher should not apply the operation again", Arrays.asList("write a=1@100"),
+                writer.operations());
+    }
+
+    @Test
+    public void testFlush_operationEnqueuedWhileApplying() {
+        // Setup
+        writer.mRelease.countDown();
+        writeBehindQueue.enqueueWrite(REENQUEUING, "1", 100);
+
+        // Run
+        writeBehindQueue.flush();
+
+        // Verify
+        assertEquals("Operation enqueued while applying the previous one should be applied after it",
+                Arrays.asList("write reenqueuing=1@100", "delete reenqueuing"), writer.operations());
+        assertNull("No operation should be pending", writeBehindQueue.get(REENQUEUING));
+    }
+
+    /**
+     * Enqueues a write which blocks the flusher until the writer is released.
+     */
+    private void blockFlusher() throws InterruptedException {
+        writeBehindQueue.enqueueWrite(BLOCKING, "0", 0);
+        assertTrue("Flusher should start", writer.mBlocked.await(5, TimeUnit.SECONDS));
+    }
+
+    private static class RecordingWriter implements WriteBehindQueue.Writer<String> {
+
+        private final CountDownLatch mBlocked = new CountDownLatch(1);
+        private final CountDownLatch mRelease = new CountDownLatch(1);
+        private final List<String> mOperations = new ArrayList<String>();
+        private final Object mLock;
+        private WriteBehindQueue<String> mQueue;
+        private volatile boolean mAlwaysLocked = true;
+
+        RecordingWriter(Object lock) {
+            mLock = lock;
+        }
+
+        @Override
+        public void write(String name, String value, long deadline) {
+            if (REENQUEUING.equals(name))
+                mQueue.enqueueDelete(name);
+            if (BLOCKING.equals(name)) {
+                mBlocked.countDown();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            record("write " + name + "=" + value + "@" + deadline);
+        }
+
+        @Override
+        public void delete(String name) {
+            record("delete " + name);
+        }
+
+        private synchronized void record(String operation) {
+            if (!Thread.holdsLock(mLock))
+                mAlwaysLocked = false;
+            mOperations.add(operation);
+        }
+
+        synchronized List<String> operations() {
+            return new ArrayList<String>(mOperations);
+        }
+
+    }
+
+}